@@ -1,17 +1,38 @@
 package e93.assembler;
 
 import e93.assembler.ast.AddImmediate;
+import e93.assembler.ast.Align;
 import e93.assembler.ast.And;
-import e93.assembler.ast.AssemblyVisitor;
+import e93.assembler.ast.Asciiz;
+import e93.assembler.ast.DataBlock;
 import e93.assembler.ast.ErrorLine;
 import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
 import e93.assembler.ast.LoadWord;
 import e93.assembler.ast.OrImmediate;
+import e93.assembler.ast.Space;
 import e93.assembler.ast.StoreWord;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.Profile;
 
-import java.io.File;
-import java.io.FileReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A starting point for an assembler. Very bare bones.
@@ -28,6 +49,66 @@ public class Assembler {
 
     private static final int IMMEDIATE_MASK = 0xff;
 
+    private static final int FUNC_MASK = 0xf;
+
+    /**
+     * The byte address of a jump target, before its low bit is dropped
+     */
+    private static final int JUMP_MASK = 0x1fff;
+
+    /**
+     * Where each field of an instruction goes, indexed by the ordinal of its
+     * OpCode. The opcode is always bits 15..12, r1 is bits 11..8, r2 is bits
+     * 7..4 and the func code is bits 3..0. The mask is the largest value
+     * that fits in the field, a value with any other bit set is rejected
+     * rather than spilling into the fields next to it. A mask of 0 means the
+     * opcode doesn't have that field and whatever's passed for it is ignored.
+     */
+    private static final FieldLayout[] LAYOUTS = new FieldLayout[OpCode.values().length];
+
+    static {
+        for (OpCode opCode : OpCode.values()) {
+            FieldLayout layout;
+            switch (opCode) {
+                case ALU:
+                    layout = new FieldLayout(REGISTER_MASK, REGISTER_MASK, FUNC_MASK, 0, 0);
+                    break;
+                case ADDI:
+                case ORI:
+                    layout = new FieldLayout(REGISTER_MASK, 0, 0, IMMEDIATE_MASK, 0);
+                    break;
+                case SW:
+                case LW:
+                    layout = new FieldLayout(REGISTER_MASK, REGISTER_MASK, 0, 0, 0);
+                    break;
+                case J:
+                    // the jump target is always word aligned so its low bit
+                    // isn't stored, which leaves 12 bits for the rest
+                    layout = new FieldLayout(0, 0, 0, JUMP_MASK, 1);
+                    break;
+                default:
+                    throw new IllegalStateException("no field layout for " + opCode);
+            }
+            LAYOUTS[opCode.ordinal()] = layout;
+        }
+    }
+
+    private static final class FieldLayout {
+        final int r1Mask;
+        final int r2Mask;
+        final int funcMask;
+        final int immediateMask;
+        final int immediateShift;
+
+        FieldLayout(int r1Mask, int r2Mask, int funcMask, int immediateMask, int immediateShift) {
+            this.r1Mask = r1Mask;
+            this.r2Mask = r2Mask;
+            this.funcMask = funcMask;
+            this.immediateMask = immediateMask;
+            this.immediateShift = immediateShift;
+        }
+    }
+
     /**
      * Encodes an instruction in order to write it to a MIF file or similar.
      *
@@ -43,59 +124,239 @@ public class Assembler {
             throw new RuntimeException("[" + ((ErrorLine) instruction).getErrorMessage() + "]");
         }
 
-        assert instruction.getOpcode() != null;
+        OpCode opCode = instruction.getOpcode();
+        if (opCode == null) {
+            throw new IllegalArgumentException("unhandled instruction:" + instruction);
+        }
+        int r1 = 0;
+        int r2 = 0;
+        int immediate = 0;
+        switch (opCode) {
+            case ALU:
+                And and = (And) instruction;
+                r1 = and.getR1();
+                r2 = and.getR2();
+                break;
+            case ADDI:
+                AddImmediate addImmediate = (AddImmediate) instruction;
+                r1 = addImmediate.getR1();
+                immediate = addImmediate.getImmediate();
+                break;
+            case ORI:
+                OrImmediate ori = (OrImmediate) instruction;
+                r1 = ori.getR1();
+                immediate = ori.getImmediate();
+                break;
+            case SW:
+                StoreWord sw = (StoreWord) instruction;
+                r1 = sw.getR1();
+                r2 = sw.getR2();
+                break;
+            case LW:
+                LoadWord lw = (LoadWord) instruction;
+                r1 = lw.getR1();
+                r2 = lw.getR2();
+                break;
+            case J:
+                immediate = ((JumpImmediate) instruction).getImmediate();
+                break;
+            default:
+                throw new IllegalArgumentException("unhandled instruction:" + instruction);
+        }
+        return encode(opCode, r1, r2, instruction.getFunc(), immediate);
+    }
 
-        Integer encoded = instruction.accept(new AssemblyVisitor<Integer>() {
-            @Override
-            public Integer visit(And and) {
-                return // opcode is bits 15..12
-                        and.getOpcode().getValue() << 12 |
-                                // r1 is bits 11..8
-                                and.getR1() << 8 |
-                                // r2 is bits 7..4
-                                and.getR2() << 4 |
-                                // func is bits 3..0
-                                instruction.getFunc();
-            }
+    /**
+     * Encodes an instruction from its fields. Fields that the opcode doesn't
+     * have are ignored.
+     *
+     * @param opCode opcode for the instruction
+     * @param r1 first register
+     * @param r2 second register
+     * @param func function code
+     * @param immediate immediate value, for a jump this is the target address
+     * @return integer version of the instruction
+     * @throws IllegalArgumentException if a field doesn't fit in its bits
+     */
+    public static int encode(OpCode opCode, int r1, int r2, int func, int immediate) {
+        FieldLayout layout = LAYOUTS[opCode.ordinal()];
+        checkField(opCode, "r1", r1, layout.r1Mask);
+        checkField(opCode, "r2", r2, layout.r2Mask);
+        checkField(opCode, "func", func, layout.funcMask);
+        checkField(opCode, "immediate", immediate, layout.immediateMask);
+        return opCode.getValue() << 12
+                | (r1 & layout.r1Mask) << 8
+                | (r2 & layout.r2Mask) << 4
+                | (func & layout.funcMask)
+                | (immediate & layout.immediateMask) >> layout.immediateShift;
+    }
 
-            @Override
-            public Integer visit(AddImmediate addImmediate) {
-                return addImmediate.getOpcode().getValue() << 12 |
-                        addImmediate.getR1() << 8 |
-                        addImmediate.getImmediate();
-            }
+    private static void checkField(OpCode opCode, String field, int value, int mask) {
+        if (mask != 0 && (value & ~mask) != 0) {
+            throw new IllegalArgumentException(field + " out of range for " + opCode + ": 0x"
+                    + Integer.toHexString(value));
+        }
+    }
 
-            @Override
-            public Integer visit(JumpImmediate jumpImmediate) {
-                return jumpImmediate.getOpcode().getValue() << 12 |
-                        jumpImmediate.getImmediate() >> 1;
-            }
+    /**
+     * Encodes a whole program into a new image with one element per word.
+     *
+     * @param instructions instructions and directives without any errors
+     * @return the encoded program
+     */
+    public static short[] encode(List<Instruction> instructions) {
+        short[] image = new short[sizeInWords(instructions)];
+        encode(instructions, image, 0);
+        return image;
+    }
 
-            @Override
-            public Integer visit(LoadWord lw) {
-                return lw.getOpcode().getValue() << 12 |
-                        lw.getR1() << 8 |
-                        lw.getR2() << 4;
+    /**
+     * Encodes a whole program into an image with one element per word. The
+     * image must have room for all of the words.
+     *
+     * @param instructions instructions and directives without any errors
+     * @param image destination for the encoded words
+     * @param offset index in the image for the first word
+     * @return number of words written
+     */
+    public static int encode(List<Instruction> instructions, short[] image, int offset) {
+        int address = offset;
+        for (Instruction instruction : instructions) {
+            if (instruction.getOpcode() != null) {
+                image[address++] = (short) encode(instruction);
+            } else if (!(instruction instanceof Label)) {
+                // throws for errors and anything else that can't be encoded
+                int words = sizeInWords(instruction, address);
+                for (int i = 0; i < words; i++) {
+                    image[address++] = (short) dataWord(instruction, i);
+                }
             }
+        }
+        return address - offset;
+    }
 
-            @Override
-            public Integer visit(OrImmediate ori) {
-                return ori.getOpcode().getValue() << 12 |
-                        ori.getR1() << 8 |
-                        ori.getImmediate();
+    /**
+     * Encodes a whole program into a buffer starting at its position, two
+     * bytes per word in the buffer's byte order. Use
+     * {@link ByteOrder#LITTLE_ENDIAN} for the layout that the MemorySubsystem
+     * uses.
+     *
+     * @param instructions instructions and directives without any errors
+     * @param buffer destination for the encoded words
+     * @return number of words written
+     */
+    public static int encode(List<Instruction> instructions, ByteBuffer buffer) {
+        int start = buffer.position();
+        int address = 0;
+        for (Instruction instruction : instructions) {
+            if (instruction.getOpcode() != null) {
+                buffer.putShort((short) encode(instruction));
+                address++;
+            } else if (!(instruction instanceof Label)) {
+                int words = sizeInWords(instruction, address);
+                for (int i = 0; i < words; i++) {
+                    buffer.putShort((short) dataWord(instruction, i));
+                }
+                address += words;
             }
+        }
+        return (buffer.position() - start) / 2;
+    }
 
-            @Override
-            public Integer visit(StoreWord sw) {
-                return sw.getOpcode().getValue() << 12 |
-                        sw.getR1() << 8 |
-                        sw.getR2() << 4;
-            }
-        });
-        if (encoded == null) {
-            throw new IllegalArgumentException("unhandled instruction:" + instruction);
+    /**
+     * Encodes a whole program and writes it to memory starting at address 0.
+     *
+     * @param instructions instructions and directives without any errors
+     * @param memory memory to write the program to
+     * @return number of words written
+     */
+    public static int encode(List<Instruction> instructions, MemorySubsystem memory) {
+        return ProgramImage.of(instructions).loadInto(memory);
+    }
+
+    /**
+     * Returns the number of words that the instruction or directive occupies
+     * in memory. This is what determines the address of everything after it.
+     *
+     * @param instruction a parsed instruction or directive other than
+     *                    {@link Align}, whose size depends on where it is
+     * @return size in words
+     */
+    public static int sizeInWords(Instruction instruction) {
+        if (instruction instanceof Align) {
+            throw new IllegalArgumentException("size of .align depends on its address:" + instruction.getSourceLine());
+        }
+        return sizeInWords(instruction, 0);
+    }
+
+    /**
+     * Returns the number of words that the instruction or directive occupies
+     * in memory when it starts at the given address.
+     *
+     * @param instruction a parsed instruction or directive
+     * @param address address in words where it starts
+     * @return size in words
+     */
+    public static int sizeInWords(Instruction instruction, int address) {
+        if (instruction.getOpcode() != null) {
+            return 1;
+        }
+        if (instruction instanceof Asciiz) {
+            // two characters per word plus the null terminator
+            return ((Asciiz) instruction).getValue().length() / 2 + 1;
         }
-        return encoded;
+        if (instruction instanceof DataBlock) {
+            return (((DataBlock) instruction).getBytes().length + 1) / 2;
+        }
+        if (instruction instanceof Space) {
+            return (((Space) instruction).getBytes() + 1) / 2;
+        }
+        if (instruction instanceof Align) {
+            return -address & (((Align) instruction).getBoundaryInWords() - 1);
+        }
+        if (instruction instanceof Label || instruction instanceof ErrorLine) {
+            // an error takes no room so the caller gets to report it
+            return 0;
+        }
+        throw new IllegalStateException("size unknown for:" + instruction.getSourceLine());
+    }
+
+    /**
+     * @return the number of words that the whole program occupies in memory
+     */
+    public static int sizeInWords(List<Instruction> instructions) {
+        int words = 0;
+        for (Instruction instruction : instructions) {
+            words += sizeInWords(instruction, words);
+        }
+        return words;
+    }
+
+    /**
+     * Returns a word of a directive's data. Strings and data are packed two
+     * bytes per word with the first byte in the low half, the same as the
+     * little-endian layout of memory, and the words past the end of the data
+     * are 0.
+     *
+     * @param instruction a directive
+     * @param index index of the word within the directive
+     * @return the encoded word
+     */
+    public static int dataWord(Instruction instruction, int index) {
+        if (instruction instanceof Asciiz) {
+            String value = ((Asciiz) instruction).getValue();
+            int low = index * 2 < value.length() ? value.charAt(index * 2) : 0;
+            int high = index * 2 + 1 < value.length() ? value.charAt(index * 2 + 1) : 0;
+            return high << 8 | low;
+        }
+        if (instruction instanceof DataBlock) {
+            byte[] bytes = ((DataBlock) instruction).getBytes();
+            int low = index * 2 < bytes.length ? bytes[index * 2] & 0xff : 0;
+            int high = index * 2 + 1 < bytes.length ? bytes[index * 2 + 1] & 0xff : 0;
+            return high << 8 | low;
+        }
+        // .space, .align and anything else without data is zero
+        return 0;
     }
 
     /**
@@ -157,21 +418,183 @@ public class Assembler {
         throw new IllegalArgumentException("unhandled encoded instruction:" + encoded);
     }
 
+    /**
+     * Assembles all of the inputs on a pool of workers, writing each output
+     * next to its source, and reports each file.
+     *
+     * @return true if every file assembled
+     */
+    private static boolean batch(List<Path> inputs, String format, int threads, PrintStream err)
+            throws Exception {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<BatchAssembler.FileResult> results;
+        try {
+            results = new BatchAssembler(pool, format).assemble(inputs);
+        } finally {
+            pool.shutdown();
+        }
+        int failed = 0;
+        for (BatchAssembler.FileResult result : results) {
+            if (result.getErrors().isEmpty()) {
+                err.printf("%s: %d words, %.1f ms%n", result.getOutput(), result.getWords(), result.getNanos() / 1e6);
+            } else {
+                failed++;
+                for (String error : result.getErrors()) {
+                    err.println(error);
+                }
+            }
+        }
+        err.printf("%d files, %d failed, %.1f ms%n", results.size(), failed, (System.nanoTime() - start) / 1e6);
+        return failed == 0;
+    }
+
     public static void main(String[] args) throws Exception {
-        if (args == null || args.length == 0) {
-            System.err.println("must pass name of input file");
-            return;
+        int status = run(Paths.get(""), args, System.out, System.err);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the assembler the same as from the command line, this is what
+     * {@link AssemblerDaemon} runs for each request.
+     *
+     * @param dir directory that relative paths are resolved against
+     * @param args command line arguments
+     * @param out where the output goes when there's no output file, it's
+     *            flushed but not closed
+     * @param err where errors and reports go
+     * @return exit status, 0 when it assembled, 1 when the source has errors
+     *         and 2 when the command line is wrong or a file is missing
+     */
+    public static int run(Path dir, String[] args, OutputStream out, PrintStream err) throws Exception {
+        String format = "mif";
+        String output = null;
+        List<String> inputs = new ArrayList<>();
+        boolean watch = false;
+        boolean optimize = false;
+        boolean debugInfo = false;
+        String profile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("-f".equals(args[i]) && i + 1 < args.length) {
+                format = args[++i];
+            } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("-w".equals(args[i])) {
+                watch = true;
+            } else if ("-O".equals(args[i])) {
+                optimize = true;
+            } else if ("-g".equals(args[i])) {
+                debugInfo = true;
+            } else if ("-p".equals(args[i]) && i + 1 < args.length) {
+                profile = args[++i];
+            } else if ("-j".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        boolean batch = inputs.size() > 1 || (inputs.size() == 1 && Files.isDirectory(dir.resolve(inputs.get(0))));
+        if (inputs.isEmpty() || (watch && output == null) || (batch && (watch || output != null))
+                || ((optimize || profile != null || debugInfo) && (watch || batch))) {
+            err.println("usage: Assembler [-f mif|bin|hex] [-o output-file] [-w | [-p profile-file] [-O] [-g]] name-of-your-file.asm");
+            err.println("       Assembler [-f mif|bin|hex] [-j threads] file-or-directory...");
+            return 2;
+        }
+        if (!format.equals("mif") && !format.equals("bin") && !format.equals("hex")) {
+            err.println("unknown format:" + format);
+            return 2;
+        }
+        if (batch) {
+            List<Path> paths = new ArrayList<>();
+            for (String input : inputs) {
+                paths.add(dir.resolve(input));
+            }
+            return batch(paths, format, threads, err) ? 0 : 1;
+        }
+        String input = inputs.get(0);
+
+        Path file = dir.resolve(input);
+        if (!Files.isRegularFile(file)) {
+            err.println("file not found or not readable:" + input);
+            return 2;
+        }
+        if (profile != null && !Files.isRegularFile(dir.resolve(profile))) {
+            err.println("file not found or not readable:" + profile);
+            return 2;
+        }
+        if (watch) {
+            IncrementalAssembler.watch(file, dir.resolve(output), format);
+            return 0;
         }
 
-        File file = new File(args[0]);
-        if (!file.isFile()) {
-            System.err.println("file not found or not readable:" + args[0]);
-            return;
+        ParallelAssembler.Result result;
+        try (Reader fileReader = IOUtils.newSourceReader(file)) {
+            result = new ParallelAssembler(ForkJoinPool.commonPool()).assemble(fileReader);
+        }
+        if (!result.getErrors().isEmpty()) {
+            for (Instruction error : result.getErrors()) {
+                err.println(input + ":" + error.getLineNumber() + ": "
+                        + ((ErrorLine) error).getErrorMessage());
+            }
+            return 1;
+        }
+        if (profile != null) {
+            CodeLayout.Result laidOut = CodeLayout.layout(result.getInstructions(),
+                    Profile.read(dir.resolve(profile)));
+            err.println(input + ": moved " + laidOut.getMovedBlocks() + " blocks, "
+                    + laidOut.getRemovedJumps() + " jumps now fall through, "
+                    + laidOut.getJumpsSaved() + " fewer jumps run in the profile");
+            result = new ParallelAssembler.Result(laidOut.getInstructions(),
+                    encode(laidOut.getInstructions()), result.getErrors());
+        }
+        if (optimize) {
+            PeepholeOptimizer.Result optimized = PeepholeOptimizer.optimize(result.getInstructions());
+            for (PeepholeOptimizer.Change change : optimized.getChanges()) {
+                err.println(input + ":" + change.getLineNumber() + ": removed, " + change.getReason());
+            }
+            result = new ParallelAssembler.Result(optimized.getInstructions(),
+                    encode(optimized.getInstructions()), result.getErrors());
+        }
+        if (debugInfo) {
+            SourceMapWriter.write(result.getInstructions(), file.getFileName().toString(),
+                    SourceMap.sidecar(dir.resolve(output == null ? input : output)));
         }
 
-        try (FileReader fileReader = new FileReader(file)) {
-            List<Instruction> instructions = InstructionParser.parse(fileReader);
-            System.out.println(MifWriter.writeToString(instructions));
+        if (format.equals("bin")) {
+            if (output == null) {
+                BinaryWriter.write(result.getImage(), Channels.newChannel(out));
+                out.flush();
+            } else {
+                BinaryWriter.write(result.getImage(), dir.resolve(output));
+            }
+            return 0;
+        }
+        if (format.equals("mif") && result.getImage().length > MifWriter.DEPTH) {
+            err.println(input + ": program is " + result.getImage().length + " words, more than the "
+                    + MifWriter.DEPTH + " that fit in a MIF");
+            return 1;
+        }
+        if (output == null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+            write(format, result, writer);
+            writer.write(format.equals("mif") ? System.lineSeparator() : "");
+            writer.flush();
+        } else {
+            try (Writer writer = Files.newBufferedWriter(dir.resolve(output))) {
+                write(format, result, writer);
+            }
+        }
+        return 0;
+    }
+
+    private static void write(String format, ParallelAssembler.Result result, Writer writer) throws IOException {
+        if (format.equals("hex")) {
+            IntelHexWriter.write(result.getImage(), writer);
+        } else {
+            MifWriter.write(result.getInstructions(), writer);
         }
     }
 }
@@ -0,0 +1,141 @@
+package e93.assembler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Command line for the assembler that sends the request to a running
+ * {@link AssemblerDaemon}, and runs the assembler itself when there's no
+ * daemon. It takes the same arguments as {@link Assembler}.
+ *
+ * This class is what a JVM started from the command line loads, so it stays
+ * small and only touches the assembler when it has to fall back to it. It
+ * also sticks to java.io since setting up NIO's file system classes takes
+ * longer than the whole request.
+ */
+public class AssemblerClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 200;
+
+    public static void main(String[] args) throws Exception {
+        String dir = new File("").getAbsolutePath();
+        int status;
+        try {
+            if (watches(args)) {
+                // watch mode keeps running, the daemon only does one shot requests
+                throw new NotSentException(new IOException("watch mode runs here"));
+            }
+            status = send(infoFile(), "asm", dir, args, System.out, System.err);
+        } catch (NotSentException e) {
+            status = Assembler.run(Paths.get(dir), args, System.out, System.err);
+        } catch (IOException e) {
+            // the daemon may have run it already, so don't run it again
+            System.err.println("lost the connection to the daemon: " + e.getMessage());
+            status = 1;
+        }
+        System.out.flush();
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Sends the request to the daemon described in the info file.
+     *
+     * @return exit status of the request
+     * @throws NotSentException if there's no daemon or it couldn't be reached,
+     *                          the request hasn't been run in that case
+     * @throws IOException if the connection failed after the request was sent,
+     *                     the daemon may or may not have run it
+     */
+    static int send(File info, String tool, String dir, String[] args, OutputStream stdout, PrintStream stderr)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            byte[] bytes = new byte[256];
+            int length;
+            try (InputStream in = new FileInputStream(info)) {
+                length = Math.max(0, in.read(bytes));
+            }
+            String[] portAndToken = new String(bytes, 0, length, StandardCharsets.UTF_8).trim().split(" ");
+            if (portAndToken.length != 2) {
+                throw new IOException("bad daemon info file: " + info);
+            }
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndToken[0])),
+                    CONNECT_TIMEOUT_MILLIS);
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            request.writeUTF(portAndToken[1]);
+            request.writeUTF(tool);
+            request.writeUTF(dir);
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+        } catch (IOException | NumberFormatException e) {
+            socket.close();
+            throw new NotSentException(e);
+        }
+
+        try (Socket connected = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connected.getInputStream()));
+            int status = in.readInt();
+            // read the whole response before writing any of it so a
+            // connection that drops part way doesn't leave half of it
+            byte[] out = read(in);
+            byte[] err = read(in);
+            stdout.write(out);
+            stdout.flush();
+            stderr.write(err);
+            stderr.flush();
+            return status;
+        }
+    }
+
+    /**
+     * The request never got to the daemon, so it's safe to run it here
+     * instead.
+     */
+    static class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(Exception cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    static boolean watches(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("-w")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the file with the port and token of the running daemon
+     */
+    static File infoFile() {
+        return new File(System.getProperty("user.home"), ".e93-daemon");
+    }
+
+    private static byte[] read(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
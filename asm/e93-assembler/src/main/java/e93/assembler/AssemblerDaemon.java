@@ -0,0 +1,190 @@
+package e93.assembler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a warm JVM running so that assembling a small file doesn't pay for
+ * starting a JVM and loading the assembler every time.
+ *
+ * The daemon listens on a loopback port and runs each request with
+ * {@link Assembler#run} on a pool of workers. It writes its port and a random
+ * token to {@link AssemblerClient#infoFile()}, readable only by the user, and
+ * {@link AssemblerClient} has to send the token with every request so other
+ * users on the machine can't use it to write files.
+ *
+ * The protocol is one request per connection, using the DataInput and
+ * DataOutput encodings:
+ * <pre>
+ *     request:  UTF token, UTF tool, UTF working directory, int argument count, UTF arguments
+ *     response: int exit status, int length and bytes of stdout, int length and bytes of stderr
+ * </pre>
+ * The only tool is "asm".
+ */
+public class AssemblerDaemon {
+
+    /**
+     * One more than the gdb stub's default so they can both run
+     */
+    static final int DEFAULT_PORT = 9394;
+
+    /**
+     * Most arguments in a request, far more than any command line needs
+     */
+    static final int MAX_ARGS = 4096;
+
+    /**
+     * How long a connection can sit without sending anything before it's
+     * dropped, so idle connections can't tie up the workers
+     */
+    static final int READ_TIMEOUT_MILLIS = 10_000;
+
+    private final ServerSocket serverSocket;
+    private final String token;
+    private final ExecutorService pool;
+
+    public AssemblerDaemon(int port, String token, int threads) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.token = token;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts requests until the daemon is closed.
+     */
+    public void serve() throws IOException {
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                pool.execute(() -> handle(socket));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setSoTimeout(READ_TIMEOUT_MILLIS);
+            // nothing else is read until the token checks out, the time to
+            // compare mustn't depend on how much of it is right
+            if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                respond(out, 2, new byte[0], "wrong token\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String tool = in.readUTF();
+            Path dir = Paths.get(in.readUTF());
+            int count = in.readInt();
+            if (count < 0 || count > MAX_ARGS) {
+                respond(out, 2, new byte[0], ("bad argument count:" + count + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String[] args = new String[count];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            int status;
+            try (PrintStream err = new PrintStream(stderr, true, "UTF-8")) {
+                status = run(tool, dir, args, stdout, err);
+            }
+            respond(out, status, stdout.toByteArray(), stderr.toByteArray());
+        } catch (IOException | RuntimeException e) {
+            // the client went away or sent something that isn't a request,
+            // like a directory that isn't a path, nothing to tell it
+        }
+    }
+
+    private static void respond(DataOutputStream out, int status, byte[] stdout, byte[] stderr) throws IOException {
+        out.writeInt(status);
+        out.writeInt(stdout.length);
+        out.write(stdout);
+        out.writeInt(stderr.length);
+        out.write(stderr);
+    }
+
+    private int run(String tool, Path dir, String[] args, ByteArrayOutputStream stdout, PrintStream err) {
+        if (!tool.equals("asm")) {
+            err.println("unknown tool:" + tool);
+            return 2;
+        }
+        if (AssemblerClient.watches(args)) {
+            err.println("watch mode isn't supported by the daemon");
+            return 2;
+        }
+        try {
+            return Assembler.run(dir, args, stdout, err);
+        } catch (Exception e) {
+            e.printStackTrace(err);
+            return 1;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(String.format("%02x", b & 0xff));
+        }
+
+        AssemblerDaemon daemon = new AssemblerDaemon(port, token.toString(),
+                Runtime.getRuntime().availableProcessors());
+        Path info = AssemblerClient.infoFile().toPath();
+        Files.deleteIfExists(info);
+        try {
+            Files.createFile(info, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(info);
+        }
+        Files.write(info, (daemon.getPort() + " " + token + "\n").getBytes(StandardCharsets.UTF_8));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(info);
+            } catch (IOException e) {
+                // nothing else to do on the way out
+            }
+        }));
+        System.err.println("listening on 127.0.0.1:" + daemon.getPort());
+        daemon.serve();
+    }
+}
@@ -0,0 +1,148 @@
+package e93.assembler;
+
+import e93.assembler.ast.ErrorLine;
+import lombok.Value;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Assembles many files in one JVM, each file on its own task on a bounded
+ * pool of workers.
+ *
+ * Each file is parsed and encoded on a single worker so the files don't
+ * contend with each other, and the output is written next to the source with
+ * the extension of the output format, so foo.asm becomes foo.mif, foo.bin or
+ * foo.hex.
+ */
+public class BatchAssembler {
+
+    private final ExecutorService pool;
+    private final String format;
+
+    /**
+     * @param pool workers to assemble the files on, its size bounds how many
+     *             files are assembled at once
+     * @param format mif, bin or hex
+     */
+    public BatchAssembler(ExecutorService pool, String format) {
+        this.pool = pool;
+        this.format = format;
+    }
+
+    /**
+     * Assembles the files and writes their outputs. A directory stands for
+     * all of the .asm files in it and the directories under it.
+     *
+     * @return a result for each file in the order they were given, with the
+     *         files in each directory sorted by name
+     */
+    public List<FileResult> assemble(List<Path> inputs) throws IOException, InterruptedException {
+        List<Path> files = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> walk = Files.walk(input)) {
+                    files.addAll(walk
+                            .filter(path -> Files.isRegularFile(path) && path.toString().endsWith(".asm"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                files.add(input);
+            }
+        }
+
+        List<Future<FileResult>> futures = new ArrayList<>();
+        for (Path file : files) {
+            futures.add(pool.submit(() -> assemble(file)));
+        }
+        List<FileResult> results = new ArrayList<>();
+        for (Future<FileResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("assembling failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private FileResult assemble(Path file) {
+        long start = System.nanoTime();
+        Path output = outputFor(file);
+        List<Instruction> instructions;
+        try (Reader reader = IOUtils.newSourceReader(file)) {
+            instructions = InstructionParser.parse(reader);
+        } catch (IOException e) {
+            String error = file + ": error reading file: " + e.getMessage();
+            return new FileResult(file, null, Collections.singletonList(error), 0, System.nanoTime() - start);
+        }
+
+        List<String> errors = new ArrayList<>();
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof ErrorLine) {
+                errors.add(file + ":" + instruction.getLineNumber() + ": "
+                        + ((ErrorLine) instruction).getErrorMessage());
+            }
+        }
+        if (!errors.isEmpty()) {
+            return new FileResult(file, null, errors, 0, System.nanoTime() - start);
+        }
+
+        short[] image = Assembler.encode(instructions);
+        try {
+            if (format.equals("bin")) {
+                BinaryWriter.write(image, output);
+            } else {
+                try (Writer out = Files.newBufferedWriter(output)) {
+                    if (format.equals("hex")) {
+                        IntelHexWriter.write(image, out);
+                    } else {
+                        MifWriter.write(instructions, out);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            String error = file + ": error writing " + output + ": " + e.getMessage();
+            return new FileResult(file, null, Collections.singletonList(error), image.length,
+                    System.nanoTime() - start);
+        }
+        return new FileResult(file, output, Collections.emptyList(), image.length, System.nanoTime() - start);
+    }
+
+    private Path outputFor(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + "." + format);
+    }
+
+    @Value
+    public static class FileResult {
+        Path input;
+
+        /**
+         * File that was written or null if there were errors
+         */
+        Path output;
+
+        /**
+         * Errors as file:line: message, or about reading or writing the files
+         */
+        List<String> errors;
+
+        int words;
+
+        long nanos;
+    }
+}
@@ -0,0 +1,42 @@
+package e93.assembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a program as a raw image, two bytes per word in little-endian order
+ * starting at address 0. This is exactly the layout of the program in memory
+ * so loading it is a straight copy, see {@link e93.emulator.BinaryLoader}.
+ */
+public class BinaryWriter {
+
+    /**
+     * Writes the image to the channel. The channel is not closed.
+     *
+     * @param image encoded program, one element per word
+     */
+    public static void write(short[] image, WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(image.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(image);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the image to a file, replacing it if it exists.
+     *
+     * @param image encoded program, one element per word
+     */
+    public static void write(short[] image, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(image, channel);
+        }
+    }
+}
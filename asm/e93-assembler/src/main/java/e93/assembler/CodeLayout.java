@@ -0,0 +1,236 @@
+package e93.assembler;
+
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
+import e93.emulator.Profile;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reorders the code using a {@link Profile} from running the program in the
+ * emulator, so that the jumps run most often become falling through to the
+ * next instruction and the hot code ends up packed together in the first
+ * pages.
+ *
+ * The code is cut into blocks that each end with a {@code J}. There are no
+ * conditional jumps, so nothing falls out of a block and the blocks can go in
+ * any order as long as the first one stays first. Going through the jumps
+ * from the most run to the least, a block is put right before the block its
+ * jump goes to and the jump is dropped, as long as the target starts with the
+ * label and isn't already placed after something else. The chains of blocks
+ * that come out of that are laid out with the entry first and then from the
+ * hottest to the coldest. Blocks whose jumps were never run aren't joined.
+ *
+ * Only the code before the first data directive is moved. The words of the
+ * jumps that were dropped are made up with a {@code .space} so the data keeps
+ * its address, see {@link PeepholeOptimizer}. A program with a jump to a
+ * numeric address is left alone, and so is one whose labels would end up out
+ * of range.
+ */
+public class CodeLayout {
+
+    private final List<Instruction> instructions;
+    private final Profile profile;
+
+    /**
+     * The blocks as index ranges into the instructions, each ending with a J
+     * except possibly the last, which then has to stay last
+     */
+    private final List<int[]> blocks = new ArrayList<>();
+    private boolean lastFallsThrough;
+    private int codeEnd;
+
+    private CodeLayout(List<Instruction> instructions, Profile profile) {
+        this.instructions = instructions;
+        this.profile = profile;
+    }
+
+    /**
+     * Lays out the program for the profile. The instructions passed in aren't
+     * changed.
+     *
+     * @param instructions a parsed program without any errors
+     * @param profile counts for the program as it's laid out in the
+     *                instructions
+     * @return the program laid out again, or the same program if nothing
+     *         could be improved
+     * @throws IllegalArgumentException if the program has errors
+     */
+    public static Result layout(List<Instruction> instructions, Profile profile) {
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof ErrorLine) {
+                throw new IllegalArgumentException("program has errors, line " + instruction.getLineNumber());
+            }
+            if (instruction instanceof JumpImmediate && instruction.getLabel() == null) {
+                // the target is a fixed address
+                return new Result(instructions, 0, 0, 0);
+            }
+        }
+        return new CodeLayout(instructions, profile).run();
+    }
+
+    private Result run() {
+        split();
+        int count = blocks.size();
+        long[] jumpCount = new long[count];
+        long[] heat = new long[count];
+        Map<String, Integer> startsWith = new HashMap<>();
+        int address = 0;
+        for (int b = 0; b < count; b++) {
+            int[] block = blocks.get(b);
+            boolean head = true;
+            for (int i = block[0]; i < block[1]; i++) {
+                Instruction instruction = instructions.get(i);
+                if (instruction instanceof Label) {
+                    if (head) {
+                        startsWith.put(((Label) instruction).getName(), b);
+                    }
+                } else {
+                    head = false;
+                    heat[b] = Math.max(heat[b], profile.getCount(address));
+                    if (instruction instanceof JumpImmediate) {
+                        jumpCount[b] = profile.getCount(address);
+                    }
+                }
+                address += Assembler.sizeInWords(instruction, address);
+            }
+        }
+
+        // the jumps that could fall through, most run first
+        List<int[]> edges = new ArrayList<>();
+        for (int b = 0; b < count; b++) {
+            if (jumpCount[b] == 0 || (lastFallsThrough && b == count - 1)) {
+                continue;
+            }
+            int[] block = blocks.get(b);
+            Integer target = startsWith.get(instructions.get(block[1] - 1).getLabel());
+            if (target != null && target != b && target != 0 && !(lastFallsThrough && target == count - 1)) {
+                edges.add(new int[] {b, target});
+            }
+        }
+        edges.sort((x, y) -> Long.compare(jumpCount[y[0]], jumpCount[x[0]]));
+
+        int[] next = new int[count];
+        int[] previous = new int[count];
+        Arrays.fill(next, -1);
+        Arrays.fill(previous, -1);
+        int joined = 0;
+        long saved = 0;
+        for (int[] edge : edges) {
+            int from = edge[0];
+            int to = edge[1];
+            if (next[from] != -1 || previous[to] != -1 || first(previous, from) == to) {
+                continue;
+            }
+            next[from] = to;
+            previous[to] = from;
+            joined++;
+            saved += jumpCount[from];
+        }
+        if (joined == 0) {
+            return new Result(instructions, 0, 0, 0);
+        }
+
+        // the entry's chain, the rest hottest first, then the block that has to be last
+        List<Integer> chains = new ArrayList<>();
+        long[] chainHeat = new long[count];
+        for (int b = 0; b < count; b++) {
+            if (previous[b] == -1 && b != 0 && !(lastFallsThrough && b == count - 1)) {
+                chains.add(b);
+            }
+            chainHeat[first(previous, b)] = Math.max(chainHeat[first(previous, b)], heat[b]);
+        }
+        chains.sort((x, y) -> Long.compare(chainHeat[y], chainHeat[x]));
+        chains.add(0, 0);
+        if (lastFallsThrough) {
+            chains.add(count - 1);
+        }
+
+        List<Instruction> laidOut = new ArrayList<>(instructions.size());
+        boolean[] removed = new boolean[instructions.size()];
+        int moved = 0;
+        int position = 0;
+        for (int chain : chains) {
+            for (int b = chain; b != -1; b = next[b]) {
+                if (b != position++) {
+                    moved++;
+                }
+                int[] block = blocks.get(b);
+                for (int i = block[0]; i < block[1]; i++) {
+                    removed[laidOut.size()] = i == block[1] - 1 && next[b] != -1;
+                    laidOut.add(instructions.get(i));
+                }
+            }
+        }
+        for (int i = codeEnd; i < instructions.size(); i++) {
+            laidOut.add(instructions.get(i));
+        }
+        List<Instruction> result = PeepholeOptimizer.remove(laidOut, removed);
+        if (result == null) {
+            return new Result(instructions, 0, 0, 0);
+        }
+        return new Result(result, moved, joined, saved);
+    }
+
+    /**
+     * Cuts the code before the data, and the labels that name it, into blocks
+     * ending with a jump.
+     */
+    private void split() {
+        codeEnd = instructions.size();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction.getOpcode() == null && !(instruction instanceof Label)) {
+                codeEnd = i;
+                while (codeEnd > 0 && instructions.get(codeEnd - 1) instanceof Label) {
+                    codeEnd--;
+                }
+                break;
+            }
+        }
+        int start = 0;
+        for (int i = 0; i < codeEnd; i++) {
+            if (instructions.get(i) instanceof JumpImmediate) {
+                blocks.add(new int[] {start, i + 1});
+                start = i + 1;
+            }
+        }
+        if (start < codeEnd || blocks.isEmpty()) {
+            blocks.add(new int[] {start, codeEnd});
+            lastFallsThrough = true;
+        }
+    }
+
+    private static int first(int[] previous, int block) {
+        while (previous[block] != -1) {
+            block = previous[block];
+        }
+        return block;
+    }
+
+    @Value
+    public static class Result {
+        List<Instruction> instructions;
+
+        /**
+         * How many blocks aren't where they were
+         */
+        int movedBlocks;
+
+        /**
+         * How many jumps now fall through
+         */
+        int removedJumps;
+
+        /**
+         * How many times those jumps ran in the profile
+         */
+        long jumpsSaved;
+    }
+}
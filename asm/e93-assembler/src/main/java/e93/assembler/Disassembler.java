@@ -0,0 +1,507 @@
+package e93.assembler;
+
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Turns a memory image back into assembly that the {@link Assembler} takes
+ * and that assembles to the same image.
+ *
+ * The code is found by following the program from word 0 the way the CPU
+ * would, through its jumps, and each jump target gets a label named after its
+ * word address. What the program never gets to is taken as data unless it's
+ * a run of instructions that ends in a jump, which is how a block that's only
+ * reached through a register looks. Data is written as {@code .asciiz} when
+ * it's printable text with its null, {@code .space} when it's zeros and
+ * {@code .word} otherwise, so a string doesn't come out as a page of odd
+ * looking jumps.
+ *
+ * Every word is decoded through a table of all 65536 of them that's built on
+ * first use, and the lines are written as they're made, so a whole memory
+ * dump takes about as long as copying it.
+ */
+public class Disassembler {
+
+    /**
+     * What each word is, the opcode value in the low 4 bits with 0 for a word
+     * that isn't an instruction the assembler would write, then r1, r2 and
+     * for a jump the 12 bit field
+     */
+    private static final class DecodeTable {
+        static final int[] ENTRIES = build();
+
+        private static int[] build() {
+            int[] entries = new int[0x10000];
+            for (int word = 0x1000; word < 0x7000; word++) {
+                Instruction instruction;
+                try {
+                    instruction = Assembler.decode(word);
+                } catch (IllegalStateException e) {
+                    // an ALU function the CPU doesn't have
+                    continue;
+                }
+                // bits the CPU ignores make a word that doesn't come back
+                // the same, leave it as data so it does
+                if (Assembler.encode(instruction) == word) {
+                    entries[word] = instruction.getOpcode().getValue()
+                            | (word >> 8 & 0xf) << 4
+                            | (word >> 4 & 0xf) << 8
+                            | (word & 0xfff) << 12;
+                }
+            }
+            return entries;
+        }
+    }
+
+    private static final int CODE = 1;
+    private static final int STRING = 2;
+    private static final int ZEROS = 3;
+    private static final int WORDS = 4;
+
+    /**
+     * The column the address comments start in
+     */
+    private static final int COMMENT_COLUMN = 32;
+    private static final int WORDS_PER_LINE = 8;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final short[] image;
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(80);
+
+    /**
+     * What each word is and how many words the data item that starts there
+     * takes up, zero inside one
+     */
+    private final byte[] kinds;
+    private final int[] lengths;
+    private final boolean[] labels;
+
+    /**
+     * Where the last text or block that didn't pan out stopped, no word
+     * before it starts one either so it isn't scanned again
+     */
+    private int noStringBefore;
+    private int noBlockBefore;
+
+    private Disassembler(short[] image, Writer out) {
+        this.image = image;
+        this.out = out;
+        this.kinds = new byte[image.length];
+        this.lengths = new int[image.length];
+        this.labels = new boolean[image.length];
+    }
+
+    /**
+     * Writes the image as assembly.
+     *
+     * @param image encoded program, one element per word
+     */
+    public static void disassemble(short[] image, Writer out) throws IOException {
+        Disassembler disassembler = new Disassembler(image, out);
+        disassembler.findCode();
+        disassembler.findData();
+        disassembler.findLabels();
+        disassembler.write();
+        out.flush();
+    }
+
+    /**
+     * @return the decoded word as a single line of assembly, or null if it
+     *         isn't an instruction
+     */
+    public static String decode(int word) {
+        int entry = DecodeTable.ENTRIES[word & 0xffff];
+        if (entry == 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        instruction(sb, entry, 0, null);
+        return sb.toString();
+    }
+
+    /**
+     * Reads a .mif, .bin or .hex file into an image that ends at its last
+     * word that isn't zero.
+     */
+    public static short[] load(Path file) throws IOException {
+        MemorySubsystem memory = new ArrayMemory();
+        Emulator.load(file, memory);
+        byte[] bytes = memory.toBytes();
+        int length = bytes.length / 2;
+        while (length > 0 && bytes[length * 2 - 1] == 0 && bytes[length * 2 - 2] == 0) {
+            length--;
+        }
+        short[] words = new short[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = (short) ((bytes[i * 2] & 0xff) | (bytes[i * 2 + 1] & 0xff) << 8);
+        }
+        return words;
+    }
+
+    /**
+     * Follows the program from word 0 until it halts, loops back on itself or
+     * runs into a word that isn't an instruction.
+     */
+    private void findCode() {
+        int pc = 0;
+        while (pc < image.length && kinds[pc] == 0) {
+            int entry = entry(pc);
+            if (entry == 0) {
+                return;
+            }
+            kinds[pc] = CODE;
+            pc = isJump(entry) ? target(pc, entry) : pc + 1;
+        }
+    }
+
+    /**
+     * Sorts out the words the program doesn't get to.
+     */
+    private void findData() {
+        int pc = 0;
+        while (pc < image.length) {
+            if (kinds[pc] == CODE) {
+                pc++;
+                continue;
+            }
+            int length = string(pc);
+            if (length > 0) {
+                mark(pc, STRING, length);
+                pc += length;
+                continue;
+            }
+            length = 0;
+            while (pc + length < image.length && kinds[pc + length] == 0 && image[pc + length] == 0) {
+                length++;
+            }
+            if (length > 1) {
+                mark(pc, ZEROS, length);
+                pc += length;
+                continue;
+            }
+            length = block(pc);
+            if (length > 0) {
+                for (int i = pc; i < pc + length; i++) {
+                    kinds[i] = CODE;
+                }
+                pc += length;
+                continue;
+            }
+            length = 1;
+            while (length < WORDS_PER_LINE && pc + length < image.length && kinds[pc + length] == 0
+                    && string(pc + length) == 0 && block(pc + length) == 0
+                    && !(image[pc + length] == 0 && pc + length + 1 < image.length && image[pc + length + 1] == 0)) {
+                length++;
+            }
+            mark(pc, WORDS, length);
+            pc += length;
+        }
+    }
+
+    /**
+     * @return how many words the null terminated text at the word takes up,
+     *         0 if it isn't at least 4 printable characters
+     */
+    private int string(int start) {
+        if (start < noStringBefore) {
+            return 0;
+        }
+        int characters = 0;
+        int pc = start;
+        for (; pc < image.length && kinds[pc] == 0; pc++) {
+            int low = image[pc] & 0xff;
+            int high = image[pc] >> 8 & 0xff;
+            if (low == 0) {
+                if (high == 0 && characters >= 4) {
+                    return pc - start + 1;
+                }
+                break;
+            }
+            if (!printable(low)) {
+                break;
+            }
+            characters++;
+            if (high == 0) {
+                if (characters >= 4) {
+                    return pc - start + 1;
+                }
+                break;
+            }
+            if (!printable(high)) {
+                break;
+            }
+            characters++;
+        }
+        noStringBefore = pc + 1;
+        return 0;
+    }
+
+    private static boolean printable(int c) {
+        return c >= ' ' && c <= '~' && c != '"';
+    }
+
+    /**
+     * @return how many words the run of instructions at the word takes up,
+     *         0 unless it ends in a jump before anything else
+     */
+    private int block(int start) {
+        if (start < noBlockBefore) {
+            return 0;
+        }
+        int pc = start;
+        for (; pc < image.length && kinds[pc] == 0; pc++) {
+            int entry = entry(pc);
+            if (entry == 0) {
+                break;
+            }
+            if (isJump(entry)) {
+                return pc - start + 1;
+            }
+        }
+        noBlockBefore = pc + 1;
+        return 0;
+    }
+
+    private void mark(int start, int kind, int length) {
+        kinds[start] = (byte) kind;
+        lengths[start] = length;
+        for (int i = start + 1; i < start + length; i++) {
+            kinds[i] = (byte) kind;
+        }
+    }
+
+    private void findLabels() {
+        for (int pc = 0; pc < image.length; pc++) {
+            if (kinds[pc] == CODE && isJump(entry(pc)) && withinPage(entry(pc))) {
+                int target = target(pc, entry(pc));
+                if (target < image.length) {
+                    labels[target] = true;
+                }
+            }
+        }
+    }
+
+    private void write() throws IOException {
+        int pc = 0;
+        while (pc < image.length) {
+            if (labels[pc]) {
+                line.setLength(0);
+                label(line, pc);
+                line.append(':');
+                flushLine();
+            }
+            int kind = kinds[pc];
+            if (kind == CODE) {
+                line.setLength(0);
+                line.append("        ");
+                instruction(line, entry(pc), pc, labels);
+                comment(pc, 1);
+                flushLine();
+                pc++;
+                continue;
+            }
+            // a label inside the data splits it up
+            int length = lengths[pc];
+            int labelled = pc + 1;
+            while (labelled < pc + length && !labels[labelled]) {
+                labelled++;
+            }
+            if (labelled < pc + length && kind == STRING) {
+                kind = WORDS;
+            }
+            line.setLength(0);
+            line.append("        ");
+            if (kind == STRING) {
+                line.append(".asciiz \"");
+                for (int i = pc; i < pc + length; i++) {
+                    appendCharacter(image[i] & 0xff);
+                    appendCharacter(image[i] >> 8 & 0xff);
+                }
+                line.append('"');
+                comment(pc, length);
+                flushLine();
+                pc += length;
+            } else if (kind == ZEROS) {
+                line.append(".space ").append((labelled - pc) * 2);
+                comment(pc, labelled - pc);
+                flushLine();
+                if (labelled < pc + length) {
+                    lengths[labelled] = pc + length - labelled;
+                }
+                pc = labelled;
+            } else {
+                int end = Math.min(labelled, pc + WORDS_PER_LINE);
+                line.append(".word ");
+                for (int i = pc; i < end; i++) {
+                    if (i > pc) {
+                        line.append(", ");
+                    }
+                    line.append("0x");
+                    hex(line, image[i] & 0xffff, 4);
+                }
+                comment(pc, end - pc);
+                flushLine();
+                if (end < pc + length) {
+                    lengths[end] = pc + length - end;
+                    kinds[end] = (byte) WORDS;
+                }
+                pc = end;
+            }
+        }
+    }
+
+    private void appendCharacter(int c) {
+        if (c != 0) {
+            line.append((char) c);
+        }
+    }
+
+    /**
+     * Pads the line out to the comment column and adds the word address and
+     * the first word.
+     */
+    private void comment(int pc, int words) {
+        do {
+            line.append(' ');
+        } while (line.length() < COMMENT_COLUMN);
+        line.append("-- ");
+        hex(line, pc, 4);
+        if (words == 1) {
+            line.append(": ");
+            hex(line, image[pc] & 0xffff, 4);
+        } else {
+            line.append('-');
+            hex(line, pc + words - 1, 4);
+        }
+    }
+
+    private void flushLine() throws IOException {
+        line.append('\n');
+        out.append(line);
+    }
+
+    /**
+     * @param pc word address of the instruction
+     * @param labels the words with labels, null to write every jump target
+     *        as a number
+     */
+    private static void instruction(StringBuilder sb, int entry, int pc, boolean[] labels) {
+        int r1 = entry >> 4 & 0xf;
+        int r2 = entry >> 8 & 0xf;
+        switch (entry & 0xf) {
+            case 1:
+                sb.append("AND $r").append(r1).append(", $r").append(r2);
+                break;
+            case 2:
+                sb.append("ADDI $r").append(r1).append(", 0x");
+                hex(sb, entry >> 12 & 0xff, 1);
+                break;
+            case 3:
+                sb.append("ORI $r").append(r1).append(", 0x");
+                hex(sb, entry >> 12 & 0xff, 1);
+                break;
+            case 4:
+                sb.append("SW $r").append(r1).append(", $r").append(r2);
+                break;
+            case 5:
+                sb.append("LW $r").append(r1).append(", $r").append(r2);
+                break;
+            default:
+                sb.append("J ");
+                if (labels != null && withinPage(entry)) {
+                    int target = target(pc, entry);
+                    if (target < labels.length && labels[target]) {
+                        label(sb, target);
+                        break;
+                    }
+                }
+                sb.append("0x");
+                hex(sb, entry >>> 12, 1);
+        }
+    }
+
+    private int entry(int pc) {
+        return DecodeTable.ENTRIES[image[pc] & 0xffff];
+    }
+
+    private static boolean isJump(int entry) {
+        return (entry & 0xf) == OpCode.J.getValue();
+    }
+
+    /**
+     * @return false for a jump whose field has bits past the 9 bit offset,
+     *         they end up in the page so a label can't make it
+     */
+    private static boolean withinPage(int entry) {
+        return entry >>> 12 <= 0xff;
+    }
+
+    /**
+     * @return the word address the jump at the word address goes to, worked
+     *         out the way the CPU does
+     */
+    private static int target(int pc, int entry) {
+        return ((pc * 2 + 2) & 0xfe00 | (entry >>> 12) << 1) >> 1;
+    }
+
+    private static void label(StringBuilder sb, int pc) {
+        sb.append('L');
+        hex(sb, pc, 4);
+    }
+
+    /**
+     * Appends the value in lowercase hex with at least the given number of
+     * digits.
+     */
+    private static void hex(StringBuilder sb, int value, int digits) {
+        int shift = 12;
+        while (shift > 0 && digits < shift / 4 + 1 && value >> shift == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            sb.append(HEX[value >> shift & 0xf]);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String output = null;
+        String input = null;
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else {
+                input = args[i];
+            }
+        }
+        if (input == null || !(input.endsWith(".mif") || input.endsWith(".bin") || input.endsWith(".hex"))) {
+            System.err.println("usage: Disassembler [-o output-file] name-of-your-file.mif|.bin|.hex");
+            return;
+        }
+        Path file = Paths.get(input);
+        if (!Files.isRegularFile(file)) {
+            System.err.println("file not found or not readable:" + input);
+            return;
+        }
+        short[] image = load(file);
+        Writer writer = output == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)
+                : Files.newBufferedWriter(Paths.get(output));
+        try {
+            disassemble(image, writer);
+        } finally {
+            if (output != null) {
+                writer.close();
+            }
+        }
+    }
+}
@@ -6,6 +6,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class IOUtils {
 
@@ -17,6 +19,16 @@ public class IOUtils {
         return IOUtils.class.getResourceAsStream(path);
     }
 
+    /**
+     * Opens a source file in the default charset. Bytes that the charset
+     * can't decode are replaced rather than failing the whole file the way
+     * {@link Files#newBufferedReader(Path)} does, they're almost always in a
+     * comment.
+     */
+    public static BufferedReader newSourceReader(Path path) throws IOException {
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(path)));
+    }
+
     public static String readAllIntoString(final InputStream in) throws IOException {
         StringWriter sw = new StringWriter();
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(in));
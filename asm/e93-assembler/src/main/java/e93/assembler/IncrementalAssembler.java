@@ -0,0 +1,566 @@
+package e93.assembler;
+
+import e93.assembler.ast.Align;
+import e93.assembler.ast.ErrorLine;
+import lombok.Value;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps an assembled program in memory and reassembles it as the source is
+ * edited, doing work in proportion to the size of the edit rather than the
+ * size of the file.
+ *
+ * Each call to {@link #update(char[], int)} compares the new source with the
+ * previous one to find the lines that changed. Only those lines are lexed,
+ * and not even that if the same text has been seen before since parsed and
+ * encoded lines are cached by their content. The addresses after the edit are
+ * shifted, the labels and the jumps that use them are resolved again, and the
+ * range of words in the image that changed is reported so that an output
+ * file only needs to be rewritten there.
+ *
+ * The padding for a {@code .align} depends on its address, so while the
+ * program has one the lines after the edit are laid out again instead of
+ * just being shifted.
+ */
+public class IncrementalAssembler {
+
+    private static final short[] NO_WORDS = new short[0];
+
+    /**
+     * What a line of source turns into. These only depend on the text of the
+     * line so they're shared by every line with the same text.
+     */
+    private static final class ParsedLine {
+        static final ParsedLine EMPTY = new ParsedLine(null, null, null, NO_WORDS, 0);
+
+        final String label;
+        final String reference;
+        final String error;
+        /**
+         * The encoded words, a jump to a label has a placeholder that's
+         * replaced once the label is resolved
+         */
+        final short[] words;
+        /**
+         * Boundary in words for a .align, 0 for everything else
+         */
+        final int align;
+
+        ParsedLine(String label, String reference, String error, short[] words, int align) {
+            this.label = label;
+            this.reference = reference;
+            this.error = error;
+            this.words = words;
+            this.align = align;
+        }
+
+        /**
+         * @return true if the line has to be looked at when resolving labels
+         *         or collecting errors
+         */
+        boolean isSite() {
+            return label != null || reference != null || error != null;
+        }
+    }
+
+    private final LineLexer lexer = new LineLexer();
+    private final Map<String, ParsedLine> cache = new HashMap<>();
+
+    private char[] source = new char[0];
+    private int length;
+
+    private int lineCount;
+    private int[] lineStart = new int[0];
+    private int[] lineEnd = new int[0];
+    private ParsedLine[] lines = new ParsedLine[0];
+    /**
+     * Address in words of each line, with the size of the program at the end
+     */
+    private int[] address = new int[1];
+
+    private short[] image = NO_WORDS;
+    private int size;
+
+    /**
+     * Lines with labels, jumps to labels or errors in ascending order
+     */
+    private int[] sites = new int[0];
+    private int siteCount;
+
+    private List<Instruction> errors = Collections.emptyList();
+
+    /**
+     * Number of lines that are a .align
+     */
+    private int alignCount;
+
+    /**
+     * Reassembles the program from the new source. The buffer is kept until
+     * the next update so it must not be changed in the meantime.
+     *
+     * @param newSource the whole source
+     * @param newLength number of chars in the source
+     * @return what changed
+     */
+    public Update update(char[] newSource, int newLength) {
+        char[] oldSource = source;
+        int oldLength = length;
+        int oldLineCount = lineCount;
+
+        // the text that's the same at the start
+        int limit = Math.min(oldLength, newLength);
+        int prefix = 0;
+        while (prefix < limit && oldSource[prefix] == newSource[prefix]) {
+            prefix++;
+        }
+        if (prefix == oldLength && oldLength == newLength && lineCount > 0) {
+            source = newSource;
+            return new Update(0, 0, 0, size, errors);
+        }
+
+        // lines that are entirely within the same text at the start, along
+        // with their line terminators, are unchanged. A \r right before the
+        // change could turn into a \r\n so that line counts as changed.
+        int unchangedBefore = 0;
+        while (unchangedBefore < oldLineCount) {
+            int next = next(unchangedBefore);
+            if (next > prefix || (next == prefix && oldSource[next - 1] == '\r')) {
+                break;
+            }
+            unchangedBefore++;
+        }
+        int editStartChar = unchangedBefore == 0 ? 0 : next(unchangedBefore - 1);
+
+        // the text that's the same at the end, which can't reach back into
+        // the unchanged lines in the new source
+        int charShift = newLength - oldLength;
+        int suffixLimit = Math.min(oldLength, newLength - editStartChar);
+        int suffix = 0;
+        while (suffix < suffixLimit
+                && oldSource[oldLength - 1 - suffix] == newSource[newLength - 1 - suffix]) {
+            suffix++;
+        }
+
+        // lines at the end are unchanged when they're within that text and
+        // they still start a line, either because the terminator before them
+        // is also the same or because they follow the unchanged lines
+        int unchangedAfter = 0;
+        while (unchangedAfter < oldLineCount - unchangedBefore) {
+            int start = lineStart[oldLineCount - 1 - unchangedAfter];
+            if (oldLength - start > suffix
+                    || (oldLength - start == suffix && start + charShift != editStartChar)) {
+                break;
+            }
+            unchangedAfter++;
+        }
+
+        int editEndChar = unchangedAfter == 0 ? newLength : lineStart[oldLineCount - unchangedAfter] + charShift;
+        int[] edited = splitLines(newSource, editStartChar, editEndChar);
+        int newEdited = edited.length / 2;
+        int newLineCount = unchangedBefore + newEdited + unchangedAfter;
+
+        // parse the edited lines
+        ParsedLine[] parsed = new ParsedLine[newEdited];
+        int editedWords = 0;
+        for (int i = 0; i < newEdited; i++) {
+            parsed[i] = parse(newSource, edited[i * 2], edited[i * 2 + 1]);
+            editedWords += parsed[i].words.length;
+            if (parsed[i].align > 0) {
+                alignCount++;
+            }
+        }
+        for (int i = unchangedBefore; i < oldLineCount - unchangedAfter; i++) {
+            if (lines[i].align > 0) {
+                alignCount--;
+            }
+        }
+
+        // move the lines after the edit along with their words
+        int editStart = address[unchangedBefore];
+        int oldTailStart = address[oldLineCount - unchangedAfter];
+        int tailWords = size - oldTailStart;
+        int newSize = editStart + editedWords + tailWords;
+        int wordShift = newSize - size;
+        ensureLineCapacity(newLineCount);
+        if (image.length < newSize) {
+            image = Arrays.copyOf(image, Math.max(newSize, image.length * 2));
+        }
+        System.arraycopy(image, oldTailStart, image, editStart + editedWords, tailWords);
+
+        int from = oldLineCount - unchangedAfter;
+        int to = unchangedBefore + newEdited;
+        if (from != to || charShift != 0 || wordShift != 0) {
+            System.arraycopy(lineStart, from, lineStart, to, unchangedAfter);
+            System.arraycopy(lineEnd, from, lineEnd, to, unchangedAfter);
+            System.arraycopy(lines, from, lines, to, unchangedAfter);
+            System.arraycopy(address, from, address, to, unchangedAfter + 1);
+            for (int i = to; i < newLineCount; i++) {
+                lineStart[i] += charShift;
+                lineEnd[i] += charShift;
+                address[i] += wordShift;
+            }
+            address[newLineCount] += wordShift;
+        }
+        int word = editStart;
+        for (int i = 0; i < newEdited; i++) {
+            int line = unchangedBefore + i;
+            lineStart[line] = edited[i * 2];
+            lineEnd[line] = edited[i * 2 + 1];
+            lines[line] = parsed[i];
+            address[line] = word;
+            System.arraycopy(parsed[i].words, 0, image, word, parsed[i].words.length);
+            word += parsed[i].words.length;
+        }
+        for (int i = newLineCount; i < oldLineCount; i++) {
+            lines[i] = null;
+        }
+        if (alignCount > 0) {
+            newSize = layout(unchangedBefore, newLineCount);
+        }
+
+        updateSites(oldLineCount, unchangedBefore, unchangedAfter, newEdited);
+
+        source = newSource;
+        length = newLength;
+        lineCount = newLineCount;
+        size = newSize;
+
+        // resolve all of the labels again since any of them could have moved
+        List<Instruction> newErrors = new ArrayList<>();
+        int[] dirty = {editStart, wordShift == 0 && alignCount == 0 ? editStart + editedWords : newSize};
+        LabelResolver resolver = new LabelResolver(new LabelResolver.Sites() {
+            @Override
+            public void resolve(int line, int immediate) {
+                int at = address[line];
+                short encoded = (short) Assembler.encode(OpCode.J, 0, 0, 0, immediate);
+                if (image[at] != encoded) {
+                    image[at] = encoded;
+                    dirty[0] = Math.min(dirty[0], at);
+                    dirty[1] = Math.max(dirty[1], at + 1);
+                }
+            }
+
+            @Override
+            public void error(int line, String message) {
+                newErrors.add(errorLine(line, message));
+            }
+        });
+        for (int i = 0; i < siteCount; i++) {
+            int line = sites[i];
+            ParsedLine parsedLine = lines[line];
+            if (parsedLine.label != null) {
+                resolver.define(parsedLine.label, line, address[line] * 2);
+            }
+            if (parsedLine.error != null) {
+                newErrors.add(errorLine(line, parsedLine.error));
+                continue;
+            }
+            if (parsedLine.reference != null) {
+                resolver.reference(parsedLine.reference, line, address[line] * 2);
+            }
+        }
+        resolver.finish();
+        newErrors.sort(Instruction.BY_LINE_NUMBER);
+        errors = newErrors;
+
+        if (cache.size() > 4 * lineCount + 1024) {
+            cache.clear();
+        }
+        if (dirty[0] >= dirty[1]) {
+            dirty[0] = dirty[1] = 0;
+        }
+        return new Update(newEdited, dirty[0], dirty[1], size, errors);
+    }
+
+    /**
+     * Lays out the lines from the given one to the end again, writing their
+     * words to the image, for when the program has a .align.
+     *
+     * @return size of the program in words
+     */
+    private int layout(int from, int count) {
+        int word = address[from];
+        for (int i = from; i < count; i++) {
+            ParsedLine line = lines[i];
+            int words = line.align > 0 ? -word & (line.align - 1) : line.words.length;
+            if (image.length < word + words) {
+                image = Arrays.copyOf(image, Math.max(word + words, image.length * 2));
+            }
+            if (line.align > 0) {
+                Arrays.fill(image, word, word + words, (short) 0);
+            } else {
+                System.arraycopy(line.words, 0, image, word, words);
+            }
+            address[i] = word;
+            word += words;
+        }
+        address[count] = word;
+        return word;
+    }
+
+    /**
+     * Finds the lines in a range of the source, lines end the same way as for
+     * {@link InstructionParser#parseLines}
+     *
+     * @return pairs of start and end for each line, the end is before the
+     *         line terminator
+     */
+    private static int[] splitLines(char[] buf, int start, int end) {
+        int[] lines = new int[16];
+        int count = 0;
+        while (start < end) {
+            int pos = start;
+            while (pos < end && buf[pos] != '\n' && buf[pos] != '\r') {
+                pos++;
+            }
+            if (count == lines.length) {
+                lines = Arrays.copyOf(lines, count * 2);
+            }
+            lines[count++] = start;
+            lines[count++] = pos;
+            if (pos < end && buf[pos] == '\r') {
+                pos++;
+            }
+            if (pos < end && buf[pos] == '\n') {
+                pos++;
+            }
+            start = pos;
+        }
+        return Arrays.copyOf(lines, count);
+    }
+
+    /**
+     * @return offset just past the line's terminator, or past the end if the
+     *         last line doesn't have one since adding to it changes it
+     */
+    private int next(int line) {
+        if (line + 1 < lineCount) {
+            return lineStart[line + 1];
+        }
+        return lineEnd[line] < length ? length : Integer.MAX_VALUE;
+    }
+
+    private void ensureLineCapacity(int count) {
+        if (lineStart.length < count) {
+            int capacity = Math.max(count, lineStart.length * 2);
+            lineStart = Arrays.copyOf(lineStart, capacity);
+            lineEnd = Arrays.copyOf(lineEnd, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            address = Arrays.copyOf(address, capacity + 1);
+        }
+    }
+
+    private ParsedLine parse(char[] buf, int start, int end) {
+        if (start < end && buf[start] == '#') {
+            return ParsedLine.EMPTY;
+        }
+        String text = new String(buf, start, end - start);
+        ParsedLine parsed = cache.get(text);
+        if (parsed != null) {
+            return parsed;
+        }
+        lexer.lex(buf, start, end);
+        if (lexer.isEmpty()) {
+            parsed = ParsedLine.EMPTY;
+        } else if (!lexer.hasStatement()) {
+            parsed = new ParsedLine(lexer.getLabel(), null, null, NO_WORDS, 0);
+        } else if (lexer.getError() != null) {
+            parsed = new ParsedLine(lexer.getLabel(), null, lexer.getError(), NO_WORDS, 0);
+        } else {
+            Instruction instruction = InstructionParser.toInstruction(lexer);
+            if (instruction instanceof Align) {
+                parsed = new ParsedLine(lexer.getLabel(), null, null, NO_WORDS,
+                        ((Align) instruction).getBoundaryInWords());
+            } else {
+                parsed = new ParsedLine(lexer.getLabel(), instruction.getLabel(), null,
+                        Assembler.encode(Collections.singletonList(instruction)), 0);
+            }
+        }
+        cache.put(text, parsed);
+        return parsed;
+    }
+
+    /**
+     * Drops the sites in the edited lines, shifts the ones after them and adds
+     * the sites from the new lines.
+     */
+    private void updateSites(int oldLineCount, int unchangedBefore, int unchangedAfter, int newEdited) {
+        int[] newSites = new int[Math.max(16, siteCount + 16)];
+        int count = 0;
+        int i = 0;
+        while (i < siteCount && sites[i] < unchangedBefore) {
+            newSites[count++] = sites[i++];
+        }
+        int lineShift = unchangedBefore + newEdited - (oldLineCount - unchangedAfter);
+        for (int line = unchangedBefore; line < unchangedBefore + newEdited; line++) {
+            if (lines[line].isSite()) {
+                if (count == newSites.length) {
+                    newSites = Arrays.copyOf(newSites, count * 2);
+                }
+                newSites[count++] = line;
+            }
+        }
+        while (i < siteCount && sites[i] < oldLineCount - unchangedAfter) {
+            i++;
+        }
+        while (i < siteCount) {
+            if (count == newSites.length) {
+                newSites = Arrays.copyOf(newSites, count * 2);
+            }
+            newSites[count++] = sites[i++] + lineShift;
+        }
+        sites = newSites;
+        siteCount = count;
+    }
+
+    private ErrorLine errorLine(int line, String message) {
+        ErrorLine error = new ErrorLine(message);
+        error.setLineNumber(line + 1);
+        error.setSourceLine(new String(source, lineStart[line], lineEnd[line] - lineStart[line]));
+        return error;
+    }
+
+    /**
+     * @return a copy of the encoded program
+     */
+    public short[] getImage() {
+        return Arrays.copyOf(image, size);
+    }
+
+    public List<Instruction> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Parses the whole source into Instructions. This is only needed for
+     * output that includes the source, like a MIF.
+     */
+    public List<Instruction> getInstructions() throws IOException {
+        return InstructionParser.parse(new CharArrayReader(source, 0, length));
+    }
+
+    @Value
+    public static class Update {
+        /**
+         * number of lines that were lexed or found in the cache
+         */
+        int editedLines;
+
+        /**
+         * first word in the image that changed
+         */
+        int dirtyStart;
+
+        /**
+         * just past the last word in the image that changed
+         */
+        int dirtyEnd;
+
+        /**
+         * size of the image in words
+         */
+        int size;
+
+        List<Instruction> errors;
+    }
+
+    /**
+     * Watches the source file and reassembles it every time it's saved.
+     * Binary output is rewritten only where the image changed, MIF and Intel
+     * HEX are rewritten from the start since the lines in them are different
+     * lengths. This doesn't return.
+     *
+     * @param input source file
+     * @param output file to write
+     * @param format mif, bin or hex
+     */
+    public static void watch(Path input, Path output, String format) throws IOException, InterruptedException {
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        Path dir = input.toAbsolutePath().getParent();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService();
+             FileChannel binary = format.equals("bin")
+                     ? FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                     : null) {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            boolean first = true;
+            while (true) {
+                long start = System.nanoTime();
+                CharBuffer chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(input)));
+                Update update = assembler.update(chars.array(), chars.limit());
+                if (!update.getErrors().isEmpty()) {
+                    for (Instruction error : update.getErrors()) {
+                        System.err.println(input + ":" + error.getLineNumber() + ": "
+                                + ((ErrorLine) error).getErrorMessage());
+                    }
+                    // the changes weren't written so write everything next time
+                    first = true;
+                } else {
+                    if (binary != null) {
+                        int from = first ? 0 : update.getDirtyStart();
+                        int to = first ? update.getSize() : update.getDirtyEnd();
+                        ByteBuffer buffer = ByteBuffer.allocate((to - from) * 2).order(ByteOrder.LITTLE_ENDIAN);
+                        buffer.asShortBuffer().put(assembler.image, from, to - from);
+                        while (buffer.hasRemaining()) {
+                            binary.write(buffer, from * 2L + buffer.position());
+                        }
+                        binary.truncate(update.getSize() * 2L);
+                    } else {
+                        try (Writer out = Files.newBufferedWriter(output)) {
+                            if (format.equals("hex")) {
+                                IntelHexWriter.write(assembler.getImage(), out);
+                            } else {
+                                MifWriter.write(assembler.getInstructions(), out);
+                            }
+                        }
+                    }
+                    first = false;
+                    System.err.printf("%s: %d lines edited, words %04x..%04x changed, %.1f ms%n",
+                            input, update.getEditedLines(), update.getDirtyStart(), update.getDirtyEnd(),
+                            (System.nanoTime() - start) / 1e6);
+                }
+                waitForChange(watchService, input.getFileName());
+            }
+        } catch (ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private static void waitForChange(WatchService watchService, Path fileName) throws InterruptedException {
+        while (true) {
+            WatchKey key = watchService.take();
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (fileName.equals(event.context())) {
+                    changed = true;
+                }
+            }
+            key.reset();
+            if (changed) {
+                return;
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package e93.assembler;
 import e93.assembler.ast.AssemblyVisitor;
 import lombok.Data;
 
+import java.util.Comparator;
+
 /**
  * Simple data structure for an Instruction. All of the instructions in the
  * instruction set are modeled with this class.
@@ -18,6 +20,17 @@ import lombok.Data;
 @Data
 public abstract class Instruction {
 
+    /**
+     * Orders instructions by line number. This isn't a lambda since linking
+     * the first lambda is a noticeable part of the assembler's start up time.
+     */
+    public static final Comparator<Instruction> BY_LINE_NUMBER = new Comparator<Instruction>() {
+        @Override
+        public int compare(Instruction a, Instruction b) {
+            return Integer.compare(a.getLineNumber(), b.getLineNumber());
+        }
+    };
+
     /**
      * The OpCode for the instructions. All instructions have OpCodes.
      */
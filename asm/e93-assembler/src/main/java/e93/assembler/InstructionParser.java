@@ -2,91 +2,60 @@ package e93.assembler;
 
 import e93.assembler.ast.AddImmediate;
 import e93.assembler.ast.And;
+import e93.assembler.ast.Align;
 import e93.assembler.ast.Asciiz;
+import e93.assembler.ast.DataBlock;
 import e93.assembler.ast.ErrorLine;
 import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
 import e93.assembler.ast.LoadWord;
 import e93.assembler.ast.OrImmediate;
+import e93.assembler.ast.Space;
 import e93.assembler.ast.StoreWord;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.Value;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 public class InstructionParser {
-    interface SourcePattern {
-        Pattern getPattern();
-
-        default Optional<SourceMatch> matches(String line) {
-            Matcher matcher = getPattern().matcher(line);
-            if (matcher.matches()) {
-                return Optional.of(new SourceMatch(this, matcher));
-            } else {
-                return Optional.empty();
-            }
-        }
-    }
 
     @AllArgsConstructor
     @Getter
-    enum Directives implements SourcePattern {
-        ASCIIZ(".asciiz", Pattern.compile("\\.asciiz *\"([^\"]+)\""));
+    enum Directives {
+        ASCIIZ(".asciiz"),
+        WORD(".word"),
+        BYTE(".byte"),
+        SPACE(".space"),
+        ALIGN(".align"),
+        ;
         private final String name;
-        private final Pattern pattern;
-    }
-
-    @Value
-    @AllArgsConstructor
-    static class SourceMatch {
-        SourcePattern sourcePattern;
-        Matcher matcher;
-
-        int getRegister(int group) {
-            String s = getMatcher().group(group);
-            try {
-                return Integer.parseInt(s);
-            } catch (NumberFormatException e) {
-                throw new InvalidRegisterException(s);
-            }
-        }
-
-        int getImmediate(int group) {
-            String s = getMatcher().group(group);
-            if (s.startsWith("0x")) {
-                return Integer.parseInt(s.substring(2), 16);
-            } else {
-                return Integer.parseInt(s);
-            }
-        }
-
     }
 
     @AllArgsConstructor
     @Getter
-    enum Instructions implements SourcePattern {
-        AND("AND", Pattern.compile("AND \\$r([0-9]+), \\$r([0-9]+)\\s*")),
-        ADDI("ADDI", Pattern.compile("ADDI \\$r([0-9]+), (0x[0-9a-f]+)\\s*")),
-        SW("SW", Pattern.compile("SW \\$r([0-9]+), \\$r([0-9]+)\\s*")),
-        LW("LW", Pattern.compile("LW \\$r([0-9]+), \\$r([0-9]+)\\s*")),
-        JUMP("J", Pattern.compile("J (0x[0-9a-f]+)\\s*")),
-        ORI("ORI", Pattern.compile("ORI \\$r([0-9]+), (0x[0-9a-f]+)\\s*")),
+    enum Instructions {
+        AND("AND"),
+        ADDI("ADDI"),
+        SW("SW"),
+        LW("LW"),
+        JUMP("J"),
+        ORI("ORI"),
         ;
         private final String name;
-        private final Pattern pattern;
     }
 
     /**
-     * Parses the source into a list of Instructions.
+     * Parses the source into a list of Instructions. Blank lines and lines
+     * that are only a comment are skipped.
+     *
+     * Labels are resolved as the lines are parsed. Jumps to labels that have
+     * already been defined are resolved right away and jumps to labels further
+     * down are backpatched once the label is reached, so the source is only
+     * read once. Jumps that can't be resolved are replaced with an ErrorLine.
      *
      * @param reader Source for the program
      * @return list of instructions that are ready to encode
@@ -95,8 +64,12 @@ public class InstructionParser {
     public static List<Instruction> parse(Reader reader) throws IOException {
         List<Instruction> instructions = new ArrayList<>();
         BufferedReader br = new BufferedReader(reader);
+        LineLexer lexer = new LineLexer();
+        LabelResolver resolver = new LabelResolver(instructions);
+        char[] chars = new char[256];
         String line;
         int lineNumber = 0;
+        int words = 0;
         while ((line = br.readLine()) != null) {
             lineNumber++;
             if (line.startsWith("#")) {
@@ -104,13 +77,109 @@ public class InstructionParser {
                 continue;
             }
 
-            Instruction instruction = parse(line);
+            if (line.length() > chars.length) {
+                chars = new char[line.length() * 2];
+            }
+            line.getChars(0, line.length(), chars, 0);
+            lexer.lex(chars, 0, line.length());
+            if (lexer.isEmpty()) {
+                continue;
+            }
+            int first = instructions.size();
+            addStatements(lexer, lineNumber, line, instructions);
+            words = resolveLabels(resolver, instructions, first, words);
+        }
+        resolver.finish();
+
+        return instructions;
+    }
+
+    /**
+     * Parses the lines in a range of a buffer the same way that
+     * {@link #parse(Reader)} does. The range must start at the beginning of a
+     * line. Lines end with \n, \r\n or \r just like for
+     * {@link BufferedReader#readLine()}.
+     *
+     * Labels are not resolved since the range is only part of the program.
+     *
+     * @param buf buffer holding the source
+     * @param start offset of the first line
+     * @param end offset just past the last line
+     * @param firstLineNumber line number for the line at start
+     * @param instructions parsed instructions are added to this list
+     * @return number of lines in the range
+     */
+    static int parseLines(char[] buf, int start, int end, int firstLineNumber, List<Instruction> instructions) {
+        LineLexer lexer = new LineLexer();
+        int lineNumber = firstLineNumber;
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && buf[lineEnd] != '\n' && buf[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            if (lineEnd == lineStart || buf[lineStart] != '#') {
+                lexer.lex(buf, lineStart, lineEnd);
+                if (!lexer.isEmpty()) {
+                    addStatements(lexer, lineNumber, new String(buf, lineStart, lineEnd - lineStart), instructions);
+                }
+            }
+            lineNumber++;
+            lineStart = lineEnd;
+            if (lineStart < end && buf[lineStart] == '\r') {
+                lineStart++;
+            }
+            if (lineStart < end && buf[lineStart] == '\n') {
+                lineStart++;
+            }
+        }
+        return lineNumber - firstLineNumber;
+    }
+
+    /**
+     * Adds the label and the instruction from the line that the lexer just
+     * parsed.
+     */
+    private static void addStatements(LineLexer lexer, int lineNumber, String sourceLine,
+                                      List<Instruction> instructions) {
+        String label = lexer.getLabel();
+        if (label != null) {
+            Label definition = new Label(label);
+            definition.setLineNumber(lineNumber);
+            definition.setSourceLine(sourceLine);
+            instructions.add(definition);
+        }
+        if (lexer.hasStatement()) {
+            Instruction instruction = toInstruction(lexer);
             instruction.setLineNumber(lineNumber);
-            instruction.setSourceLine(line);
+            instruction.setSourceLine(sourceLine);
             instructions.add(instruction);
         }
+    }
 
-        return instructions;
+    /**
+     * Passes the label definitions and references from the given index to the
+     * end of the list to the resolver.
+     *
+     * @param words address in words of the instruction at index from
+     * @return address in words just past the last instruction
+     */
+    static int resolveLabels(LabelResolver resolver, List<Instruction> instructions, int from, int words) {
+        for (int i = from; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction instanceof ErrorLine) {
+                continue;
+            }
+            if (instruction instanceof Label) {
+                resolver.define(i, words * 2);
+                continue;
+            }
+            if (instruction.getLabel() != null) {
+                resolver.reference(i, words * 2);
+            }
+            words += Assembler.sizeInWords(instruction, words);
+        }
+        return words;
     }
 
     /**
@@ -118,62 +187,90 @@ public class InstructionParser {
      * know how to write to memory.
      * <p>
      * At this point, the instruction may refer to a label that needs to be
-     * resolved.
+     * resolved. A line with just a label definition returns the {@link Label}
+     * and a label in front of an instruction is ignored.
      *
      * @param rawLine raw line of assembly to parse into an instruction
-     * @return an instruction
-     * @throws IllegalArgumentException if the line cannot be parsed.
+     * @return an instruction or an ErrorLine if the line cannot be parsed.
      */
     public static Instruction parse(String rawLine) {
-        String line;
-        if (rawLine.contains("--")) {
-            String[] lineAndComment = rawLine.split("--");
-            line = lineAndComment[0];
-        } else {
-            line = rawLine;
+        LineLexer lexer = new LineLexer();
+        char[] chars = rawLine.toCharArray();
+        lexer.lex(chars, 0, chars.length);
+        if (lexer.isEmpty()) {
+            return new ErrorLine("Unknown instruction: " + rawLine);
         }
+        if (!lexer.hasStatement()) {
+            return new Label(lexer.getLabel());
+        }
+        return toInstruction(lexer);
+    }
 
-        try {
-            return Stream.of(Directives.values(), Instructions.values())
-                    .flatMap(Arrays::stream)
-                    .map(sourceMatcher -> sourceMatcher.matches(line))
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .map(sourceMatch -> {
-                        if (sourceMatch.getSourcePattern() == Directives.ASCIIZ) {
-                            return new Asciiz(sourceMatch.getMatcher().group(1));
-                        } else if (sourceMatch.getSourcePattern() == Instructions.AND) {
-                            return new And()
-                                    .setR1(sourceMatch.getRegister(1))
-                                    .setR2(sourceMatch.getRegister(2));
-                        } else if (sourceMatch.getSourcePattern() == Instructions.ADDI) {
-                            return new AddImmediate()
-                                    .setR1(sourceMatch.getRegister(1))
-                                    .setImmediate(sourceMatch.getImmediate(2));
-                        } else if (sourceMatch.getSourcePattern() == Instructions.SW) {
-                            return new StoreWord()
-                                    .setR1(sourceMatch.getRegister(1))
-                                    .setR2(sourceMatch.getRegister(2));
-                        } else if (sourceMatch.getSourcePattern() == Instructions.LW) {
-                            return new LoadWord()
-                                    .setR1(sourceMatch.getRegister(1))
-                                    .setR2(sourceMatch.getRegister(2));
-                        } else if (sourceMatch.getSourcePattern() == Instructions.JUMP) {
-                            return new JumpImmediate()
-                                    .setImmediate(sourceMatch.getImmediate(1)<<1);
-                        } else if (sourceMatch.getSourcePattern() == Instructions.ORI) {
-                            return new OrImmediate()
-                                    .setR1(sourceMatch.getRegister(1))
-                                    .setImmediate(sourceMatch.getImmediate(2));
-                        } else {
-                            return new ErrorLine("unhandled instruction:" + sourceMatch.getMatcher().group(0));
-                        }
-                    })
-                    .map(Instruction.class::cast)
-                    .findFirst()
-                    .orElseGet(() -> new ErrorLine("Unknown instruction: " + line));
-        } catch (InvalidRegisterException e) {
-            return new ErrorLine("Invalid register " + e.getValue());
+    /**
+     * Builds the Instruction for the line the lexer just parsed.
+     */
+    static Instruction toInstruction(LineLexer lexer) {
+        if (lexer.getError() != null) {
+            return new ErrorLine(lexer.getError());
+        }
+        if (lexer.getDirective() != null) {
+            return toDirective(lexer);
+        }
+        switch (lexer.getInstruction()) {
+            case AND:
+                return new And()
+                        .setR1(lexer.getR1())
+                        .setR2(lexer.getR2());
+            case ADDI:
+                return new AddImmediate()
+                        .setR1(lexer.getR1())
+                        .setImmediate(lexer.getImmediate());
+            case SW:
+                return new StoreWord()
+                        .setR1(lexer.getR1())
+                        .setR2(lexer.getR2());
+            case LW:
+                return new LoadWord()
+                        .setR1(lexer.getR1())
+                        .setR2(lexer.getR2());
+            case JUMP:
+                return new JumpImmediate()
+                        .setImmediate(lexer.getImmediate() << 1)
+                        .setLabel(lexer.getLabelReference());
+            case ORI:
+                return new OrImmediate()
+                        .setR1(lexer.getR1())
+                        .setImmediate(lexer.getImmediate());
+            default:
+                return new ErrorLine("unhandled instruction:" + lexer.getInstruction().getName());
+        }
+    }
+
+    private static Instruction toDirective(LineLexer lexer) {
+        switch (lexer.getDirective()) {
+            case ASCIIZ:
+                return new Asciiz(lexer.getString());
+            case WORD: {
+                byte[] bytes = new byte[lexer.getValueCount() * 2];
+                for (int i = 0; i < lexer.getValueCount(); i++) {
+                    bytes[i * 2] = (byte) lexer.getValue(i);
+                    bytes[i * 2 + 1] = (byte) (lexer.getValue(i) >> 8);
+                }
+                return new DataBlock(bytes);
+            }
+            case BYTE: {
+                byte[] bytes = new byte[lexer.getValueCount()];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) lexer.getValue(i);
+                }
+                return new DataBlock(bytes);
+            }
+            case SPACE:
+                return new Space(lexer.getImmediate());
+            case ALIGN:
+                return new Align(lexer.getImmediate());
+            default:
+                return new ErrorLine("unhandled directive:" + lexer.getDirective().getName());
         }
     }
 }
@@ -0,0 +1,80 @@
+package e93.assembler;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a program in the Intel HEX format. Addresses in the file are byte
+ * addresses and the words are little-endian, the same as in memory.
+ *
+ * Each data record holds up to 16 bytes. An extended linear address record is
+ * written before the first record of each 64K block past the first one, and
+ * the file ends with an end of file record.
+ */
+public class IntelHexWriter {
+
+    private static final int BYTES_PER_RECORD = 16;
+
+    private static final int DATA = 0x00;
+    private static final int END_OF_FILE = 0x01;
+    private static final int EXTENDED_LINEAR_ADDRESS = 0x04;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Writes the image to the writer. The writer is flushed but not closed.
+     *
+     * @param image encoded program, one element per word
+     */
+    public static void write(short[] image, Writer out) throws IOException {
+        // longest record is the start code, 5 header bytes, the data and the newline
+        char[] line = new char[1 + (5 + BYTES_PER_RECORD) * 2 + 1];
+        byte[] data = new byte[BYTES_PER_RECORD];
+        int length = image.length * 2;
+        int upper = 0;
+        for (int address = 0; address < length; address += BYTES_PER_RECORD) {
+            if (address >>> 16 != upper) {
+                upper = address >>> 16;
+                data[0] = (byte) (upper >> 8);
+                data[1] = (byte) upper;
+                out.write(line, 0, record(line, 0, EXTENDED_LINEAR_ADDRESS, data, 2));
+            }
+            int count = Math.min(BYTES_PER_RECORD, length - address);
+            for (int i = 0; i < count; i++) {
+                int word = image[(address + i) >> 1];
+                data[i] = (byte) (((address + i) & 1) == 0 ? word : word >> 8);
+            }
+            out.write(line, 0, record(line, address & 0xffff, DATA, data, count));
+        }
+        out.write(line, 0, record(line, 0, END_OF_FILE, data, 0));
+        out.flush();
+    }
+
+    /**
+     * Formats a record into the line.
+     *
+     * @return length of the line
+     */
+    private static int record(char[] line, int address, int type, byte[] data, int count) {
+        int pos = 0;
+        line[pos++] = ':';
+        pos = hex(line, pos, count);
+        pos = hex(line, pos, address >> 8);
+        pos = hex(line, pos, address);
+        pos = hex(line, pos, type);
+        int sum = count + (address >> 8) + address + type;
+        for (int i = 0; i < count; i++) {
+            pos = hex(line, pos, data[i]);
+            sum += data[i];
+        }
+        pos = hex(line, pos, -sum);
+        line[pos++] = '\n';
+        return pos;
+    }
+
+    private static int hex(char[] line, int pos, int b) {
+        line[pos] = HEX[(b >> 4) & 0xf];
+        line[pos + 1] = HEX[b & 0xf];
+        return pos + 2;
+    }
+}
@@ -1,16 +0,0 @@
-package e93.assembler;
-
-import javax.annotation.Generated;
-
-public class InvalidRegisterException extends RuntimeException {
-    private final String value;
-
-    public InvalidRegisterException(String value) {
-        this.value = value;
-    }
-
-    @Generated("by IDE")
-    public String getValue() {
-        return value;
-    }
-}
@@ -0,0 +1,248 @@
+package e93.assembler;
+
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves labels in a single pass over a program.
+ *
+ * Label definitions and jumps that reference labels are reported in program
+ * order along with their address. A jump to a label that's already defined is
+ * resolved right away. A jump to a label that hasn't been seen yet is added to
+ * the label's list of fixups and backpatched when the label is defined.
+ *
+ * The symbol table is an open addressing hash table on the name's hash code
+ * with the addresses and the fixup lists kept in int arrays, so there's no
+ * boxing and nothing is allocated per reference once the arrays have grown.
+ *
+ * Anything that can't be resolved is replaced in the instructions list with an
+ * ErrorLine that has the same line number and source line. Programs that
+ * aren't a list of Instructions, like the {@link PackedProgram}, provide
+ * their own {@link Sites} instead.
+ */
+public class LabelResolver {
+
+    /**
+     * The jump keeps the high 7 bits of PC + 2 and replaces the low 9 bits
+     * with its immediate. See ExecutionVisitor.visit(JumpImmediate)
+     */
+    private static final int PAGE_MASK = 0xff << 9;
+    private static final int OFFSET_MASK = 0x1ff;
+
+    private static final int UNDEFINED = -1;
+    private static final int END = -1;
+
+    /**
+     * Where the results of resolving go, the index is whatever the program
+     * uses to identify the jump
+     */
+    interface Sites {
+        void resolve(int index, int immediate);
+
+        void error(int index, String message);
+    }
+
+    private final List<Instruction> instructions;
+    private final List<Instruction> errors = new ArrayList<>();
+    private final Sites sites;
+
+    // symbol table
+    private int[] hashes = new int[64];
+    private String[] names = new String[64];
+    private int[] addresses = new int[64];
+    private int[] firstFixup = new int[64];
+    private int symbols;
+
+    // fixups, chained together per symbol
+    private int[] fixupIndex = new int[64];
+    private int[] fixupAddress = new int[64];
+    private int[] fixupNext = new int[64];
+    private int fixups;
+
+    /**
+     * @param instructions the program being resolved, the indexes passed to
+     *                     define and reference are indexes into this list
+     */
+    public LabelResolver(List<Instruction> instructions) {
+        this.instructions = instructions;
+        this.sites = new Sites() {
+            @Override
+            public void resolve(int index, int immediate) {
+                ((JumpImmediate) instructions.get(index)).setImmediate(immediate);
+            }
+
+            @Override
+            public void error(int index, String message) {
+                Instruction instruction = instructions.get(index);
+                ErrorLine error = new ErrorLine(message);
+                error.setLineNumber(instruction.getLineNumber());
+                error.setSourceLine(instruction.getSourceLine());
+                instructions.set(index, error);
+                errors.add(error);
+            }
+        };
+    }
+
+    LabelResolver(Sites sites) {
+        this.instructions = null;
+        this.sites = sites;
+    }
+
+    /**
+     * Defines the label at the given index
+     *
+     * @param index index of the {@link Label} in the instructions
+     * @param address byte address of the label
+     */
+    public void define(int index, int address) {
+        define(((Label) instructions.get(index)).getName(), index, address);
+    }
+
+    void define(String name, int index, int address) {
+        int slot = slot(name);
+        if (addresses[slot] != UNDEFINED) {
+            sites.error(index, "Duplicate label: " + name);
+            return;
+        }
+        addresses[slot] = address;
+        for (int fixup = firstFixup[slot]; fixup != END; fixup = fixupNext[fixup]) {
+            patch(name, fixupIndex[fixup], fixupAddress[fixup], address);
+        }
+        firstFixup[slot] = END;
+    }
+
+    /**
+     * Resolves the label that a jump refers to or remembers it to backpatch
+     * once the label is defined.
+     *
+     * @param index index of the {@link JumpImmediate} in the instructions
+     * @param address byte address of the jump
+     */
+    public void reference(int index, int address) {
+        reference(instructions.get(index).getLabel(), index, address);
+    }
+
+    void reference(String name, int index, int address) {
+        int slot = slot(name);
+        if (addresses[slot] != UNDEFINED) {
+            patch(name, index, address, addresses[slot]);
+            return;
+        }
+        if (fixups == fixupIndex.length) {
+            fixupIndex = Arrays.copyOf(fixupIndex, fixups * 2);
+            fixupAddress = Arrays.copyOf(fixupAddress, fixups * 2);
+            fixupNext = Arrays.copyOf(fixupNext, fixups * 2);
+        }
+        fixupIndex[fixups] = index;
+        fixupAddress[fixups] = address;
+        fixupNext[fixups] = firstFixup[slot];
+        firstFixup[slot] = fixups++;
+    }
+
+    /**
+     * Reports any references to labels that were never defined. Call this
+     * after the whole program has been seen.
+     *
+     * @return all of the errors from resolving labels in line order, always
+     *         empty when the program has its own {@link Sites}
+     */
+    public List<Instruction> finish() {
+        for (int slot = 0; slot < names.length; slot++) {
+            if (names[slot] == null) {
+                continue;
+            }
+            for (int fixup = firstFixup[slot]; fixup != END; fixup = fixupNext[fixup]) {
+                sites.error(fixupIndex[fixup], "Undefined label: " + names[slot]);
+            }
+            firstFixup[slot] = END;
+        }
+        errors.sort(Instruction.BY_LINE_NUMBER);
+        return errors;
+    }
+
+    /**
+     * @return the byte address of the label or -1 if it isn't defined
+     */
+    public int addressOf(String name) {
+        int slot = find(name);
+        return slot < 0 ? UNDEFINED : addresses[slot];
+    }
+
+    private void patch(String name, int index, int address, int target) {
+        int page = (address + 2) & PAGE_MASK;
+        if ((target & PAGE_MASK) != page) {
+            sites.error(index, String.format("Label out of range: %s at 0x%04x is not in the same page as 0x%04x",
+                    name, target, address + 2));
+            return;
+        }
+        sites.resolve(index, target & OFFSET_MASK);
+    }
+
+    /**
+     * @return the slot for the name, adding it if it's not in the table
+     */
+    private int slot(String name) {
+        int slot = find(name);
+        if (slot >= 0) {
+            return slot;
+        }
+        if ((symbols + 1) * 2 > names.length) {
+            grow();
+            slot = find(name);
+        }
+        slot = ~slot;
+        hashes[slot] = name.hashCode();
+        names[slot] = name;
+        addresses[slot] = UNDEFINED;
+        firstFixup[slot] = END;
+        symbols++;
+        return slot;
+    }
+
+    /**
+     * @return the slot holding the name or the complement of the empty slot
+     *         where it would go
+     */
+    private int find(String name) {
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        int slot = mix(hash) & mask;
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && names[slot].equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    private void grow() {
+        int[] oldHashes = hashes;
+        String[] oldNames = names;
+        int[] oldAddresses = addresses;
+        int[] oldFirstFixup = firstFixup;
+        int capacity = names.length * 2;
+        hashes = new int[capacity];
+        names = new String[capacity];
+        addresses = new int[capacity];
+        firstFixup = new int[capacity];
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                int slot = ~find(oldNames[i]);
+                hashes[slot] = oldHashes[i];
+                names[slot] = oldNames[i];
+                addresses[slot] = oldAddresses[i];
+                firstFixup[slot] = oldFirstFixup[i];
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
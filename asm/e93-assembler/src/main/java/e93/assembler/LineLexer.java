@@ -0,0 +1,543 @@
+package e93.assembler;
+
+import e93.assembler.InstructionParser.Directives;
+import e93.assembler.InstructionParser.Instructions;
+
+import java.util.Arrays;
+
+/**
+ * Parses a single line of assembly in one pass over its characters.
+ *
+ * The mnemonic is looked up once by its length and characters, then the
+ * operands are parsed in place. Registers and immediates are converted to
+ * ints as they're scanned so nothing is allocated for a valid line. Errors
+ * are reported through {@link #getError()} rather than exceptions.
+ *
+ * A line may start with a label definition like {@code loop:} which can be
+ * followed by an instruction or be on a line by itself.
+ *
+ * The data directives take numbers in hex with a 0x or in decimal, and
+ * {@code .word} and {@code .byte} take a list of them separated by commas.
+ *
+ * A lexer is reused from line to line, the results of the last call to
+ * {@link #lex(char[], int, int)} are available from the getters.
+ */
+final class LineLexer {
+
+    private static final int MAX_REGISTER = 15;
+    /**
+     * Largest immediate for ADDI and ORI, 8 bits
+     */
+    private static final int MAX_IMMEDIATE = 0xff;
+    /**
+     * Largest jump target, a 12 bit word offset in the page
+     */
+    private static final int MAX_JUMP = 0xfff;
+    /**
+     * Largest .space in bytes, the whole address space
+     */
+    private static final int MAX_SPACE = 0x10000;
+    /**
+     * Largest .align, half of the address space
+     */
+    private static final int MAX_ALIGN = 15;
+
+    private char[] buf;
+    private int pos;
+    private int end;
+
+    private Instructions instruction;
+    private Directives directive;
+    private String error;
+    private int r1;
+    private int r2;
+    private int immediate;
+    private int stringStart;
+    private int stringEnd;
+    private int labelStart;
+    private int labelEnd;
+    private int referenceStart;
+    private int referenceEnd;
+    private int[] values = new int[16];
+    private int valueCount;
+
+    /**
+     * Parses the characters between start and end.
+     */
+    void lex(char[] buf, int start, int end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+        instruction = null;
+        directive = null;
+        error = null;
+        r1 = 0;
+        r2 = 0;
+        immediate = 0;
+        valueCount = 0;
+        labelStart = -1;
+        referenceStart = -1;
+
+        skipSpaces();
+        if (atEndOfStatement()) {
+            return;
+        }
+        if (labelDefinition()) {
+            skipSpaces();
+            if (atEndOfStatement()) {
+                return;
+            }
+        }
+        int mnemonicStart = pos;
+        while (pos < end && buf[pos] > ' ') {
+            pos++;
+        }
+        if (!mnemonic(mnemonicStart, pos - mnemonicStart)) {
+            error = "Unknown instruction: " + new String(buf, start, statementEnd(start) - start);
+            return;
+        }
+        skipSpaces();
+
+        boolean ok;
+        if (directive != null) {
+            switch (directive) {
+                case ASCIIZ:
+                    ok = string();
+                    break;
+                case WORD:
+                    ok = numbers(-0x8000, 0xffff);
+                    break;
+                case BYTE:
+                    ok = numbers(-0x80, 0xff);
+                    break;
+                case SPACE:
+                    ok = number(0, MAX_SPACE);
+                    break;
+                case ALIGN:
+                    ok = number(0, MAX_ALIGN);
+                    break;
+                default:
+                    throw new IllegalStateException("operands unknown for " + directive);
+            }
+        } else {
+            switch (instruction) {
+                case AND:
+                case SW:
+                case LW:
+                    ok = register(true) && comma() && register(false);
+                    break;
+                case ADDI:
+                case ORI:
+                    ok = register(true) && comma() && hexImmediate(MAX_IMMEDIATE);
+                    break;
+                case JUMP:
+                    ok = pos < end && isLabelStart(buf[pos]) ? labelReference() : hexImmediate(MAX_JUMP);
+                    break;
+                default:
+                    throw new IllegalStateException("operands unknown for " + instruction);
+            }
+        }
+        if (ok) {
+            skipSpaces();
+            if (!atEndOfStatement()) {
+                error = "Unexpected text after " + new String(buf, mnemonicStart, pos - mnemonicStart);
+            }
+        }
+        if (error != null) {
+            // the label is still defined so references to it aren't errors too
+            instruction = null;
+            directive = null;
+        }
+    }
+
+    /**
+     * Consumes a label definition if the line starts with one.
+     */
+    private boolean labelDefinition() {
+        int start = pos;
+        if (!isLabelStart(buf[pos])) {
+            return false;
+        }
+        while (pos < end && isLabelPart(buf[pos])) {
+            pos++;
+        }
+        if (pos == end || buf[pos] != ':') {
+            pos = start;
+            return false;
+        }
+        labelStart = start;
+        labelEnd = pos++;
+        return true;
+    }
+
+    private boolean labelReference() {
+        referenceStart = pos;
+        while (pos < end && isLabelPart(buf[pos])) {
+            pos++;
+        }
+        referenceEnd = pos;
+        return true;
+    }
+
+    private static boolean isLabelStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isLabelPart(char c) {
+        return isLabelStart(c) || isDigit(c);
+    }
+
+    /**
+     * Dispatches on the length and then the characters of the mnemonic.
+     */
+    private boolean mnemonic(int start, int length) {
+        char c0 = buf[start];
+        switch (length) {
+            case 1:
+                if (c0 == 'J') {
+                    instruction = Instructions.JUMP;
+                }
+                break;
+            case 2:
+                if (buf[start + 1] == 'W') {
+                    if (c0 == 'S') {
+                        instruction = Instructions.SW;
+                    } else if (c0 == 'L') {
+                        instruction = Instructions.LW;
+                    }
+                }
+                break;
+            case 3:
+                if (matches(start, "AND")) {
+                    instruction = Instructions.AND;
+                } else if (matches(start, "ORI")) {
+                    instruction = Instructions.ORI;
+                }
+                break;
+            case 4:
+                if (matches(start, "ADDI")) {
+                    instruction = Instructions.ADDI;
+                }
+                break;
+            case 5:
+                if (matches(start, ".word")) {
+                    directive = Directives.WORD;
+                } else if (matches(start, ".byte")) {
+                    directive = Directives.BYTE;
+                }
+                break;
+            case 6:
+                if (matches(start, ".space")) {
+                    directive = Directives.SPACE;
+                } else if (matches(start, ".align")) {
+                    directive = Directives.ALIGN;
+                }
+                break;
+            case 7:
+                if (matches(start, ".asciiz")) {
+                    directive = Directives.ASCIIZ;
+                }
+                break;
+            default:
+        }
+        return instruction != null || directive != null;
+    }
+
+    private boolean matches(int start, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean register(boolean first) {
+        int start = pos;
+        if (end - pos < 3 || buf[pos] != '$' || buf[pos + 1] != 'r') {
+            error = "Expected register at: " + new String(buf, start, statementEnd(start) - start);
+            return false;
+        }
+        pos += 2;
+        int digitsStart = pos;
+        int value = 0;
+        while (pos < end && isDigit(buf[pos]) && value <= MAX_REGISTER) {
+            value = value * 10 + (buf[pos++] - '0');
+        }
+        if (pos == digitsStart || value > MAX_REGISTER || (pos < end && isDigit(buf[pos]))) {
+            while (pos < end && buf[pos] > ' ' && buf[pos] != ',') {
+                pos++;
+            }
+            error = "Invalid register " + new String(buf, start, pos - start);
+            return false;
+        }
+        if (first) {
+            r1 = value;
+        } else {
+            r2 = value;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean comma() {
+        skipSpaces();
+        if (pos == end || buf[pos] != ',') {
+            error = "Expected ','";
+            return false;
+        }
+        pos++;
+        skipSpaces();
+        return true;
+    }
+
+    private boolean hexImmediate(int max) {
+        int start = pos;
+        if (end - pos < 3 || buf[pos] != '0' || buf[pos + 1] != 'x') {
+            error = "Expected hex immediate at: " + new String(buf, start, statementEnd(start) - start);
+            return false;
+        }
+        pos += 2;
+        int value = 0;
+        int digits = 0;
+        while (pos < end) {
+            int digit = digit(buf[pos], 16);
+            if (digit < 0) {
+                break;
+            }
+            if (value <= max) {
+                value = value << 4 | digit;
+            }
+            digits++;
+            pos++;
+        }
+        if (digits == 0 || value > max) {
+            while (pos < end && buf[pos] > ' ' && buf[pos] != ',') {
+                pos++;
+            }
+            error = "Invalid immediate " + new String(buf, start, pos - start);
+            return false;
+        }
+        immediate = value;
+        return true;
+    }
+
+    /**
+     * Like {@link Character#digit(char, int)} but only for ASCII digits and
+     * letters, it takes digits from other scripts too.
+     */
+    private static int digit(char c, int radix) {
+        int digit;
+        if (c >= '0' && c <= '9') {
+            digit = c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            digit = c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            digit = c - 'A' + 10;
+        } else {
+            return -1;
+        }
+        return digit < radix ? digit : -1;
+    }
+
+    /**
+     * Parses a list of numbers separated by commas into the values.
+     */
+    private boolean numbers(int min, int max) {
+        while (true) {
+            if (!number(min, max)) {
+                return false;
+            }
+            if (valueCount == values.length) {
+                values = Arrays.copyOf(values, valueCount * 2);
+            }
+            values[valueCount++] = immediate;
+            skipSpaces();
+            if (pos == end || buf[pos] != ',') {
+                return true;
+            }
+            pos++;
+            skipSpaces();
+        }
+    }
+
+    /**
+     * Parses a number in hex with a 0x or in decimal, with an optional minus
+     * sign, into the immediate.
+     */
+    private boolean number(int min, int max) {
+        int start = pos;
+        boolean negative = pos < end && buf[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        int radix = 10;
+        if (end - pos > 2 && buf[pos] == '0' && buf[pos + 1] == 'x') {
+            radix = 16;
+            pos += 2;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < end) {
+            int digit = digit(buf[pos], radix);
+            if (digit < 0) {
+                break;
+            }
+            if (value <= max) {
+                value = value * radix + digit;
+            }
+            digits++;
+            pos++;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (digits == 0 || value < min || value > max || (pos < end && isLabelPart(buf[pos]))) {
+            while (pos < end && buf[pos] > ' ' && buf[pos] != ',') {
+                pos++;
+            }
+            error = pos == start ? "Expected a number" : "Invalid number " + new String(buf, start, pos - start);
+            return false;
+        }
+        immediate = (int) value;
+        return true;
+    }
+
+    private boolean string() {
+        if (pos == end || buf[pos] != '"') {
+            error = "Expected a quoted string";
+            return false;
+        }
+        stringStart = ++pos;
+        while (pos < end && buf[pos] != '"') {
+            if (buf[pos] > 0xff) {
+                // strings are stored a byte per character
+                error = "Character out of range in string: " + buf[pos];
+                return false;
+            }
+            pos++;
+        }
+        if (pos == end) {
+            error = "Unterminated string";
+            return false;
+        }
+        stringEnd = pos++;
+        if (stringEnd == stringStart) {
+            error = "Empty string";
+            return false;
+        }
+        return true;
+    }
+
+    private void skipSpaces() {
+        while (pos < end && (buf[pos] == ' ' || buf[pos] == '\t')) {
+            pos++;
+        }
+    }
+
+    /**
+     * @return true at the end of the line or the start of a -- comment
+     */
+    private boolean atEndOfStatement() {
+        return pos == end || (buf[pos] == '-' && pos + 1 < end && buf[pos + 1] == '-')
+                || buf[pos] == '\r' || buf[pos] == '\n';
+    }
+
+    /**
+     * @return where the statement starting at start ends, which is the start
+     *         of a comment or the end of the line
+     */
+    private int statementEnd(int start) {
+        for (int i = start; i + 1 < end; i++) {
+            if (buf[i] == '-' && buf[i + 1] == '-') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return true if the line had nothing but whitespace or a comment
+     */
+    boolean isEmpty() {
+        return instruction == null && directive == null && error == null && labelStart < 0;
+    }
+
+    Instructions getInstruction() {
+        return instruction;
+    }
+
+    Directives getDirective() {
+        return directive;
+    }
+
+    String getError() {
+        return error;
+    }
+
+    int getR1() {
+        return r1;
+    }
+
+    int getR2() {
+        return r2;
+    }
+
+    int getImmediate() {
+        return immediate;
+    }
+
+    /**
+     * @return the label defined at the start of the line or null
+     */
+    String getLabel() {
+        return labelStart < 0 ? null : new String(buf, labelStart, labelEnd - labelStart);
+    }
+
+    /**
+     * @return the label that the instruction refers to or null
+     */
+    String getLabelReference() {
+        return referenceStart < 0 ? null : new String(buf, referenceStart, referenceEnd - referenceStart);
+    }
+
+    /**
+     * @return true if there's an instruction or directive, as opposed to
+     *         just a label
+     */
+    boolean hasStatement() {
+        return instruction != null || directive != null || error != null;
+    }
+
+    /**
+     * @return number of values in a .word or .byte
+     */
+    int getValueCount() {
+        return valueCount;
+    }
+
+    int getValue(int index) {
+        return values[index];
+    }
+
+    String getString() {
+        return new String(buf, stringStart, stringEnd - stringStart);
+    }
+
+    /**
+     * @return offset in the buffer of the first character of the string
+     */
+    int getStringStart() {
+        return stringStart;
+    }
+
+    /**
+     * @return offset in the buffer just past the last character of the string
+     */
+    int getStringEnd() {
+        return stringEnd;
+    }
+}
@@ -0,0 +1,205 @@
+package e93.assembler;
+
+import e93.assembler.ast.ErrorLine;
+import lombok.Value;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Links {@link ObjectModule}s into a single image.
+ *
+ * The modules are placed one after the other in the order they're given,
+ * with zeros in between when a module has to be aligned. The words of each
+ * module are copied into the image in bulk and then every relocation is
+ * patched with the address of its label. A label has to be defined exactly
+ * once across all of the modules, and a jump can still only reach labels in
+ * its own 512 byte page.
+ */
+public class Linker {
+
+    /**
+     * Links the modules.
+     *
+     * @throws IllegalArgumentException if any of the modules have errors
+     */
+    public static Result link(List<ObjectModule> modules) {
+        int size = 0;
+        int[] base = new int[modules.size()];
+        for (int m = 0; m < modules.size(); m++) {
+            ObjectModule module = modules.get(m);
+            if (!module.getErrors().isEmpty()) {
+                throw new IllegalArgumentException("module has errors: " + module.getName());
+            }
+            // the alignment is a power of 2
+            size = (size + module.getAlignment() - 1) & -module.getAlignment();
+            base[m] = size;
+            size += module.getWords().length;
+        }
+
+        short[] image = new short[size];
+        for (int m = 0; m < modules.size(); m++) {
+            short[] words = modules.get(m).getWords();
+            System.arraycopy(words, 0, image, base[m], words.length);
+        }
+
+        // the resolver identifies symbols by the complement of their index
+        // and relocations by their index, both numbered across all modules
+        List<String> errors = new ArrayList<>();
+        int[] relocationAddress = new int[countRelocations(modules)];
+        String[] relocationSource = new String[relocationAddress.length];
+        List<String> symbolSource = new ArrayList<>();
+        LabelResolver resolver = new LabelResolver(new LabelResolver.Sites() {
+            @Override
+            public void resolve(int index, int immediate) {
+                int address = relocationAddress[index];
+                image[address] = (short) Assembler.encode(OpCode.J, 0, 0, 0, immediate);
+            }
+
+            @Override
+            public void error(int index, String message) {
+                errors.add((index < 0 ? symbolSource.get(~index) : relocationSource[index]) + ": " + message);
+            }
+        });
+        for (int m = 0; m < modules.size(); m++) {
+            ObjectModule module = modules.get(m);
+            String[] names = module.getSymbolNames();
+            for (int i = 0; i < names.length; i++) {
+                symbolSource.add(module.getName() + ":" + module.getSymbolLines()[i]);
+                resolver.define(names[i], ~(symbolSource.size() - 1), (base[m] + module.getSymbolOffsets()[i]) * 2);
+            }
+        }
+        int relocation = 0;
+        for (int m = 0; m < modules.size(); m++) {
+            ObjectModule module = modules.get(m);
+            String[] names = module.getRelocationNames();
+            for (int i = 0; i < names.length; i++) {
+                relocationAddress[relocation] = base[m] + module.getRelocationOffsets()[i];
+                relocationSource[relocation] = module.getName() + ":" + module.getRelocationLines()[i];
+                resolver.reference(names[i], relocation, relocationAddress[relocation] * 2);
+                relocation++;
+            }
+        }
+        resolver.finish();
+        return new Result(errors.isEmpty() ? image : null, errors);
+    }
+
+    private static int countRelocations(List<ObjectModule> modules) {
+        int count = 0;
+        for (ObjectModule module : modules) {
+            count += module.getRelocationNames().length;
+        }
+        return count;
+    }
+
+    /**
+     * Loads the object module for a source file, reassembling it only when
+     * the object file is missing or older than the source. The object file is
+     * next to the source with a .o extension.
+     *
+     * @return the module, which has errors if the source didn't assemble
+     */
+    public static ObjectModule load(Path source) throws IOException {
+        String fileName = source.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        Path object = source.resolveSibling((dot < 0 ? fileName : fileName.substring(0, dot)) + ".o");
+        if (Files.isRegularFile(object)
+                && Files.getLastModifiedTime(object).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+            return ObjectModule.read(object, source.toString());
+        }
+        ObjectModule module;
+        try (Reader reader = IOUtils.newSourceReader(source)) {
+            module = ObjectModule.assemble(source.toString(), reader);
+        }
+        if (module.getErrors().isEmpty()) {
+            module.write(object);
+        }
+        return module;
+    }
+
+    @Value
+    public static class Result {
+        /**
+         * Linked program, one element per word, or null if there were errors
+         */
+        short[] image;
+
+        List<String> errors;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String format = "bin";
+        String output = null;
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("-f".equals(args[i]) && i + 1 < args.length) {
+                format = args[++i];
+            } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else {
+                inputs.add(Paths.get(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("usage: Linker [-f bin|hex|mif] [-o output-file] file.asm|file.o ...");
+            System.exit(2);
+        }
+        if (!format.equals("mif") && !format.equals("bin") && !format.equals("hex")) {
+            System.err.println("unknown format:" + format);
+            System.exit(2);
+        }
+
+        List<ObjectModule> modules = new ArrayList<>();
+        boolean failed = false;
+        for (Path input : inputs) {
+            if (!Files.isRegularFile(input)) {
+                System.err.println("file not found or not readable:" + input);
+                System.exit(2);
+            }
+            ObjectModule module = input.toString().endsWith(".o") ? ObjectModule.read(input) : load(input);
+            for (Instruction error : module.getErrors()) {
+                System.err.println(input + ":" + error.getLineNumber() + ": "
+                        + ((ErrorLine) error).getErrorMessage());
+                failed = true;
+            }
+            modules.add(module);
+        }
+        if (failed) {
+            System.exit(1);
+        }
+
+        Result result = link(modules);
+        if (!result.getErrors().isEmpty()) {
+            result.getErrors().forEach(System.err::println);
+            System.exit(1);
+        }
+
+        if (format.equals("bin")) {
+            if (output == null) {
+                BinaryWriter.write(result.getImage(), Channels.newChannel(System.out));
+                System.out.flush();
+            } else {
+                BinaryWriter.write(result.getImage(), Paths.get(output));
+            }
+            return;
+        }
+        try (Writer out = output == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : Files.newBufferedWriter(Paths.get(output))) {
+            if (format.equals("hex")) {
+                IntelHexWriter.write(result.getImage(), out);
+            } else {
+                MifWriter.write(result.getImage(), out);
+            }
+        }
+    }
+}
@@ -1,84 +1,261 @@
 package e93.assembler;
 
+import e93.assembler.ast.Align;
 import e93.assembler.ast.Asciiz;
-import e93.assembler.ast.AssemblyVisitor;
+import e93.assembler.ast.DataBlock;
+import e93.assembler.ast.Label;
+import e93.assembler.ast.Space;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Collection;
-import java.util.Collections;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static e93.assembler.IOUtils.readAllIntoString;
 
+/**
+ * Writes a program as a MIF file.
+ *
+ * The lines are written to the output as the instructions are encoded. Each
+ * line is formatted into a reusable char buffer that's written out whenever it
+ * fills up, so the memory used doesn't depend on the size of the program.
+ *
+ * Strings are two characters per word and runs of zeros, like from a
+ * {@code .space}, are written as a single {@code [first..last] : 0000;} range
+ * rather than a line per word.
+ *
+ * A program that doesn't fit in the template's {@link #DEPTH} is an
+ * IOException, the MIF would have addresses the loader rejects.
+ */
 public class MifWriter {
 
-    public static final String MIF_LINE = "%04x : %04x;%s";
+    /**
+     * Words of memory, the same as the DEPTH in the template
+     */
+    public static final int DEPTH = 16384;
+
+    private static final String TEMPLATE_PLACEHOLDER = "%s";
+
+    /**
+     * The template is everything before and after the placeholder for the
+     * lines, read once.
+     */
+    private static final String HEADER;
+    private static final String FOOTER;
+
+    static {
+        String template;
+        try {
+            template = readAllIntoString(IOUtils.asStream("/mif-16bit-template.txt"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int placeholder = template.indexOf(TEMPLATE_PLACEHOLDER);
+        HEADER = template.substring(0, placeholder);
+        FOOTER = template.substring(placeholder + TEMPLATE_PLACEHOLDER.length());
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer out;
+    private char[] buf = new char[BUFFER_SIZE];
+    private int pos;
+    private int address;
+
+    private MifWriter(Writer out) {
+        this.out = out;
+    }
 
     public static String writeToString(List<Instruction> instructions) throws IOException {
         StringWriter sw = new StringWriter();
-        try (PrintWriter pw = new PrintWriter(sw)) {
-            write(instructions, pw);
-        }
+        write(instructions, sw);
         return sw.toString();
     }
 
-    public static void write(List<Instruction> instructions, PrintWriter pw) throws IOException {
-        InputStream template = IOUtils.asStream("/mif-16bit-template.txt");
-        String templateStr = readAllIntoString(template);
-
-        AtomicInteger mifIndex = new AtomicInteger(0);
-
-        String allInstructions = instructions
-                .stream()
-                .map(instruction -> {
-                    if (instruction.getOpcode() != null) {
-                        // it's an instruction, all of the instructions are handled the same way
-                        return Collections.singletonList(String.format(MIF_LINE,
-                                mifIndex.getAndIncrement(),
-                                Assembler.encode(instruction),
-                                Optional.ofNullable(instruction.getSourceLine()).map(line -> String.format(" -- %s", line)).orElse("")));
-                    } else {
-                        // it's a directive, need to see what kind in order to know how to emit it
-                        List<String> output = instruction.accept(new AssemblyVisitor<List<String>>() {
-                            @Override
-                            public List<String> visit(Asciiz asciiz) {
-                                // this version of asciiz only stores one byte per word
-                                // you could reduce the size of the program in memory
-                                // by packing two bytes per word
-                                return Stream.concat(asciiz.getValue().chars().boxed(), Stream.of(0))
-                                        .map(ascii -> String.format(MIF_LINE,
-                                                mifIndex.getAndIncrement(),
-                                                ascii,
-                                                asCharacter(ascii)))
-                                        .collect(Collectors.toList());
-                            }
-                        });
-                        if (output == null) {
-                            throw new IllegalStateException("mif support missing for:" + instruction.getSourceLine());
-                        }
-                        return output;
-                    }
-                })
-                .flatMap(Collection::stream)
-                .collect(Collectors.joining("\n"));
-
-        pw.print(String.format(templateStr, allInstructions));
-    }
-
-    private static String asCharacter(Integer ascii) {
-        if (ascii == 0) {
-            return " -- <null>";
+    /**
+     * Writes the program to the writer. The writer is flushed but not closed.
+     */
+    public static void write(List<Instruction> instructions, Writer out) throws IOException {
+        MifWriter writer = new MifWriter(out);
+        writer.append(HEADER);
+        for (Instruction instruction : instructions) {
+            writer.write(instruction);
+        }
+        writer.append(FOOTER);
+        writer.flush();
+        out.flush();
+    }
+
+    /**
+     * Writes the program to the channel as UTF-8. The channel is not closed.
+     */
+    public static void write(List<Instruction> instructions, WritableByteChannel channel) throws IOException {
+        write(instructions, Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE));
+    }
+
+    /**
+     * Writes an image that has already been encoded, like one from the
+     * {@link Linker}, so the lines don't have the source in them. The writer
+     * is flushed but not closed.
+     */
+    public static void write(short[] image, Writer out) throws IOException {
+        MifWriter writer = new MifWriter(out);
+        writer.append(HEADER);
+        int i = 0;
+        while (i < image.length) {
+            int run = 0;
+            while (i + run < image.length && image[i + run] == 0) {
+                run++;
+            }
+            if (run > 1) {
+                writer.zeros(run);
+                i += run;
+            } else {
+                writer.line(image[i++]);
+            }
+        }
+        writer.append(FOOTER);
+        writer.flush();
+        out.flush();
+    }
+
+    private void write(Instruction instruction) throws IOException {
+        if (instruction.getOpcode() != null) {
+            // it's an instruction, all of the instructions are handled the same way
+            line(Assembler.encode(instruction));
+            if (instruction.getSourceLine() != null) {
+                append(" -- ");
+                append(instruction.getSourceLine());
+            }
+        } else if (instruction instanceof Asciiz) {
+            // two characters per word, the first one in the low byte
+            String value = ((Asciiz) instruction).getValue();
+            int words = Assembler.sizeInWords(instruction, address);
+            for (int i = 0; i < words; i++) {
+                line(Assembler.dataWord(instruction, i));
+                append(" -- ");
+                character(value, i * 2);
+                if (i * 2 < value.length()) {
+                    character(value, i * 2 + 1);
+                }
+            }
+        } else if (instruction instanceof DataBlock) {
+            int words = Assembler.sizeInWords(instruction, address);
+            for (int i = 0; i < words; i++) {
+                line(Assembler.dataWord(instruction, i));
+                if (i == 0 && instruction.getSourceLine() != null) {
+                    append(" -- ");
+                    append(instruction.getSourceLine());
+                }
+            }
+        } else if (instruction instanceof Space || instruction instanceof Align) {
+            int words = Assembler.sizeInWords(instruction, address);
+            zeros(words);
+            if (words > 0 && instruction.getSourceLine() != null) {
+                append(" -- ");
+                append(instruction.getSourceLine());
+            }
+        } else if (!(instruction instanceof Label)) {
+            throw new IllegalStateException("mif support missing for:" + instruction.getSourceLine());
+        }
+    }
+
+    /**
+     * Appends the character of the string at the index for a comment, with
+     * names for the ones that can't be seen.
+     */
+    private void character(String value, int index) throws IOException {
+        if (index == value.length()) {
+            append("<null>");
+        } else if (value.charAt(index) == ' ') {
+            append("<space>");
+        } else {
+            append(value.charAt(index));
+        }
+    }
+
+    /**
+     * Starts a new line with a range of zero words, or a single line if
+     * there's only one.
+     */
+    private void zeros(int count) throws IOException {
+        if (count == 1) {
+            line(0);
+        } else if (count > 1) {
+            if (address > 0) {
+                append('\n');
+            }
+            reserve(count);
+            append('[');
+            hex(address);
+            append("..");
+            hex(address + count - 1);
+            append("] : ");
+            hex(0);
+            append(';');
+            address += count;
         }
-        if (ascii == ' ') {
-            return " -- <space>";
+    }
+
+    /**
+     * Starts a new line with the address and the word.
+     */
+    private void line(int word) throws IOException {
+        reserve(1);
+        if (address > 0) {
+            append('\n');
         }
-        return String.format(" -- %c", ascii);
+        hex(address++);
+        append(" : ");
+        hex(word & 0xffff);
+        append(';');
+    }
+
+    private void reserve(int count) throws IOException {
+        if (address + count > DEPTH) {
+            throw new IOException("program doesn't fit in the " + DEPTH + " words of a MIF");
+        }
+    }
+
+    /**
+     * Appends at least 4 hex digits.
+     */
+    private void hex(int value) throws IOException {
+        int digits = Math.max(4, (32 - Integer.numberOfLeadingZeros(value) + 3) >> 2);
+        ensure(digits);
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            buf[pos++] = HEX[(value >>> shift) & 0xf];
+        }
+    }
+
+    private void append(char c) throws IOException {
+        ensure(1);
+        buf[pos++] = c;
+    }
+
+    private void append(String s) throws IOException {
+        ensure(s.length());
+        s.getChars(0, s.length(), buf, pos);
+        pos += s.length();
+    }
+
+    private void ensure(int length) throws IOException {
+        if (pos + length > buf.length) {
+            flush();
+            if (length > buf.length) {
+                buf = new char[length];
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
     }
 }
@@ -0,0 +1,250 @@
+package e93.assembler;
+
+import e93.assembler.ast.Align;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.Label;
+import lombok.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A relocatable object module, one source file assembled as if it started at
+ * word 0 with the labels left unresolved.
+ *
+ * The module has its encoded words, a symbol table with every label it
+ * defines and a relocation table with every jump to a label. Jumps are
+ * encoded with a zero immediate and the {@link Linker} patches them once it
+ * knows where each module goes. Labels are global so a jump can refer to a
+ * label in any module.
+ *
+ * A module that uses {@code .align} has to start at an address that's a
+ * multiple of the largest alignment in it, so the module keeps that and the
+ * linker pads in front of it.
+ *
+ * The file format is big-endian:
+ * <pre>
+ *     int    magic "E93O"
+ *     int    alignment in words
+ *     int    number of words, followed by the words
+ *     int    number of symbols, followed by name (modified UTF-8), word offset and line number for each one
+ *     int    number of relocations, followed by label name, word offset and line number for each one
+ * </pre>
+ */
+@Value
+public class ObjectModule {
+
+    private static final int MAGIC = 0x4539334f;
+
+    /**
+     * Name used in errors, usually the source file
+     */
+    String name;
+
+    short[] words;
+
+    /**
+     * The module has to start at a multiple of this many words
+     */
+    int alignment;
+
+    String[] symbolNames;
+    int[] symbolOffsets;
+    int[] symbolLines;
+
+    String[] relocationNames;
+    int[] relocationOffsets;
+    int[] relocationLines;
+
+    /**
+     * Errors from assembling, the module can't be linked or written if there
+     * are any
+     */
+    List<Instruction> errors;
+
+    /**
+     * Assembles a source file into a module.
+     *
+     * @param name name of the module, used in errors
+     * @param reader source of the module
+     */
+    public static ObjectModule assemble(String name, Reader reader) throws IOException {
+        char[] buf = new char[1 << 16];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buf, length, buf.length - length)) > 0) {
+            length += read;
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        List<Instruction> instructions = new ArrayList<>();
+        InstructionParser.parseLines(buf, 0, length, 1, instructions);
+
+        List<Instruction> errors = new ArrayList<>();
+        Map<String, Integer> defined = new HashMap<>();
+        List<String> symbolNames = new ArrayList<>();
+        IntList symbolOffsets = new IntList();
+        IntList symbolLines = new IntList();
+        List<String> relocationNames = new ArrayList<>();
+        IntList relocationOffsets = new IntList();
+        IntList relocationLines = new IntList();
+        int words = 0;
+        int alignment = 1;
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof Align) {
+                alignment = Math.max(alignment, ((Align) instruction).getBoundaryInWords());
+            }
+            if (instruction instanceof ErrorLine) {
+                errors.add(instruction);
+            } else if (instruction instanceof Label) {
+                String label = ((Label) instruction).getName();
+                if (defined.putIfAbsent(label, words) != null) {
+                    errors.add(errorLine(instruction, "Duplicate label: " + label));
+                } else {
+                    symbolNames.add(label);
+                    symbolOffsets.add(words);
+                    symbolLines.add(instruction.getLineNumber());
+                }
+            } else {
+                if (instruction.getLabel() != null) {
+                    relocationNames.add(instruction.getLabel());
+                    relocationOffsets.add(words);
+                    relocationLines.add(instruction.getLineNumber());
+                }
+                words += Assembler.sizeInWords(instruction, words);
+            }
+        }
+
+        short[] image = new short[words];
+        if (errors.isEmpty()) {
+            Assembler.encode(instructions, image, 0);
+        }
+        errors.sort(Instruction.BY_LINE_NUMBER);
+        return new ObjectModule(name, image, alignment,
+                symbolNames.toArray(new String[0]), symbolOffsets.toArray(), symbolLines.toArray(),
+                relocationNames.toArray(new String[0]), relocationOffsets.toArray(), relocationLines.toArray(),
+                errors);
+    }
+
+    private static ErrorLine errorLine(Instruction instruction, String message) {
+        ErrorLine error = new ErrorLine(message);
+        error.setLineNumber(instruction.getLineNumber());
+        error.setSourceLine(instruction.getSourceLine());
+        return error;
+    }
+
+    /**
+     * Writes the module to a file, replacing it if it exists.
+     *
+     * @throws IllegalStateException if the module has errors
+     */
+    public void write(Path path) throws IOException {
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("module has errors: " + name);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(alignment);
+            ByteBuffer buffer = ByteBuffer.allocate(words.length * 2);
+            buffer.asShortBuffer().put(words);
+            out.writeInt(words.length);
+            out.write(buffer.array());
+            writeTable(out, symbolNames, symbolOffsets, symbolLines);
+            writeTable(out, relocationNames, relocationOffsets, relocationLines);
+        }
+    }
+
+    private static void writeTable(DataOutputStream out, String[] names, int[] offsets, int[] lines)
+            throws IOException {
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeUTF(names[i]);
+            out.writeInt(offsets[i]);
+            out.writeInt(lines[i]);
+        }
+    }
+
+    /**
+     * Reads a module that was written with {@link #write(Path)}. The module is
+     * named after the file.
+     *
+     * @throws IOException if the file can't be read or isn't an object module
+     */
+    public static ObjectModule read(Path path) throws IOException {
+        return read(path, path.toString());
+    }
+
+    /**
+     * Reads a module and gives it the name of its source file for errors
+     */
+    static ObjectModule read(Path path, String name) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an object module: " + path);
+            }
+            int alignment = in.readInt();
+            if (Integer.bitCount(alignment) != 1) {
+                throw new IOException("bad alignment " + alignment + " in " + path);
+            }
+            byte[] bytes = new byte[in.readInt() * 2];
+            in.readFully(bytes);
+            short[] words = new short[bytes.length / 2];
+            ByteBuffer.wrap(bytes).asShortBuffer().get(words);
+
+            int symbols = in.readInt();
+            String[] symbolNames = new String[symbols];
+            int[] symbolOffsets = new int[symbols];
+            int[] symbolLines = new int[symbols];
+            readTable(in, symbolNames, symbolOffsets, symbolLines);
+
+            int relocations = in.readInt();
+            String[] relocationNames = new String[relocations];
+            int[] relocationOffsets = new int[relocations];
+            int[] relocationLines = new int[relocations];
+            readTable(in, relocationNames, relocationOffsets, relocationLines);
+
+            return new ObjectModule(name, words, alignment, symbolNames, symbolOffsets, symbolLines,
+                    relocationNames, relocationOffsets, relocationLines, new ArrayList<>());
+        }
+    }
+
+    private static void readTable(DataInputStream in, String[] names, int[] offsets, int[] lines) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+            offsets[i] = in.readInt();
+            lines[i] = in.readInt();
+        }
+    }
+
+    /**
+     * Growable list of ints for building the tables without boxing
+     */
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
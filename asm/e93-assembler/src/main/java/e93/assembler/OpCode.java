@@ -24,12 +24,22 @@ public enum OpCode {
         return value;
     }
 
+    /**
+     * OpCodes indexed by their encoded value, null for unused values
+     */
+    private static final OpCode[] BY_VALUE = new OpCode[16];
+
+    static {
+        for (OpCode oc : values()) {
+            BY_VALUE[oc.getValue()] = oc;
+        }
+    }
+
     public static OpCode fromEncoded(int value) {
-        for(OpCode oc : values()) {
-           if (oc.getValue() == value) {
-               return oc;
-           }
+        OpCode oc = value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
+        if (oc == null) {
+            throw new IllegalArgumentException("unknown opcode:" + value);
         }
-        throw new IllegalArgumentException("unknown opcode:" + value);
+        return oc;
     }
 }
@@ -0,0 +1,361 @@
+package e93.assembler;
+
+import e93.assembler.InstructionParser.Instructions;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parsed program stored as parallel primitive arrays instead of one
+ * {@link Instruction} object per line.
+ *
+ * Each statement is a row with its kind, registers, immediate and line
+ * number. The source isn't copied into Strings, each row keeps the offsets of
+ * its line in the original buffer. A row costs 19 bytes plus the source text
+ * itself, which is a small fraction of an Instruction with its source line.
+ *
+ * Labels are resolved while parsing just like
+ * {@link InstructionParser#parse(Reader)}. Instructions are only created when
+ * asked for, see {@link #getInstruction(int)} and {@link #asList()}, by
+ * lexing the row's line again.
+ */
+public class PackedProgram {
+
+    private static final Instructions[] INSTRUCTIONS = Instructions.values();
+
+    /**
+     * Kinds for the rows that aren't instructions. Instructions use the
+     * ordinal of their {@link Instructions}.
+     */
+    private static final byte ASCIIZ = (byte) INSTRUCTIONS.length;
+    private static final byte DATA = (byte) (ASCIIZ + 1);
+    private static final byte LABEL = (byte) (ASCIIZ + 2);
+    private static final byte ERROR = (byte) (ASCIIZ + 3);
+
+    private static final OpCode[] OPCODES = new OpCode[INSTRUCTIONS.length];
+    private static final int[] FUNCS = new int[INSTRUCTIONS.length];
+
+    static {
+        for (Instructions instruction : INSTRUCTIONS) {
+            OpCode opCode;
+            switch (instruction) {
+                case AND:
+                    opCode = OpCode.ALU;
+                    FUNCS[instruction.ordinal()] = ALUFunctionCodes.AND;
+                    break;
+                case ADDI:
+                    opCode = OpCode.ADDI;
+                    break;
+                case SW:
+                    opCode = OpCode.SW;
+                    break;
+                case LW:
+                    opCode = OpCode.LW;
+                    break;
+                case JUMP:
+                    opCode = OpCode.J;
+                    break;
+                case ORI:
+                    opCode = OpCode.ORI;
+                    break;
+                default:
+                    throw new IllegalStateException("no opcode for " + instruction);
+            }
+            OPCODES[instruction.ordinal()] = opCode;
+        }
+    }
+
+    private final char[] source;
+
+    private byte[] kind = new byte[1024];
+    private byte[] r1 = new byte[1024];
+    private byte[] r2 = new byte[1024];
+    /**
+     * The immediate for instructions, the offset of the string in the source
+     * for .asciiz, the number of words for the other directives and the
+     * index of the message for errors
+     */
+    private int[] immediate = new int[1024];
+    private int[] lineNumber = new int[1024];
+    private int[] sourceStart = new int[1024];
+    private int[] sourceEnd = new int[1024];
+    private int size;
+
+    private final List<String> errorMessages = new ArrayList<>();
+    private int words;
+
+    private PackedProgram(char[] source) {
+        this.source = source;
+    }
+
+    public static PackedProgram parse(Reader reader) throws IOException {
+        char[] buf = new char[1 << 16];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buf, length, buf.length - length)) > 0) {
+            length += read;
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return parse(buf, length);
+    }
+
+    /**
+     * Parses the first length chars of the buffer. The buffer is kept by the
+     * program so it must not be changed afterwards.
+     */
+    public static PackedProgram parse(char[] source, int length) {
+        PackedProgram program = new PackedProgram(source);
+        program.parseLines(length);
+        return program;
+    }
+
+    private void parseLines(int length) {
+        LineLexer lexer = new LineLexer();
+        LabelResolver resolver = new LabelResolver(new LabelResolver.Sites() {
+            @Override
+            public void resolve(int index, int value) {
+                immediate[index] = value;
+            }
+
+            @Override
+            public void error(int index, String message) {
+                kind[index] = ERROR;
+                immediate[index] = errorMessages.size();
+                errorMessages.add(message);
+            }
+        });
+        int line = 1;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && source[lineEnd] != '\n' && source[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            if (lineEnd == lineStart || source[lineStart] != '#') {
+                lexer.lex(source, lineStart, lineEnd);
+                if (lexer.getLabel() != null) {
+                    resolver.define(lexer.getLabel(), add(LABEL, line, lineStart, lineEnd), words * 2);
+                }
+                if (lexer.hasStatement()) {
+                    addStatement(lexer, resolver, line, lineStart, lineEnd);
+                }
+            }
+            line++;
+            lineStart = lineEnd;
+            if (lineStart < length && source[lineStart] == '\r') {
+                lineStart++;
+            }
+            if (lineStart < length && source[lineStart] == '\n') {
+                lineStart++;
+            }
+        }
+        resolver.finish();
+    }
+
+    private void addStatement(LineLexer lexer, LabelResolver resolver, int line, int lineStart, int lineEnd) {
+        if (lexer.getError() != null) {
+            int row = add(ERROR, line, lineStart, lineEnd);
+            immediate[row] = errorMessages.size();
+            errorMessages.add(lexer.getError());
+            return;
+        }
+        if (lexer.getDirective() == InstructionParser.Directives.ASCIIZ) {
+            int row = add(ASCIIZ, line, lineStart, lineEnd);
+            immediate[row] = lexer.getStringStart();
+            // two characters per word plus the null terminator
+            words += (lexer.getStringEnd() - lexer.getStringStart()) / 2 + 1;
+            return;
+        }
+        if (lexer.getDirective() != null) {
+            // the data is rare enough that it's lexed again to encode it
+            int row = add(DATA, line, lineStart, lineEnd);
+            immediate[row] = Assembler.sizeInWords(InstructionParser.toInstruction(lexer), words);
+            words += immediate[row];
+            return;
+        }
+        Instructions instruction = lexer.getInstruction();
+        int row = add((byte) instruction.ordinal(), line, lineStart, lineEnd);
+        r1[row] = (byte) lexer.getR1();
+        r2[row] = (byte) lexer.getR2();
+        if (instruction == Instructions.JUMP) {
+            // same as the JumpImmediate, the target's low bit isn't written
+            immediate[row] = lexer.getImmediate() << 1;
+            if (lexer.getLabelReference() != null) {
+                resolver.reference(lexer.getLabelReference(), row, words * 2);
+            }
+        } else {
+            immediate[row] = lexer.getImmediate();
+        }
+        words++;
+    }
+
+    private int add(byte rowKind, int line, int lineStart, int lineEnd) {
+        if (size == kind.length) {
+            int capacity = size * 2;
+            kind = Arrays.copyOf(kind, capacity);
+            r1 = Arrays.copyOf(r1, capacity);
+            r2 = Arrays.copyOf(r2, capacity);
+            immediate = Arrays.copyOf(immediate, capacity);
+            lineNumber = Arrays.copyOf(lineNumber, capacity);
+            sourceStart = Arrays.copyOf(sourceStart, capacity);
+            sourceEnd = Arrays.copyOf(sourceEnd, capacity);
+        }
+        kind[size] = rowKind;
+        lineNumber[size] = line;
+        sourceStart[size] = lineStart;
+        sourceEnd[size] = lineEnd;
+        return size++;
+    }
+
+    /**
+     * @return number of rows, the same as the number of Instructions that
+     *         {@link InstructionParser#parse(Reader)} would return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the size of the program in words
+     */
+    public int sizeInWords() {
+        return words;
+    }
+
+    /**
+     * @return number of rows that are errors
+     */
+    public int getErrorCount() {
+        return errorMessages.size();
+    }
+
+    public boolean isError(int row) {
+        return kind[row] == ERROR;
+    }
+
+    /**
+     * @return the opcode for the row or null if it's not an instruction
+     */
+    public OpCode getOpcode(int row) {
+        return kind[row] < ASCIIZ ? OPCODES[kind[row]] : null;
+    }
+
+    public int getR1(int row) {
+        return r1[row];
+    }
+
+    public int getR2(int row) {
+        return r2[row];
+    }
+
+    public int getImmediate(int row) {
+        return immediate[row];
+    }
+
+    public int getLineNumber(int row) {
+        return lineNumber[row];
+    }
+
+    public String getSourceLine(int row) {
+        return new String(source, sourceStart[row], sourceEnd[row] - sourceStart[row]);
+    }
+
+    /**
+     * Encodes the whole program into a new image with one element per word.
+     *
+     * @throws IllegalStateException if there are any errors
+     */
+    public short[] encode() {
+        short[] image = new short[words];
+        encode(image, 0);
+        return image;
+    }
+
+    /**
+     * Encodes the whole program into an image with one element per word.
+     *
+     * @return number of words written
+     * @throws IllegalStateException if there are any errors
+     */
+    public int encode(short[] image, int offset) {
+        int address = offset;
+        for (int row = 0; row < size; row++) {
+            byte k = kind[row];
+            if (k < ASCIIZ) {
+                image[address++] = (short) Assembler.encode(OPCODES[k], r1[row], r2[row], FUNCS[k], immediate[row]);
+            } else if (k == ASCIIZ) {
+                int i = immediate[row];
+                while (source[i] != '"' && source[i + 1] != '"') {
+                    image[address++] = (short) (source[i + 1] << 8 | source[i]);
+                    i += 2;
+                }
+                // an odd character out shares the last word with the null
+                image[address++] = (short) (source[i] == '"' ? 0 : source[i]);
+            } else if (k == DATA) {
+                Instruction data = getInstruction(row);
+                for (int i = 0; i < immediate[row]; i++) {
+                    image[address++] = (short) Assembler.dataWord(data, i);
+                }
+            } else if (k == ERROR) {
+                throw new IllegalStateException("line " + lineNumber[row] + ": " + errorMessages.get(immediate[row]));
+            }
+        }
+        return address - offset;
+    }
+
+    /**
+     * Creates the Instruction for a row by lexing its line again. It's the
+     * same as the one {@link InstructionParser#parse(Reader)} would have
+     * created.
+     */
+    public Instruction getInstruction(int row) {
+        Instruction instruction;
+        if (kind[row] == ERROR) {
+            instruction = new ErrorLine(errorMessages.get(immediate[row]));
+        } else {
+            LineLexer lexer = new LineLexer();
+            lexer.lex(source, sourceStart[row], sourceEnd[row]);
+            if (kind[row] == LABEL) {
+                instruction = new Label(lexer.getLabel());
+            } else {
+                instruction = InstructionParser.toInstruction(lexer);
+                if (instruction instanceof JumpImmediate) {
+                    ((JumpImmediate) instruction).setImmediate(immediate[row]);
+                }
+            }
+        }
+        instruction.setLineNumber(lineNumber[row]);
+        instruction.setSourceLine(getSourceLine(row));
+        return instruction;
+    }
+
+    /**
+     * @return a read only view of the program as Instructions, each one is
+     *         created when it's asked for and isn't kept
+     */
+    public List<Instruction> asList() {
+        return new AbstractList<Instruction>() {
+            @Override
+            public Instruction get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("index " + index + " size " + size);
+                }
+                return getInstruction(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,260 @@
+package e93.assembler;
+
+import e93.assembler.ast.Align;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.Label;
+import lombok.Value;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Assembles large sources by splitting them into line-aligned chunks that are
+ * parsed and encoded in parallel on a fork-join pool.
+ *
+ * There are two parallel phases with a quick serial step in between:
+ * <ol>
+ *     <li>each chunk is parsed with line numbers starting at 1 and counts
+ *     its lines and the words it occupies</li>
+ *     <li>prefix sums of those counts give each chunk its first line number
+ *     and first word address. Each chunk remembers where its labels and
+ *     the jumps to labels are so they're resolved here without another
+ *     pass over the instructions. A chunk with a {@code .align} in it is
+ *     laid out again here since its size depends on where it starts</li>
+ *     <li>each chunk encodes its words into its slice of the image</li>
+ * </ol>
+ * The instructions and the image come out exactly the same as parsing with
+ * {@link InstructionParser#parse(Reader)} and encoding in order.
+ */
+public class ParallelAssembler {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelAssembler(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pool pool to run the chunks on
+     * @param chunkSize target size of each chunk in chars
+     */
+    public ParallelAssembler(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public Result assemble(Reader reader) throws IOException {
+        char[] buf = new char[1 << 16];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buf, length, buf.length - length)) > 0) {
+            length += read;
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return assemble(buf, length);
+    }
+
+    /**
+     * Assembles the first length chars of the buffer.
+     */
+    public Result assemble(char[] source, int length) {
+        Chunk[] chunks = split(source, length);
+        pool.invoke(new ParseTask(source, chunks, 0, chunks.length));
+
+        int lines = 0;
+        int words = 0;
+        int count = 0;
+        List<Instruction> errors = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            chunk.firstLine = lines;
+            chunk.firstWord = words;
+            if (chunk.aligned && words != 0) {
+                chunk.layout(words);
+            }
+            lines += chunk.lines;
+            words += chunk.words;
+            count += chunk.instructions.size();
+            errors.addAll(chunk.errors);
+        }
+
+        List<Instruction> instructions = new ArrayList<>(count);
+        LabelResolver resolver = new LabelResolver(instructions);
+        for (Chunk chunk : chunks) {
+            int base = instructions.size();
+            for (Instruction instruction : chunk.instructions) {
+                instruction.setLineNumber(instruction.getLineNumber() + chunk.firstLine);
+                instructions.add(instruction);
+            }
+            for (int i = 0; i < chunk.labelCount; i += 2) {
+                int index = base + chunk.labels[i];
+                int address = (chunk.firstWord + chunk.labels[i + 1]) * 2;
+                if (instructions.get(index) instanceof Label) {
+                    resolver.define(index, address);
+                } else {
+                    resolver.reference(index, address);
+                }
+            }
+        }
+        List<Instruction> labelErrors = resolver.finish();
+        if (!labelErrors.isEmpty()) {
+            errors.addAll(labelErrors);
+            errors.sort(Instruction.BY_LINE_NUMBER);
+        }
+
+        short[] image = errors.isEmpty() ? new short[words] : null;
+        if (image != null) {
+            pool.invoke(new EncodeTask(chunks, 0, chunks.length, image));
+        }
+        return new Result(instructions, image, errors);
+    }
+
+    /**
+     * Splits the source into chunks of about chunkSize chars that each end
+     * just after a \n.
+     */
+    private Chunk[] split(char[] source, int length) {
+        List<Chunk> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(length, start + chunkSize);
+            while (end < length && source[end - 1] != '\n') {
+                end++;
+            }
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks.toArray(new Chunk[0]);
+    }
+
+    private static final class Chunk {
+        final int start;
+        final int end;
+        final List<Instruction> instructions = new ArrayList<>();
+        final List<Instruction> errors = new ArrayList<>();
+        int lines;
+        int words;
+        int firstLine;
+        int firstWord;
+        boolean aligned;
+
+        /**
+         * Pairs of index in instructions and address in words for the labels
+         * and the jumps to labels
+         */
+        int[] labels = new int[16];
+        int labelCount;
+
+        Chunk(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Finds the words the chunk occupies and where its labels and jumps
+         * to labels are when it starts at the given address.
+         */
+        void layout(int address) {
+            words = 0;
+            labelCount = 0;
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                if (instruction instanceof ErrorLine) {
+                    continue;
+                }
+                if (instruction instanceof Label || instruction.getLabel() != null) {
+                    if (labelCount == labels.length) {
+                        labels = Arrays.copyOf(labels, labelCount * 2);
+                    }
+                    labels[labelCount++] = i;
+                    labels[labelCount++] = words;
+                }
+                if (instruction instanceof Align) {
+                    aligned = true;
+                }
+                words += Assembler.sizeInWords(instruction, address + words);
+            }
+        }
+    }
+
+    private static final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final char[] source;
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+        ParseTask(char[] source, Chunk[] chunks, int from, int to) {
+            this.source = source;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseTask(source, chunks, from, mid), new ParseTask(source, chunks, mid, to));
+                return;
+            }
+            Chunk chunk = chunks[from];
+            chunk.lines = InstructionParser.parseLines(source, chunk.start, chunk.end, 1, chunk.instructions);
+            for (Instruction instruction : chunk.instructions) {
+                if (instruction instanceof ErrorLine) {
+                    chunk.errors.add(instruction);
+                }
+            }
+            chunk.layout(0);
+        }
+    }
+
+    private static final class EncodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+        private final short[] image;
+
+        EncodeTask(Chunk[] chunks, int from, int to, short[] image) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.image = image;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new EncodeTask(chunks, from, mid, image), new EncodeTask(chunks, mid, to, image));
+                return;
+            }
+            Chunk chunk = chunks[from];
+            Assembler.encode(chunk.instructions, image, chunk.firstWord);
+        }
+    }
+
+    @Value
+    public static class Result {
+        List<Instruction> instructions;
+
+        /**
+         * Encoded program, one element per word, or null if there were errors
+         */
+        short[] image;
+
+        List<Instruction> errors;
+    }
+}
@@ -0,0 +1,297 @@
+package e93.assembler;
+
+import e93.assembler.ast.AddImmediate;
+import e93.assembler.ast.And;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
+import e93.assembler.ast.LoadWord;
+import e93.assembler.ast.OrImmediate;
+import e93.assembler.ast.Space;
+import e93.assembler.ast.StoreWord;
+import lombok.Value;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Removes instructions that can't change what a program does. It runs on the
+ * instructions from {@link InstructionParser#parse(Reader)} before they're
+ * encoded.
+ *
+ * The program is looked at one basic block at a time, a block ends at a
+ * label since it could be jumped to and after a jump. Within a block it
+ * removes:
+ * <ul>
+ *     <li>{@code ADDI} and {@code ORI} of 0, and {@code AND} of a register
+ *     with itself</li>
+ *     <li>an {@code AND} that's the same as an earlier one when neither
+ *     register has been written since, like clearing a register twice</li>
+ *     <li>a {@code SW} when a later one stores to the same address register
+ *     before anything is loaded</li>
+ *     <li>a {@code SW} of the value that was just loaded from the same
+ *     address</li>
+ *     <li>a {@code J} to the instruction right after it</li>
+ * </ul>
+ *
+ * Removing an instruction moves everything after it. Jumps to labels are
+ * resolved again, but data can only be reached through addresses written
+ * into the code, so the words removed in front of data are made up with a
+ * {@code .space} right before it. A program with a jump to a numeric address
+ * is left alone, and so is one whose labels would end up out of range.
+ */
+public class PeepholeOptimizer {
+
+    private static final int REGISTERS = 16;
+    private static final int NONE = -1;
+
+    private final List<Instruction> instructions;
+    private final boolean[] removed;
+    private final List<Change> changes = new ArrayList<>();
+
+    /**
+     * For each register, the other register of the last AND into it, if
+     * neither has been written since
+     */
+    private final int[] andWith = new int[REGISTERS];
+    private final int[] andAt = new int[REGISTERS];
+    /**
+     * For each address register, the index of the last store through it that
+     * nothing has loaded since
+     */
+    private final int[] storeAt = new int[REGISTERS];
+    /**
+     * For each register, the address register it was loaded through if
+     * neither has been written and nothing has been stored since
+     */
+    private final int[] loadedFrom = new int[REGISTERS];
+
+    private PeepholeOptimizer(List<Instruction> instructions) {
+        this.instructions = instructions;
+        this.removed = new boolean[instructions.size()];
+    }
+
+    /**
+     * Optimizes the program. The instructions passed in aren't changed.
+     *
+     * @param instructions a parsed program without any errors
+     * @return the optimized program and what was removed, or the same program
+     *         and no changes if it can't be optimized
+     * @throws IllegalArgumentException if the program has errors
+     */
+    public static Result optimize(List<Instruction> instructions) {
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof ErrorLine) {
+                throw new IllegalArgumentException("program has errors, line " + instruction.getLineNumber());
+            }
+            if (instruction instanceof JumpImmediate && instruction.getLabel() == null) {
+                // the target is a fixed address
+                return new Result(instructions, Collections.emptyList());
+            }
+        }
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(instructions);
+        optimizer.scan();
+        if (optimizer.changes.isEmpty()) {
+            return new Result(instructions, Collections.emptyList());
+        }
+        List<Instruction> optimized = remove(instructions, optimizer.removed);
+        if (optimized == null) {
+            return new Result(instructions, Collections.emptyList());
+        }
+        optimizer.changes.sort(Change.BY_LINE_NUMBER);
+        return new Result(optimized, optimizer.changes);
+    }
+
+    private void scan() {
+        startBlock();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction instanceof AddImmediate) {
+                AddImmediate addi = (AddImmediate) instruction;
+                if (addi.getImmediate() == 0) {
+                    remove(i, "ADDI of 0 does nothing");
+                } else {
+                    written(addi.getR1());
+                }
+            } else if (instruction instanceof OrImmediate) {
+                OrImmediate ori = (OrImmediate) instruction;
+                if (ori.getImmediate() == 0) {
+                    remove(i, "ORI of 0 does nothing");
+                } else {
+                    written(ori.getR1());
+                }
+            } else if (instruction instanceof And) {
+                and(i, (And) instruction);
+            } else if (instruction instanceof StoreWord) {
+                store(i, (StoreWord) instruction);
+            } else if (instruction instanceof LoadWord) {
+                LoadWord lw = (LoadWord) instruction;
+                // the load could read any of the pending stores
+                Arrays.fill(storeAt, NONE);
+                written(lw.getR1());
+                if (lw.getR1() != lw.getR2()) {
+                    loadedFrom[lw.getR1()] = lw.getR2();
+                }
+            } else if (instruction instanceof JumpImmediate) {
+                if (jumpsToNext(i)) {
+                    remove(i, "jump to the next instruction");
+                }
+                startBlock();
+            } else {
+                // labels can be jumped to and data isn't run
+                startBlock();
+            }
+        }
+    }
+
+    private void and(int i, And and) {
+        int r1 = and.getR1();
+        int r2 = and.getR2();
+        if (r1 == r2) {
+            remove(i, "AND of a register with itself does nothing");
+        } else if (andWith[r1] == r2) {
+            remove(i, "same as the AND on line " + instructions.get(andAt[r1]).getLineNumber());
+        } else {
+            written(r1);
+            andWith[r1] = r2;
+            andAt[r1] = i;
+        }
+    }
+
+    private void store(int i, StoreWord sw) {
+        int value = sw.getR1();
+        int address = sw.getR2();
+        if (loadedFrom[value] == address) {
+            remove(i, "stores the value that was just loaded from there");
+            return;
+        }
+        if (storeAt[address] != NONE) {
+            remove(storeAt[address], "overwritten by the store on line " + sw.getLineNumber());
+        }
+        storeAt[address] = i;
+        // the store could change what any of the registers were loaded from
+        Arrays.fill(loadedFrom, NONE);
+    }
+
+    /**
+     * @return true if the jump's label is defined before the next thing that
+     *         takes up space, and that's an instruction
+     */
+    private boolean jumpsToNext(int i) {
+        String target = instructions.get(i).getLabel();
+        boolean found = false;
+        for (int j = i + 1; j < instructions.size(); j++) {
+            Instruction next = instructions.get(j);
+            if (!(next instanceof Label)) {
+                return found && next.getOpcode() != null;
+            }
+            found |= ((Label) next).getName().equals(target);
+        }
+        return false;
+    }
+
+    private void startBlock() {
+        Arrays.fill(andWith, NONE);
+        Arrays.fill(storeAt, NONE);
+        Arrays.fill(loadedFrom, NONE);
+    }
+
+    /**
+     * Forgets what was known about the register now that it has a new value.
+     */
+    private void written(int register) {
+        andWith[register] = NONE;
+        storeAt[register] = NONE;
+        loadedFrom[register] = NONE;
+        for (int r = 0; r < REGISTERS; r++) {
+            if (andWith[r] == register) {
+                andWith[r] = NONE;
+            }
+            if (loadedFrom[r] == register) {
+                loadedFrom[r] = NONE;
+            }
+        }
+    }
+
+    private void remove(int i, String reason) {
+        removed[i] = true;
+        Instruction instruction = instructions.get(i);
+        changes.add(new Change(instruction.getLineNumber(), instruction.getSourceLine(), reason));
+    }
+
+    /**
+     * Builds the program without the removed instructions, padding in front of
+     * data so it doesn't move, and resolves the labels again. The instructions
+     * passed in aren't changed. {@link CodeLayout} uses it too.
+     *
+     * @param removed which of the instructions to leave out
+     * @return the program or null if a label is now out of range
+     */
+    static List<Instruction> remove(List<Instruction> instructions, boolean[] removed) {
+        List<Instruction> optimized = new ArrayList<>(instructions.size());
+        int removedWords = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (removed[i]) {
+                removedWords++;
+                continue;
+            }
+            if (instruction.getOpcode() == null && !(instruction instanceof Label) && removedWords > 0) {
+                // the labels right before the data name the data
+                int at = optimized.size();
+                while (at > 0 && optimized.get(at - 1) instanceof Label) {
+                    at--;
+                }
+                Space padding = new Space(removedWords * 2);
+                padding.setLineNumber(instruction.getLineNumber());
+                optimized.add(at, padding);
+                removedWords = 0;
+            }
+            if (instruction instanceof JumpImmediate) {
+                // copied since resolving the labels again changes it
+                JumpImmediate jump = new JumpImmediate();
+                jump.setLabel(instruction.getLabel());
+                jump.setLineNumber(instruction.getLineNumber());
+                jump.setSourceLine(instruction.getSourceLine());
+                instruction = jump;
+            }
+            optimized.add(instruction);
+        }
+
+        LabelResolver resolver = new LabelResolver(optimized);
+        InstructionParser.resolveLabels(resolver, optimized, 0, 0);
+        return resolver.finish().isEmpty() ? optimized : null;
+    }
+
+    @Value
+    public static class Result {
+        List<Instruction> instructions;
+
+        /**
+         * What was removed in line order
+         */
+        List<Change> changes;
+    }
+
+    @Value
+    public static class Change {
+        static final Comparator<Change> BY_LINE_NUMBER = new Comparator<Change>() {
+            @Override
+            public int compare(Change a, Change b) {
+                return Integer.compare(a.lineNumber, b.lineNumber);
+            }
+        };
+
+        int lineNumber;
+        String sourceLine;
+
+        /**
+         * Why the instruction could be removed
+         */
+        String reason;
+    }
+}
@@ -0,0 +1,129 @@
+package e93.assembler;
+
+import e93.assembler.ast.ErrorLine;
+import e93.emulator.MemorySubsystem;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An assembled program laid out exactly the way it goes in memory, two bytes
+ * per word in little-endian order starting at address 0.
+ *
+ * This is how the assembler hands a program to the emulator without writing
+ * it out in one of the file formats and reading it back in. Loading it is a
+ * single {@link MemorySubsystem#writeBytes} of the whole program.
+ */
+public class ProgramImage {
+
+    private final byte[] bytes;
+    private final List<Instruction> errors;
+
+    private ProgramImage(byte[] bytes, List<Instruction> errors) {
+        this.bytes = bytes;
+        this.errors = errors;
+    }
+
+    /**
+     * Assembles the source into an image.
+     *
+     * @return the image, check {@link #getErrors()} before loading it
+     */
+    public static ProgramImage assemble(Reader reader) throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(reader);
+        List<Instruction> errors = null;
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof ErrorLine) {
+                if (errors == null) {
+                    errors = new ArrayList<>();
+                }
+                errors.add(instruction);
+            }
+        }
+        if (errors != null) {
+            return new ProgramImage(new byte[0], errors);
+        }
+        return of(instructions);
+    }
+
+    /**
+     * Assembles the source into an image, for tests and other small programs
+     * that are already in memory.
+     *
+     * @throws IllegalArgumentException if the source has errors
+     */
+    public static ProgramImage assemble(String source) {
+        ProgramImage image;
+        try {
+            image = assemble(new StringReader(source));
+        } catch (IOException e) {
+            // a StringReader doesn't throw
+            throw new IllegalStateException(e);
+        }
+        if (!image.errors.isEmpty()) {
+            Instruction error = image.errors.get(0);
+            throw new IllegalArgumentException("line " + error.getLineNumber() + ": "
+                    + ((ErrorLine) error).getErrorMessage());
+        }
+        return image;
+    }
+
+    /**
+     * Encodes instructions that have already been parsed.
+     *
+     * @throws IllegalStateException if any of them are errors
+     */
+    public static ProgramImage of(List<Instruction> instructions) {
+        ByteBuffer buffer = ByteBuffer.allocate(Assembler.sizeInWords(instructions) * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Assembler.encode(instructions, buffer);
+        return new ProgramImage(buffer.array(), Collections.emptyList());
+    }
+
+    /**
+     * @param words encoded program, one element per word
+     */
+    public static ProgramImage of(short[] words) {
+        ByteBuffer buffer = ByteBuffer.allocate(words.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(words);
+        return new ProgramImage(buffer.array(), Collections.emptyList());
+    }
+
+    /**
+     * Copies the program into memory starting at address 0.
+     *
+     * @return number of words loaded
+     * @throws IllegalStateException if the program had errors
+     */
+    public int loadInto(MemorySubsystem memory) {
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("program has " + errors.size() + " errors");
+        }
+        memory.writeBytes(0, bytes, 0, bytes.length);
+        return bytes.length / 2;
+    }
+
+    public int sizeInWords() {
+        return bytes.length / 2;
+    }
+
+    /**
+     * @return the word at the given word address
+     */
+    public int getWord(int index) {
+        return (bytes[index * 2 + 1] & 0xff) << 8 | bytes[index * 2] & 0xff;
+    }
+
+    /**
+     * @return errors from assembling, empty if it's ready to load
+     */
+    public List<Instruction> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,275 @@
+package e93.assembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The debug info sidecar the assembler writes next to a program with
+ * {@code -g}: the source line of each word address and the address of each
+ * label, so the emulator's tools can report by source line without the
+ * source.
+ *
+ * The file is memory-mapped and nothing is decoded until it's asked for, so
+ * opening it costs the same for any size of program. The line for a word is a
+ * binary search of the checkpoints and at most {@link #RUNS_PER_CHECKPOINT}
+ * runs decoded from there, without allocating.
+ *
+ * All values are little-endian. The file starts with a 32 byte header:
+ * <pre>
+ *   int   magic "E93S"
+ *   byte  version
+ *   byte  reserved
+ *   short reserved
+ *   int   number of words in the program
+ *   int   string offset of the source file name
+ *   int   number of symbols
+ *   int   number of checkpoints
+ *   int   size of the runs in bytes
+ *   int   size of the strings in bytes
+ * </pre>
+ * followed by the symbols in address order (int word address, int string
+ * offset of the name), the checkpoints (int word address, int line the
+ * previous run ended on, int offset into the runs), the runs and the strings
+ * (short length then UTF-8).
+ *
+ * A run covers the words from where the previous one ended. It's a varint of
+ * the number of words shifted left one with the low bit set when each word
+ * is on the line after the one before, like straight line code, and clear
+ * when they're all on the same line, like a {@code .asciiz}. Then the zig-zag
+ * varint of the run's first line minus the line after where the previous run
+ * ended, which is 0 for most of a program. A thousand lines of straight line
+ * code is a few bytes.
+ */
+public class SourceMap {
+
+    static final int MAGIC = 'E' | '9' << 8 | '3' << 16 | 'S' << 24;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RUNS_PER_CHECKPOINT = 64;
+
+    private final ByteBuffer buffer;
+    private final int words;
+    private final int symbols;
+    private final int checkpoints;
+    private final int symbolsStart;
+    private final int checkpointsStart;
+    private final int runsStart;
+    private final int stringsStart;
+
+    /**
+     * Names are only decoded the first time they're used
+     */
+    private String source;
+    private final String[] names;
+
+    private SourceMap(ByteBuffer buffer, Path path) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not an e93 source map:" + path);
+        }
+        if (buffer.get(4) != VERSION) {
+            throw new IOException("unsupported source map version:" + buffer.get(4));
+        }
+        this.words = buffer.getInt(8);
+        this.symbols = buffer.getInt(16);
+        this.checkpoints = buffer.getInt(20);
+        this.symbolsStart = HEADER_SIZE;
+        this.checkpointsStart = symbolsStart + symbols * 8;
+        this.runsStart = checkpointsStart + checkpoints * 12;
+        this.stringsStart = runsStart + buffer.getInt(24);
+        if (stringsStart + buffer.getInt(28) != buffer.limit()) {
+            throw new IOException("source map is truncated:" + path);
+        }
+        this.names = new String[symbols];
+    }
+
+    /**
+     * Maps the file, which can be closed straight away.
+     *
+     * @throws IOException if it isn't a source map
+     */
+    public static SourceMap open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SourceMap(buffer.order(ByteOrder.LITTLE_ENDIAN), path);
+        }
+    }
+
+    /**
+     * @return the sidecar next to the program, program.dbg for program.mif
+     */
+    public static Path sidecar(Path program) {
+        String name = program.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return program.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".dbg");
+    }
+
+    /**
+     * @return the sidecar next to the program, or null if there isn't one
+     */
+    public static SourceMap find(Path program) throws IOException {
+        Path sidecar = sidecar(program);
+        return Files.isRegularFile(sidecar) ? open(sidecar) : null;
+    }
+
+    public int getWords() {
+        return words;
+    }
+
+    public String getSource() {
+        if (source == null) {
+            source = string(buffer.getInt(12));
+        }
+        return source;
+    }
+
+    /**
+     * @return the source line of the word, or -1 if it's past the program
+     */
+    public int line(int wordAddress) {
+        if (wordAddress < 0 || wordAddress >= words) {
+            return -1;
+        }
+        // the last checkpoint at or before the word
+        int low = 0;
+        int high = checkpoints - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (buffer.getInt(checkpointsStart + mid * 12) <= wordAddress) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int checkpoint = checkpointsStart + low * 12;
+        int word = buffer.getInt(checkpoint);
+        int endLine = buffer.getInt(checkpoint + 4);
+        int position = runsStart + buffer.getInt(checkpoint + 8);
+        while (true) {
+            int header = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                header |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            int delta = 0;
+            shift = 0;
+            do {
+                b = buffer.get(position++);
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            int length = header >>> 1;
+            boolean stepped = (header & 1) != 0;
+            int line = endLine + 1 + ((delta >>> 1) ^ -(delta & 1));
+            if (wordAddress < word + length) {
+                return stepped ? line + wordAddress - word : line;
+            }
+            word += length;
+            endLine = stepped ? line + length - 1 : line;
+        }
+    }
+
+    /**
+     * @return the first word on the line, or -1 if the line has no words
+     */
+    public int wordAddressOf(int line) {
+        for (int word = 0; word < words; word++) {
+            if (line(word) == line) {
+                return word;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the word address of the label, or -1 if there's no such label
+     */
+    public int addressOf(String label) {
+        for (int i = 0; i < symbols; i++) {
+            if (name(i).equals(label)) {
+                return buffer.getInt(symbolsStart + i * 8);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends where the word came from, like {@code sample.asm:12 loop+2},
+     * leaving out the label when there isn't one before it. Nothing is
+     * allocated once the names have been decoded.
+     *
+     * @return the builder
+     */
+    public StringBuilder appendLocation(StringBuilder sb, int wordAddress) {
+        sb.append(getSource()).append(':').append(line(wordAddress));
+        int symbol = symbolAtOrBefore(wordAddress);
+        if (symbol >= 0) {
+            sb.append(' ').append(name(symbol));
+            int offset = wordAddress - buffer.getInt(symbolsStart + symbol * 8);
+            if (offset > 0) {
+                sb.append('+').append(offset);
+            }
+        }
+        return sb;
+    }
+
+    public String describe(int wordAddress) {
+        return appendLocation(new StringBuilder(), wordAddress).toString();
+    }
+
+    /**
+     * @return the index of the last label at or before the word, or -1
+     */
+    private int symbolAtOrBefore(int wordAddress) {
+        int low = 0;
+        int high = symbols - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(symbolsStart + mid * 8) <= wordAddress) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private String name(int symbol) {
+        if (names[symbol] == null) {
+            names[symbol] = string(buffer.getInt(symbolsStart + symbol * 8 + 4));
+        }
+        return names[symbol];
+    }
+
+    private String string(int offset) {
+        int position = stringsStart + offset;
+        byte[] bytes = new byte[buffer.getShort(position) & 0xffff];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+}
@@ -0,0 +1,174 @@
+package e93.assembler;
+
+import e93.assembler.ast.Label;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the debug info sidecar for an assembled program, see
+ * {@link SourceMap} for the layout.
+ */
+public class SourceMapWriter {
+
+    private ByteBuffer runs = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<int[]> checkpoints = new ArrayList<>();
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private int stringsSize;
+
+    // the run being built, which starts at word
+    private int runLength;
+    private int runLine;
+    private boolean runStepped;
+    private int runCount;
+
+    // where the last run that was written left off
+    private int word;
+    private int endLine;
+
+    private SourceMapWriter() {
+    }
+
+    /**
+     * Writes the sidecar for the program, replacing the file if it exists.
+     *
+     * @param instructions the program in the order it's laid out in memory,
+     *        with the line numbers from the source
+     * @param source name of the source file
+     */
+    public static void write(List<Instruction> instructions, String source, Path path) throws IOException {
+        ByteBuffer buffer = new SourceMapWriter().encode(instructions, source);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the whole file, ready to write
+     */
+    private ByteBuffer encode(List<Instruction> instructions, String source) {
+        int fileName = string(source);
+        List<int[]> symbols = new ArrayList<>();
+        int address = 0;
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof Label) {
+                symbols.add(new int[] {address, string(((Label) instruction).getName())});
+                continue;
+            }
+            int words = Assembler.sizeInWords(instruction, address);
+            if (words > 0) {
+                add(words, instruction.getLineNumber());
+            }
+            address += words;
+        }
+        flushRun();
+
+        int size = SourceMap.HEADER_SIZE + symbols.size() * 8 + checkpoints.size() * 12
+                + runs.position() + stringsSize;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(SourceMap.MAGIC);
+        buffer.put(SourceMap.VERSION);
+        buffer.put((byte) 0);
+        buffer.putShort((short) 0);
+        buffer.putInt(address);
+        buffer.putInt(fileName);
+        buffer.putInt(symbols.size());
+        buffer.putInt(checkpoints.size());
+        buffer.putInt(runs.position());
+        buffer.putInt(stringsSize);
+        for (int[] symbol : symbols) {
+            buffer.putInt(symbol[0]);
+            buffer.putInt(symbol[1]);
+        }
+        for (int[] checkpoint : checkpoints) {
+            for (int value : checkpoint) {
+                buffer.putInt(value);
+            }
+        }
+        runs.flip();
+        buffer.put(runs);
+        for (String s : strings.keySet()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Adds the words for an instruction, extending the current run when it
+     * carries on from it.
+     */
+    private void add(int words, int line) {
+        if (runLength > 0) {
+            if (runStepped && words == 1 && line == runLine + runLength) {
+                runLength++;
+                return;
+            }
+            if (!runStepped && line == runLine) {
+                runLength += words;
+                return;
+            }
+            if (runLength == 1 && words == 1 && line == runLine + 1) {
+                runStepped = true;
+                runLength++;
+                return;
+            }
+            flushRun();
+        }
+        runLength = words;
+        runLine = line;
+        runStepped = false;
+    }
+
+    private void flushRun() {
+        if (runLength == 0) {
+            return;
+        }
+        if (runCount % SourceMap.RUNS_PER_CHECKPOINT == 0) {
+            checkpoints.add(new int[] {word, endLine, runs.position()});
+        }
+        runCount++;
+        ensureRoom(15);
+        SourceMap.putVarInt(runs, runLength << 1 | (runStepped ? 1 : 0));
+        SourceMap.putVarInt(runs, SourceMap.zigZag(runLine - (endLine + 1)));
+        word += runLength;
+        endLine = runStepped ? runLine + runLength - 1 : runLine;
+        runLength = 0;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (runs.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(runs.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            runs.flip();
+            bigger.put(runs);
+            runs = bigger;
+        }
+    }
+
+    /**
+     * @return offset of the string in the string table, adding it if it's new
+     */
+    private int string(String s) {
+        Integer offset = strings.get(s);
+        if (offset == null) {
+            offset = stringsSize;
+            strings.put(s, offset);
+            stringsSize += 2 + s.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,33 @@
+package e93.assembler.ast;
+
+import e93.assembler.Instruction;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Pads with zeros up to the next address that's a multiple of 2^power bytes,
+ * written as {@code .align power}. Everything is already word aligned so
+ * powers of 0 and 1 don't do anything.
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class Align extends Instruction {
+
+    private int power;
+
+    public Align(int power) {
+        this.power = power;
+    }
+
+    /**
+     * @return the boundary in words
+     */
+    public int getBoundaryInWords() {
+        return power == 0 ? 1 : 1 << (power - 1);
+    }
+
+    @Override
+    public <R> R accept(AssemblyVisitor<R> assemblyVisitor) {
+        return assemblyVisitor.visit(this);
+    }
+}
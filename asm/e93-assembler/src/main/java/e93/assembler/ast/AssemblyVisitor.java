@@ -22,6 +22,18 @@ public interface AssemblyVisitor<R> {
     default R visit(Asciiz asciiz) {
         return null;
     }
+    default R visit(DataBlock dataBlock) {
+        return null;
+    }
+    default R visit(Space space) {
+        return null;
+    }
+    default R visit(Align align) {
+        return null;
+    }
+    default R visit(Label label) {
+        return null;
+    }
     default R visit(ErrorLine errorLine) {
         throw new IllegalStateException("should detect errors before writing mif");
     }
@@ -0,0 +1,26 @@
+package e93.assembler.ast;
+
+import e93.assembler.Instruction;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Data from a {@code .word} or {@code .byte} directive, already laid out as
+ * the bytes that go in memory. Words are little-endian like the rest of
+ * memory and an odd number of bytes is padded with a 0 to fill the last word.
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class DataBlock extends Instruction {
+
+    private byte[] bytes;
+
+    public DataBlock(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public <R> R accept(AssemblyVisitor<R> assemblyVisitor) {
+        return assemblyVisitor.visit(this);
+    }
+}
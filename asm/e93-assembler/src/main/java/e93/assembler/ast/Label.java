@@ -0,0 +1,26 @@
+package e93.assembler.ast;
+
+import e93.assembler.Instruction;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Definition of a label, written as {@code name:} at the start of a line. It
+ * doesn't take up any space in memory, it names the address of whatever comes
+ * after it.
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class Label extends Instruction {
+
+    private String name;
+
+    public Label(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public <R> R accept(AssemblyVisitor<R> assemblyVisitor) {
+        return assemblyVisitor.visit(this);
+    }
+}
@@ -0,0 +1,25 @@
+package e93.assembler.ast;
+
+import e93.assembler.Instruction;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Reserves zeroed memory, written as {@code .space bytes}. An odd number of
+ * bytes is rounded up to a whole word.
+ */
+@EqualsAndHashCode(callSuper = true)
+@Data
+public class Space extends Instruction {
+
+    private int bytes;
+
+    public Space(int bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public <R> R accept(AssemblyVisitor<R> assemblyVisitor) {
+        return assemblyVisitor.visit(this);
+    }
+}
@@ -0,0 +1,297 @@
+package e93.compiler;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.LabelResolver;
+import e93.assembler.ast.AddImmediate;
+import e93.assembler.ast.And;
+import e93.assembler.ast.DataBlock;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
+import e93.assembler.ast.LoadWord;
+import e93.assembler.ast.OrImmediate;
+import e93.assembler.ast.StoreWord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Turns the ops into e93 instructions once the registers are allocated.
+ *
+ * The program starts with a jump over its data, which sits right after it so
+ * its addresses fit in the 8 bits of an {@code ORI}: the constants that are
+ * cheaper to load than to build, the globals and a word for each spilled
+ * virtual register. The code ends with a jump to itself to halt.
+ *
+ * $r0 is taken to be 0, which it is when the CPU starts, and $r14 and $r15
+ * hold spilled values and addresses for a single op. A constant is made with
+ * an {@code AND} with $r0 to clear the register, then an {@code ORI} for the
+ * low 8 bits and {@code ADDI}s of 0xff for the rest, unless loading it from the
+ * data with an {@code LW} takes fewer instructions. There's no register to
+ * register move, so a copy loads 0xffff and {@code AND}s the source into it.
+ */
+class CodeGenerator {
+
+    static final int ZERO = 0;
+    static final int SCRATCH = 14;
+    static final int ADDRESS = 15;
+
+    private static final String START = "__start";
+    private static final String HALT = "__halt";
+
+    private final List<Op> ops;
+    private final int[] registers;
+    private final List<Instruction> instructions = new ArrayList<>();
+
+    /**
+     * Byte address of each constant in the data, of each global and of the
+     * word for each spilled virtual register
+     */
+    private final Map<Integer, Integer> constants = new HashMap<>();
+    private final Map<String, Integer> globals = new HashMap<>();
+    private final Map<Integer, Integer> slots = new HashMap<>();
+    private int lineNumber;
+
+    CodeGenerator(List<Op> ops, int[] registers) {
+        this.ops = ops;
+        this.registers = registers;
+    }
+
+    /**
+     * @param globals the initial value of each global
+     * @return the program with its labels resolved
+     * @throws IllegalArgumentException if a loop is too big to jump back to
+     */
+    List<Instruction> generate(Map<String, Integer> globals) {
+        jump(START);
+        int words = 1;
+        TreeSet<Integer> pooled = new TreeSet<>();
+        for (Op op : ops) {
+            if (op.getKind() == Op.Kind.CONST && op.getConstant() > 0x1fe) {
+                pooled.add(op.getConstant());
+            } else if (op.getKind() != Op.Kind.CONST && op.getDst() != Op.NONE) {
+                // the 0xffff for a copy
+                pooled.add(0xffff);
+            }
+        }
+        for (int constant : pooled) {
+            constants.put(constant, words * 2);
+            data(String.format("__k%04x", constant), constant);
+            words++;
+        }
+        for (Map.Entry<String, Integer> global : globals.entrySet()) {
+            this.globals.put(global.getKey(), words * 2);
+            data(global.getKey(), global.getValue());
+            words++;
+        }
+        TreeSet<Integer> referenced = new TreeSet<>();
+        for (Op op : ops) {
+            for (int use : op.uses()) {
+                referenced.add(use);
+            }
+            if (op.getDst() != Op.NONE) {
+                referenced.add(op.getDst());
+            }
+        }
+        for (int v : referenced) {
+            if (registers[v] == RegisterAllocator.SPILLED) {
+                slots.put(v, words * 2);
+                data("__v" + v, 0);
+                words++;
+            }
+        }
+
+        label(START);
+        for (Op op : ops) {
+            lineNumber = op.getLineNumber();
+            generate(op);
+        }
+        label(HALT);
+        jump(HALT);
+        resolveLabels();
+        return instructions;
+    }
+
+    /**
+     * @return how many virtual registers were given a word in memory
+     */
+    int getSpilled() {
+        return slots.size();
+    }
+
+    private void generate(Op op) {
+        int dst = op.getDst() == Op.NONE || registers[op.getDst()] == RegisterAllocator.SPILLED
+                ? SCRATCH : registers[op.getDst()];
+        switch (op.getKind()) {
+            case CONST:
+                constant(dst, op.getConstant());
+                break;
+            case ADDR:
+                constant(dst, globals.get(op.getName()));
+                break;
+            case COPY: {
+                int a = use(op.getA(), SCRATCH);
+                if (dst == SCRATCH) {
+                    // straight from where it is to the spilled word
+                    store(a, op.getDst());
+                    return;
+                }
+                copy(dst, a);
+                break;
+            }
+            case ADD: {
+                copy(dst, use(op.getA(), SCRATCH));
+                for (int constant = op.getConstant(); constant > 0; constant -= 0xff) {
+                    add(new AddImmediate().setR1(dst).setImmediate(Math.min(constant, 0xff)));
+                }
+                break;
+            }
+            case OR:
+                copy(dst, use(op.getA(), SCRATCH));
+                add(new OrImmediate().setR1(dst).setImmediate(op.getConstant()));
+                break;
+            case AND: {
+                int a = use(op.getA(), SCRATCH);
+                int b = use(op.getB(), ADDRESS);
+                if (dst == b) {
+                    b = a;
+                } else {
+                    copy(dst, a);
+                }
+                add(new And().setR1(dst).setR2(b));
+                break;
+            }
+            case LOAD:
+                add(new LoadWord().setR1(dst).setR2(use(op.getA(), SCRATCH)));
+                break;
+            case STORE:
+                add(new StoreWord().setR1(use(op.getA(), SCRATCH)).setR2(use(op.getB(), ADDRESS)));
+                return;
+            case LABEL:
+                label(op.getName());
+                return;
+            case JUMP:
+                jump(op.getName());
+                return;
+        }
+        if (dst == SCRATCH && op.getDst() != Op.NONE) {
+            store(SCRATCH, op.getDst());
+        }
+    }
+
+    /**
+     * @return the register the virtual register is in, loading it into the
+     *         given one if it's spilled
+     */
+    private int use(int v, int into) {
+        if (registers[v] != RegisterAllocator.SPILLED) {
+            return registers[v];
+        }
+        constant(into, slots.get(v));
+        add(new LoadWord().setR1(into).setR2(into));
+        return into;
+    }
+
+    private void store(int register, int v) {
+        constant(ADDRESS, slots.get(v));
+        add(new StoreWord().setR1(register).setR2(ADDRESS));
+    }
+
+    private void copy(int dst, int src) {
+        if (dst != src) {
+            constant(dst, 0xffff);
+            add(new And().setR1(dst).setR2(src));
+        }
+    }
+
+    /**
+     * Puts the constant in the register in as few instructions as it can.
+     */
+    private void constant(int register, int constant) {
+        add(new And().setR1(register).setR2(ZERO));
+        Integer pooled = constants.get(constant);
+        if (pooled != null && pooled <= 0xff && constant > 0x1fe) {
+            add(new OrImmediate().setR1(register).setImmediate(pooled));
+            add(new LoadWord().setR1(register).setR2(register));
+            return;
+        }
+        if (constant != 0) {
+            add(new OrImmediate().setR1(register).setImmediate(Math.min(constant, 0xff)));
+        }
+        for (constant -= 0xff; constant > 0; constant -= 0xff) {
+            add(new AddImmediate().setR1(register).setImmediate(Math.min(constant, 0xff)));
+        }
+    }
+
+    private void data(String name, int value) {
+        label(name);
+        DataBlock word = new DataBlock(new byte[] {(byte) value, (byte) (value >> 8)});
+        word.setSourceLine(String.format("        .word 0x%04x", value));
+        instructions.add(word);
+    }
+
+    private void label(String name) {
+        Label label = new Label(name);
+        label.setLineNumber(lineNumber);
+        label.setSourceLine(name + ":");
+        instructions.add(label);
+    }
+
+    private void jump(String label) {
+        JumpImmediate jump = new JumpImmediate();
+        jump.setLabel(label);
+        add(jump);
+    }
+
+    private void add(Instruction instruction) {
+        instruction.setLineNumber(lineNumber);
+        instruction.setSourceLine("        " + text(instruction));
+        instructions.add(instruction);
+    }
+
+    private static String text(Instruction instruction) {
+        if (instruction instanceof And) {
+            And and = (And) instruction;
+            return String.format("AND $r%d, $r%d", and.getR1(), and.getR2());
+        } else if (instruction instanceof AddImmediate) {
+            AddImmediate addi = (AddImmediate) instruction;
+            return String.format("ADDI $r%d, 0x%x", addi.getR1(), addi.getImmediate());
+        } else if (instruction instanceof OrImmediate) {
+            OrImmediate ori = (OrImmediate) instruction;
+            return String.format("ORI $r%d, 0x%x", ori.getR1(), ori.getImmediate());
+        } else if (instruction instanceof LoadWord) {
+            LoadWord lw = (LoadWord) instruction;
+            return String.format("LW $r%d, $r%d", lw.getR1(), lw.getR2());
+        } else if (instruction instanceof StoreWord) {
+            StoreWord sw = (StoreWord) instruction;
+            return String.format("SW $r%d, $r%d", sw.getR1(), sw.getR2());
+        }
+        return "J " + instruction.getLabel();
+    }
+
+    private void resolveLabels() {
+        LabelResolver resolver = new LabelResolver(instructions);
+        int words = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction instanceof Label) {
+                resolver.define(i, words * 2);
+                continue;
+            }
+            if (instruction.getLabel() != null) {
+                resolver.reference(i, words * 2);
+            }
+            words += Assembler.sizeInWords(instruction, words);
+        }
+        List<Instruction> errors = resolver.finish();
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("line " + errors.get(0).getLineNumber() + ": "
+                    + ((ErrorLine) errors.get(0)).getErrorMessage()
+                    + ", keep the loop within a 512 byte page");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package e93.compiler;
+
+import e93.assembler.Assembler;
+import e93.assembler.BinaryWriter;
+import e93.assembler.Instruction;
+import e93.assembler.IntelHexWriter;
+import e93.assembler.MifWriter;
+import e93.assembler.ProgramImage;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.Profile;
+import lombok.Value;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles a small subset of C straight to e93 {@link Instruction}s, see
+ * {@link Parser} for what's in it. The locals get registers from the
+ * {@link RegisterAllocator} so they stay out of memory, which can be turned
+ * off to compare with code that keeps every value in memory.
+ */
+public class Compiler {
+
+    /**
+     * The registers handed out to values, $r0 is 0 and the last two are for
+     * spilled values
+     */
+    private static final int[] REGISTERS = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+
+    private Compiler() {
+    }
+
+    /**
+     * @param allocate false to spill every value to memory
+     * @throws IllegalArgumentException if the program isn't in the subset,
+     *         the message starts with the line
+     */
+    public static Result compile(String source, boolean allocate) {
+        Parser parser = new Parser(source);
+        parser.parseProgram();
+        int[] registers = new int[parser.registers];
+        if (allocate) {
+            registers = RegisterAllocator.allocate(parser.ops, parser.registers, parser.loops,
+                    parser.declaredAt, REGISTERS);
+        } else {
+            Arrays.fill(registers, RegisterAllocator.SPILLED);
+        }
+        CodeGenerator generator = new CodeGenerator(parser.ops, registers);
+        List<Instruction> instructions = generator.generate(parser.globals);
+        return new Result(instructions, generator.getSpilled());
+    }
+
+    public static Result compile(Reader reader, boolean allocate) throws IOException {
+        StringWriter source = new StringWriter();
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            source.write(buffer, 0, n);
+        }
+        return compile(source.toString(), allocate);
+    }
+
+    /**
+     * Writes the program as assembly that the {@link Assembler} takes.
+     */
+    public static void writeAssembly(List<Instruction> instructions, Writer out) throws IOException {
+        for (Instruction instruction : instructions) {
+            out.write(instruction.getSourceLine());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    @Value
+    public static class Result {
+        List<Instruction> instructions;
+
+        /**
+         * How many virtual registers live in memory
+         */
+        int spilled;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String format = "asm";
+        String output = null;
+        String input = null;
+        boolean allocate = true;
+        long bench = 0;
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("-f".equals(args[i]) && i + 1 < args.length) {
+                format = args[++i];
+            } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("-naive".equals(args[i])) {
+                allocate = false;
+            } else if ("-bench".equals(args[i]) && i + 1 < args.length) {
+                bench = Long.parseLong(args[++i]);
+            } else {
+                input = args[i];
+            }
+        }
+        if (input == null || !Arrays.asList("asm", "mif", "bin", "hex").contains(format)) {
+            System.err.println("usage: Compiler [-f asm|mif|bin|hex] [-o output-file] [-naive] [-bench max-instructions] name-of-your-file.c");
+            return;
+        }
+        Path file = Paths.get(input);
+        if (!Files.isRegularFile(file)) {
+            System.err.println("file not found or not readable:" + input);
+            return;
+        }
+        String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Result result;
+        try {
+            result = compile(source, allocate);
+        } catch (IllegalArgumentException e) {
+            System.err.println(input + ":" + e.getMessage().replaceFirst("^line ", ""));
+            System.exit(1);
+            return;
+        }
+
+        if (bench > 0) {
+            bench("registers", compile(source, true), bench);
+            bench("spill everything", compile(source, false), bench);
+            return;
+        }
+        short[] image = Assembler.encode(result.getInstructions());
+        if (format.equals("bin")) {
+            BinaryWriter.write(image, Paths.get(output == null ? input.replaceFirst("\\.c$", "") + ".bin" : output));
+            return;
+        }
+        Writer writer = output == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : Files.newBufferedWriter(Paths.get(output));
+        try {
+            if (format.equals("asm")) {
+                writeAssembly(result.getInstructions(), writer);
+            } else if (format.equals("mif")) {
+                MifWriter.write(result.getInstructions(), writer);
+            } else {
+                IntelHexWriter.write(image, writer);
+            }
+            writer.flush();
+        } finally {
+            if (output != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the program in the emulator and prints how many instructions it
+     * took, and for an endless loop how many times it went around the first
+     * loop.
+     */
+    private static void bench(String name, Result result, long maxInstructions) {
+        short[] image = Assembler.encode(result.getInstructions());
+        MemorySubsystem memory = new ArrayMemory();
+        ProgramImage.of(image).loadInto(memory);
+        Emulator emulator = new Emulator(memory);
+        Profile profile = new Profile();
+        emulator.setProfile(profile);
+        emulator.run(maxInstructions);
+        System.out.printf("%-17s %5d words, %3d spilled, %s after %d instructions", name, image.length,
+                result.getSpilled(), emulator.isHalted() ? "halted" : "stopped", emulator.getInstructionCount());
+        int words = 0;
+        for (Instruction instruction : result.getInstructions()) {
+            if ("__loop0".equals(instruction.getLabel())) {
+                System.out.printf(", %d times around the loop", profile.getCount(words));
+                break;
+            }
+            words += Assembler.sizeInWords(instruction, words);
+        }
+        System.out.println();
+    }
+}
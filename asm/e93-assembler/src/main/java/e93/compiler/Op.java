@@ -0,0 +1,85 @@
+package e93.compiler;
+
+import lombok.Data;
+
+/**
+ * An instruction in the compiler's intermediate code. Values are in virtual
+ * registers, numbered from 0, that the {@link RegisterAllocator} maps onto the
+ * real ones. Like the e93's own instructions most of them are two address,
+ * the code generator copies the first operand into the destination when they
+ * don't end up in the same register.
+ */
+@Data
+class Op {
+
+    enum Kind {
+        /**
+         * dst = constant
+         */
+        CONST,
+        /**
+         * dst = address of the global called name
+         */
+        ADDR,
+        /**
+         * dst = a
+         */
+        COPY,
+        /**
+         * dst = a + constant
+         */
+        ADD,
+        /**
+         * dst = a | constant, the constant fits in 8 bits
+         */
+        OR,
+        /**
+         * dst = a &amp; b
+         */
+        AND,
+        /**
+         * dst = the word at address a
+         */
+        LOAD,
+        /**
+         * stores a at address b
+         */
+        STORE,
+        /**
+         * defines the label called name
+         */
+        LABEL,
+        /**
+         * jumps to the label called name
+         */
+        JUMP
+    }
+
+    static final int NONE = -1;
+
+    private final Kind kind;
+    private int dst = NONE;
+    private int a = NONE;
+    private int b = NONE;
+    private int constant;
+    private String name;
+
+    /**
+     * Line in the source the op was compiled from
+     */
+    private int lineNumber;
+
+    Op(Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * @return the virtual registers the op reads
+     */
+    int[] uses() {
+        if (a == NONE) {
+            return new int[0];
+        }
+        return b == NONE ? new int[] {a} : new int[] {a, b};
+    }
+}
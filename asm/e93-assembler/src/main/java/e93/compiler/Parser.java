@@ -0,0 +1,513 @@
+package e93.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the C subset and turns it into {@link Op}s as it goes.
+ *
+ * <pre>
+ *     program    := { "int" name [ "=" number ] ";" } ( "void" | "int" ) "main" "(" ")" block
+ *     block      := "{" { statement } "}"
+ *     statement  := "int" name [ "=" expr ] ";"
+ *                 | name ( "=" | "+=" | "&amp;=" | "|=" ) expr ";"
+ *                 | name "++" ";"
+ *                 | "*" unary "=" expr ";"
+ *                 | "while" "(" number ")" block
+ *                 | "for" "(" ";" ";" ")" block
+ *                 | block
+ *                 | ";"
+ *     expr       := and { "|" and }
+ *     and        := sum { "&amp;" sum }
+ *     sum        := unary { "+" unary }
+ *     unary      := number | name | "*" unary | "&amp;" name | "(" expr ")"
+ * </pre>
+ *
+ * Globals live in memory and locals in registers. The e93 has no conditional
+ * jumps and no register add or or, so there's no {@code if}, a loop has to be
+ * endless, and {@code +} and {@code |} need a constant on one side. Constant
+ * expressions are folded to 16 bits.
+ */
+class Parser {
+
+    private static final List<String> TWO_CHARACTER_TOKENS = Arrays.asList("+=", "&=", "|=", "++");
+
+    private final String source;
+    private int position;
+    private int line = 1;
+
+    /**
+     * The current token, an identifier, a number or punctuation
+     */
+    private String token;
+    private int tokenLine;
+
+    final List<Op> ops = new ArrayList<>();
+    final Map<String, Integer> globals = new LinkedHashMap<>();
+
+    /**
+     * Position of the first and the last op of each loop
+     */
+    final List<int[]> loops = new ArrayList<>();
+
+    /**
+     * Where each local variable was declared, temporaries aren't in here
+     */
+    final Map<Integer, Integer> declaredAt = new HashMap<>();
+    int registers;
+
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private int labels;
+
+    Parser(String source) {
+        this.source = source;
+        next();
+    }
+
+    void parseProgram() {
+        while (token.equals("int") && !peekMain()) {
+            next();
+            String name = name();
+            if (globals.containsKey(name)) {
+                throw error("'" + name + "' is already defined");
+            }
+            int value = 0;
+            if (accept("=")) {
+                value = number();
+            }
+            expect(";");
+            globals.put(name, value);
+        }
+        if (!accept("void")) {
+            expect("int");
+        }
+        expect("main");
+        expect("(");
+        expect(")");
+        block();
+        if (!token.isEmpty()) {
+            throw error("Unexpected " + token + " after main");
+        }
+    }
+
+    private boolean peekMain() {
+        int save = position;
+        int saveLine = line;
+        String saveToken = token;
+        int saveTokenLine = tokenLine;
+        next();
+        boolean main = token.equals("main");
+        position = save;
+        line = saveLine;
+        token = saveToken;
+        tokenLine = saveTokenLine;
+        return main;
+    }
+
+    private void block() {
+        expect("{");
+        scopes.push(new HashMap<>());
+        while (!accept("}")) {
+            if (token.isEmpty()) {
+                throw error("Expected }");
+            }
+            statement();
+        }
+        scopes.pop();
+    }
+
+    private void statement() {
+        if (token.equals("{")) {
+            block();
+        } else if (accept(";")) {
+            // nothing to do
+        } else if (accept("int")) {
+            declaration();
+        } else if (accept("*")) {
+            Value address = unary();
+            expect("=");
+            Value value = expr();
+            expect(";");
+            store(inRegister(value), inRegister(address));
+        } else if (token.equals("while") || token.equals("for")) {
+            loop();
+        } else if (token.equals("if") || token.equals("else") || token.equals("break")
+                || token.equals("return") || token.equals("do")) {
+            throw error("'" + token + "' needs a conditional jump and the e93 doesn't have one");
+        } else {
+            assignment();
+        }
+    }
+
+    private void declaration() {
+        String name = name();
+        if (scopes.peek().containsKey(name)) {
+            throw error("'" + name + "' is already defined");
+        }
+        int register = registers++;
+        declaredAt.put(register, ops.size());
+        if (accept("=")) {
+            assign(register, expr());
+        }
+        expect(";");
+        scopes.peek().put(name, register);
+    }
+
+    private void assignment() {
+        String name = name();
+        Integer local = local(name);
+        if (local == null && !globals.containsKey(name)) {
+            throw error("'" + name + "' isn't defined");
+        }
+        Value value;
+        if (accept("++")) {
+            value = add(variable(name), Value.constant(1));
+        } else if (accept("+=")) {
+            value = add(variable(name), expr());
+        } else if (accept("&=")) {
+            value = and(variable(name), expr());
+        } else if (accept("|=")) {
+            value = or(variable(name), expr());
+        } else {
+            expect("=");
+            value = expr();
+        }
+        expect(";");
+        if (local != null) {
+            assign(local, value);
+        } else {
+            store(inRegister(value), address(name));
+        }
+    }
+
+    private void loop() {
+        if (accept("while")) {
+            expect("(");
+            if (number() == 0) {
+                throw error("a loop that never runs needs a conditional jump");
+            }
+            expect(")");
+        } else {
+            expect("for");
+            expect("(");
+            expect(";");
+            expect(";");
+            expect(")");
+        }
+        String label = "__loop" + labels++;
+        int head = ops.size();
+        op(Op.Kind.LABEL).setName(label);
+        block();
+        op(Op.Kind.JUMP).setName(label);
+        loops.add(new int[] {head, ops.size() - 1});
+    }
+
+    /**
+     * Puts the value in the local's register. A value that was just computed
+     * into a temporary is computed straight into the local instead.
+     */
+    private void assign(int local, Value value) {
+        if (value.isConstant()) {
+            op(Op.Kind.CONST, local).setConstant(value.constant);
+            return;
+        }
+        Op last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+        if (last != null && last.getDst() == value.register && !declaredAt.containsKey(value.register)) {
+            last.setDst(local);
+        } else if (value.register != local) {
+            op(Op.Kind.COPY, local).setA(value.register);
+        }
+    }
+
+    private Value expr() {
+        Value value = and();
+        while (accept("|")) {
+            value = or(value, and());
+        }
+        return value;
+    }
+
+    private Value and() {
+        Value value = sum();
+        while (accept("&")) {
+            value = and(value, sum());
+        }
+        return value;
+    }
+
+    private Value sum() {
+        Value value = unary();
+        while (accept("+")) {
+            value = add(value, unary());
+        }
+        return value;
+    }
+
+    private Value unary() {
+        if (accept("(")) {
+            Value value = expr();
+            expect(")");
+            return value;
+        }
+        if (accept("*")) {
+            return load(inRegister(unary()));
+        }
+        if (accept("&")) {
+            String name = name();
+            if (!globals.containsKey(name)) {
+                throw error("'" + name + "' isn't a global");
+            }
+            return Value.register(address(name));
+        }
+        if (!token.isEmpty() && Character.isDigit(token.charAt(0))) {
+            return Value.constant(number());
+        }
+        String name = name();
+        if (local(name) == null && !globals.containsKey(name)) {
+            throw error("'" + name + "' isn't defined");
+        }
+        return variable(name);
+    }
+
+    private Value variable(String name) {
+        Integer local = local(name);
+        if (local != null) {
+            return Value.register(local);
+        }
+        return load(address(name));
+    }
+
+    private Value load(int address) {
+        Op load = op(Op.Kind.LOAD, registers++);
+        load.setA(address);
+        return Value.register(load.getDst());
+    }
+
+    private Value add(Value x, Value y) {
+        if (x.isConstant() && y.isConstant()) {
+            return Value.constant(x.constant + y.constant);
+        }
+        if (!x.isConstant() && !y.isConstant()) {
+            throw error("the e93 can't add two registers, one side of + has to be a constant");
+        }
+        Value register = x.isConstant() ? y : x;
+        int constant = x.isConstant() ? x.constant : y.constant;
+        if (constant == 0) {
+            return register;
+        }
+        Op add = op(Op.Kind.ADD, registers++);
+        add.setA(register.register);
+        add.setConstant(constant);
+        return Value.register(add.getDst());
+    }
+
+    private Value or(Value x, Value y) {
+        if (x.isConstant() && y.isConstant()) {
+            return Value.constant(x.constant | y.constant);
+        }
+        if (!x.isConstant() && !y.isConstant()) {
+            throw error("the e93 can't or two registers, one side of | has to be a constant");
+        }
+        Value register = x.isConstant() ? y : x;
+        int constant = x.isConstant() ? x.constant : y.constant;
+        if (constant > 0xff) {
+            throw error("the e93 can only or a constant up to 0xff");
+        }
+        if (constant == 0) {
+            return register;
+        }
+        Op or = op(Op.Kind.OR, registers++);
+        or.setA(register.register);
+        or.setConstant(constant);
+        return Value.register(or.getDst());
+    }
+
+    private Value and(Value x, Value y) {
+        if (x.isConstant() && y.isConstant()) {
+            return Value.constant(x.constant & y.constant);
+        }
+        int first = inRegister(x.isConstant() ? y : x);
+        int second = inRegister(x.isConstant() ? x : y);
+        Op and = op(Op.Kind.AND, registers++);
+        and.setA(first);
+        and.setB(second);
+        return Value.register(and.getDst());
+    }
+
+    private void store(int value, int address) {
+        Op store = op(Op.Kind.STORE);
+        store.setA(value);
+        store.setB(address);
+    }
+
+    private int inRegister(Value value) {
+        if (!value.isConstant()) {
+            return value.register;
+        }
+        Op constant = op(Op.Kind.CONST, registers++);
+        constant.setConstant(value.constant);
+        return constant.getDst();
+    }
+
+    private int address(String global) {
+        Op address = op(Op.Kind.ADDR, registers++);
+        address.setName(global);
+        return address.getDst();
+    }
+
+    private Integer local(String name) {
+        for (Map<String, Integer> scope : scopes) {
+            Integer register = scope.get(name);
+            if (register != null) {
+                return register;
+            }
+        }
+        return null;
+    }
+
+    private Op op(Op.Kind kind) {
+        Op op = new Op(kind);
+        op.setLineNumber(tokenLine);
+        ops.add(op);
+        return op;
+    }
+
+    private Op op(Op.Kind kind, int dst) {
+        Op op = op(kind);
+        op.setDst(dst);
+        return op;
+    }
+
+    private String name() {
+        if (token.isEmpty() || !Character.isJavaIdentifierStart(token.charAt(0))) {
+            throw error("Expected a name but was " + describe());
+        }
+        String name = token;
+        next();
+        return name;
+    }
+
+    private int number() {
+        if (token.isEmpty() || !Character.isDigit(token.charAt(0))) {
+            throw error("Expected a number but was " + describe());
+        }
+        int value;
+        try {
+            value = token.startsWith("0x") || token.startsWith("0X")
+                    ? Integer.parseInt(token.substring(2), 16) : Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + token);
+        }
+        if (value > 0xffff) {
+            throw error("Invalid number " + token);
+        }
+        next();
+        return value;
+    }
+
+    private boolean accept(String expected) {
+        if (token.equals(expected)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String expected) {
+        if (!accept(expected)) {
+            throw error("Expected " + expected + " but was " + describe());
+        }
+    }
+
+    private String describe() {
+        return token.isEmpty() ? "the end of the file" : token;
+    }
+
+    IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("line " + tokenLine + ": " + message);
+    }
+
+    /**
+     * Reads the next token, skipping whitespace and comments. The token is
+     * empty at the end of the source.
+     */
+    private void next() {
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '\n') {
+                line++;
+                position++;
+            } else if (Character.isWhitespace(c)) {
+                position++;
+            } else if (source.startsWith("//", position)) {
+                while (position < source.length() && source.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (source.startsWith("/*", position)) {
+                int end = source.indexOf("*/", position + 2);
+                end = end == -1 ? source.length() : end + 2;
+                for (int i = position; i < end; i++) {
+                    if (source.charAt(i) == '\n') {
+                        line++;
+                    }
+                }
+                position = end;
+            } else {
+                break;
+            }
+        }
+        tokenLine = line;
+        int start = position;
+        if (position >= source.length()) {
+            token = "";
+            return;
+        }
+        char c = source.charAt(position);
+        if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+            while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                position++;
+            }
+        } else if (position + 1 < source.length()
+                && TWO_CHARACTER_TOKENS.contains(source.substring(position, position + 2))) {
+            position += 2;
+        } else {
+            position++;
+        }
+        token = source.substring(start, position);
+    }
+
+    /**
+     * An expression's result, either a constant or in a virtual register
+     */
+    static final class Value {
+        final int constant;
+        final int register;
+
+        private Value(int constant, int register) {
+            this.constant = constant;
+            this.register = register;
+        }
+
+        /**
+         * Keeps the low 16 bits, so a folded + wraps around like the
+         * registers do
+         */
+        static Value constant(int constant) {
+            return new Value(constant & 0xffff, Op.NONE);
+        }
+
+        static Value register(int register) {
+            return new Value(0, register);
+        }
+
+        boolean isConstant() {
+            return register == Op.NONE;
+        }
+    }
+}
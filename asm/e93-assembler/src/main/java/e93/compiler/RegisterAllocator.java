@@ -0,0 +1,119 @@
+package e93.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Linear scan register allocation, after Poletto and Sarkar.
+ *
+ * Each virtual register gets a live interval from the first to the last op
+ * that mentions it. A local that's declared before a loop and used in it
+ * lives through the whole loop since the jump back reads it again. The
+ * intervals are handed registers in order of where they start, freeing the
+ * registers of those that have ended. When there's no register left the
+ * interval that ends last is spilled to memory for its whole life.
+ *
+ * The destination of an op is given the register of the op's first operand
+ * when that operand ends at the op, so the two address code doesn't need a
+ * copy.
+ */
+class RegisterAllocator {
+
+    static final int SPILLED = -1;
+
+    private RegisterAllocator() {
+    }
+
+    /**
+     * @param count how many virtual registers there are
+     * @param loops the first and last op of each loop, inner loops first
+     * @param declaredAt where each local was declared
+     * @param registers the real registers to hand out
+     * @return the real register for each virtual register or {@link #SPILLED}
+     */
+    static int[] allocate(List<Op> ops, int count, List<int[]> loops, Map<Integer, Integer> declaredAt,
+                          int[] registers) {
+        int[] start = new int[count];
+        int[] end = new int[count];
+        int[] hint = new int[count];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+        Arrays.fill(hint, Op.NONE);
+        for (int p = 0; p < ops.size(); p++) {
+            Op op = ops.get(p);
+            for (int use : op.uses()) {
+                start[use] = Math.min(start[use], p);
+                end[use] = Math.max(end[use], p);
+            }
+            int dst = op.getDst();
+            if (dst != Op.NONE) {
+                if (start[dst] > p) {
+                    hint[dst] = op.getA();
+                }
+                start[dst] = Math.min(start[dst], p);
+                end[dst] = Math.max(end[dst], p);
+            }
+        }
+        for (int[] loop : loops) {
+            for (Map.Entry<Integer, Integer> local : declaredAt.entrySet()) {
+                int v = local.getKey();
+                if (local.getValue() <= loop[0] && start[v] <= loop[1] && end[v] >= loop[0]) {
+                    start[v] = Math.min(start[v], loop[0]);
+                    end[v] = Math.max(end[v], loop[1]);
+                }
+            }
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int v = 0; v < count; v++) {
+            if (start[v] != Integer.MAX_VALUE) {
+                order.add(v);
+            }
+        }
+        order.sort((x, y) -> start[x] != start[y] ? Integer.compare(start[x], start[y]) : Integer.compare(x, y));
+
+        int[] assigned = new int[count];
+        Arrays.fill(assigned, SPILLED);
+        boolean[] free = new boolean[16];
+        for (int register : registers) {
+            free[register] = true;
+        }
+        // live intervals that have a register, by where they end
+        List<Integer> active = new ArrayList<>();
+        for (int v : order) {
+            while (!active.isEmpty() && end[active.get(0)] <= start[v]) {
+                free[assigned[active.remove(0)]] = true;
+            }
+            int register = SPILLED;
+            if (hint[v] != Op.NONE && assigned[hint[v]] != SPILLED && free[assigned[hint[v]]]) {
+                register = assigned[hint[v]];
+            } else {
+                for (int r : registers) {
+                    if (free[r]) {
+                        register = r;
+                        break;
+                    }
+                }
+            }
+            if (register == SPILLED) {
+                int last = active.get(active.size() - 1);
+                if (end[last] <= end[v]) {
+                    continue;
+                }
+                register = assigned[last];
+                assigned[last] = SPILLED;
+                active.remove(active.size() - 1);
+            }
+            assigned[v] = register;
+            free[register] = false;
+            int at = 0;
+            while (at < active.size() && end[active.get(at)] <= end[v]) {
+                at++;
+            }
+            active.add(at, v);
+        }
+        return assigned;
+    }
+}
@@ -0,0 +1,58 @@
+package e93.emulator;
+
+/**
+ * Byte addressable memory backed by an array. Words are 16 bits and stored
+ * little-endian, the same as the memory on the board.
+ */
+public class ArrayMemory implements MemorySubsystem {
+
+    /**
+     * 16384 words, the DEPTH of the MIF template
+     */
+    public static final int DEFAULT_SIZE = 16384 * 2;
+
+    private final byte[] bytes;
+
+    public ArrayMemory() {
+        this(DEFAULT_SIZE);
+    }
+
+    public ArrayMemory(int sizeInBytes) {
+        this.bytes = new byte[sizeInBytes];
+    }
+
+    private ArrayMemory(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void writeInt(int address, int value) {
+        bytes[address] = (byte) value;
+        bytes[address + 1] = (byte) (value >> 8);
+    }
+
+    @Override
+    public int readInt(int address) {
+        return (bytes[address + 1] & 0xff) << 8 | bytes[address] & 0xff;
+    }
+
+    @Override
+    public void readBytes(int address, byte[] dst, int offset, int length) {
+        System.arraycopy(bytes, address, dst, offset, length);
+    }
+
+    @Override
+    public void writeBytes(int address, byte[] src, int offset, int length) {
+        System.arraycopy(src, offset, bytes, address, length);
+    }
+
+    @Override
+    public MemorySubsystem copy() {
+        return new ArrayMemory(bytes.clone());
+    }
+
+    @Override
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+}
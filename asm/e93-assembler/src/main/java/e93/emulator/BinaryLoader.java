@@ -0,0 +1,45 @@
+package e93.emulator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads a raw little-endian image, like the ones written by the
+ * {@link e93.assembler.BinaryWriter}, into a {@link MemorySubsystem}.
+ *
+ * The file is memory-mapped and copied into memory in large blocks with
+ * {@link MemorySubsystem#writeBytes}. There's no parsing at all so this is
+ * the cheapest way to get a program from the assembler to the emulator.
+ */
+public class BinaryLoader {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Copies the whole file into memory starting at address 0.
+     *
+     * @return number of bytes written
+     * @throws IOException if the file can't be read
+     */
+    public static int load(Path path, MemorySubsystem memorySubsystem) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("image too large: " + size + " bytes");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] block = new byte[(int) Math.min(BLOCK_SIZE, size)];
+            int address = 0;
+            while (mapped.hasRemaining()) {
+                int length = Math.min(block.length, mapped.remaining());
+                mapped.get(block, 0, length);
+                memorySubsystem.writeBytes(address, block, 0, length);
+                address += length;
+            }
+            return address;
+        }
+    }
+}
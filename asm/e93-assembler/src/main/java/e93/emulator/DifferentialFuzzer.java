@@ -0,0 +1,371 @@
+package e93.emulator;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.OpCode;
+import e93.assembler.ast.AddImmediate;
+import e93.assembler.ast.And;
+import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.LoadWord;
+import e93.assembler.ast.OrImmediate;
+import e93.assembler.ast.StoreWord;
+import lombok.Setter;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs random programs on two execution engines in lockstep and checks that
+ * they agree after every instruction.
+ *
+ * Programs are random valid instructions that are round-tripped through
+ * {@link Assembler#encode(Instruction)} and {@link Assembler#decode(int)}, so
+ * the encoder and decoder are checked along the way. After each instruction
+ * the PC and all of the registers are compared. The only instruction that
+ * writes memory is SW so the word it stored is compared right after it
+ * executes, and all of memory is compared at the end of the run.
+ *
+ * A copy of the program is loaded at the start of every 512 byte page, each
+ * ends with a jump back to the start of its page and far jumps land in the
+ * code of another page, and memory is the whole address space, so most
+ * programs run for all of their steps. One that both engines fault on, like
+ * an unknown opcode or an address past the end of memory, counts as agreeing
+ * but is reported separately so the speed isn't inflated by programs that
+ * barely ran.
+ *
+ * The programs are spread across a fork-join pool. When a mismatch is found
+ * the program is shrunk by repeatedly removing chunks of instructions while
+ * the mismatch still reproduces.
+ */
+public class DifferentialFuzzer {
+
+    /**
+     * Creates an engine that executes out of the given memory and registers
+     */
+    public interface EngineFactory {
+        ExecutionEngine create(MemorySubsystem memorySubsystem, int[] registers);
+    }
+
+    /**
+     * A jump can only reach the page of the word after it
+     */
+    private static final int PAGE_SIZE = 0x200;
+
+    private final EngineFactory reference;
+    private final EngineFactory candidate;
+
+    /**
+     * Number of instructions in each random program
+     */
+    @Setter
+    private int programLength = 64;
+
+    /**
+     * Most instructions to execute for each program
+     */
+    @Setter
+    private int stepsPerProgram = 10_000;
+
+    /**
+     * Size of the memory for each program in bytes
+     */
+    @Setter
+    private int memorySize = 0x10000;
+
+    /**
+     * Number of programs each fork-join task runs before splitting stops
+     */
+    @Setter
+    private int batchSize = 16;
+
+    public DifferentialFuzzer(EngineFactory reference, EngineFactory candidate) {
+        this.reference = reference;
+        this.candidate = candidate;
+    }
+
+    /**
+     * Fuzzes the given number of programs. The programs are derived from the
+     * seed so a run can be repeated.
+     *
+     * @return counts for the run and the shrunk mismatch if one was found
+     */
+    public Result fuzz(long seed, int programs, ForkJoinPool pool) {
+        AtomicBoolean failed = new AtomicBoolean();
+        Result result = pool.invoke(new FuzzTask(seed, 0, programs, failed));
+        if (result.getMismatch() == null) {
+            return result;
+        }
+        Mismatch mismatch = result.getMismatch();
+        return new Result(result.getPrograms(), result.getFaulted(), result.getInstructions(),
+                shrink(mismatch.getProgram(), mismatch.getRegisters()));
+    }
+
+    private class FuzzTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final long seed;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean failed;
+
+        FuzzTask(long seed, int from, int to, AtomicBoolean failed) {
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+            this.failed = failed;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from > batchSize) {
+                int mid = (from + to) >>> 1;
+                FuzzTask left = new FuzzTask(seed, from, mid, failed);
+                left.fork();
+                Result right = new FuzzTask(seed, mid, to, failed).compute();
+                return combine(left.join(), right);
+            }
+            long instructions = 0;
+            int programs = 0;
+            int faulted = 0;
+            long[] executed = new long[2];
+            for (int i = from; i < to && !failed.get(); i++) {
+                SplittableRandom random = new SplittableRandom(seed + i);
+                List<Instruction> program = randomProgram(random);
+                int[] registers = new int[16];
+                for (int r = 0; r < registers.length; r++) {
+                    registers[r] = random.nextInt(memorySize);
+                }
+                executed[0] = 0;
+                executed[1] = 0;
+                Mismatch mismatch = run(program, registers, executed);
+                instructions += executed[0];
+                faulted += executed[1];
+                programs++;
+                if (mismatch != null) {
+                    failed.set(true);
+                    return new Result(programs, faulted, instructions, mismatch);
+                }
+            }
+            return new Result(programs, faulted, instructions, null);
+        }
+    }
+
+    private static Result combine(Result a, Result b) {
+        return new Result(a.getPrograms() + b.getPrograms(),
+                a.getFaulted() + b.getFaulted(),
+                a.getInstructions() + b.getInstructions(),
+                a.getMismatch() != null ? a.getMismatch() : b.getMismatch());
+    }
+
+    private List<Instruction> randomProgram(SplittableRandom random) {
+        List<Instruction> program = new ArrayList<>(programLength);
+        for (int i = 0; i < programLength - 1; i++) {
+            Instruction instruction;
+            switch (random.nextInt(6)) {
+                case 0:
+                    instruction = new And().setR1(random.nextInt(16)).setR2(random.nextInt(16));
+                    break;
+                case 1:
+                    instruction = new AddImmediate().setR1(random.nextInt(16)).setImmediate(random.nextInt(0x100));
+                    break;
+                case 2:
+                    instruction = new OrImmediate().setR1(random.nextInt(16)).setImmediate(random.nextInt(0x100));
+                    break;
+                case 3:
+                    instruction = new StoreWord().setR1(random.nextInt(16)).setR2(random.nextInt(16));
+                    break;
+                case 4:
+                    instruction = new LoadWord().setR1(random.nextInt(16)).setR2(random.nextInt(16));
+                    break;
+                default:
+                    // mostly stay within the program, sometimes set the
+                    // high bits of the target to land in another copy
+                    int target = random.nextInt(programLength);
+                    if (random.nextInt(8) == 0) {
+                        target |= random.nextInt(0x10) << 8;
+                    }
+                    instruction = new JumpImmediate().setImmediate(target << 1);
+            }
+            program.add(roundTrip(instruction));
+        }
+        program.add(roundTrip(new JumpImmediate().setImmediate(0)));
+        return program;
+    }
+
+    private static Instruction roundTrip(Instruction instruction) {
+        int encoded = Assembler.encode(instruction);
+        if (!instruction.equals(Assembler.decode(encoded))) {
+            throw new IllegalStateException("encode/decode mismatch for " + instruction
+                    + ": " + Integer.toHexString(encoded));
+        }
+        return instruction;
+    }
+
+    /**
+     * Runs a program on both engines in lockstep.
+     *
+     * @param executed element 0 is incremented for each instruction executed
+     *                 and element 1 is set to 1 if both engines faulted
+     * @return the mismatch or null if the engines agree
+     */
+    private Mismatch run(List<Instruction> program, int[] registers, long[] executed) {
+        MemorySubsystem referenceMemory = new ArrayMemory(memorySize);
+        short[] image = Assembler.encode(program);
+        for (int page = 0; page + image.length * 2 <= memorySize; page += PAGE_SIZE) {
+            for (int i = 0; i < image.length; i++) {
+                referenceMemory.writeInt(page + i * 2, image[i]);
+            }
+        }
+        MemorySubsystem candidateMemory = referenceMemory.copy();
+        ExecutionEngine a = reference.create(referenceMemory, registers.clone());
+        ExecutionEngine b = candidate.create(candidateMemory, registers.clone());
+
+        for (int step = 0; step < stepsPerProgram; step++) {
+            int word;
+            try {
+                word = referenceMemory.readInt(a.getPc());
+            } catch (RuntimeException e) {
+                word = 0;
+            }
+            RuntimeException referenceFailure = null;
+            RuntimeException candidateFailure = null;
+            try {
+                a.step();
+            } catch (RuntimeException e) {
+                referenceFailure = e;
+            }
+            try {
+                b.step();
+            } catch (RuntimeException e) {
+                candidateFailure = e;
+            }
+            executed[0]++;
+            if (referenceFailure != null || candidateFailure != null) {
+                if (referenceFailure == null || candidateFailure == null
+                        || referenceFailure.getClass() != candidateFailure.getClass()) {
+                    return new Mismatch("reference threw " + referenceFailure + ", candidate threw " + candidateFailure,
+                            step, program, registers);
+                }
+                // both faulted the same way, that's agreement
+                executed[1] = 1;
+                return null;
+            }
+            if (a.getPc() != b.getPc()) {
+                return new Mismatch("pc " + Integer.toHexString(a.getPc()) + " != " + Integer.toHexString(b.getPc()),
+                        step, program, registers);
+            }
+            for (int r = 0; r < 16; r++) {
+                if (a.getRegister(r) != b.getRegister(r)) {
+                    return new Mismatch("$r" + r + " " + a.getRegister(r) + " != " + b.getRegister(r),
+                            step, program, registers);
+                }
+            }
+            if (word >> 12 == OpCode.SW.getValue()) {
+                int stored = a.getRegister((word >> 4) & 0xf);
+                if (referenceMemory.readInt(stored) != candidateMemory.readInt(stored)) {
+                    return new Mismatch("memory at " + Integer.toHexString(stored) + " differs",
+                            step, program, registers);
+                }
+            }
+        }
+        if (!Arrays.equals(referenceMemory.toBytes(), candidateMemory.toBytes())) {
+            return new Mismatch("memory differs", stepsPerProgram, program, registers);
+        }
+        return null;
+    }
+
+    /**
+     * Removes chunks of the program, halving the chunk size when nothing more
+     * can be removed, until the smallest program that still fails is found.
+     */
+    private Mismatch shrink(List<Instruction> program, int[] registers) {
+        long[] executed = new long[2];
+        List<Instruction> current = program;
+        int chunk = Math.max(1, current.size() / 2);
+        while (true) {
+            boolean removed = false;
+            for (int start = 0; start < current.size() && current.size() > 1; ) {
+                List<Instruction> smaller = new ArrayList<>(current.subList(0, start));
+                smaller.addAll(current.subList(Math.min(start + chunk, current.size()), current.size()));
+                if (!smaller.isEmpty() && run(smaller, registers, executed) != null) {
+                    current = smaller;
+                    removed = true;
+                } else {
+                    start += chunk;
+                }
+            }
+            if (!removed) {
+                if (chunk == 1) {
+                    break;
+                }
+                chunk /= 2;
+            }
+        }
+        return run(current, registers, executed);
+    }
+
+    @Value
+    public static class Result {
+        long programs;
+
+        /**
+         * Programs that both engines faulted on before their last step
+         */
+        long faulted;
+        long instructions;
+
+        /**
+         * The shrunk mismatch or null if the engines always agreed
+         */
+        Mismatch mismatch;
+    }
+
+    @Value
+    public static class Mismatch {
+        String reason;
+
+        /**
+         * Number of instructions that agreed before the mismatch
+         */
+        long step;
+        List<Instruction> program;
+        int[] registers;
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("mismatch after ").append(step)
+                    .append(" instructions: ").append(reason).append('\n')
+                    .append("registers: ").append(Arrays.toString(registers)).append('\n');
+            int address = 0;
+            for (Instruction instruction : program) {
+                sb.append(String.format("%04x : %04x; -- %s%n", address, Assembler.encode(instruction), instruction));
+                address++;
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(Emulator::new, FastInterpreter::new);
+        long start = System.nanoTime();
+        Result result = fuzzer.fuzz(seed, programs, ForkJoinPool.commonPool());
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("seed %d: %d programs (%d faulted), %d instructions in %.2fs (%.1fM instructions/s)%n",
+                seed, result.getPrograms(), result.getFaulted(), result.getInstructions(), seconds,
+                result.getInstructions() / seconds / 1e6);
+        if (result.getMismatch() != null) {
+            System.out.print(result.getMismatch());
+            System.exit(1);
+        }
+    }
+}
@@ -1,4 +1,238 @@
 package e93.emulator;
 
-public class Emulator {
+import e93.assembler.Assembler;
+import e93.assembler.IOUtils;
+import e93.assembler.Instruction;
+import e93.assembler.OpCode;
+import e93.assembler.ProgramImage;
+import e93.assembler.SourceMap;
+import e93.assembler.ast.ErrorLine;
+import e93.emulator.trace.TraceWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fetch/decode/execute loop for the emulator. Each step reads the word at the
+ * PC, decodes it and hands it to the {@link ExecutionVisitor}.
+ *
+ * A jump to itself ({@code J} whose target is its own address) is treated as
+ * a halt since the instruction set doesn't have a dedicated halt instruction.
+ */
+public class Emulator implements ExecutionEngine {
+
+    private final MemorySubsystem memorySubsystem;
+    private final int[] registers;
+    private final ExecutionVisitor executionVisitor;
+
+    private long instructionCount;
+    private boolean halted;
+
+    /**
+     * Optional trace of every instruction executed. Null when tracing is off.
+     */
+    private TraceWriter traceWriter;
+
+    /**
+     * Optional count of the instructions executed at each address. Null when
+     * profiling is off.
+     */
+    private Profile profile;
+
+    public Emulator(MemorySubsystem memorySubsystem) {
+        this(memorySubsystem, new int[16]);
+    }
+
+    public Emulator(MemorySubsystem memorySubsystem, int[] registers) {
+        this.memorySubsystem = memorySubsystem;
+        this.registers = registers;
+        this.executionVisitor = new ExecutionVisitor(memorySubsystem, registers);
+    }
+
+    /**
+     * Executes a single instruction.
+     *
+     * @return the new value of the PC
+     */
+    @Override
+    public int step() {
+        int pc = executionVisitor.getPc();
+        int word = memorySubsystem.readInt(pc);
+        Assembler.decode(word).accept(executionVisitor);
+        instructionCount++;
+        int next = executionVisitor.getPc();
+        if (next == pc) {
+            halted = true;
+        }
+        if (traceWriter != null) {
+            trace(pc, word);
+        }
+        if (profile != null) {
+            profile.count(pc);
+        }
+        return next;
+    }
+
+    /**
+     * Runs until the program halts or the given number of instructions have
+     * been executed, whichever comes first.
+     *
+     * @param maxInstructions upper bound on the number of instructions to execute
+     * @return number of instructions executed by this call
+     */
+    public long run(long maxInstructions) {
+        long start = instructionCount;
+        while (!halted && instructionCount - start < maxInstructions) {
+            step();
+        }
+        return instructionCount - start;
+    }
+
+    private void trace(int pc, int word) {
+        int opcode = (word >> 12) & 0xf;
+        int r1 = (word >> 8) & 0xf;
+        if (opcode == OpCode.SW.getValue()) {
+            int r2 = (word >> 4) & 0xf;
+            traceWriter.record(instructionCount, pc, word,
+                    TraceWriter.MEMORY, registers[r1] & 0xffff, registers[r2]);
+        } else if (opcode == OpCode.J.getValue()) {
+            traceWriter.record(instructionCount, pc, word, TraceWriter.NONE, 0, 0);
+        } else {
+            // ALU, ADDI, ORI and LW all write to r1
+            traceWriter.record(instructionCount, pc, word, r1, registers[r1], 0);
+        }
+    }
+
+    public void setTraceWriter(TraceWriter traceWriter) {
+        this.traceWriter = traceWriter;
+    }
+
+    public void setProfile(Profile profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public int getPc() {
+        return executionVisitor.getPc();
+    }
+
+    @Override
+    public void setPc(int pc) {
+        executionVisitor.setPc(pc);
+        halted = false;
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    @Override
+    public int getRegister(int index) {
+        return registers[index];
+    }
+
+    public int[] getRegisters() {
+        return registers.clone();
+    }
+
+    @Override
+    public MemorySubsystem getMemorySubsystem() {
+        return memorySubsystem;
+    }
+
+    /**
+     * Loads a program into memory based on its extension. Assembly is
+     * assembled straight into memory, the other formats are the ones that
+     * the Assembler writes.
+     *
+     * @return the errors from assembling, empty if the program was loaded
+     */
+    public static List<Instruction> load(Path program, MemorySubsystem memory) throws IOException {
+        String name = program.getFileName().toString();
+        if (name.endsWith(".bin")) {
+            BinaryLoader.load(program, memory);
+        } else if (name.endsWith(".hex")) {
+            try (Reader reader = IOUtils.newSourceReader(program)) {
+                new IntelHexLoader().load(reader, memory);
+            }
+        } else if (name.endsWith(".mif")) {
+            try (Reader reader = IOUtils.newSourceReader(program)) {
+                new MifLoader().load(reader, memory);
+            }
+        } else {
+            ProgramImage image;
+            try (Reader reader = IOUtils.newSourceReader(program)) {
+                image = ProgramImage.assemble(reader);
+            }
+            if (!image.getErrors().isEmpty()) {
+                return image.getErrors();
+            }
+            image.loadInto(memory);
+        }
+        return Collections.emptyList();
+    }
+
+    public static void main(String[] args) throws Exception {
+        long maxInstructions = 1_000_000;
+        String input = null;
+        String profileFile = null;
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("-n".equals(args[i]) && i + 1 < args.length) {
+                maxInstructions = Long.parseLong(args[++i]);
+            } else if ("-p".equals(args[i]) && i + 1 < args.length) {
+                profileFile = args[++i];
+            } else {
+                input = args[i];
+            }
+        }
+        if (input == null) {
+            System.err.println("usage: Emulator [-n max-instructions] [-p profile-file] name-of-your-file.asm|.bin|.hex|.mif");
+            return;
+        }
+        Path program = Paths.get(input);
+        if (!Files.isRegularFile(program)) {
+            System.err.println("file not found or not readable:" + input);
+            return;
+        }
+
+        MemorySubsystem memory = new ArrayMemory();
+        List<Instruction> errors = load(program, memory);
+        if (!errors.isEmpty()) {
+            for (Instruction error : errors) {
+                System.err.println(input + ":" + error.getLineNumber() + ": "
+                        + ((ErrorLine) error).getErrorMessage());
+            }
+            System.exit(1);
+        }
+
+        Emulator emulator = new Emulator(memory);
+        Profile profile = profileFile == null ? null : new Profile();
+        emulator.setProfile(profile);
+        emulator.run(maxInstructions);
+        if (profile != null) {
+            profile.write(Paths.get(profileFile));
+            // only read once the run is over and only if the assembler left one
+            SourceMap sourceMap = SourceMap.find(program);
+            if (sourceMap != null) {
+                System.out.println("hottest lines:");
+                profile.writeHotLines(sourceMap, 10, new BufferedWriter(new OutputStreamWriter(System.out)));
+            }
+        }
+        System.out.printf("%s after %d instructions, pc %04x%n",
+                emulator.isHalted() ? "halted" : "stopped", emulator.getInstructionCount(), emulator.getPc());
+        for (int r = 0; r < 16; r++) {
+            System.out.printf("$r%-2d %04x%s", r, emulator.getRegister(r) & 0xffff, r % 4 == 3 ? "\n" : "  ");
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package e93.emulator;
+
+/**
+ * Something that can execute e93 programs one instruction at a time. The
+ * {@link Emulator} is the reference implementation that decodes each word into
+ * an Instruction and executes it with the {@link ExecutionVisitor}. Faster
+ * engines must produce exactly the same register and memory state after every
+ * instruction, see {@link DifferentialFuzzer}.
+ */
+public interface ExecutionEngine {
+
+    /**
+     * Executes a single instruction.
+     *
+     * @return the new value of the PC
+     */
+    int step();
+
+    int getPc();
+
+    void setPc(int pc);
+
+    int getRegister(int index);
+
+    MemorySubsystem getMemorySubsystem();
+}
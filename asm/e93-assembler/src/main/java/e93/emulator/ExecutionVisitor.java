@@ -2,11 +2,14 @@ package e93.emulator;
 
 import e93.assembler.ast.AddImmediate;
 import e93.assembler.ast.And;
+import e93.assembler.ast.Align;
 import e93.assembler.ast.Asciiz;
 import e93.assembler.ast.AssemblyVisitor;
+import e93.assembler.ast.DataBlock;
 import e93.assembler.ast.JumpImmediate;
 import e93.assembler.ast.LoadWord;
 import e93.assembler.ast.OrImmediate;
+import e93.assembler.ast.Space;
 import e93.assembler.ast.StoreWord;
 import lombok.Getter;
 import lombok.Setter;
@@ -86,6 +89,21 @@ public class ExecutionVisitor implements AssemblyVisitor<Integer> {
         throw new IllegalStateException("if you're executing a directive, something is wrong");
     }
 
+    @Override
+    public Integer visit(DataBlock dataBlock) {
+        throw new IllegalStateException("if you're executing a directive, something is wrong");
+    }
+
+    @Override
+    public Integer visit(Space space) {
+        throw new IllegalStateException("if you're executing a directive, something is wrong");
+    }
+
+    @Override
+    public Integer visit(Align align) {
+        throw new IllegalStateException("if you're executing a directive, something is wrong");
+    }
+
     private void incrementPc() {
         pc += 2;
     }
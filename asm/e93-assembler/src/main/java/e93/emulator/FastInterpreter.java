@@ -0,0 +1,108 @@
+package e93.emulator;
+
+import e93.assembler.ALUFunctionCodes;
+
+/**
+ * Executes encoded instructions directly from their bit fields. Unlike the
+ * {@link Emulator}, nothing is decoded into an Instruction object so a step is
+ * a switch and a few shifts with no allocation.
+ *
+ * This must behave exactly like {@link e93.assembler.Assembler#decode(int)} followed by the
+ * {@link ExecutionVisitor}, including which exceptions are thrown for words
+ * that can't be decoded.
+ */
+public class FastInterpreter implements ExecutionEngine {
+
+    private static final int REGISTER_MASK = 0xf;
+    private static final int IMMEDIATE_MASK = 0xff;
+
+    private final MemorySubsystem memorySubsystem;
+    private final int[] registers;
+    private int pc;
+
+    public FastInterpreter(MemorySubsystem memorySubsystem, int[] registers) {
+        this.memorySubsystem = memorySubsystem;
+        this.registers = registers;
+    }
+
+    @Override
+    public int step() {
+        int word = memorySubsystem.readInt(pc);
+        int r1 = (word >> 8) & REGISTER_MASK;
+        switch (word >> 12) {
+            case 1: // ALU
+                int functionCode = word & 0x3;
+                if (functionCode != ALUFunctionCodes.AND) {
+                    throw new IllegalStateException("Unexpected value: " + functionCode);
+                }
+                registers[r1] &= registers[(word >> 4) & REGISTER_MASK];
+                pc += 2;
+                break;
+            case 2: // ADDI
+                registers[r1] += word & IMMEDIATE_MASK;
+                pc += 2;
+                break;
+            case 3: // ORI
+                registers[r1] |= word & IMMEDIATE_MASK;
+                pc += 2;
+                break;
+            case 4: // SW
+                memorySubsystem.writeInt(registers[(word >> 4) & REGISTER_MASK], registers[r1]);
+                pc += 2;
+                break;
+            case 5: // LW
+                registers[r1] = memorySubsystem.readInt(registers[(word >> 4) & REGISTER_MASK]);
+                pc += 2;
+                break;
+            case 6: // J
+                pc += 2;
+                pc = (pc & (0xff << 9)) | ((word & 0xfff) << 1);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown opcode:" + (word >> 12));
+        }
+        return pc;
+    }
+
+    /**
+     * Executes until the given number of instructions have run or the program
+     * halts by jumping to itself.
+     *
+     * @return number of instructions executed
+     */
+    public long run(long maxInstructions) {
+        long count = 0;
+        while (count < maxInstructions) {
+            int before = pc;
+            count++;
+            if (step() == before) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getPc() {
+        return pc;
+    }
+
+    @Override
+    public void setPc(int pc) {
+        this.pc = pc;
+    }
+
+    @Override
+    public int getRegister(int index) {
+        return registers[index];
+    }
+
+    public int[] getRegisters() {
+        return registers.clone();
+    }
+
+    @Override
+    public MemorySubsystem getMemorySubsystem() {
+        return memorySubsystem;
+    }
+}
@@ -0,0 +1,519 @@
+package e93.emulator;
+
+import e93.assembler.Instruction;
+import e93.assembler.SourceMap;
+import e93.assembler.ast.ErrorLine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Serves the GDB remote serial protocol on a loopback socket so that gdb (or
+ * any other frontend that speaks the protocol) can debug an e93 program.
+ *
+ * The target description is 17 registers of 32 bits each: $r0 to $r15
+ * followed by the pc. Supported packets are ?, g, G, p, P, m, M, s, c, Z0/z0,
+ * Z1/z1, D and k along with the handful of queries gdb sends when it
+ * connects. Anything else gets the empty reply which tells gdb it's not
+ * supported.
+ *
+ * With the program's {@link SourceMap}, {@code monitor where} prints the
+ * source line and label of the pc and {@code monitor break N} puts a
+ * breakpoint on the first word of source line N.
+ *
+ * Memory reads and writes use the bulk {@link MemorySubsystem#readBytes} and
+ * {@link MemorySubsystem#writeBytes} calls. Continuing runs the
+ * {@link FastInterpreter} in a tight loop that checks a breakpoint bitmap on
+ * each instruction and only looks at the socket every few thousand
+ * instructions to see if gdb sent an interrupt.
+ */
+public class GdbStub implements Closeable {
+
+    private static final int REGISTER_COUNT = 17;
+    private static final int PC_REGISTER = 16;
+
+    /**
+     * Number of instructions to run between checks for an interrupt from gdb
+     */
+    private static final int POLL_INTERVAL = 1 << 14;
+
+    private static final int INTERRUPT = 0x03;
+
+    /**
+     * Most bytes an m or M packet can move, the whole 16 bit address space
+     */
+    private static final int MAX_TRANSFER = 0x10000;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final MemorySubsystem memorySubsystem;
+    private final int[] registers;
+    private final FastInterpreter interpreter;
+
+    /**
+     * Breakpoints by word address
+     */
+    private final BitSet breakpoints = new BitSet();
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * Debug info for the monitor commands, null when there isn't any
+     */
+    private SourceMap sourceMap;
+
+    private InputStream in;
+    private OutputStream out;
+    private boolean noAck;
+
+    private final StringBuilder packet = new StringBuilder(256);
+    private final StringBuilder reply = new StringBuilder(256);
+
+    /**
+     * Binds the stub to the loopback address.
+     *
+     * @param port port to listen on, 0 picks a free port
+     */
+    public GdbStub(MemorySubsystem memorySubsystem, int[] registers, int port) throws IOException {
+        this.memorySubsystem = memorySubsystem;
+        this.registers = registers;
+        this.interpreter = new FastInterpreter(memorySubsystem, registers);
+        this.serverSocket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    }
+
+    public void setSourceMap(SourceMap sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts a single connection and serves it until gdb detaches, kills the
+     * target or disconnects.
+     */
+    public void serve() throws IOException {
+        try (Socket socket = serverSocket.accept()) {
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            noAck = false;
+            try {
+                while (readPacket()) {
+                    if (!handle()) {
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                // gdb went away
+            }
+        }
+    }
+
+    /**
+     * Handles the packet that was just read.
+     *
+     * @return false when the session is over
+     */
+    private boolean handle() throws IOException {
+        reply.setLength(0);
+        char command = packet.length() == 0 ? 0 : packet.charAt(0);
+        try {
+            if (!dispatch(command)) {
+                return false;
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // a malformed packet, the session carries on
+            reply.setLength(0);
+            reply.append("E01");
+        }
+        sendReply();
+        return true;
+    }
+
+    /**
+     * Handles one packet, leaving the reply in {@link #reply}. Throws an
+     * IllegalArgumentException or an IndexOutOfBoundsException when the
+     * packet is malformed.
+     *
+     * @return false when gdb is done with the session
+     */
+    private boolean dispatch(char command) throws IOException {
+        switch (command) {
+            case '?':
+                reply.append("S05");
+                break;
+            case 'g':
+                for (int i = 0; i < REGISTER_COUNT; i++) {
+                    appendRegister(i);
+                }
+                break;
+            case 'G':
+                if (packet.length() < 1 + REGISTER_COUNT * 8) {
+                    throw new IllegalArgumentException("short G packet");
+                }
+                for (int i = 0; i < REGISTER_COUNT; i++) {
+                    setRegister(i, parseRegister(1 + i * 8));
+                }
+                reply.append("OK");
+                break;
+            case 'p':
+                appendRegister((int) parseHex(1, packet.length()));
+                break;
+            case 'P': {
+                int equals = packet.indexOf("=");
+                if (equals < 0 || packet.length() < equals + 9) {
+                    throw new IllegalArgumentException("short P packet");
+                }
+                setRegister((int) parseHex(1, equals), parseRegister(equals + 1));
+                reply.append("OK");
+                break;
+            }
+            case 'm':
+                readMemory();
+                break;
+            case 'M':
+                writeMemory();
+                break;
+            case 's':
+                resumeAt();
+                step();
+                break;
+            case 'c':
+                resumeAt();
+                resume();
+                break;
+            case 'Z':
+            case 'z':
+                breakpoint(command == 'Z');
+                break;
+            case 'D':
+                sendPacket("OK");
+                return false;
+            case 'k':
+                return false;
+            case 'H':
+                reply.append("OK");
+                break;
+            case 'q':
+            case 'Q':
+                query();
+                break;
+            default:
+                // empty reply means unsupported
+        }
+        return true;
+    }
+
+    private void query() {
+        String q = packet.toString();
+        if (q.startsWith("qSupported")) {
+            reply.append("PacketSize=4000;QStartNoAckMode+");
+        } else if (q.equals("qAttached")) {
+            reply.append('1');
+        } else if (q.equals("qC")) {
+            reply.append("QC1");
+        } else if (q.equals("qfThreadInfo")) {
+            reply.append("m1");
+        } else if (q.equals("qsThreadInfo")) {
+            reply.append('l');
+        } else if (q.startsWith("qRcmd,")) {
+            monitor(q.substring("qRcmd,".length()));
+        }
+    }
+
+    /**
+     * Runs a monitor command, the command and its output are hex encoded.
+     */
+    private void monitor(String hex) {
+        StringBuilder command = new StringBuilder();
+        for (int i = 0; i + 1 < hex.length(); i += 2) {
+            command.append((char) Integer.parseInt(hex.substring(i, i + 2), 16));
+        }
+        String[] words = command.toString().trim().split("\\s+");
+        String output;
+        if (sourceMap == null) {
+            output = "no debug info, assemble with -g\n";
+        } else if (words[0].equals("where")) {
+            output = sourceMap.describe(interpreter.getPc() >>> 1) + "\n";
+        } else if (words[0].equals("break") && words.length == 2 && words[1].matches("\\d+")) {
+            int word = sourceMap.wordAddressOf(Integer.parseInt(words[1]));
+            if (word < 0) {
+                output = "no code on line " + words[1] + "\n";
+            } else {
+                breakpoints.set(word);
+                output = String.format("breakpoint at 0x%04x\n", word * 2);
+            }
+        } else {
+            output = "monitor commands: where, break line\n";
+        }
+        for (byte b : output.getBytes(StandardCharsets.UTF_8)) {
+            appendHexByte(reply, b);
+        }
+    }
+
+    private static void checkRegister(int index) {
+        if (index < 0 || index >= REGISTER_COUNT) {
+            throw new IllegalArgumentException("no register " + index);
+        }
+    }
+
+    private static void checkLength(int length) {
+        if (length < 0 || length > MAX_TRANSFER) {
+            throw new IllegalArgumentException("bad length " + length);
+        }
+    }
+
+    private void appendRegister(int index) {
+        checkRegister(index);
+        int value = index == PC_REGISTER ? interpreter.getPc() : registers[index];
+        // target byte order is little-endian
+        for (int i = 0; i < 4; i++) {
+            appendHexByte(reply, value >> (i * 8));
+        }
+    }
+
+    private void setRegister(int index, int value) {
+        checkRegister(index);
+        if (index == PC_REGISTER) {
+            interpreter.setPc(value);
+        } else {
+            registers[index] = value;
+        }
+    }
+
+    private int parseRegister(int start) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (int) parseHex(start + i * 2, start + i * 2 + 2) << (i * 8);
+        }
+        return value;
+    }
+
+    private void readMemory() {
+        int comma = packet.indexOf(",");
+        int address = (int) parseHex(1, comma);
+        int length = (int) parseHex(comma + 1, packet.length());
+        checkLength(length);
+        byte[] bytes = new byte[length];
+        try {
+            memorySubsystem.readBytes(address, bytes, 0, length);
+        } catch (RuntimeException e) {
+            reply.append("E01");
+            return;
+        }
+        for (byte b : bytes) {
+            appendHexByte(reply, b);
+        }
+    }
+
+    private void writeMemory() {
+        int comma = packet.indexOf(",");
+        int colon = packet.indexOf(":");
+        int address = (int) parseHex(1, comma);
+        int length = (int) parseHex(comma + 1, colon);
+        checkLength(length);
+        if (packet.length() < colon + 1 + length * 2L) {
+            throw new IllegalArgumentException("short M packet");
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) parseHex(colon + 1 + i * 2, colon + 3 + i * 2);
+        }
+        try {
+            memorySubsystem.writeBytes(address, bytes, 0, length);
+            reply.append("OK");
+        } catch (RuntimeException e) {
+            reply.append("E01");
+        }
+    }
+
+    private void breakpoint(boolean insert) {
+        char type = packet.charAt(1);
+        if (type != '0' && type != '1') {
+            // watchpoints aren't supported
+            return;
+        }
+        int start = packet.indexOf(",") + 1;
+        int address = (int) parseHex(start, packet.indexOf(",", start));
+        breakpoints.set(address >>> 1, insert);
+        reply.append("OK");
+    }
+
+    /**
+     * s and c take an optional address to resume at
+     */
+    private void resumeAt() {
+        if (packet.length() > 1) {
+            interpreter.setPc((int) parseHex(1, packet.length()));
+        }
+    }
+
+    private void step() {
+        try {
+            interpreter.step();
+            reply.append("S05");
+        } catch (RuntimeException e) {
+            stopForFault(e);
+        }
+    }
+
+    /**
+     * Runs at full speed until a breakpoint, a halt, a fault or an interrupt
+     * from gdb. The instruction at the current pc is executed even if it has
+     * a breakpoint, otherwise gdb couldn't continue past a breakpoint.
+     */
+    private void resume() throws IOException {
+        boolean first = true;
+        try {
+            while (true) {
+                for (int i = 0; i < POLL_INTERVAL; i++) {
+                    int pc = interpreter.getPc();
+                    if (!first && breakpoints.get(pc >>> 1)) {
+                        reply.append("S05");
+                        return;
+                    }
+                    first = false;
+                    if (interpreter.step() == pc) {
+                        // jump to self is how programs halt
+                        reply.append("W00");
+                        return;
+                    }
+                }
+                while (in.available() > 0) {
+                    if (in.read() == INTERRUPT) {
+                        reply.append("S02");
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            stopForFault(e);
+        }
+    }
+
+    private void stopForFault(RuntimeException e) {
+        if (e instanceof IndexOutOfBoundsException) {
+            // SIGSEGV
+            reply.append("S0b");
+        } else {
+            // SIGILL
+            reply.append("S04");
+        }
+    }
+
+    private boolean readPacket() throws IOException {
+        int c;
+        do {
+            c = in.read();
+            if (c < 0) {
+                return false;
+            }
+        } while (c != '$');
+        packet.setLength(0);
+        int sum = 0;
+        while ((c = in.read()) != '#') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            sum += c;
+            packet.append((char) c);
+        }
+        int hi = Character.digit(in.read(), 16);
+        int lo = Character.digit(in.read(), 16);
+        if (!noAck) {
+            if ((hi << 4 | lo) != (sum & 0xff)) {
+                out.write('-');
+                out.flush();
+                return readPacket();
+            }
+            out.write('+');
+        }
+        if (packet.toString().equals("QStartNoAckMode")) {
+            // the OK is still acknowledged, everything after it isn't
+            sendPacket("OK");
+            noAck = true;
+            return readPacket();
+        }
+        return true;
+    }
+
+    private void sendReply() throws IOException {
+        sendPacket(reply);
+    }
+
+    private void sendPacket(CharSequence data) throws IOException {
+        out.write('$');
+        int sum = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            sum += c;
+            out.write(c);
+        }
+        out.write('#');
+        out.write(HEX[(sum >> 4) & 0xf]);
+        out.write(HEX[sum & 0xf]);
+        out.flush();
+    }
+
+    private long parseHex(int start, int end) {
+        if (start >= end || end - start > 8) {
+            throw new IllegalArgumentException("bad number");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(packet.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("bad hex digit");
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static void appendHexByte(StringBuilder sb, int b) {
+        sb.append((char) HEX[(b >> 4) & 0xf]).append((char) HEX[b & 0xf]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args == null || args.length == 0) {
+            System.err.println("usage: GdbStub name-of-your-file.asm|.bin|.hex|.mif [port]");
+            return;
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 9393;
+
+        MemorySubsystem memory = new ArrayMemory();
+        List<Instruction> errors = Emulator.load(Paths.get(args[0]), memory);
+        if (!errors.isEmpty()) {
+            for (Instruction error : errors) {
+                System.err.println(args[0] + ":" + error.getLineNumber() + ": "
+                        + ((ErrorLine) error).getErrorMessage());
+            }
+            System.exit(1);
+        }
+
+        try (GdbStub stub = new GdbStub(memory, new int[16], port)) {
+            stub.setSourceMap(SourceMap.find(Paths.get(args[0])));
+            System.err.println("waiting for gdb on localhost:" + stub.getPort());
+            stub.serve();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package e93.emulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Loads an Intel HEX file, like the ones written by the
+ * {@link e93.assembler.IntelHexWriter}, into a {@link MemorySubsystem}.
+ *
+ * Addresses in the file are byte addresses. Data, end of file, extended
+ * segment address and extended linear address records are supported. The
+ * start address records don't mean anything to the emulator and are skipped.
+ * Every record's checksum is verified.
+ *
+ * Consecutive records are collected into a staging buffer and written to
+ * memory with {@link MemorySubsystem#writeBytes} for each run of consecutive
+ * addresses.
+ */
+public class IntelHexLoader {
+
+    private static final int STAGING_SIZE = 1 << 13;
+
+    private static final int DATA = 0x00;
+    private static final int END_OF_FILE = 0x01;
+    private static final int EXTENDED_SEGMENT_ADDRESS = 0x02;
+    private static final int START_SEGMENT_ADDRESS = 0x03;
+    private static final int EXTENDED_LINEAR_ADDRESS = 0x04;
+    private static final int START_LINEAR_ADDRESS = 0x05;
+
+    /**
+     * Value of each hex digit character or -1
+     */
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            DIGITS[c] = (byte) Character.digit(c, 16);
+        }
+    }
+
+    private final byte[] record = new byte[5 + 255];
+    private final byte[] staging = new byte[STAGING_SIZE];
+    private int stagingLength;
+    private int stagingAddress;
+    private MemorySubsystem memorySubsystem;
+    private int lineNumber;
+
+    /**
+     * Reads the whole file into memory.
+     *
+     * @return number of bytes written
+     * @throws IOException if the file is malformed or a checksum is wrong
+     */
+    public int load(Reader reader, MemorySubsystem memorySubsystem) throws IOException {
+        this.memorySubsystem = memorySubsystem;
+        stagingLength = 0;
+        lineNumber = 0;
+        int base = 0;
+        int loaded = 0;
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        while ((line = br.readLine()) != null) {
+            lineNumber++;
+            int length = line.length();
+            while (length > 0 && line.charAt(length - 1) <= ' ') {
+                length--;
+            }
+            if (length == 0) {
+                continue;
+            }
+            int count = parseRecord(line, length);
+            int address = (record[1] & 0xff) << 8 | (record[2] & 0xff);
+            switch (record[3]) {
+                case DATA:
+                    stage(base + address, count);
+                    loaded += count;
+                    break;
+                case END_OF_FILE:
+                    flush();
+                    return loaded;
+                case EXTENDED_SEGMENT_ADDRESS:
+                    base = recordWord(count) << 4;
+                    break;
+                case EXTENDED_LINEAR_ADDRESS:
+                    base = recordWord(count) << 16;
+                    break;
+                case START_SEGMENT_ADDRESS:
+                case START_LINEAR_ADDRESS:
+                    break;
+                default:
+                    throw error("unknown record type " + record[3]);
+            }
+        }
+        throw error("missing end of file record");
+    }
+
+    /**
+     * Decodes the record into bytes and verifies the checksum.
+     *
+     * @return number of data bytes in the record
+     */
+    private int parseRecord(String line, int length) throws IOException {
+        if (line.charAt(0) != ':') {
+            throw error("expected ':'");
+        }
+        if ((length & 1) == 0 || length < 11) {
+            throw error("bad record length");
+        }
+        int bytes = (length - 1) / 2;
+        int sum = 0;
+        for (int i = 0; i < bytes; i++) {
+            int b = digit(line.charAt(1 + i * 2)) << 4 | digit(line.charAt(2 + i * 2));
+            record[i] = (byte) b;
+            sum += b;
+        }
+        int count = record[0] & 0xff;
+        if (bytes != count + 5) {
+            throw error("byte count " + count + " doesn't match the record");
+        }
+        if ((sum & 0xff) != 0) {
+            throw error("bad checksum");
+        }
+        return count;
+    }
+
+    private int recordWord(int count) throws IOException {
+        if (count != 2) {
+            throw error("expected 2 bytes of address");
+        }
+        return (record[4] & 0xff) << 8 | (record[5] & 0xff);
+    }
+
+    private int digit(char c) throws IOException {
+        int value = c < 128 ? DIGITS[c] : -1;
+        if (value < 0) {
+            throw error("bad hex digit '" + c + "'");
+        }
+        return value;
+    }
+
+    private void stage(int address, int count) {
+        if (stagingLength > 0
+                && (address != stagingAddress + stagingLength || stagingLength + count > staging.length)) {
+            flush();
+        }
+        if (stagingLength == 0) {
+            stagingAddress = address;
+        }
+        System.arraycopy(record, 4, staging, stagingLength, count);
+        stagingLength += count;
+    }
+
+    private void flush() {
+        if (stagingLength > 0) {
+            memorySubsystem.writeBytes(stagingAddress, staging, 0, stagingLength);
+            stagingLength = 0;
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException("HEX line " + lineNumber + ": " + message);
+    }
+}
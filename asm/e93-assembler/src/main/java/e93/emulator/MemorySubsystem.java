@@ -8,4 +8,47 @@ public interface MemorySubsystem {
     MemorySubsystem copy();
 
     byte[] toBytes();
+
+    /**
+     * Copies a range of memory into an array. This default goes a word at a
+     * time, implementations that are backed by an array should override it
+     * with a bulk copy.
+     *
+     * @param address byte address of the first byte to read
+     * @param dst destination for the bytes
+     * @param offset offset in dst for the first byte
+     * @param length number of bytes to read
+     */
+    default void readBytes(int address, byte[] dst, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int byteAddress = address + i;
+            int word = readInt(byteAddress & ~1);
+            dst[offset + i] = (byte) ((byteAddress & 1) == 0 ? word : word >> 8);
+        }
+    }
+
+    /**
+     * Copies an array into a range of memory. This default goes a word at a
+     * time, implementations that are backed by an array should override it
+     * with a bulk copy.
+     *
+     * @param address byte address of the first byte to write
+     * @param src source of the bytes
+     * @param offset offset in src for the first byte
+     * @param length number of bytes to write
+     */
+    default void writeBytes(int address, byte[] src, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int byteAddress = address + i;
+            int wordAddress = byteAddress & ~1;
+            int word = readInt(wordAddress);
+            int b = src[offset + i] & 0xff;
+            if ((byteAddress & 1) == 0) {
+                word = (word & 0xff00) | b;
+            } else {
+                word = (word & 0x00ff) | b << 8;
+            }
+            writeInt(wordAddress, word);
+        }
+    }
 }
@@ -0,0 +1,470 @@
+package e93.emulator;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Loads a Memory Initialization File, like the ones written by the
+ * {@link e93.assembler.MifWriter}, into a {@link MemorySubsystem}.
+ *
+ * The file is tokenized a character at a time straight out of the Reader's
+ * buffer, nothing is split into lines or strings. Supported content is:
+ * <pre>
+ *   addr : value;              -- a single word
+ *   addr : value value ...;    -- consecutive words starting at addr
+ *   [first..last] : value ...; -- a range filled with the repeated values
+ * </pre>
+ * along with {@code --} line comments and {@code %} block comments. The
+ * header's DEPTH, WIDTH, ADDRESS_RADIX and DATA_RADIX are honored. WIDTH can
+ * be 16 (addresses are words) or 8 (addresses are bytes).
+ *
+ * Words are collected into a staging buffer and written to memory with
+ * {@link MemorySubsystem#writeBytes} for each run of consecutive addresses.
+ */
+public class MifLoader {
+
+    private static final int STAGING_SIZE = 1 << 13;
+
+    private static final int FAST_PATH_LOOKAHEAD = 256;
+
+    /**
+     * Characters that can be part of a number or a keyword
+     */
+    private static final boolean[] TOKEN_CHARS = new boolean[128];
+
+    /**
+     * Value of each digit character or -1
+     */
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            TOKEN_CHARS[c] = Character.isLetterOrDigit(c) || c == '_';
+            DIGITS[c] = (byte) Character.digit(c, 36);
+        }
+    }
+
+    private final char[] buffer = new char[1 << 13];
+    private int position;
+    private int limit;
+    private Reader reader;
+    private int lineNumber;
+
+    private final char[] token = new char[64];
+    private final int[] pattern = new int[64];
+    private int tokenLength;
+
+    private final byte[] staging = new byte[STAGING_SIZE];
+    private int stagingLength;
+    private int stagingAddress;
+    private MemorySubsystem memorySubsystem;
+
+    private int depth;
+    private int width;
+    private int addressRadix;
+    private int dataRadix;
+    private int wordsLoaded;
+
+    /**
+     * Reads the whole MIF into memory.
+     *
+     * @return number of memory locations written
+     * @throws IOException if the MIF is malformed or a value doesn't fit
+     */
+    public int load(Reader reader, MemorySubsystem memorySubsystem) throws IOException {
+        this.reader = reader;
+        this.memorySubsystem = memorySubsystem;
+        position = 0;
+        limit = 0;
+        lineNumber = 1;
+        stagingLength = 0;
+        wordsLoaded = 0;
+        depth = -1;
+        width = -1;
+        addressRadix = 16;
+        dataRadix = 16;
+
+        readHeader();
+        readContent();
+        flush();
+        return wordsLoaded;
+    }
+
+    private void readHeader() throws IOException {
+        while (true) {
+            readToken();
+            if (tokenIs("CONTENT")) {
+                break;
+            }
+            String key = new String(token, 0, tokenLength).toUpperCase();
+            expect('=');
+            readToken();
+            switch (key) {
+                case "DEPTH":
+                    depth = (int) parseToken(10);
+                    break;
+                case "WIDTH":
+                    width = (int) parseToken(10);
+                    if (width != 8 && width != 16) {
+                        throw error("unsupported WIDTH " + width);
+                    }
+                    break;
+                case "ADDRESS_RADIX":
+                    addressRadix = radix();
+                    break;
+                case "DATA_RADIX":
+                    dataRadix = radix();
+                    break;
+                default:
+                    throw error("unknown header " + key);
+            }
+            expect(';');
+        }
+        if (depth < 0 || width < 0) {
+            throw error("DEPTH and WIDTH are required");
+        }
+        readToken();
+        if (!tokenIs("BEGIN")) {
+            throw error("expected BEGIN");
+        }
+    }
+
+    private int radix() throws IOException {
+        if (tokenIs("HEX")) {
+            return 16;
+        } else if (tokenIs("DEC") || tokenIs("UNS")) {
+            return 10;
+        } else if (tokenIs("OCT")) {
+            return 8;
+        } else if (tokenIs("BIN")) {
+            return 2;
+        }
+        throw error("unsupported radix " + new String(token, 0, tokenLength));
+    }
+
+    private void readContent() throws IOException {
+        while (true) {
+            if (fastEntry()) {
+                continue;
+            }
+            int first;
+            int last;
+            boolean range;
+            if (peekSignificant() == '[') {
+                position++;
+                readToken();
+                first = (int) parseToken(addressRadix);
+                expect('.');
+                expect('.');
+                readToken();
+                last = (int) parseToken(addressRadix);
+                expect(']');
+                range = true;
+            } else {
+                readToken();
+                if (tokenIs("END")) {
+                    return;
+                }
+                first = (int) parseToken(addressRadix);
+                last = first;
+                range = false;
+            }
+            expect(':');
+
+            int valueCount = 0;
+            while (peekSignificant() != ';') {
+                readToken();
+                int value = (int) parseToken(dataRadix);
+                if (value >>> width != 0) {
+                    throw error("value doesn't fit in WIDTH " + width);
+                }
+                if (range) {
+                    if (valueCount == pattern.length) {
+                        throw error("too many values for a range");
+                    }
+                    pattern[valueCount] = value;
+                } else {
+                    store(first + valueCount, value);
+                }
+                valueCount++;
+            }
+            position++;
+            if (valueCount == 0) {
+                throw error("missing value");
+            }
+            if (range) {
+                // the values repeat to fill the range
+                for (int address = first, i = 0; address <= last; address++) {
+                    store(address, pattern[i]);
+                    if (++i == valueCount) {
+                        i = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles the common {@code addr : value;} entry using locals instead of
+     * going a character at a time through {@link #read()}. Anything else,
+     * including an entry that isn't entirely within the buffer, is left for
+     * the general tokenizer.
+     *
+     * @return false if nothing was consumed
+     */
+    private boolean fastEntry() throws IOException {
+        ensureAvailable(FAST_PATH_LOOKAHEAD);
+        char[] buf = buffer;
+        int i = position;
+        int n = limit;
+        int lines = 0;
+        while (i < n && buf[i] <= ' ') {
+            if (buf[i++] == '\n') {
+                lines++;
+            }
+        }
+        int address = 0;
+        int digits = 0;
+        int d;
+        while (i < n && buf[i] < 128 && (d = DIGITS[buf[i]]) >= 0 && d < addressRadix) {
+            address = address * addressRadix + d;
+            digits++;
+            i++;
+        }
+        if (digits == 0 || digits > 8) {
+            return false;
+        }
+        while (i < n && buf[i] == ' ') {
+            i++;
+        }
+        if (i == n || buf[i++] != ':') {
+            return false;
+        }
+        while (i < n && buf[i] == ' ') {
+            i++;
+        }
+        int value = 0;
+        digits = 0;
+        while (i < n && buf[i] < 128 && (d = DIGITS[buf[i]]) >= 0 && d < dataRadix) {
+            value = value * dataRadix + d;
+            digits++;
+            i++;
+        }
+        if (digits == 0 || digits > 8 || i == n || buf[i++] != ';') {
+            return false;
+        }
+        // the assembler puts the source line in a comment after each entry
+        int end = i;
+        while (end < n && buf[end] == ' ') {
+            end++;
+        }
+        if (end + 1 < n && buf[end] == '-' && buf[end + 1] == '-') {
+            for (end += 2; end < n; end++) {
+                if (buf[end] == '\n') {
+                    i = end + 1;
+                    lines++;
+                    break;
+                }
+            }
+        }
+        position = i;
+        lineNumber += lines;
+        if (value >>> width != 0) {
+            throw error("value doesn't fit in WIDTH " + width);
+        }
+        store(address, value);
+        return true;
+    }
+
+    /**
+     * Moves what's left in the buffer to the front and reads more so that at
+     * least the given number of characters are available, unless the end of
+     * the file is reached.
+     */
+    private void ensureAvailable(int needed) throws IOException {
+        if (limit - position >= needed) {
+            return;
+        }
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        int read;
+        while (limit < buffer.length && (read = reader.read(buffer, limit, buffer.length - limit)) > 0) {
+            limit += read;
+        }
+    }
+
+    private void store(int address, int value) throws IOException {
+        if (address < 0 || address >= depth) {
+            throw error("address " + Integer.toHexString(address) + " is outside DEPTH " + depth);
+        }
+        int byteAddress = width == 16 ? address << 1 : address;
+        if (stagingLength > 0
+                && (byteAddress != stagingAddress + stagingLength || stagingLength == STAGING_SIZE)) {
+            flush();
+        }
+        if (stagingLength == 0) {
+            stagingAddress = byteAddress;
+        }
+        staging[stagingLength++] = (byte) value;
+        if (width == 16) {
+            staging[stagingLength++] = (byte) (value >> 8);
+        }
+        wordsLoaded++;
+    }
+
+    private void flush() {
+        if (stagingLength > 0) {
+            memorySubsystem.writeBytes(stagingAddress, staging, 0, stagingLength);
+            stagingLength = 0;
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        int c = read();
+        if (c >= 0) {
+            position--;
+        }
+        return c;
+    }
+
+    /**
+     * Skips whitespace and comments and returns the next character without
+     * consuming it.
+     */
+    private int peekSignificant() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '\n') {
+                lineNumber++;
+            } else if (c == '-') {
+                if (read() != '-') {
+                    throw error("unexpected '-'");
+                }
+                skipPast('\n');
+                lineNumber++;
+            } else if (c == '%') {
+                if (!skipPast('%')) {
+                    throw error("unterminated % comment");
+                }
+            } else if (c < 0) {
+                return c;
+            } else if (c > ' ') {
+                position--;
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Scans the buffer for the given character, this is where most of the
+     * time goes since comments are most of a MIF written by the assembler.
+     *
+     * @return false if the end of the file was reached first
+     */
+    private boolean skipPast(char end) throws IOException {
+        while (true) {
+            char[] buf = buffer;
+            for (int i = position, n = limit; i < n; i++) {
+                char c = buf[i];
+                if (c == end) {
+                    position = i + 1;
+                    return true;
+                }
+                if (c == '\n' && end != '\n') {
+                    lineNumber++;
+                }
+            }
+            position = limit;
+            if (read() < 0) {
+                return false;
+            }
+            position--;
+        }
+    }
+
+    private void readToken() throws IOException {
+        int c = peekSignificant();
+        tokenLength = 0;
+        while (c >= 0) {
+            int i = position;
+            int n = limit;
+            while (i < n && (c = buffer[i]) < 128 && TOKEN_CHARS[c]) {
+                if (tokenLength == token.length) {
+                    throw error("token too long");
+                }
+                token[tokenLength++] = (char) c;
+                i++;
+            }
+            position = i;
+            if (i < n) {
+                break;
+            }
+            // the token may continue in the next buffer
+            c = peek();
+        }
+        if (tokenLength == 0) {
+            throw error(c < 0 ? "unexpected end of file" : "unexpected '" + (char) c + "'");
+        }
+    }
+
+    private boolean tokenIs(String s) {
+        if (tokenLength != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (Character.toUpperCase(token[i]) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseToken(int radix) throws IOException {
+        long value = 0;
+        for (int i = 0; i < tokenLength; i++) {
+            char c = token[i];
+            int digit = c < 128 ? DIGITS[c] : -1;
+            if (digit < 0 || digit >= radix) {
+                throw error("bad number " + new String(token, 0, tokenLength));
+            }
+            value = value * radix + digit;
+            if (value > Integer.MAX_VALUE) {
+                throw error("number too large " + new String(token, 0, tokenLength));
+            }
+        }
+        return value;
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peekSignificant();
+        if (c != expected) {
+            throw error("expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    private IOException error(String message) {
+        return new IOException("MIF line " + lineNumber + ": " + message);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+}
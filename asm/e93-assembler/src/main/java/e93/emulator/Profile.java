@@ -0,0 +1,155 @@
+package e93.emulator;
+
+import e93.assembler.SourceMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How many times the instruction at each word address was executed, from
+ * running a program in the {@link Emulator}. The assembler uses it to lay out
+ * the hot code, see {@link e93.assembler.CodeLayout}.
+ *
+ * The file is text with a line for each address that was executed, the word
+ * address in hex and the count in decimal:
+ * <pre>
+ *     # e93 profile: word address, count
+ *     0000 1
+ *     0004 5000
+ * </pre>
+ */
+public class Profile {
+
+    private static final String HEADER = "# e93 profile: word address, count";
+
+    /**
+     * Words in the 16 bit address space, a profile can't have an address
+     * past them
+     */
+    private static final int MAX_WORDS = 0x8000;
+
+    private long[] counts = new long[1024];
+
+    /**
+     * Counts the instruction at the byte address.
+     */
+    public void count(int pc) {
+        int word = pc >>> 1;
+        if (word >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(word + 1, counts.length * 2));
+        }
+        counts[word]++;
+    }
+
+    /**
+     * @return how many times the instruction at the word address was executed
+     */
+    public long getCount(int wordAddress) {
+        return wordAddress < counts.length ? counts[wordAddress] : 0;
+    }
+
+    /**
+     * Writes the profile, the writer is flushed but not closed.
+     */
+    public void write(Writer out) throws IOException {
+        out.write(HEADER);
+        out.write('\n');
+        for (int word = 0; word < counts.length; word++) {
+            if (counts[word] != 0) {
+                out.write(String.format("%04x %d%n", word, counts[word]));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the source lines that ran the most instructions, hottest first,
+     * a line for each with the count and where it is. The writer is flushed
+     * but not closed.
+     *
+     * @param limit how many lines to write
+     */
+    public void writeHotLines(SourceMap sourceMap, int limit, Writer out) throws IOException {
+        // first word and count of each line
+        Map<Integer, long[]> lines = new HashMap<>();
+        for (int word = 0; word < counts.length; word++) {
+            if (counts[word] != 0) {
+                int lineNumber = sourceMap.line(word);
+                long[] line = lines.get(lineNumber);
+                if (line == null) {
+                    line = new long[] {word, 0};
+                    lines.put(lineNumber, line);
+                }
+                line[1] += counts[word];
+            }
+        }
+        List<long[]> hottest = new ArrayList<>(lines.values());
+        hottest.sort((a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(a[0], b[0]));
+        for (long[] line : hottest.subList(0, Math.min(limit, hottest.size()))) {
+            out.write(String.format("%12d  %s%n", line[1], sourceMap.describe((int) line[0])));
+        }
+        out.flush();
+    }
+
+    public void write(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path)) {
+            write(out);
+        }
+    }
+
+    /**
+     * @throws IOException if a line isn't an address and a count, or the
+     *         address is past the end of memory
+     */
+    public static Profile read(Reader reader) throws IOException {
+        Profile profile = new Profile();
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = br.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            int word;
+            long count;
+            try {
+                if (fields.length != 2) {
+                    throw new NumberFormatException();
+                }
+                word = Integer.parseInt(fields[0], 16);
+                count = Long.parseLong(fields[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + lineNumber + ": expected an address and a count: " + line);
+            }
+            if (word < 0 || count < 0) {
+                throw new IOException("line " + lineNumber + ": expected an address and a count: " + line);
+            }
+            if (word >= MAX_WORDS) {
+                throw new IOException("line " + lineNumber + ": address outside memory: " + line);
+            }
+            if (word >= profile.counts.length) {
+                profile.counts = Arrays.copyOf(profile.counts, Math.max(word + 1, profile.counts.length * 2));
+            }
+            profile.counts[word] += count;
+        }
+        return profile;
+    }
+
+    public static Profile read(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            return read(reader);
+        }
+    }
+}
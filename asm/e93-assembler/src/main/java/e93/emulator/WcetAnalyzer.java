@@ -0,0 +1,343 @@
+package e93.emulator;
+
+import e93.assembler.Assembler;
+import e93.assembler.Disassembler;
+import e93.assembler.IOUtils;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.OpCode;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import lombok.Value;
+
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Works out the most instructions and clock cycles a program can take without
+ * running it, for code that has to keep up with something like a counter or a
+ * display refresh.
+ *
+ * The instruction set has no conditional jumps, so every instruction has
+ * exactly one next instruction and the control flow graph from the entry at
+ * address 0 is a single path of basic blocks. That path either halts on a
+ * jump to itself, runs into a word that isn't an instruction, or comes back to
+ * a block it has already been through and loops forever. A loop needs a bound
+ * on how many times it goes around, given as an {@code -- @bound 100} comment
+ * on any line of the loop or as a word address, and the worst case is then the
+ * path into the loop plus the bound times the cost of going around once. A
+ * loop without a bound is reported along with its cost per iteration.
+ *
+ * Cycles come from a cost for each opcode, by default those of the textbook
+ * multicycle CPU: 4 for ALU, ADDI and ORI, 5 for LW, 4 for SW and 3 for J.
+ */
+public class WcetAnalyzer {
+
+    private static final Pattern BOUND = Pattern.compile("@bound\\s+(\\d+)");
+
+    /**
+     * Cycles for each opcode, indexed by the opcode's encoded value
+     */
+    private final int[] cycles = new int[16];
+
+    public WcetAnalyzer() {
+        setCycles(OpCode.ALU, 4);
+        setCycles(OpCode.ADDI, 4);
+        setCycles(OpCode.ORI, 4);
+        setCycles(OpCode.LW, 5);
+        setCycles(OpCode.SW, 4);
+        setCycles(OpCode.J, 3);
+    }
+
+    public WcetAnalyzer setCycles(OpCode opCode, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("negative cycles for " + opCode + ": " + count);
+        }
+        cycles[opCode.getValue()] = count;
+        return this;
+    }
+
+    /**
+     * Follows the program from address 0.
+     *
+     * @param image the program's words
+     * @param bounds most iterations for a loop, by the word address of any of
+     *               the loop's instructions
+     */
+    public Result analyze(short[] image, Map<Integer, Long> bounds) {
+        List<Block> path = new ArrayList<>();
+        // index in the path of the block that starts at each word, -1 if none yet
+        int[] blockAt = new int[image.length];
+        Arrays.fill(blockAt, -1);
+        int word = 0;
+        while (true) {
+            if (word >= image.length) {
+                return ends(Ending.INVALID, word, path, -1, bounds);
+            }
+            if (blockAt[word] != -1) {
+                return ends(Ending.LOOP, word, path, blockAt[word], bounds);
+            }
+            int start = word;
+            long instructions = 0;
+            long blockCycles = 0;
+            int next = -1;
+            Ending ending = null;
+            while (next == -1 && ending == null) {
+                if (word >= image.length) {
+                    ending = Ending.INVALID;
+                    break;
+                }
+                int encoded = image[word] & 0xffff;
+                Instruction instruction;
+                try {
+                    instruction = Assembler.decode(encoded);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    ending = Ending.INVALID;
+                    break;
+                }
+                instructions++;
+                blockCycles += cycles[encoded >> 12];
+                if (instruction instanceof JumpImmediate) {
+                    int pc = word * 2 + 2;
+                    int target = ((pc & (0xff << 9)) | ((JumpImmediate) instruction).getImmediate()) >> 1;
+                    if (target == word) {
+                        ending = Ending.HALT;
+                    } else {
+                        next = target;
+                    }
+                } else {
+                    word++;
+                }
+            }
+            blockAt[start] = path.size();
+            path.add(new Block(start, instructions, blockCycles, next));
+            if (ending != null) {
+                return ends(ending, word, path, -1, bounds);
+            }
+            word = next;
+        }
+    }
+
+    private static Result ends(Ending ending, int at, List<Block> path, int loopStart, Map<Integer, Long> bounds) {
+        long instructions = 0;
+        long total = 0;
+        int prefix = loopStart == -1 ? path.size() : loopStart;
+        for (int i = 0; i < prefix; i++) {
+            instructions += path.get(i).getInstructions();
+            total += path.get(i).getCycles();
+        }
+        Loop loop = null;
+        if (loopStart != -1) {
+            long loopInstructions = 0;
+            long loopCycles = 0;
+            long bound = -1;
+            for (int i = loopStart; i < path.size(); i++) {
+                Block block = path.get(i);
+                loopInstructions += block.getInstructions();
+                loopCycles += block.getCycles();
+                for (int w = block.getStart(); w < block.getStart() + block.getInstructions(); w++) {
+                    Long b = bounds.get(w);
+                    if (b != null && (bound == -1 || b < bound)) {
+                        bound = b;
+                    }
+                }
+            }
+            loop = new Loop(at, loopInstructions, loopCycles, bound);
+            if (bound == -1) {
+                instructions = -1;
+                total = -1;
+            } else {
+                instructions += bound * loopInstructions;
+                total += bound * loopCycles;
+            }
+        }
+        return new Result(ending, at, Collections.unmodifiableList(path), loop, instructions, total);
+    }
+
+    /**
+     * Finds the {@code -- @bound N} comments in the source.
+     *
+     * @return the bound on each line by the word address of the line, the
+     *         address of the next instruction for a line with just a label
+     */
+    public static Map<Integer, Long> bounds(List<Instruction> instructions) {
+        Map<Integer, Long> bounds = new HashMap<>();
+        int address = 0;
+        for (Instruction instruction : instructions) {
+            String source = instruction.getSourceLine();
+            int comment = source == null ? -1 : source.indexOf("--");
+            if (comment != -1) {
+                Matcher matcher = BOUND.matcher(source.substring(comment));
+                if (matcher.find()) {
+                    bounds.put(address, Long.parseLong(matcher.group(1)));
+                }
+            }
+            address += Assembler.sizeInWords(instruction, address);
+        }
+        return bounds;
+    }
+
+    public enum Ending {
+        /**
+         * A jump to itself
+         */
+        HALT,
+        /**
+         * Back to a block that already ran
+         */
+        LOOP,
+        /**
+         * A word that isn't an instruction or the end of the image
+         */
+        INVALID
+    }
+
+    @Value
+    public static class Block {
+        /**
+         * Word address of the first instruction
+         */
+        int start;
+        long instructions;
+        long cycles;
+
+        /**
+         * Word address of the next block or -1 if the path ends here
+         */
+        int next;
+    }
+
+    @Value
+    public static class Loop {
+        /**
+         * Word address where the path comes back around
+         */
+        int head;
+        long instructionsPerIteration;
+        long cyclesPerIteration;
+
+        /**
+         * Most iterations or -1 if there's no bound
+         */
+        long bound;
+    }
+
+    @Value
+    public static class Result {
+        Ending ending;
+
+        /**
+         * Word address of the halt, the start of the loop or the word that
+         * isn't an instruction
+         */
+        int address;
+
+        /**
+         * The blocks from the entry in the order they run
+         */
+        List<Block> path;
+
+        /**
+         * The loop the path ends in or null
+         */
+        Loop loop;
+
+        /**
+         * The worst case, -1 for a loop without a bound
+         */
+        long instructions;
+        long cycles;
+    }
+
+    public static void main(String[] args) throws Exception {
+        WcetAnalyzer analyzer = new WcetAnalyzer();
+        Map<Integer, Long> bounds = new HashMap<>();
+        String input = null;
+        for (int i = 0; args != null && i < args.length; i++) {
+            if (("-c".equals(args[i]) || "-b".equals(args[i])) && i + 1 < args.length) {
+                String[] pair = args[i + 1].split("=");
+                if (pair.length != 2) {
+                    input = null;
+                    break;
+                }
+                if ("-c".equals(args[i])) {
+                    analyzer.setCycles(OpCode.valueOf(pair[0].toUpperCase()), Integer.parseInt(pair[1]));
+                } else {
+                    bounds.put(Integer.parseInt(pair[0], 16), Long.parseLong(pair[1]));
+                }
+                i++;
+            } else {
+                input = args[i];
+            }
+        }
+        if (input == null) {
+            System.err.println("usage: WcetAnalyzer [-c OPCODE=cycles]... [-b word-address=iterations]... name-of-your-file.asm|.bin|.hex|.mif");
+            return;
+        }
+        Path program = Paths.get(input);
+        if (!Files.isRegularFile(program)) {
+            System.err.println("file not found or not readable:" + input);
+            return;
+        }
+
+        short[] image;
+        if (input.endsWith(".bin") || input.endsWith(".hex") || input.endsWith(".mif")) {
+            image = Disassembler.load(program);
+        } else {
+            List<Instruction> instructions;
+            try (Reader reader = IOUtils.newSourceReader(program)) {
+                instructions = InstructionParser.parse(reader);
+            }
+            boolean errors = false;
+            for (Instruction instruction : instructions) {
+                if (instruction instanceof ErrorLine) {
+                    System.err.println(input + ":" + instruction.getLineNumber() + ": "
+                            + ((ErrorLine) instruction).getErrorMessage());
+                    errors = true;
+                }
+            }
+            if (errors) {
+                System.exit(1);
+            }
+            // bounds given on the command line win
+            Map<Integer, Long> annotated = bounds(instructions);
+            annotated.putAll(bounds);
+            bounds = annotated;
+            image = Assembler.encode(instructions);
+        }
+
+        Result result = analyzer.analyze(image, bounds);
+        for (Block block : result.getPath()) {
+            System.out.printf("block %04x: %d instructions, %d cycles%s%n", block.getStart(),
+                    block.getInstructions(), block.getCycles(),
+                    block.getNext() == -1 ? "" : String.format(", then %04x", block.getNext()));
+        }
+        Loop loop = result.getLoop();
+        if (loop != null) {
+            System.out.printf("loop at %04x: %d instructions, %d cycles per iteration, %s%n", loop.getHead(),
+                    loop.getInstructionsPerIteration(), loop.getCyclesPerIteration(),
+                    loop.getBound() == -1 ? "no bound" : "bound " + loop.getBound());
+        }
+        if (result.getEnding() == Ending.INVALID) {
+            System.out.printf("runs into %04x, which isn't an instruction%n", result.getAddress());
+        } else if (result.getEnding() == Ending.HALT) {
+            System.out.printf("halts at %04x%n", result.getAddress());
+        }
+        if (result.getInstructions() != -1) {
+            System.out.printf("worst case: %d instructions, %d cycles%n", result.getInstructions(), result.getCycles());
+        }
+        if (result.getEnding() == Ending.INVALID || result.getInstructions() == -1) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package e93.emulator.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the per-cycle log written by the VHDL testbench for the CPU in cpu/.
+ *
+ * Each line is one clock cycle with four whitespace separated columns:
+ * <pre>
+ *   cycle pc register value
+ * </pre>
+ * The cycle is decimal, the pc and value are hex (an optional 0x prefix is
+ * fine) and the register is the decimal number of the register written in
+ * that cycle or a {@code -} if nothing was written. The value column is
+ * ignored when nothing was written. Blank lines and lines starting with
+ * {@code #} are skipped.
+ *
+ * Like {@link TraceReader}, the file is memory-mapped a window at a time and
+ * parsed directly from the mapped bytes so logs of many gigabytes can be read
+ * without loading them into the heap.
+ */
+public class SimulationLog implements Closeable {
+
+    private static final long WINDOW_SIZE = 64L << 20;
+
+    /**
+     * Lines longer than this aren't expected from the testbench
+     */
+    private static final int MAX_LINE = 1024;
+
+    private final FileChannel channel;
+    private final long size;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long lineNumber;
+
+    private long cycle;
+    private int pc;
+    private int register;
+    private int value;
+
+    public SimulationLog(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        map(0);
+    }
+
+    /**
+     * Advances to the next cycle in the log.
+     *
+     * @return false at the end of the log
+     * @throws IOException if the line is malformed
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            long position = windowStart + window.position();
+            if (position >= size) {
+                return false;
+            }
+            if (window.remaining() < MAX_LINE && windowStart + window.limit() < size) {
+                map(position);
+            }
+            lineNumber++;
+            skipSpaces();
+            if (atEndOfLine()) {
+                skipLine();
+                continue;
+            }
+            if (window.get(window.position()) == '#') {
+                skipLine();
+                continue;
+            }
+            cycle = parseNumber(10);
+            pc = (int) parseNumber(16);
+            skipSpaces();
+            if (window.hasRemaining() && window.get(window.position()) == '-') {
+                register = TraceWriter.NONE;
+                value = 0;
+            } else {
+                register = (int) parseNumber(10);
+                value = (int) parseNumber(16);
+            }
+            skipLine();
+            return true;
+        }
+    }
+
+    private long parseNumber(int radix) throws IOException {
+        skipSpaces();
+        if (radix == 16 && window.remaining() > 1 && window.get(window.position()) == '0'
+                && (window.get(window.position() + 1) | 0x20) == 'x') {
+            window.position(window.position() + 2);
+        }
+        long number = 0;
+        int digits = 0;
+        while (window.hasRemaining()) {
+            int digit = Character.digit(window.get(window.position()), radix);
+            if (digit < 0) {
+                break;
+            }
+            number = number * radix + digit;
+            window.get();
+            digits++;
+        }
+        if (digits == 0) {
+            throw new IOException("malformed simulation log at line " + lineNumber);
+        }
+        return number;
+    }
+
+    private void skipSpaces() {
+        while (window.hasRemaining()) {
+            byte b = window.get(window.position());
+            if (b != ' ' && b != '\t') {
+                return;
+            }
+            window.get();
+        }
+    }
+
+    private boolean atEndOfLine() {
+        if (!window.hasRemaining()) {
+            return true;
+        }
+        byte b = window.get(window.position());
+        return b == '\n' || b == '\r';
+    }
+
+    private void skipLine() {
+        while (window.hasRemaining()) {
+            if (window.get() == '\n') {
+                return;
+            }
+        }
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getCycle() {
+        return cycle;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    /**
+     * @return register written in this cycle or {@link TraceWriter#NONE}
+     */
+    public int getRegister() {
+        return register;
+    }
+
+    public int getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,207 @@
+package e93.emulator.trace;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the register writes in a VHDL simulation log against an emulator
+ * trace and reports the first place where they disagree.
+ *
+ * The two logs don't line up cycle for cycle. The simulated CPU may take
+ * several cycles per instruction and a pipelined CPU writes a register some
+ * cycles after it fetched the instruction. So instead of comparing cycle by
+ * cycle, the register writes are compared in order: the n-th register write
+ * in the simulation must match the n-th register write in the emulator. The
+ * pc that the emulator reports for an instruction must have appeared in the
+ * simulation log within {@code maxLatency} cycles before the write.
+ *
+ * Both inputs are streamed through memory-mapped windows and only a small
+ * ring of recent history is kept for the report, so traces of any size can be
+ * compared.
+ */
+public class TraceDiff {
+
+    private final int maxLatency;
+    private final int context;
+
+    // ring of the pcs of the last maxLatency + 1 simulated cycles, the next
+    // one goes at recentNext and the first recentCount are filled. Neither
+    // counts cycles so they can't overflow on a long trace.
+    private final int[] recentPcs;
+    private int recentNext;
+    private int recentCount;
+
+    // ring of the last writes that matched, for the report
+    private final long[] historyCounts;
+    private final long[] historyCycles;
+    private final int[] historyPcs;
+    private final int[] historyRegisters;
+    private final int[] historyValues;
+    private long compared;
+
+    /**
+     * @param maxLatency most cycles between fetching an instruction and
+     *                   writing its result
+     * @param context number of matching writes to include before a divergence
+     */
+    public TraceDiff(int maxLatency, int context) {
+        this.maxLatency = maxLatency;
+        this.context = context;
+        this.recentPcs = new int[maxLatency + 1];
+        this.historyCounts = new long[context];
+        this.historyCycles = new long[context];
+        this.historyPcs = new int[context];
+        this.historyRegisters = new int[context];
+        this.historyValues = new int[context];
+    }
+
+    /**
+     * Streams through both logs until they disagree or both end.
+     *
+     * @return the first divergence or null if the logs agree
+     */
+    public Divergence compare(SimulationLog simulation, TraceReader emulator) throws IOException {
+        recentNext = 0;
+        recentCount = 0;
+        compared = 0;
+        while (emulator.next()) {
+            int target = emulator.getTarget();
+            if (target == TraceWriter.NONE || target == TraceWriter.MEMORY) {
+                // the simulation log only has register writes
+                continue;
+            }
+            if (!nextWrite(simulation)) {
+                return divergence("simulation log ended before the emulator trace",
+                        emulator, null);
+            }
+            if (simulation.getRegister() != target) {
+                return divergence("different register written", emulator, simulation);
+            }
+            if ((simulation.getValue() & 0xffff) != (emulator.getValue() & 0xffff)) {
+                return divergence("different value written", emulator, simulation);
+            }
+            if (!recentlyFetched(emulator.getPc())) {
+                return divergence("pc " + Integer.toHexString(emulator.getPc())
+                        + " not seen in the last " + (maxLatency + 1) + " cycles", emulator, simulation);
+            }
+            int slot = (int) (compared % Math.max(context, 1));
+            if (context > 0) {
+                historyCounts[slot] = emulator.getCount();
+                historyCycles[slot] = simulation.getCycle();
+                historyPcs[slot] = emulator.getPc();
+                historyRegisters[slot] = target;
+                historyValues[slot] = emulator.getValue();
+            }
+            compared++;
+        }
+        if (nextWrite(simulation)) {
+            return divergence("emulator trace ended before the simulation log", null, simulation);
+        }
+        return null;
+    }
+
+    /**
+     * @return number of register writes that matched in the last comparison
+     */
+    public long getCompared() {
+        return compared;
+    }
+
+    private boolean nextWrite(SimulationLog simulation) throws IOException {
+        while (simulation.next()) {
+            recentPcs[recentNext] = simulation.getPc();
+            recentNext = (recentNext + 1) % recentPcs.length;
+            if (recentCount < recentPcs.length) {
+                recentCount++;
+            }
+            if (simulation.getRegister() != TraceWriter.NONE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean recentlyFetched(int pc) {
+        for (int i = 0; i < recentCount; i++) {
+            if (recentPcs[i] == pc) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Divergence divergence(String reason, TraceReader emulator, SimulationLog simulation) {
+        List<String> lines = new ArrayList<>();
+        long first = Math.max(0, compared - context);
+        for (long i = first; i < compared; i++) {
+            int slot = (int) (i % context);
+            lines.add(String.format("  ok   #%d cycle %d pc %04x $r%d <- %04x",
+                    historyCounts[slot], historyCycles[slot], historyPcs[slot],
+                    historyRegisters[slot], historyValues[slot] & 0xffff));
+        }
+        if (emulator != null) {
+            lines.add(String.format("  emu  #%d pc %04x $r%d <- %04x",
+                    emulator.getCount(), emulator.getPc(), emulator.getTarget(), emulator.getValue() & 0xffff));
+        }
+        if (simulation != null) {
+            lines.add(String.format("  sim  cycle %d (line %d) pc %04x $r%d <- %04x",
+                    simulation.getCycle(), simulation.getLineNumber(), simulation.getPc(),
+                    simulation.getRegister(), simulation.getValue() & 0xffff));
+        }
+        return new Divergence(reason,
+                emulator == null ? -1 : emulator.getCount(),
+                simulation == null ? -1 : simulation.getCycle(),
+                lines);
+    }
+
+    @Value
+    public static class Divergence {
+        String reason;
+
+        /**
+         * Instruction count in the emulator trace or -1 if the trace ended
+         */
+        long instructionCount;
+
+        /**
+         * Cycle in the simulation log or -1 if the log ended
+         */
+        long cycle;
+
+        List<String> context;
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("diverged: ").append(reason).append('\n');
+            for (String line : context) {
+                sb.append(line).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args == null || args.length < 2) {
+            System.err.println("usage: TraceDiff simulation.log trace.bin [max-latency] [context]");
+            return;
+        }
+        int maxLatency = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int context = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        TraceDiff diff = new TraceDiff(maxLatency, context);
+        try (SimulationLog simulation = new SimulationLog(Paths.get(args[0]));
+             TraceReader emulator = new TraceReader(Paths.get(args[1]))) {
+            Divergence divergence = diff.compare(simulation, emulator);
+            if (divergence == null) {
+                System.out.println("traces agree, " + diff.getCompared() + " register writes compared");
+            } else {
+                System.out.print(divergence);
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package e93.emulator.trace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary trace file shared by the {@link TraceWriter} and the
+ * {@link TraceReader}.
+ *
+ * The file starts with an 8 byte header: the magic "E93T", a version byte, a
+ * flags byte and two reserved bytes. All values are little-endian.
+ *
+ * Plain records are a fixed 24 bytes:
+ * <pre>
+ *   long  instruction count
+ *   int   pc
+ *   short encoded instruction
+ *   byte  target (register 0..15, MEMORY or NONE)
+ *   byte  reserved
+ *   int   value written
+ *   int   memory address (only meaningful when target is MEMORY)
+ * </pre>
+ *
+ * Delta encoded records store each field as the difference from the previous
+ * record using zig-zag varints. A straight line of instructions costs about 6
+ * bytes per record this way.
+ */
+final class TraceFormat {
+
+    static final int MAGIC = 'E' | '9' << 8 | '3' << 16 | 'T' << 24;
+    static final byte VERSION = 1;
+    static final byte FLAG_DELTA = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 24;
+
+    /**
+     * Worst case size of a delta encoded record: 10 byte varint for the count,
+     * 5 bytes each for pc, value and address plus the word and target.
+     */
+    static final int MAX_DELTA_RECORD_SIZE = 10 + 5 + 2 + 1 + 5 + 5;
+
+    private TraceFormat() {
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static void putZigZag(ByteBuffer buffer, int value) {
+        putVarLong(buffer, ((value << 1) ^ (value >> 31)) & 0xffffffffL);
+    }
+
+    static int getZigZag(ByteBuffer buffer) {
+        int raw = (int) getVarLong(buffer);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
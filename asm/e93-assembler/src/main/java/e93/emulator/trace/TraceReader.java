@@ -0,0 +1,248 @@
+package e93.emulator.trace;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.SourceMap;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads a trace written by {@link TraceWriter}.
+ *
+ * The file is memory-mapped a window at a time so that traces larger than the
+ * heap (or larger than the 2GB limit for a single mapping) can be read. The
+ * reader is a cursor: {@link #next()} advances to the next record and the
+ * getters return the fields of the current record. Nothing is allocated per
+ * record.
+ */
+public class TraceReader implements Closeable {
+
+    private static final long WINDOW_SIZE = 64L << 20;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final FileChannel channel;
+    private final long size;
+    private final boolean delta;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private final StringBuilder line = new StringBuilder(80);
+
+    private long count;
+    private int pc;
+    private int word;
+    private int target;
+    private int value;
+    private int address;
+
+    public TraceReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        map(0);
+        if (size < TraceFormat.HEADER_SIZE || window.getInt() != TraceFormat.MAGIC) {
+            channel.close();
+            throw new IOException("not an e93 trace file:" + path);
+        }
+        byte version = window.get();
+        if (version != TraceFormat.VERSION) {
+            channel.close();
+            throw new IOException("unsupported trace version:" + version);
+        }
+        this.delta = (window.get() & TraceFormat.FLAG_DELTA) != 0;
+        window.getShort();
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false if there are no more records
+     */
+    public boolean next() throws IOException {
+        long position = windowStart + window.position();
+        if (position >= size) {
+            return false;
+        }
+        int needed = delta ? TraceFormat.MAX_DELTA_RECORD_SIZE : TraceFormat.RECORD_SIZE;
+        if (window.remaining() < needed && windowStart + window.limit() < size) {
+            map(position);
+        }
+        if (delta) {
+            count += TraceFormat.getVarLong(window);
+            pc += TraceFormat.getZigZag(window) + 2;
+            word = window.getShort() & 0xffff;
+            target = window.get();
+            if (target != TraceWriter.NONE) {
+                value += TraceFormat.getZigZag(window);
+            }
+            if (target == TraceWriter.MEMORY) {
+                address += TraceFormat.getZigZag(window);
+            }
+        } else {
+            count = window.getLong();
+            pc = window.getInt();
+            word = window.getShort() & 0xffff;
+            target = window.get();
+            window.get();
+            value = window.getInt();
+            address = window.getInt();
+        }
+        return true;
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        long length = Math.min(WINDOW_SIZE, size - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes the current record as a line of text.
+     *
+     * @param out destination for the line
+     * @param sourceByWord source line for each word address, may be null
+     */
+    public void format(Appendable out, String[] sourceByWord) throws IOException {
+        StringBuilder sb = formatRecord();
+        int wordAddress = pc >> 1;
+        if (sourceByWord != null && wordAddress >= 0 && wordAddress < sourceByWord.length
+                && sourceByWord[wordAddress] != null) {
+            sb.append("    -- ").append(sourceByWord[wordAddress]);
+        }
+        sb.append('\n');
+        out.append(sb);
+    }
+
+    /**
+     * Writes the current record as a line of text with the source file, line
+     * and label it came from.
+     *
+     * @param sourceMap the program's debug info, may be null
+     */
+    public void format(Appendable out, SourceMap sourceMap) throws IOException {
+        StringBuilder sb = formatRecord();
+        if (sourceMap != null && (pc >> 1) < sourceMap.getWords()) {
+            sourceMap.appendLocation(sb.append("    -- "), pc >> 1);
+        }
+        sb.append('\n');
+        out.append(sb);
+    }
+
+    private StringBuilder formatRecord() {
+        StringBuilder sb = line;
+        sb.setLength(0);
+        sb.append(count).append(' ');
+        hex(sb, pc).append(": ");
+        hex(sb, word);
+        if (target == TraceWriter.MEMORY) {
+            sb.append("  mem[");
+            hex(sb, address).append("] <- ");
+            hex(sb, value);
+        } else if (target != TraceWriter.NONE) {
+            sb.append("  $r").append(target).append(target < 10 ? "  " : " ").append("<- ");
+            hex(sb, value);
+        }
+        return sb;
+    }
+
+    private static StringBuilder hex(StringBuilder sb, int value) {
+        if ((value & ~0xffff) != 0) {
+            return sb.append(Integer.toHexString(value));
+        }
+        return sb.append(HEX[(value >> 12) & 0xf])
+                .append(HEX[(value >> 8) & 0xf])
+                .append(HEX[(value >> 4) & 0xf])
+                .append(HEX[value & 0xf]);
+    }
+
+    /**
+     * Maps each word address of the program to the source line that produced
+     * it. Words for directives map to the directive's line.
+     *
+     * @param instructions parsed program, in the order it's laid out in memory
+     * @return source line for each word address
+     */
+    public static String[] sourceByWord(List<Instruction> instructions) {
+        String[] source = new String[Assembler.sizeInWords(instructions)];
+        int address = 0;
+        for (Instruction instruction : instructions) {
+            int end = address + Assembler.sizeInWords(instruction, address);
+            for (; address < end; address++) {
+                source[address] = instruction.getSourceLine();
+            }
+        }
+        return source;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getWord() {
+        return word;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args == null || args.length == 0) {
+            System.err.println("usage: TraceReader trace-file [source.asm|program.dbg]");
+            return;
+        }
+
+        String[] sourceByWord = null;
+        SourceMap sourceMap = null;
+        if (args.length > 1 && args[1].endsWith(".dbg")) {
+            sourceMap = SourceMap.open(Paths.get(args[1]));
+        } else if (args.length > 1) {
+            try (FileReader fileReader = new FileReader(args[1])) {
+                sourceByWord = sourceByWord(InstructionParser.parse(fileReader));
+            }
+        }
+
+        try (TraceReader reader = new TraceReader(Paths.get(args[0]));
+             Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)) {
+            while (reader.next()) {
+                if (sourceMap != null) {
+                    reader.format(out, sourceMap);
+                } else {
+                    reader.format(out, sourceByWord);
+                }
+            }
+        }
+    }
+}
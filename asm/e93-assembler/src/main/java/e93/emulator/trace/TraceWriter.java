@@ -0,0 +1,221 @@
+package e93.emulator.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records an execution trace in a binary form that's cheap to produce.
+ *
+ * The emulator thread writes each record into a preallocated ring buffer made
+ * of primitive arrays. A background thread drains the ring buffer, encodes the
+ * records and writes them to a {@link FileChannel}. Recording never allocates
+ * and never does any I/O on the emulator thread. If the drain thread falls
+ * behind, the emulator waits for room rather than dropping records.
+ *
+ * There's a single producer and a single consumer so the only coordination
+ * needed is the pair of sequence numbers {@code head} and {@code tail}.
+ *
+ * Use {@link TraceReader} to turn the file back into text.
+ */
+public class TraceWriter implements Closeable {
+
+    /**
+     * Target for an instruction that doesn't write anything, like J
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Target for an instruction that writes to memory, like SW
+     */
+    public static final int MEMORY = 16;
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final FileChannel channel;
+    private final boolean delta;
+    private final int mask;
+
+    // the ring buffer, one array per field
+    private final long[] counts;
+    private final int[] pcs;
+    private final short[] words;
+    private final byte[] targets;
+    private final int[] values;
+    private final int[] addresses;
+
+    /**
+     * Sequence number of the next record the drain thread will read
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Sequence number of the next record the emulator will write
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    private final Thread drainThread;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    public TraceWriter(Path path, boolean delta) throws IOException {
+        this(path, delta, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param path file to write the trace to, it's truncated if it exists
+     * @param delta true to delta encode the records
+     * @param capacity number of records in the ring buffer, must be a power of 2
+     */
+    public TraceWriter(Path path, boolean delta, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2:" + capacity);
+        }
+        this.delta = delta;
+        this.mask = capacity - 1;
+        this.counts = new long[capacity];
+        this.pcs = new int[capacity];
+        this.words = new short[capacity];
+        this.targets = new byte[capacity];
+        this.values = new int[capacity];
+        this.addresses = new int[capacity];
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        this.drainThread = new Thread(this::drain, "e93-trace-writer");
+        this.drainThread.setDaemon(true);
+        this.drainThread.start();
+    }
+
+    /**
+     * Adds a record to the trace. Only called from the emulator thread.
+     *
+     * @param count number of instructions executed, including this one
+     * @param pc address of the instruction
+     * @param word encoded instruction
+     * @param target register written, {@link #MEMORY} or {@link #NONE}
+     * @param value value written to the register or memory
+     * @param address memory address written when target is {@link #MEMORY}
+     */
+    public void record(long count, int pc, int word, int target, int value, int address) {
+        long seq = tail.get();
+        while (seq - head.get() > mask) {
+            if (failure != null) {
+                throw new IllegalStateException("trace writer failed", failure);
+            }
+            LockSupport.parkNanos(10_000);
+        }
+        int slot = (int) seq & mask;
+        counts[slot] = count;
+        pcs[slot] = pc;
+        words[slot] = (short) word;
+        targets[slot] = (byte) target;
+        values[slot] = value;
+        addresses[slot] = address;
+        // publishes the slot to the drain thread
+        tail.lazySet(seq + 1);
+    }
+
+    /**
+     * Waits for the drain thread to write everything that's been recorded and
+     * closes the file.
+     *
+     * @throws IOException if the drain thread failed to write the trace
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for trace to drain", e);
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void drain() {
+        ByteBuffer out = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        long prevCount = 0;
+        int prevPc = 0;
+        int prevValue = 0;
+        int prevAddress = 0;
+        try {
+            out.putInt(TraceFormat.MAGIC)
+                    .put(TraceFormat.VERSION)
+                    .put(delta ? TraceFormat.FLAG_DELTA : 0)
+                    .putShort((short) 0);
+
+            while (true) {
+                // read closed before tail so that nothing published before the
+                // close is missed
+                boolean finishing = closed;
+                long seq = head.get();
+                long available = tail.get();
+                if (seq == available) {
+                    if (finishing) {
+                        break;
+                    }
+                    LockSupport.parkNanos(100_000);
+                    continue;
+                }
+                for (; seq < available; seq++) {
+                    if (out.remaining() < TraceFormat.MAX_DELTA_RECORD_SIZE) {
+                        flush(out);
+                    }
+                    int slot = (int) seq & mask;
+                    if (delta) {
+                        TraceFormat.putVarLong(out, counts[slot] - prevCount);
+                        // most instructions are at the previous pc + 2
+                        TraceFormat.putZigZag(out, pcs[slot] - prevPc - 2);
+                        out.putShort(words[slot]);
+                        out.put(targets[slot]);
+                        if (targets[slot] != NONE) {
+                            TraceFormat.putZigZag(out, values[slot] - prevValue);
+                            prevValue = values[slot];
+                        }
+                        if (targets[slot] == MEMORY) {
+                            TraceFormat.putZigZag(out, addresses[slot] - prevAddress);
+                            prevAddress = addresses[slot];
+                        }
+                        prevCount = counts[slot];
+                        prevPc = pcs[slot];
+                    } else {
+                        out.putLong(counts[slot])
+                                .putInt(pcs[slot])
+                                .putShort(words[slot])
+                                .put(targets[slot])
+                                .put((byte) 0)
+                                .putInt(values[slot])
+                                .putInt(addresses[slot]);
+                    }
+                }
+                head.lazySet(seq);
+            }
+            flush(out);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void flush(ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+}
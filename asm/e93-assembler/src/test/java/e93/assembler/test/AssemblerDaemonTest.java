@@ -0,0 +1,156 @@
+package e93.assembler.test;
+
+import e93.assembler.AssemblerDaemon;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AssemblerDaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AssemblerDaemon daemon;
+
+    @Before
+    public void start() throws IOException {
+        daemon = new AssemblerDaemon(0, "secret", 2);
+        Thread thread = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        daemon.close();
+    }
+
+    @Test
+    public void assemblesToStdout() throws IOException {
+        Path source = folder.getRoot().toPath().resolve("sample.asm");
+        Files.write(source, asString("/sample.asm").getBytes(StandardCharsets.UTF_8));
+        Response response = send("secret", "-f", "hex", "sample.asm");
+        assertEquals(0, response.status);
+        assertTrue(response.out.startsWith(":100000000115011664360125604560550360486599"));
+        assertEquals("", response.err);
+    }
+
+    @Test
+    public void writesRelativeToTheClientsDirectory() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("one.asm"), "ADDI $r1, 0x1\n".getBytes(StandardCharsets.UTF_8));
+        Response response = send("secret", "-f", "bin", "-o", "one.bin", "one.asm");
+        assertEquals(0, response.status);
+        assertArrayEquals(new byte[] {0x01, 0x21}, Files.readAllBytes(dir.resolve("one.bin")));
+    }
+
+    @Test
+    public void reportsErrors() throws IOException {
+        Files.write(folder.getRoot().toPath().resolve("bad.asm"), "NOPE\n".getBytes(StandardCharsets.UTF_8));
+        Response response = send("secret", "bad.asm");
+        assertEquals(1, response.status);
+        assertTrue(response.err, response.err.startsWith("bad.asm:1: "));
+    }
+
+    @Test
+    public void wrongToken() throws IOException {
+        Files.write(folder.getRoot().toPath().resolve("one.asm"), "ADDI $r1, 0x1\n".getBytes(StandardCharsets.UTF_8));
+        Response response = send("guess", "one.asm");
+        assertEquals(2, response.status);
+        assertEquals("", response.out);
+        assertEquals("wrong token\n", response.err);
+    }
+
+    @Test
+    public void tokenIsCheckedBeforeTheRest() throws IOException {
+        // a count that would run out of memory if it were believed
+        Response response = send("guess", Integer.MAX_VALUE);
+        assertEquals(2, response.status);
+        assertEquals("wrong token\n", response.err);
+    }
+
+    @Test
+    public void badArgumentCount() throws IOException {
+        Response response = send("secret", -1);
+        assertEquals(2, response.status);
+        assertEquals("bad argument count:-1\n", response.err);
+    }
+
+    @Test
+    public void missingFileIsAnError() throws IOException {
+        Response response = send("secret", "missing.asm");
+        assertEquals(2, response.status);
+        assertEquals("file not found or not readable:missing.asm\n", response.err);
+    }
+
+    private Response send(String token, int count) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(token);
+            out.writeUTF("asm");
+            out.writeUTF(folder.getRoot().getPath());
+            out.writeInt(count);
+            out.flush();
+            return receive(socket);
+        }
+    }
+
+    private Response send(String token, String... args) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(token);
+            out.writeUTF("asm");
+            out.writeUTF(folder.getRoot().getPath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            return receive(socket);
+        }
+    }
+
+    private static Response receive(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        Response response = new Response();
+        response.status = in.readInt();
+        response.out = read(in);
+        response.err = read(in);
+        return response;
+    }
+
+    private static String read(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Response {
+        int status;
+        String out;
+        String err;
+    }
+}
@@ -3,18 +3,38 @@ package e93.assembler.test;
 import e93.assembler.Assembler;
 import e93.assembler.Instruction;
 import e93.assembler.InstructionParser;
+import e93.assembler.OpCode;
+import e93.assembler.ast.And;
+import e93.assembler.ast.ErrorLine;
+import e93.emulator.MemorySubsystem;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
 /**
  * @author markford
  */
 public class AssemblerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void encodeTwoRegisterType() {
         Instruction instruction = InstructionParser.parse("AND $r1, $r2");
@@ -49,4 +69,104 @@ public class AssemblerTest {
         List<Instruction> instructions = InstructionParser.parse(new StringReader(program));
         assertEquals(2, instructions.size());
     }
+
+    @Test
+    public void encodeProgram() throws Exception {
+        String program = "AND $r5, $r0\n" +
+                         "ORI $r6, 0x64\n" +
+                         ".asciiz \"Hi\"\n" +
+                         "SW $r5, $r6\n" +
+                         "J 0x1\n";
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(program));
+        short[] image = Assembler.encode(instructions);
+        assertArrayEquals(new short[] {
+                0x1501, 0x3664, 'H' | 'i' << 8, 0, 0x4560, 0x6001
+        }, image);
+
+        ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) 0x7777);
+        assertEquals(image.length, Assembler.encode(instructions, buffer));
+        assertEquals(14, buffer.position());
+        for (int i = 0; i < image.length; i++) {
+            assertEquals(image[i], buffer.getShort(2 + i * 2));
+        }
+
+        MemorySubsystem memory = new MemoryFixture();
+        assertEquals(image.length, Assembler.encode(instructions, memory));
+        assertEquals(0x6001, memory.readInt(10));
+    }
+
+    @Test
+    public void encodeFields() {
+        assertEquals(0x1121, Assembler.encode(OpCode.ALU, 1, 2, 1, 0));
+        assertEquals(0x2a7f, Assembler.encode(OpCode.ADDI, 10, 3, 1, 0x7f));
+        assertEquals(0x6003, Assembler.encode(OpCode.J, 1, 2, 3, 0x6));
+    }
+
+    @Test
+    public void encodeFieldsOutOfRange() {
+        // a field that doesn't fit is an error rather than spilling into the
+        // next field or being cut down to a different value
+        int[][] outOfRange = {
+                {OpCode.ALU.ordinal(), 16, 0, 0, 0},
+                {OpCode.ALU.ordinal(), 0, 0x10, 0, 0},
+                {OpCode.ALU.ordinal(), 0, 0, 0x11, 0},
+                {OpCode.ADDI.ordinal(), 1, 0, 0, 0x1ff},
+                {OpCode.ORI.ordinal(), -1, 0, 0, 0},
+                {OpCode.SW.ordinal(), 1, 0x1e, 0, 0},
+                {OpCode.J.ordinal(), 0, 0, 0, 0x2000},
+        };
+        for (int[] fields : outOfRange) {
+            OpCode opCode = OpCode.values()[fields[0]];
+            try {
+                Assembler.encode(opCode, fields[1], fields[2], fields[3], fields[4]);
+                fail(Arrays.toString(fields));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        // the largest values that fit
+        assertEquals(0x1fff, Assembler.encode(OpCode.ALU, 15, 15, 15, 0));
+        assertEquals(0x21ff, Assembler.encode(OpCode.ADDI, 1, 0, 0, 0xff));
+        assertEquals(0x6fff, Assembler.encode(OpCode.J, 0, 0, 0, 0x1ffe));
+    }
+
+    @Test
+    public void errorLineHasNoSize() {
+        ErrorLine error = new ErrorLine("Unknown instruction: FOO");
+        assertEquals(0, Assembler.sizeInWords(error, 0));
+        assertEquals(1, Assembler.sizeInWords(Arrays.asList(error, new And())));
+    }
+
+    @Test
+    public void commentInAnotherCharset() throws Exception {
+        // an e with an acute accent in Latin-1, which isn't valid UTF-8
+        byte[] source = "-- caf\u00e9\nORI $r1, 0x20\n".getBytes(StandardCharsets.ISO_8859_1);
+        Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("p.asm"), source);
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = Assembler.run(dir, new String[] {"-f", "bin", "-o", "p.bin", "p.asm"},
+                new ByteArrayOutputStream(), new PrintStream(err, true, "UTF-8"));
+        assertEquals(err.toString("UTF-8"), 0, status);
+        assertArrayEquals(new byte[] {0x20, 0x31}, Files.readAllBytes(dir.resolve("p.bin")));
+    }
+
+    @Test
+    public void programTooBigForMif() throws Exception {
+        // .space is in bytes, this is one word more than a MIF holds
+        Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("p.asm"), "ORI $r1, 0x20\n.space 32768\n".getBytes(StandardCharsets.US_ASCII));
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = Assembler.run(dir, new String[] {"-o", "p.mif", "p.asm"},
+                new ByteArrayOutputStream(), new PrintStream(err, true, "UTF-8"));
+        assertEquals(1, status);
+        assertEquals("p.asm: program is 16385 words, more than the 16384 that fit in a MIF\n",
+                err.toString("UTF-8").replace(System.lineSeparator(), "\n"));
+        assertFalse(Files.exists(dir.resolve("p.mif")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOpcode() {
+        OpCode.fromEncoded(0xf);
+    }
 }
@@ -0,0 +1,92 @@
+package e93.assembler.test;
+
+import e93.assembler.BatchAssembler;
+import e93.assembler.InstructionParser;
+import e93.assembler.MifWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchAssemblerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void directoryOfFiles() throws Exception {
+        String sample = asString("/sample.asm");
+        Path dir = folder.newFolder("programs").toPath();
+        Files.createDirectory(dir.resolve("nested"));
+        for (String name : new String[] {"b.asm", "a.asm", "nested/c.asm"}) {
+            Files.write(dir.resolve(name), sample.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(dir.resolve("notes.txt"), "not assembly".getBytes(StandardCharsets.UTF_8));
+
+        List<BatchAssembler.FileResult> results = assemble("mif", Collections.singletonList(dir));
+        assertEquals(3, results.size());
+        assertEquals(dir.resolve("a.asm"), results.get(0).getInput());
+        assertEquals(dir.resolve("b.asm"), results.get(1).getInput());
+        assertEquals(dir.resolve("nested/c.asm"), results.get(2).getInput());
+
+        String expected = MifWriter.writeToString(InstructionParser.parse(new StringReader(sample)));
+        for (BatchAssembler.FileResult result : results) {
+            assertTrue(result.getErrors().isEmpty());
+            assertEquals(0xd, result.getWords());
+            assertEquals(expected, new String(Files.readAllBytes(result.getOutput()), StandardCharsets.UTF_8));
+        }
+        assertEquals(dir.resolve("nested/c.mif"), results.get(2).getOutput());
+    }
+
+    @Test
+    public void errorsPerFile() throws Exception {
+        Path good = folder.newFile("good.asm").toPath();
+        Files.write(good, "ADDI $r1, 0x1\n".getBytes(StandardCharsets.UTF_8));
+        Path bad = folder.newFile("bad.asm").toPath();
+        Files.write(bad, "ADDI $r1, 0x1\nNOPE\n".getBytes(StandardCharsets.UTF_8));
+
+        List<BatchAssembler.FileResult> results = assemble("bin", Arrays.asList(good, bad));
+        assertTrue(results.get(0).getErrors().isEmpty());
+        assertEquals(2, Files.size(folder.getRoot().toPath().resolve("good.bin")));
+
+        assertNull(results.get(1).getOutput());
+        assertEquals(1, results.get(1).getErrors().size());
+        assertTrue(results.get(1).getErrors().get(0).startsWith(bad + ":2: "));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("bad.bin")));
+    }
+
+    @Test
+    public void commentInAnotherCharset() throws Exception {
+        // an e with an acute accent in Latin-1, which isn't valid UTF-8
+        Path latin1 = folder.newFile("latin1.asm").toPath();
+        Files.write(latin1, "-- caf\u00e9\nORI $r1, 0x20\n".getBytes(StandardCharsets.ISO_8859_1));
+        List<BatchAssembler.FileResult> results = assemble("bin", Collections.singletonList(latin1));
+        assertEquals(Collections.emptyList(), results.get(0).getErrors());
+        assertEquals(2, Files.size(folder.getRoot().toPath().resolve("latin1.bin")));
+    }
+
+    private static List<BatchAssembler.FileResult> assemble(String format, List<Path> inputs) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            return new BatchAssembler(pool, format).assemble(inputs);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
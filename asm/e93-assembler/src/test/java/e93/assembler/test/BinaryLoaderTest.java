@@ -0,0 +1,61 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.BinaryWriter;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.emulator.ArrayMemory;
+import e93.emulator.BinaryLoader;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.MifLoader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BinaryLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameAsMif() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(asString("/sample.asm")));
+        Path path = folder.newFile("sample.bin").toPath();
+        BinaryWriter.write(Assembler.encode(instructions), path);
+        assertEquals(0xd * 2, Files.size(path));
+        assertEquals(0x01, Files.readAllBytes(path)[0]);
+        assertEquals(0x15, Files.readAllBytes(path)[1]);
+
+        MemorySubsystem expected = new ArrayMemory();
+        new MifLoader().load(new StringReader(asString("/sample.mif")), expected);
+        MemorySubsystem actual = new ArrayMemory();
+        assertEquals(0xd * 2, BinaryLoader.load(path, actual));
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+    }
+
+    @Test
+    public void largerThanABlock() throws IOException {
+        short[] image = new short[0x9000];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (short) (i * 31);
+        }
+        Path path = folder.newFile("large.bin").toPath();
+        BinaryWriter.write(image, path);
+
+        MemorySubsystem memory = new ArrayMemory(image.length * 2);
+        assertEquals(image.length * 2, BinaryLoader.load(path, memory));
+        for (int i = 0; i < image.length; i++) {
+            assertEquals("word " + i, image[i] & 0xffff, memory.readInt(i * 2));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.CodeLayout;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.ProgramImage;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.Profile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodeLayoutTest {
+
+    private static final String PROGRAM =
+            "        AND $r1, $r0\n" +
+            "        ORI $r3, 0x14     -- address of count\n" +
+            "        LW $r4, $r3\n" +
+            "        J loop\n" +
+            "cold:   ADDI $r2, 0x1\n" +
+            "        J cold\n" +
+            "body:   ADDI $r1, 0x2\n" +
+            "        J loop\n" +
+            "loop:   ADDI $r1, 0x1\n" +
+            "        J body\n" +
+            "count:  .word 0x5\n";
+
+    /**
+     * Ends just after the jump back to body so it's run once more than the
+     * jump to loop
+     */
+    private static final int STEPS = 1002;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hotJumpsFallThrough() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(PROGRAM));
+        short[] image = Assembler.encode(instructions);
+        Profile profile = new Profile();
+        Emulator before = run(image, profile);
+        assertEquals(1, profile.getCount(3));
+        assertEquals(0, profile.getCount(4));
+        assertTrue(profile.getCount(9) > 200);
+
+        CodeLayout.Result result = CodeLayout.layout(instructions, profile);
+        assertEquals(2, result.getMovedBlocks());
+        assertEquals(2, result.getRemovedJumps());
+        assertEquals(profile.getCount(3) + profile.getCount(9), result.getJumpsSaved());
+
+        // the loop comes right after the entry and the cold block is moved last
+        short[] laidOut = Assembler.encode(result.getInstructions());
+        assertEquals(image.length, laidOut.length);
+        assertArrayEquals(new short[] {image[0], image[1], image[2], image[8], image[6], 0x6003, image[4], 0x6006},
+                Arrays.copyOf(laidOut, 8));
+        // the data hasn't moved
+        assertEquals(0, laidOut[9]);
+        assertEquals(5, laidOut[10]);
+
+        Emulator after = run(laidOut, new Profile());
+        assertEquals(5, after.getRegister(4));
+        assertEquals(before.getRegister(4), after.getRegister(4));
+        // a jump less for every time around the loop
+        assertTrue(after.getRegister(1) > before.getRegister(1) * 5 / 4);
+    }
+
+    @Test
+    public void nothingRunNothingMoved() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(PROGRAM));
+        CodeLayout.Result result = CodeLayout.layout(instructions, new Profile());
+        assertSame(instructions, result.getInstructions());
+        assertEquals(0, result.getRemovedJumps());
+
+        List<Instruction> numeric = InstructionParser.parse(new StringReader(PROGRAM.replace("J cold", "J 0x8")));
+        assertSame(numeric, CodeLayout.layout(numeric, run(Assembler.encode(numeric))).getInstructions());
+    }
+
+    @Test
+    public void profileFile() throws IOException {
+        Profile profile = run(Assembler.encode(InstructionParser.parse(new StringReader(PROGRAM))));
+        StringWriter sw = new StringWriter();
+        profile.write(sw);
+        String text = sw.toString();
+        assertTrue(text, text.startsWith("# e93 profile: word address, count\n0000 1\n0001 1\n"));
+        assertTrue(text, !text.contains("\n0004 "));
+
+        Profile read = Profile.read(new StringReader(text));
+        for (int word = 0; word < 16; word++) {
+            assertEquals(profile.getCount(word), read.getCount(word));
+        }
+        try {
+            Profile.read(new StringReader("0000 1\n0001\n"));
+            fail();
+        } catch (IOException e) {
+            assertEquals("line 2: expected an address and a count: 0001", e.getMessage());
+        }
+        assertEquals(3, Profile.read(new StringReader("7fff 3\n")).getCount(0x7fff));
+        try {
+            Profile.read(new StringReader("0000 1\n8000 1\n"));
+            fail();
+        } catch (IOException e) {
+            assertEquals("line 2: address outside memory: 8000 1", e.getMessage());
+        }
+        try {
+            Profile.read(new StringReader("7fffffff 1\n"));
+            fail();
+        } catch (IOException e) {
+            assertEquals("line 1: address outside memory: 7fffffff 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void commandLine() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("p.asm"), PROGRAM.getBytes(StandardCharsets.UTF_8));
+        run(Assembler.encode(InstructionParser.parse(new StringReader(PROGRAM)))).write(dir.resolve("p.profile"));
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = Assembler.run(dir, new String[] {"-p", "p.profile", "-f", "bin", "-o", "p.bin", "p.asm"},
+                new ByteArrayOutputStream(), new PrintStream(err, true, "UTF-8"));
+        assertEquals(0, status);
+        assertEquals(22, Files.size(dir.resolve("p.bin")));
+        String report = new String(err.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(report, report.startsWith("p.asm: moved 2 blocks, 2 jumps now fall through, "));
+    }
+
+    private static Profile run(short[] image) {
+        Profile profile = new Profile();
+        run(image, profile);
+        return profile;
+    }
+
+    private static Emulator run(short[] image, Profile profile) {
+        MemorySubsystem memory = new ArrayMemory();
+        ProgramImage.of(image).loadInto(memory);
+        Emulator emulator = new Emulator(memory);
+        emulator.setProfile(profile);
+        emulator.run(STEPS);
+        return emulator;
+    }
+}
@@ -0,0 +1,179 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.ProgramImage;
+import e93.assembler.ast.Label;
+import e93.compiler.Compiler;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompilerTest {
+
+    private static final String STRAIGHT =
+            "int a;\n" +
+            "int b = 7;\n" +
+            "int c;\n" +
+            "int big;\n" +
+            "void main() {\n" +
+            "    int x = 0x35;          // 0011 0101\n" +
+            "    int y = x | 0x0a;      // 0011 1111\n" +
+            "    int z = y & 0x1c;\n" +
+            "    z += 300;\n" +
+            "    a = x + 0x21 + 1;\n" +
+            "    b = (b | 0x30) & z;\n" +
+            "    c = z & y;\n" +
+            "    big = 0x1234;\n" +
+            "    *(&c) = *(&c) | 0x80;\n" +
+            "}\n";
+
+    private static final String COUNTER =
+            "int count;\n" +
+            "void main() {\n" +
+            "    int mask = 0xff;\n" +
+            "    int c = 0;\n" +
+            "    while (1) {\n" +
+            "        c++;\n" +
+            "        *0x200 = c & mask;\n" +
+            "        count = c;\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    public void straightLine() {
+        Emulator registers = run(Compiler.compile(STRAIGHT, true), 10_000);
+        Emulator memory = run(Compiler.compile(STRAIGHT, false), 10_000);
+        assertTrue(registers.isHalted());
+        assertTrue(memory.isHalted());
+
+        List<Instruction> program = Compiler.compile(STRAIGHT, true).getInstructions();
+        int x = 0x35;
+        int y = x | 0x0a;
+        int z = (y & 0x1c) + 300;
+        assertEquals(x + 0x22, global(registers, program, "a"));
+        assertEquals((7 | 0x30) & z, global(registers, program, "b"));
+        assertEquals((z & y) | 0x80, global(registers, program, "c"));
+        assertEquals(0x1234, global(registers, program, "big"));
+
+        List<Instruction> naive = Compiler.compile(STRAIGHT, false).getInstructions();
+        for (String name : new String[] {"a", "b", "c", "big"}) {
+            assertEquals(name, global(registers, program, name), global(memory, naive, name));
+        }
+        assertTrue(registers.getInstructionCount() * 2 < memory.getInstructionCount());
+    }
+
+    @Test
+    public void loopKeepsValuesInRegisters() {
+        Compiler.Result allocated = Compiler.compile(COUNTER, true);
+        Compiler.Result naive = Compiler.compile(COUNTER, false);
+        assertEquals(0, allocated.getSpilled());
+        assertTrue(naive.getSpilled() > 2);
+
+        Emulator fast = run(allocated, 10_000);
+        Emulator slow = run(naive, 10_000);
+        long fastCount = global(fast, allocated.getInstructions(), "count");
+        long slowCount = global(slow, naive.getInstructions(), "count");
+        assertTrue(slowCount > 0);
+        assertTrue(fastCount + " vs " + slowCount, fastCount > slowCount * 3);
+        assertEquals(fastCount & 0xff, fast.getMemorySubsystem().readInt(0x200));
+    }
+
+    @Test
+    public void spillsWhenItRunsOutOfRegisters() {
+        StringBuilder sb = new StringBuilder("int sum;\nvoid main() {\n");
+        for (int i = 0; i < 20; i++) {
+            sb.append("    int v").append(i).append(" = ").append(0x100 + i).append(" | 0x").append(i).append(";\n");
+        }
+        // every one of them is still live here
+        sb.append("    sum = 0xffff");
+        for (int i = 0; i < 20; i++) {
+            sb.append(" & (v").append(i).append(" | 0x80)");
+        }
+        sb.append(";\n}\n");
+        String source = sb.toString();
+
+        Compiler.Result result = Compiler.compile(source, true);
+        assertTrue(result.getSpilled() > 0);
+        Emulator emulator = run(result, 100_000);
+        assertTrue(emulator.isHalted());
+        assertEquals(0x180, global(emulator, result.getInstructions(), "sum"));
+    }
+
+    @Test
+    public void foldedSumWraps() {
+        Compiler.Result result = Compiler.compile(
+                "int a;\nint b = 0x40;\nvoid main() {\n    a = 0xfff0 + 0x20 + 0xffff;\n"
+                        // the folded constant is 4, which fits in an ORI
+                        + "    b = b | (0xffff + 5);\n}\n", true);
+        Emulator emulator = run(result, 10_000);
+        assertTrue(emulator.isHalted());
+        assertEquals(0x000f, global(emulator, result.getInstructions(), "a"));
+        assertEquals(0x44, global(emulator, result.getInstructions(), "b"));
+    }
+
+    @Test
+    public void assemblyListing() throws IOException {
+        List<Instruction> program = Compiler.compile(COUNTER, true).getInstructions();
+        StringWriter sw = new StringWriter();
+        Compiler.writeAssembly(program, sw);
+        assertTrue(sw.toString(), sw.toString().startsWith("        J __start\n__k0200:\n        .word 0x0200\n"));
+        List<Instruction> reassembled = InstructionParser.parse(new StringReader(sw.toString()));
+        assertArrayEquals(Assembler.encode(program), Assembler.encode(reassembled));
+    }
+
+    @Test
+    public void errors() {
+        assertError("line 1: Expected main but was foo", "void foo() {}");
+        assertError("line 2: 'if' needs a conditional jump and the e93 doesn't have one",
+                "void main() {\n if (1) {} }");
+        assertError("line 1: the e93 can't add two registers, one side of + has to be a constant",
+                "void main() { int a = 1; int b = *a; a = a + b; }");
+        assertError("line 1: the e93 can only or a constant up to 0xff",
+                "void main() { int a = *0; a |= 0x100; }");
+        assertError("line 1: 'b' isn't defined", "void main() { int a = b; }");
+        assertError("line 1: 'a' is already defined", "void main() { int a; int a; }");
+        assertError("line 1: a loop that never runs needs a conditional jump", "void main() { while (0) {} }");
+        assertError("line 1: Invalid number 0x10000", "void main() { *0 = 0x10000; }");
+    }
+
+    private static void assertError(String message, String source) {
+        try {
+            Compiler.compile(source, true);
+            fail(source);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static Emulator run(Compiler.Result result, long maxInstructions) {
+        MemorySubsystem memory = new ArrayMemory();
+        ProgramImage.of(result.getInstructions()).loadInto(memory);
+        Emulator emulator = new Emulator(memory);
+        emulator.run(maxInstructions);
+        return emulator;
+    }
+
+    private static int global(Emulator emulator, List<Instruction> program, String name) {
+        int words = 0;
+        for (Instruction instruction : program) {
+            if (instruction instanceof Label && ((Label) instruction).getName().equals(name)) {
+                return emulator.getMemorySubsystem().readInt(words * 2);
+            }
+            words += Assembler.sizeInWords(instruction, words);
+        }
+        throw new AssertionError("no global " + name);
+    }
+}
@@ -0,0 +1,162 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.IncrementalAssembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.Linker;
+import e93.assembler.MifWriter;
+import e93.assembler.ObjectModule;
+import e93.assembler.PackedProgram;
+import e93.assembler.ParallelAssembler;
+import e93.assembler.ProgramImage;
+import e93.assembler.ast.ErrorLine;
+import e93.emulator.ArrayMemory;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.MifLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataDirectivesTest {
+
+    private static final String PROGRAM =
+            "start:  AND $r1, $r0\n" +
+            "        J table\n" +
+            "msg:    .asciiz \"abc\"\n" +
+            "        .byte 1, 2, 0xff\n" +
+            "        .align 3\n" +
+            "table:  .word 0x1234, -1, 10\n" +
+            "        .space 7\n" +
+            "        .align 4\n" +
+            "end:    J start\n";
+
+    private static final short[] IMAGE = {
+            0x1101, 0x6008,
+            // "abc" two characters per word, then the null
+            0x6261, 0x0063,
+            // .byte padded to a whole word
+            0x0201, 0x00ff,
+            // .align 3 pads to word 8
+            0, 0,
+            0x1234, (short) 0xffff, 0x000a,
+            // .space 7 rounds up to 4 words, then .align 4 pads to word 16
+            0, 0, 0, 0,
+            0,
+            0x6000
+    };
+
+    @Test
+    public void encode() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(PROGRAM));
+        assertEquals(IMAGE.length, Assembler.sizeInWords(instructions));
+        assertArrayEquals(IMAGE, Assembler.encode(instructions));
+
+        ProgramImage image = ProgramImage.of(instructions);
+        for (int i = 0; i < IMAGE.length; i++) {
+            assertEquals("word " + i, IMAGE[i] & 0xffff, image.getWord(i));
+        }
+    }
+
+    @Test
+    public void zerosAreRangesInTheMif() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(PROGRAM));
+        String mif = MifWriter.writeToString(instructions);
+        assertTrue(mif, mif.contains("\n0002 : 6261; -- ab\n0003 : 0063; -- c<null>\n"));
+        assertTrue(mif, mif.contains("\n0004 : 0201; --         .byte 1, 2, 0xff\n0005 : 00ff;\n"));
+        assertTrue(mif, mif.contains("\n[0006..0007] : 0000; --         .align 3\n"));
+        assertTrue(mif, mif.contains("\n[000b..000e] : 0000; --         .space 7\n000f : 0000; --         .align 4\n"));
+
+        MemorySubsystem expected = new ArrayMemory();
+        ProgramImage.of(IMAGE).loadInto(expected);
+        MemorySubsystem actual = new ArrayMemory();
+        assertEquals(IMAGE.length, new MifLoader().load(new StringReader(mif), actual));
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+
+        // an image that's already encoded gets ranges too
+        String fromImage = asMif(IMAGE);
+        assertTrue(fromImage, fromImage.contains("\n[000b..000f] : 0000;\n0010 : 6000;"));
+    }
+
+    @Test
+    public void sameWithEveryAssembler() throws IOException {
+        // each copy starts at a different address so the padding differs
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            sb.append("ADDI $r1, 0x1\n").append(PROGRAM.replaceAll("(start|msg|table|end)", "$1" + i));
+        }
+        String source = sb.toString();
+        short[] expected = Assembler.encode(InstructionParser.parse(new StringReader(source)));
+
+        ParallelAssembler.Result parallel = new ParallelAssembler(ForkJoinPool.commonPool(), 64)
+                .assemble(new StringReader(source));
+        assertTrue(parallel.getErrors().isEmpty());
+        assertArrayEquals(expected, parallel.getImage());
+
+        assertArrayEquals(expected, PackedProgram.parse(new StringReader(source)).encode());
+
+        IncrementalAssembler incremental = new IncrementalAssembler();
+        incremental.update(source.toCharArray(), source.length());
+        assertArrayEquals(expected, incremental.getImage());
+
+        // inserting a word near the top moves all of the padding after it
+        String edited = "AND $r2, $r2\n" + source;
+        incremental.update(edited.toCharArray(), edited.length());
+        assertTrue(incremental.getErrors().isEmpty());
+        assertArrayEquals(Assembler.encode(InstructionParser.parse(new StringReader(edited))),
+                incremental.getImage());
+
+        incremental.update(source.toCharArray(), source.length());
+        assertArrayEquals(expected, incremental.getImage());
+    }
+
+    @Test
+    public void linkerAlignsModules() throws IOException {
+        ObjectModule first = ObjectModule.assemble("first.asm", new StringReader("J start\n"));
+        ObjectModule second = ObjectModule.assemble("second.asm", new StringReader(PROGRAM));
+        assertEquals(8, second.getAlignment());
+
+        Linker.Result result = Linker.link(Arrays.asList(first, second));
+        assertTrue(result.getErrors().isEmpty());
+        // the second module starts at word 8 so it's laid out just like on its own
+        assertEquals(8 + IMAGE.length, result.getImage().length);
+        assertEquals(0x6008, result.getImage()[0]);
+        assertEquals(0x6010, result.getImage()[9]);
+        assertArrayEquals(Arrays.copyOfRange(IMAGE, 2, IMAGE.length - 1),
+                Arrays.copyOfRange(result.getImage(), 10, 8 + IMAGE.length - 1));
+    }
+
+    @Test
+    public void errors() {
+        assertError("Invalid number 0x10000", ".word 0x10000");
+        assertError("Invalid number -129", ".byte -129");
+        assertError("Invalid number 256", ".byte 1, 256");
+        assertError("Invalid number 12ab", ".word 12ab");
+        assertError("Expected a number", ".word 1,");
+        assertError("Expected a number", ".space");
+        assertError("Invalid number 16", ".align 16");
+        assertError("Character out of range in string: \u0100", ".asciiz \"a\u0100\"");
+        assertError("Unexpected text after .space 4 ", ".space 4 4");
+    }
+
+    private static void assertError(String message, String line) {
+        Instruction instruction = InstructionParser.parse(line);
+        assertTrue(line, instruction instanceof ErrorLine);
+        assertEquals(message, ((ErrorLine) instruction).getErrorMessage());
+    }
+
+    private static String asMif(short[] image) throws IOException {
+        StringWriter sw = new StringWriter();
+        MifWriter.write(image, sw);
+        return sw.toString();
+    }
+}
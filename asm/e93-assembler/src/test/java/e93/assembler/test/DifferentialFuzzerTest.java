@@ -0,0 +1,54 @@
+package e93.assembler.test;
+
+import e93.assembler.ast.OrImmediate;
+import e93.emulator.DifferentialFuzzer;
+import e93.emulator.Emulator;
+import e93.emulator.FastInterpreter;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DifferentialFuzzerTest {
+
+    @Test
+    public void emulatorAndFastInterpreterAgree() {
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(Emulator::new, FastInterpreter::new)
+                .setStepsPerProgram(1000);
+        DifferentialFuzzer.Result result = fuzzer.fuzz(93, 500, ForkJoinPool.commonPool());
+        assertNull(String.valueOf(result.getMismatch()), result.getMismatch());
+        assertEquals(500, result.getPrograms());
+        // most programs run for all of their steps instead of faulting early
+        assertTrue(result.getFaulted() + " faulted", result.getFaulted() < 500 / 5);
+        assertTrue(result.getInstructions() + " instructions", result.getInstructions() > 500 * 1000 * 8 / 10);
+    }
+
+    @Test
+    public void findsAndShrinksBrokenEngine() {
+        // an engine that gets ORI wrong when the immediate has its high bit set
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(Emulator::new,
+                (memory, registers) -> new FastInterpreter(memory, registers) {
+                    @Override
+                    public int step() {
+                        int word = memory.readInt(getPc());
+                        int pc = super.step();
+                        if (word >> 12 == 3 && (word & 0x80) != 0) {
+                            registers[(word >> 8) & 0xf] &= ~0x80;
+                        }
+                        return pc;
+                    }
+                })
+                .setStepsPerProgram(1000);
+
+        DifferentialFuzzer.Result result = fuzzer.fuzz(93, 500, ForkJoinPool.commonPool());
+        DifferentialFuzzer.Mismatch mismatch = result.getMismatch();
+        assertNotNull(mismatch);
+        assertEquals(1, mismatch.getProgram().size());
+        OrImmediate ori = (OrImmediate) mismatch.getProgram().get(0);
+        assertTrue((ori.getImmediate() & 0x80) != 0);
+    }
+}
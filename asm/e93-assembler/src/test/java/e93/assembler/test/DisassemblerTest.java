@@ -0,0 +1,131 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.BinaryWriter;
+import e93.assembler.Disassembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.ast.ErrorLine;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DisassemblerTest {
+
+    private static final String PROGRAM =
+            "start:  AND $r1, $r0\n" +
+            "        ORI $r1, 0x20\n" +
+            "        J loop\n" +
+            "msg:    .asciiz \"Hello, world\"\n" +
+            "odd:    .asciiz \"e93!!\"\n" +
+            "        .word 0x1234, 0x0007, 0xffff\n" +
+            "        .space 10\n" +
+            "-- never jumped to, but it's still code\n" +
+            "cold:   LW $r2, $r1\n" +
+            "        J start\n" +
+            "loop:   ADDI $r1, 0xff\n" +
+            "        SW $r1, $r1\n" +
+            "        J loop\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tableAgreesWithTheAssembler() throws IOException {
+        int instructions = 0;
+        for (int word = 0; word < 0x10000; word++) {
+            String text = Disassembler.decode(word);
+            if (text == null) {
+                continue;
+            }
+            instructions++;
+            List<Instruction> parsed = InstructionParser.parse(new StringReader(text));
+            assertEquals(text, 1, parsed.size());
+            assertFalse(text, parsed.get(0) instanceof ErrorLine);
+            assertEquals(text, word, Assembler.encode(parsed.get(0)));
+        }
+        // opcode 0 and 7..15 aren't instructions
+        assertNull(Disassembler.decode(0x0123));
+        assertNull(Disassembler.decode(0x7000));
+        // an ALU function other than AND
+        assertNull(Disassembler.decode(0x1102));
+        // LW ignores the low 4 bits, which wouldn't come back
+        assertNull(Disassembler.decode(0x5121));
+        assertEquals("LW $r1, $r2", Disassembler.decode(0x5120));
+        assertEquals("J 0x3", Disassembler.decode(0x6003));
+        assertEquals(0x100 + 0x1000 + 0x1000 + 0x100 + 0x100 + 0x1000, instructions);
+    }
+
+    @Test
+    public void labelsAndData() throws IOException {
+        short[] image = Assembler.encode(InstructionParser.parse(new StringReader(PROGRAM)));
+        String text = disassemble(image);
+        assertTrue(text, text.startsWith(
+                "L0000:\n" +
+                "        AND $r1, $r0            -- 0000: 1101\n" +
+                "        ORI $r1, 0x20           -- 0001: 3120\n" +
+                "        J L0017                 -- 0002: 6017\n" +
+                "        .asciiz \"Hello, world\"  -- 0003-0009\n" +
+                "        .asciiz \"e93!!\"         -- 000a-000c\n" +
+                "        .word 0x1234, 0x0007, 0xffff -- 000d-000f\n" +
+                "        .space 10               -- 0010-0014\n" +
+                "        LW $r2, $r1             -- 0015: 5210\n" +
+                "        J L0000                 -- 0016: 6000\n" +
+                "L0017:\n" +
+                "        ADDI $r1, 0xff          -- 0017: 21ff\n"));
+        assertReassembles(image, text);
+    }
+
+    @Test
+    public void garbageComesBackTheSame() throws IOException {
+        Random random = new Random(93);
+        short[] image = new short[16384];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (short) random.nextInt(0x10000);
+        }
+        // text that random jumps land in the middle of, and zeros
+        for (int i = 0; i < 40; i++) {
+            image[1000 + i] = (short) ('a' + i % 26 | ('A' + i % 26) << 8);
+        }
+        image[1040] = 0;
+        image[3000] = 0;
+        image[3001] = 0;
+        image[image.length - 1] = 0x6000;
+        assertReassembles(image, disassemble(image));
+    }
+
+    @Test
+    public void load() throws IOException {
+        short[] image = Assembler.encode(InstructionParser.parse(new StringReader(PROGRAM)));
+        Path bin = folder.newFile("program.bin").toPath();
+        BinaryWriter.write(image, bin);
+        assertArrayEquals(image, Disassembler.load(bin));
+    }
+
+    private static String disassemble(short[] image) throws IOException {
+        StringWriter sw = new StringWriter();
+        Disassembler.disassemble(image, sw);
+        return sw.toString();
+    }
+
+    private static void assertReassembles(short[] image, String text) throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(text));
+        for (Instruction instruction : instructions) {
+            assertFalse(instruction.toString(), instruction instanceof ErrorLine);
+        }
+        assertArrayEquals(image, Assembler.encode(instructions));
+    }
+}
@@ -0,0 +1,194 @@
+package e93.assembler.test;
+
+import e93.assembler.InstructionParser;
+import e93.assembler.SourceMap;
+import e93.assembler.SourceMapWriter;
+import e93.emulator.ArrayMemory;
+import e93.emulator.GdbStub;
+import e93.emulator.MemorySubsystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class GdbStubTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private GdbStub stub;
+    private Future<?> serving;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    @Before
+    public void connect() throws IOException {
+        MemorySubsystem memory = new ArrayMemory(1024);
+        MemoryFixture.writeInstructions(memory,
+                InstructionParser.parse("AND $r5, $r0"),
+                InstructionParser.parse("AND $r6, $r0"),
+                InstructionParser.parse("ORI $r6, 0x64"),
+                InstructionParser.parse("ADDI $r5, 0x1"),
+                InstructionParser.parse("SW $r5, $r6"),
+                InstructionParser.parse("LW $r5, $r6"),
+                InstructionParser.parse("J 0x03"));
+
+        stub = new GdbStub(memory, new int[16], 0);
+        serving = executor.submit(() -> {
+            stub.serve();
+            return null;
+        });
+        socket = new Socket(InetAddress.getLoopbackAddress(), stub.getPort());
+        socket.setSoTimeout(10_000);
+        in = socket.getInputStream();
+        out = socket.getOutputStream();
+    }
+
+    @After
+    public void disconnect() throws Exception {
+        socket.close();
+        serving.get(10, TimeUnit.SECONDS);
+        stub.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void breakpointsRegistersAndMemory() throws IOException {
+        assertEquals("PacketSize=4000;QStartNoAckMode+", request("qSupported:multiprocess+"));
+        assertEquals("S05", request("?"));
+        assertEquals(17 * 8, request("g").length());
+
+        assertEquals("OK", request("Z0,6,2"));
+        assertEquals("S05", request("c"));
+        assertEquals("06000000", request("p10"));
+        assertEquals("S05", request("c"));
+        assertEquals("01000000", request("p5"));
+
+        // r5 was stored to 0x64 on the first pass through the loop
+        assertEquals("0100", request("m64,2"));
+        assertEquals("OK", request("M64,2:3412"));
+        assertEquals("3412", request("m64,2"));
+        // the encoded ADDI $r5, 0x1 at address 6
+        assertEquals("0125", request("m6,2"));
+
+        assertEquals("OK", request("z0,6,2"));
+        assertEquals("S05", request("s"));
+        assertEquals("08000000", request("p10"));
+
+        assertEquals("OK", request("P5=aa000000"));
+        assertEquals("aa000000", request("p5"));
+        assertEquals("E01", request("m4000,2"));
+
+        assertEquals("OK", request("D"));
+    }
+
+    @Test
+    public void malformedPackets() throws IOException {
+        assertEquals("E01", request("p11"));
+        assertEquals("E01", request("pffffffff"));
+        assertEquals("E01", request("P11=01000000"));
+        assertEquals("E01", request("P5=01"));
+        assertEquals("E01", request("P5"));
+        assertEquals("E01", request("G0000"));
+        assertEquals("E01", request("m0,7fffffff"));
+        assertEquals("E01", request("m0,ffffffff"));
+        assertEquals("E01", request("M0,7fffffff:00"));
+        assertEquals("E01", request("M64,2:34"));
+        assertEquals("E01", request("mzz,2"));
+        // none of them changed anything and the session is still up
+        assertEquals("00000000", request("p5"));
+        assertEquals("0000", request("m64,2"));
+        assertEquals("OK", request("D"));
+    }
+
+    @Test
+    public void interruptStopsContinue() throws IOException {
+        assertEquals("OK", request("QStartNoAckMode"));
+        // there are no breakpoints so this runs until interrupted
+        send("c");
+        out.write(0x03);
+        out.flush();
+        assertEquals("S02", receive());
+        assertEquals("OK", request("D"));
+    }
+
+    @Test
+    public void monitorCommands() throws IOException {
+        assertEquals(hex("no debug info, assemble with -g\n"), request("qRcmd," + hex("where")));
+
+        Path sidecar = Files.createTempFile("stub", ".dbg");
+        try {
+            SourceMapWriter.write(InstructionParser.parse(new StringReader(
+                    "start:  AND $r5, $r0\n" +
+                    "        AND $r6, $r0\n" +
+                    "        ORI $r6, 0x64\n" +
+                    "loop:   ADDI $r5, 0x1\n" +
+                    "        SW $r5, $r6\n" +
+                    "        LW $r5, $r6\n" +
+                    "        J loop\n")), "stub.asm", sidecar);
+            stub.setSourceMap(SourceMap.open(sidecar));
+        } finally {
+            Files.delete(sidecar);
+        }
+        assertEquals(hex("stub.asm:1 start\n"), request("qRcmd," + hex("where")));
+        assertEquals(hex("breakpoint at 0x0008\n"), request("qRcmd," + hex("break 5")));
+        assertEquals(hex("no code on line 9\n"), request("qRcmd," + hex("break 9")));
+        assertEquals("S05", request("c"));
+        assertEquals("08000000", request("p10"));
+        assertEquals(hex("stub.asm:5 loop+1\n"), request("qRcmd," + hex("where")));
+        assertEquals("OK", request("D"));
+    }
+
+    private static String hex(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private String request(String packet) throws IOException {
+        send(packet);
+        return receive();
+    }
+
+    private void send(String packet) throws IOException {
+        int sum = 0;
+        for (char c : packet.toCharArray()) {
+            sum += c;
+        }
+        out.write(String.format("$%s#%02x", packet, sum & 0xff).getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private String receive() throws IOException {
+        int c;
+        while ((c = in.read()) != '$') {
+            if (c < 0) {
+                throw new IOException("connection closed");
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        while ((c = in.read()) != '#') {
+            sb.append((char) c);
+        }
+        in.read();
+        in.read();
+        out.write('+');
+        return sb.toString();
+    }
+}
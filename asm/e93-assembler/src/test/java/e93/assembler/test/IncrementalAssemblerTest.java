@@ -0,0 +1,166 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.IncrementalAssembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.ast.ErrorLine;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalAssemblerTest {
+
+    private static final String[] LINES = {
+            "AND $r5, $r0   -- init",
+            "ORI $r6, 0x64",
+            "ADDI $r5, 0x1",
+            "SW $r5, $r6",
+            "LW $r5, $r6",
+            "J 0x03",
+            ".asciiz \"Hello\"",
+            ".asciiz \"x\"",
+            "# comment",
+            "",
+            "   -- comment",
+            "top:",
+            "middle: ADDI $r1, 0x2",
+            "J top",
+            "J middle",
+            "J bottom",
+            "bottom:",
+            "XOR $r1, $r2",
+            // an edit above an .align can change its size, so these go through layout()
+            ".align 4",
+            ".align 16",
+            ".align 8",
+            ".space 3",
+            ".space 6",
+    };
+
+    @Test
+    public void editOneLine() {
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("ADDI $r1, 0x1\n");
+        }
+        IncrementalAssembler.Update update = assembler.update(sb.toString().toCharArray(), sb.length());
+        assertEquals(1000, update.getEditedLines());
+        assertEquals(1000, update.getSize());
+
+        sb.replace(14 * 500, 14 * 501, "ADDI $r1, 0x2\n");
+        update = assembler.update(sb.toString().toCharArray(), sb.length());
+        assertEquals(1, update.getEditedLines());
+        assertEquals(500, update.getDirtyStart());
+        assertEquals(501, update.getDirtyEnd());
+        assertEquals(0x2102, assembler.getImage()[500]);
+    }
+
+    @Test
+    public void labelsMoveWithInsertedLines() {
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        String source = "J end\nADDI $r1, 0x1\nend: J end\n";
+        assembler.update(source.toCharArray(), source.length());
+        assertArrayEquals(new short[] {0x6002, 0x2101, 0x6002}, assembler.getImage());
+
+        source = "J end\nADDI $r1, 0x1\nADDI $r1, 0x1\nend: J end\n";
+        IncrementalAssembler.Update update = assembler.update(source.toCharArray(), source.length());
+        assertEquals(1, update.getEditedLines());
+        assertArrayEquals(new short[] {0x6003, 0x2101, 0x2101, 0x6003}, assembler.getImage());
+        // the jump at the start was resolved again
+        assertEquals(0, update.getDirtyStart());
+        assertEquals(4, update.getDirtyEnd());
+    }
+
+    @Test
+    public void labelOnAnErrorLineIsDefined() {
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        String source = "loop: ADDI $r1, 999\nJ loop\n";
+        IncrementalAssembler.Update update = assembler.update(source.toCharArray(), source.length());
+        // only the bad immediate, not an undefined label as well
+        assertEquals(1, update.getErrors().size());
+        assertEquals(1, update.getErrors().get(0).getLineNumber());
+    }
+
+    @Test
+    public void randomEditsSameAsFullAssembly() throws IOException {
+        Random random = new Random(93);
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        List<String> lines = new ArrayList<>();
+        short[] mirror = new short[0];
+        boolean missedUpdates = false;
+        for (int edit = 0; edit < 2000; edit++) {
+            int count = random.nextInt(3) + 1;
+            int at = lines.isEmpty() ? 0 : random.nextInt(lines.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    for (int i = 0; i < count; i++) {
+                        lines.add(at, LINES[random.nextInt(LINES.length)]);
+                    }
+                    break;
+                case 1:
+                    for (int i = 0; i < count && at < lines.size(); i++) {
+                        lines.remove(at);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < count && at + i < lines.size(); i++) {
+                        lines.set(at + i, LINES[random.nextInt(LINES.length)]);
+                    }
+            }
+            String source = join(lines, random.nextBoolean() ? "\n" : "\r\n", random.nextBoolean());
+
+            IncrementalAssembler.Update update = assembler.update(source.toCharArray(), source.length());
+            List<Instruction> expected = InstructionParser.parse(new StringReader(source));
+            List<Integer> expectedErrors = new ArrayList<>();
+            List<Instruction> valid = new ArrayList<>();
+            for (Instruction instruction : expected) {
+                if (instruction instanceof ErrorLine) {
+                    expectedErrors.add(instruction.getLineNumber());
+                } else {
+                    valid.add(instruction);
+                }
+            }
+            List<Integer> actualErrors = new ArrayList<>();
+            for (Instruction error : update.getErrors()) {
+                actualErrors.add(error.getLineNumber());
+            }
+            assertEquals("edit " + edit, expectedErrors, actualErrors);
+            if (!expectedErrors.isEmpty()) {
+                // like watch mode, nothing is written while there are errors
+                missedUpdates = true;
+                continue;
+            }
+            short[] image = Assembler.encode(valid);
+            assertArrayEquals("edit " + edit, image, assembler.getImage());
+
+            // only copying the dirty words gives the same image
+            mirror = Arrays.copyOf(mirror, update.getSize());
+            int from = missedUpdates ? 0 : update.getDirtyStart();
+            int to = missedUpdates ? update.getSize() : update.getDirtyEnd();
+            System.arraycopy(assembler.getImage(), from, mirror, from, to - from);
+            assertArrayEquals("edit " + edit, image, mirror);
+            missedUpdates = false;
+        }
+    }
+
+    private static String join(List<String> lines, String newline, boolean trailing) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            sb.append(lines.get(i));
+            if (i < lines.size() - 1 || trailing) {
+                sb.append(newline);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -4,12 +4,18 @@ import e93.assembler.Instruction;
 import e93.assembler.InstructionParser;
 import e93.assembler.ast.AddImmediate;
 import e93.assembler.ast.And;
+import e93.assembler.ast.Asciiz;
+import e93.assembler.ast.ErrorLine;
 import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
 import e93.assembler.ast.LoadWord;
 import e93.assembler.ast.OrImmediate;
 import e93.assembler.ast.StoreWord;
 import org.junit.Test;
 
+import java.io.StringReader;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
@@ -26,8 +32,8 @@ public class InstructionParserTest {
 
     @Test
     public void parseAddImmediate() {
-        Instruction instruction = InstructionParser.parse("ADDI $r1, 0x123");
-        assertEquals(new AddImmediate().setR1(1).setImmediate(0x123), instruction);
+        Instruction instruction = InstructionParser.parse("ADDI $r1, 0xa3");
+        assertEquals(new AddImmediate().setR1(1).setImmediate(0xa3), instruction);
     }
 
     @Test
@@ -50,8 +56,8 @@ public class InstructionParserTest {
 
     @Test
     public void parseOrImmediate() {
-        Instruction instruction = InstructionParser.parse("ORI $r1, 0x123");
-        assertEquals(new OrImmediate().setR1(1).setImmediate(0x123), instruction);
+        Instruction instruction = InstructionParser.parse("ORI $r1, 0xa3");
+        assertEquals(new OrImmediate().setR1(1).setImmediate(0xa3), instruction);
     }
 
     @Test
@@ -65,4 +71,82 @@ public class InstructionParserTest {
         Instruction instruction = InstructionParser.parse("AND $r16, r2");
         assertFalse(instruction.isValid());
     }
+
+    @Test
+    public void registerOutOfRange() {
+        Instruction instruction = InstructionParser.parse("AND $r16, $r2");
+        assertEquals(new ErrorLine("Invalid register $r16"), instruction);
+    }
+
+    @Test
+    public void immediateOutOfRange() {
+        assertEquals(new ErrorLine("Invalid immediate 0x1ff"), InstructionParser.parse("ADDI $r1, 0x1ff"));
+        assertEquals(new ErrorLine("Invalid immediate 0x100"), InstructionParser.parse("ORI $r1, 0x100"));
+        assertEquals(new ErrorLine("Invalid immediate 0x000000100"), InstructionParser.parse("ORI $r1, 0x000000100"));
+        assertEquals(new ErrorLine("Invalid immediate 0x2000"), InstructionParser.parse("J 0x2000"));
+        assertEquals(new ErrorLine("Invalid immediate 0x1000"), InstructionParser.parse("J 0x1000"));
+        assertEquals(0xff, ((AddImmediate) InstructionParser.parse("ADDI $r1, 0x0ff")).getImmediate());
+        assertEquals(0xfff << 1, ((JumpImmediate) InstructionParser.parse("J 0xfff")).getImmediate());
+    }
+
+    @Test
+    public void immediateOnlyTakesAsciiDigits() {
+        assertEquals(new ErrorLine("Invalid immediate 0x\u0663"), InstructionParser.parse("ORI $r2, 0x\u0663"));
+        assertEquals(new ErrorLine("Invalid number 0x\uff11"), InstructionParser.parse(".word 0x\uff11"));
+        assertEquals(0xab, ((OrImmediate) InstructionParser.parse("ORI $r2, 0xAb")).getImmediate());
+    }
+
+    @Test
+    public void unknownInstruction() {
+        Instruction instruction = InstructionParser.parse("XOR $r1, $r2 -- not in the ISA");
+        assertEquals(new ErrorLine("Unknown instruction: XOR $r1, $r2 "), instruction);
+    }
+
+    @Test
+    public void decimalImmediate() {
+        Instruction instruction = InstructionParser.parse("ADDI $r1, 123");
+        assertFalse(instruction.isValid());
+    }
+
+    @Test
+    public void immediateTooLarge() {
+        Instruction instruction = InstructionParser.parse("ORI $r1, 0x123456789");
+        assertFalse(instruction.isValid());
+    }
+
+    @Test
+    public void trailingText() {
+        Instruction instruction = InstructionParser.parse("LW $r1, $r2 $r3");
+        assertFalse(instruction.isValid());
+    }
+
+    @Test
+    public void whitespaceAndComments() {
+        Instruction instruction = InstructionParser.parse("\tSW   $r1 ,$r2\t-- store");
+        assertEquals(new StoreWord().setR1(1).setR2(2), instruction);
+    }
+
+    @Test
+    public void asciizWithDashes() {
+        Instruction instruction = InstructionParser.parse(".asciiz \"a--b\" -- comment");
+        assertEquals(new Asciiz("a--b"), instruction);
+    }
+
+    @Test
+    public void skipsBlankAndCommentLines() throws Exception {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(
+                "# heading\n\n   -- just a comment\nJ 0x1\n"));
+        assertEquals(1, instructions.size());
+        assertEquals(4, instructions.get(0).getLineNumber());
+    }
+
+    @Test
+    public void labelOnAnErrorLineIsKept() throws Exception {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(
+                "loop: ADDI $r1, 999\nJ loop\n"));
+        assertEquals(3, instructions.size());
+        assertEquals("loop", ((Label) instructions.get(0)).getName());
+        assertEquals("Expected hex immediate at: 999", ((ErrorLine) instructions.get(1)).getErrorMessage());
+        assertEquals(1, instructions.get(1).getLineNumber());
+    }
 }
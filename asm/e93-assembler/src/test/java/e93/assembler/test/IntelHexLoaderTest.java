@@ -0,0 +1,89 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.IntelHexWriter;
+import e93.emulator.ArrayMemory;
+import e93.emulator.IntelHexLoader;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.MifLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IntelHexLoaderTest {
+
+    private final IntelHexLoader loader = new IntelHexLoader();
+
+    @Test
+    public void sample() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(asString("/sample.asm")));
+        StringWriter sw = new StringWriter();
+        IntelHexWriter.write(Assembler.encode(instructions), sw);
+        String hex = sw.toString();
+        assertTrue(hex, hex.startsWith(":100000000115011664360125604560550360486599\n"));
+        assertTrue(hex, hex.endsWith(":00000001FF\n"));
+
+        MemorySubsystem expected = new ArrayMemory();
+        new MifLoader().load(new StringReader(asString("/sample.mif")), expected);
+        MemorySubsystem actual = new ArrayMemory();
+        assertEquals(0xd * 2, loader.load(new StringReader(hex), actual));
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+    }
+
+    @Test
+    public void extendedAddresses() throws IOException {
+        short[] image = new short[0x8800];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (short) (i ^ 0x5a5a);
+        }
+        StringWriter sw = new StringWriter();
+        IntelHexWriter.write(image, sw);
+        assertTrue(sw.toString().contains("\n:020000040001F9\n"));
+
+        MemorySubsystem memory = new ArrayMemory(image.length * 2);
+        assertEquals(image.length * 2, loader.load(new StringReader(sw.toString()), memory));
+        for (int i = 0; i < image.length; i++) {
+            assertEquals("word " + i, image[i] & 0xffff, memory.readInt(i * 2));
+        }
+    }
+
+    @Test
+    public void segmentAddressAndCrLf() throws IOException {
+        MemorySubsystem memory = new ArrayMemory(0x20000);
+        String hex = ":020000021000EC\r\n" +
+                ":0400100001020304E2\r\n" +
+                ":00000001FF\r\n";
+        assertEquals(4, loader.load(new StringReader(hex), memory));
+        assertEquals(0x0201, memory.readInt(0x10010));
+        assertEquals(0x0403, memory.readInt(0x10012));
+    }
+
+    @Test
+    public void errors() {
+        assertError(":0400100001020304E3\n:00000001FF\n", "HEX line 1: bad checksum");
+        assertError(":0400100001020304E2\n", "HEX line 1: missing end of file record");
+        assertError("0400100001020304E2\n", "HEX line 1: expected ':'");
+        assertError(":0500100001020304E2\n", "HEX line 1: byte count 5 doesn't match the record");
+        assertError(":04001000010G0304E2\n", "HEX line 1: bad hex digit 'G'");
+    }
+
+    private void assertError(String hex, String message) {
+        try {
+            loader.load(new StringReader(hex), new ArrayMemory());
+            fail("expected " + message);
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
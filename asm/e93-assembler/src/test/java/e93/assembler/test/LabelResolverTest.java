@@ -0,0 +1,136 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.ParallelAssembler;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import e93.assembler.ast.Label;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LabelResolverTest {
+
+    private static final String PROGRAM =
+            "        AND $r5, $r0     -- r5 = 0\n" +
+            "        J start\n" +
+            "msg:    .asciiz \"hi\"\n" +
+            "start:\n" +
+            "        ADDI $r5, 0x1\n" +
+            "        ADDI $r5, 0x1\n" +
+            "        J done\n" +
+            "        ADDI $r5, 0x1    -- skipped\n" +
+            "done:   J done\n";
+
+    @Test
+    public void parseLabel() {
+        assertEquals(new Label("loop"), InstructionParser.parse("loop:  -- top of the loop"));
+        Instruction jump = InstructionParser.parse("J loop");
+        assertEquals(new JumpImmediate().setLabel("loop"), jump);
+    }
+
+    @Test
+    public void forwardAndBackwardReferences() throws Exception {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(PROGRAM));
+        assertEquals(11, instructions.size());
+        // start is after the AND, the J and the 2 words of the string
+        assertEquals("start", instructions.get(1).getLabel());
+        assertEquals(0x8, ((JumpImmediate) instructions.get(1)).getImmediate());
+        // done labels the jump to itself
+        assertEquals("done", ((Label) instructions.get(9)).getName());
+        assertEquals(0x10, ((JumpImmediate) instructions.get(10)).getImmediate());
+        assertEquals(0x6008, Assembler.encode(instructions.get(10)));
+
+        MemorySubsystem memory = new ArrayMemory();
+        Assembler.encode(instructions, memory);
+        Emulator emulator = new Emulator(memory);
+        emulator.run(100);
+        assertTrue(emulator.isHalted());
+        assertEquals(2, emulator.getRegister(5));
+    }
+
+    @Test
+    public void errors() throws Exception {
+        StringBuilder sb = new StringBuilder("top:\n");
+        for (int i = 0; i < 300; i++) {
+            sb.append("ADDI $r1, 0x1\n");
+        }
+        sb.append("J top\n")
+                .append("J nowhere\n")
+                .append("top: AND $r1, $r1\n");
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(sb.toString()));
+
+        assertEquals("Label out of range: top at 0x0000 is not in the same page as 0x025a",
+                ((ErrorLine) instructions.get(301)).getErrorMessage());
+        assertEquals(302, instructions.get(301).getLineNumber());
+        assertEquals("Undefined label: nowhere", ((ErrorLine) instructions.get(302)).getErrorMessage());
+        assertEquals("Duplicate label: top", ((ErrorLine) instructions.get(303)).getErrorMessage());
+        // the instruction after the duplicate label is still there
+        assertEquals(305, instructions.size());
+    }
+
+    @Test
+    public void parallelSameAsSerial() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        // 40 copies run over three 512 byte pages, so most of the jumps are
+        // resolved relative to a page other than the first. Each copy starts
+        // on a 32 byte boundary so none of them straddles a page.
+        for (int i = 0; i < 40; i++) {
+            sb.append("        .align 5\n");
+            sb.append(PROGRAM.replace("start", "start" + i).replace("done", "done" + i).replace("msg", "msg" + i));
+        }
+        String source = sb.toString();
+        List<Instruction> expected = InstructionParser.parse(new StringReader(source));
+
+        // tiny chunks so that labels are defined and referenced across chunks
+        ParallelAssembler.Result result = new ParallelAssembler(ForkJoinPool.commonPool(), 32)
+                .assemble(new StringReader(source));
+        assertEquals(0, result.getErrors().size());
+        assertEquals(expected, result.getInstructions());
+        assertTrue(result.getImage().length * 2 > 2 * 512);
+        assertEquals(Assembler.sizeInWords(expected), result.getImage().length);
+        short[] image = Assembler.encode(expected);
+        for (int i = 0; i < image.length; i++) {
+            assertEquals("word " + i, image[i], result.getImage()[i]);
+        }
+    }
+
+    @Test
+    public void parallelCopyAcrossAPage() throws Exception {
+        // without the .align the 29th copy straddles the first page boundary
+        // and its J start can't reach, in both assemblers
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sb.append(PROGRAM.replace("start", "start" + i).replace("done", "done" + i).replace("msg", "msg" + i));
+        }
+        String source = sb.toString();
+        List<Instruction> expected = InstructionParser.parse(new StringReader(source));
+        ParallelAssembler.Result result = new ParallelAssembler(ForkJoinPool.commonPool(), 32)
+                .assemble(new StringReader(source));
+        assertEquals(expected, result.getInstructions());
+        assertEquals(1, result.getErrors().size());
+        assertTrue(result.getErrors().get(0) instanceof ErrorLine);
+        assertTrue(expected.contains(result.getErrors().get(0)));
+    }
+
+    @Test
+    public void parallelErrors() throws Exception {
+        String source = "J later\nJ missing\nAND $r1, $r2\nlater:\nlater:\n";
+        ParallelAssembler.Result result = new ParallelAssembler(ForkJoinPool.commonPool(), 4)
+                .assemble(new StringReader(source));
+        assertEquals(2, result.getErrors().size());
+        assertEquals(2, result.getErrors().get(0).getLineNumber());
+        assertEquals(5, result.getErrors().get(1).getLineNumber());
+        assertEquals(0x6003, Assembler.encode(result.getInstructions().get(0)));
+    }
+}
@@ -0,0 +1,132 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.InstructionParser;
+import e93.assembler.Linker;
+import e93.assembler.ObjectModule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinkerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void singleModuleSameAsAssembler() throws IOException {
+        String source = asString("/sample.asm");
+        ObjectModule module = ObjectModule.assemble("sample.asm", new StringReader(source));
+        assertTrue(module.getErrors().isEmpty());
+
+        Linker.Result result = Linker.link(Collections.singletonList(module));
+        assertTrue(result.getErrors().isEmpty());
+        assertArrayEquals(Assembler.encode(InstructionParser.parse(new StringReader(source))), result.getImage());
+    }
+
+    @Test
+    public void jumpsBetweenModules() throws IOException {
+        ObjectModule main = ObjectModule.assemble("main.asm", new StringReader(
+                "start: ADDI $r1, 0x1\n" +
+                "J helper\n"));
+        ObjectModule helper = ObjectModule.assemble("helper.asm", new StringReader(
+                "ADDI $r2, 0x2\n" +
+                "helper: ORI $r3, 0x3\n" +
+                "J start\n"));
+        assertEquals(1, main.getRelocationNames().length);
+        assertEquals("helper", main.getRelocationNames()[0]);
+
+        Linker.Result result = Linker.link(Arrays.asList(main, helper));
+        assertTrue(result.getErrors().isEmpty());
+        // helper is at word 3, byte 6, and start is at 0
+        assertArrayEquals(new short[] {0x2101, 0x6003, 0x2202, 0x3303, 0x6000}, result.getImage());
+
+        // same as one source with both of them
+        assertArrayEquals(Assembler.encode(InstructionParser.parse(new StringReader(
+                "start: ADDI $r1, 0x1\n" +
+                "J helper\n" +
+                "ADDI $r2, 0x2\n" +
+                "helper: ORI $r3, 0x3\n" +
+                "J start\n"))), result.getImage());
+    }
+
+    @Test
+    public void linkErrors() throws IOException {
+        ObjectModule a = ObjectModule.assemble("a.asm", new StringReader("here: J missing\n"));
+        ObjectModule b = ObjectModule.assemble("b.asm", new StringReader("ADDI $r1, 0x1\nhere: J here\n"));
+        Linker.Result result = Linker.link(Arrays.asList(a, b));
+        assertNull(result.getImage());
+        assertEquals(Arrays.asList("b.asm:2: Duplicate label: here", "a.asm:1: Undefined label: missing"),
+                result.getErrors());
+    }
+
+    @Test
+    public void readWhatWasWritten() throws IOException {
+        ObjectModule module = ObjectModule.assemble("sample.asm", new StringReader(asString("/sample.asm")));
+        Path path = folder.newFile("sample.o").toPath();
+        module.write(path);
+        ObjectModule read = ObjectModule.read(path);
+        assertArrayEquals(module.getWords(), read.getWords());
+        assertArrayEquals(module.getSymbolNames(), read.getSymbolNames());
+        assertArrayEquals(module.getSymbolOffsets(), read.getSymbolOffsets());
+        assertArrayEquals(module.getRelocationNames(), read.getRelocationNames());
+        assertArrayEquals(module.getRelocationOffsets(), read.getRelocationOffsets());
+        assertArrayEquals(module.getRelocationLines(), read.getRelocationLines());
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnObjectModule() throws IOException {
+        Path path = folder.newFile("bad.o").toPath();
+        Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        ObjectModule.read(path);
+    }
+
+    @Test
+    public void unchangedModulesAreNotReassembled() throws IOException {
+        Path source = folder.newFile("lib.asm").toPath();
+        Files.write(source, "ADDI $r1, 0x1\n".getBytes());
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_000_000));
+        ObjectModule first = Linker.load(source);
+        Path object = folder.getRoot().toPath().resolve("lib.o");
+        assertTrue(Files.isRegularFile(object));
+        assertArrayEquals(new short[] {0x2101}, first.getWords());
+
+        // the object file is newer so the source isn't read again, even if
+        // it changed without its timestamp changing
+        Files.write(source, "ADDI $r1, 0x2\n".getBytes());
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_000_000));
+        assertArrayEquals(new short[] {0x2101}, Linker.load(source).getWords());
+        assertEquals(source.toString(), Linker.load(source).getName());
+
+        // once the source is newer it's reassembled
+        Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        ObjectModule reassembled = Linker.load(source);
+        assertArrayEquals(new short[] {0x2102}, reassembled.getWords());
+        assertEquals(source.toString(), reassembled.getName());
+    }
+
+    @Test
+    public void commentInAnotherCharset() throws IOException {
+        // an e with an acute accent in Latin-1, which isn't valid UTF-8
+        Path source = folder.getRoot().toPath().resolve("latin1.asm");
+        Files.write(source, "-- caf\u00e9\nORI $r1, 0x20\n".getBytes(StandardCharsets.ISO_8859_1));
+        ObjectModule module = Linker.load(source);
+        assertTrue(module.getErrors().isEmpty());
+        assertArrayEquals(new short[] {0x3120}, module.getWords());
+    }
+}
@@ -1,9 +1,11 @@
 package e93.assembler.test;
 
-import e93.assembler.Assembler;
 import e93.assembler.Instruction;
+import e93.assembler.ProgramImage;
 import e93.emulator.MemorySubsystem;
 
+import java.util.Arrays;
+
 public class MemoryFixture implements MemorySubsystem {
 
     private final byte[] bytes;
@@ -42,12 +44,7 @@ public class MemoryFixture implements MemorySubsystem {
     }
 
     static void writeInstructions(MemorySubsystem memory, Instruction...instructions) {
-        int address = 0;
-        for(Instruction instruction : instructions) {
-            int encoded = Assembler.encode(instruction);
-            memory.writeInt(address, encoded);
-            address += 2;
-        }
+        ProgramImage.of(Arrays.asList(instructions)).loadInto(memory);
     }
 
 
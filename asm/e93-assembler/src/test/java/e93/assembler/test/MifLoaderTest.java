@@ -0,0 +1,127 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.MifWriter;
+import e93.emulator.ArrayMemory;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.MifLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MifLoaderTest {
+
+    private final MifLoader mifLoader = new MifLoader();
+
+    @Test
+    public void sample() throws IOException {
+        MemorySubsystem memory = new ArrayMemory();
+        int loaded = mifLoader.load(new StringReader(asString("/sample.mif")), memory);
+
+        assertEquals(0xd, loaded);
+        assertEquals(16384, mifLoader.getDepth());
+        assertEquals(16, mifLoader.getWidth());
+        assertEquals(0x1501, memory.readInt(0));
+        assertEquals(0x6003, memory.readInt(6 * 2));
+        assertEquals('H' | 'e' << 8, memory.readInt(7 * 2));
+        assertEquals('d', memory.readInt(0xc * 2));
+    }
+
+    @Test
+    public void roundTripThroughMifWriter() throws IOException {
+        // the zeros from the .space are written as a [first..last] range
+        String source = asString("/sample.asm") + "\n        .space 10\n        .word 0x1234, 0xffff\n";
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(source));
+        String mif = MifWriter.writeToString(instructions);
+        assertTrue(mif, mif.contains("..") && mif.contains("] : 0000;"));
+
+        MemorySubsystem expected = new ArrayMemory();
+        int words = Assembler.encode(instructions, expected);
+        MemorySubsystem actual = new ArrayMemory();
+        // fill memory so the range has to be written, not just left as zeros
+        byte[] filled = new byte[ArrayMemory.DEFAULT_SIZE];
+        Arrays.fill(filled, (byte) 0x5a);
+        actual.writeBytes(0, filled, 0, filled.length);
+        Arrays.fill(filled, 0, words * 2, (byte) 0);
+        expected.writeBytes(words * 2, filled, words * 2, filled.length - words * 2);
+
+        assertEquals(words, mifLoader.load(new StringReader(mif), actual));
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+
+        // and the checked in sample.mif is the same program
+        MemorySubsystem sample = new ArrayMemory();
+        mifLoader.load(new StringReader(asString("/sample.mif")), sample);
+        MemorySubsystem encoded = new ArrayMemory();
+        Assembler.encode(InstructionParser.parse(new StringReader(asString("/sample.asm"))), encoded);
+        assertArrayEquals(encoded.toBytes(), sample.toBytes());
+    }
+
+    @Test
+    public void rangesRadixesAndComments() throws IOException {
+        String mif = "% a block\ncomment %\n" +
+                "DEPTH = 32; WIDTH = 16;\n" +
+                "ADDRESS_RADIX = DEC; DATA_RADIX = HEX;\n" +
+                "CONTENT BEGIN\n" +
+                "[0..3] : beef;   -- filled\n" +
+                "4 : 1 2 3;\n" +
+                "[10..13] : a b;\n" +
+                "31 : ffff;\n" +
+                "END;\n";
+        MemorySubsystem memory = new ArrayMemory(64);
+        int loaded = mifLoader.load(new StringReader(mif), memory);
+
+        assertEquals(4 + 3 + 4 + 1, loaded);
+        assertEquals(0xbeef, memory.readInt(0));
+        assertEquals(0xbeef, memory.readInt(6));
+        assertEquals(1, memory.readInt(8));
+        assertEquals(3, memory.readInt(12));
+        assertEquals(0xa, memory.readInt(20));
+        assertEquals(0xb, memory.readInt(22));
+        assertEquals(0xa, memory.readInt(24));
+        assertEquals(0xb, memory.readInt(26));
+        assertEquals(0xffff, memory.readInt(62));
+    }
+
+    @Test
+    public void byteWidth() throws IOException {
+        String mif = "DEPTH = 4; WIDTH = 8; CONTENT BEGIN 0 : 34 12; END;";
+        MemorySubsystem memory = new MemoryFixture();
+        mifLoader.load(new StringReader(mif), memory);
+        assertEquals(0x1234, memory.readInt(0));
+    }
+
+    @Test
+    public void addressOutsideDepth() {
+        assertMalformed("DEPTH = 4; WIDTH = 16; CONTENT BEGIN 4 : 0; END;");
+    }
+
+    @Test
+    public void valueWiderThanWidth() {
+        assertMalformed("DEPTH = 4; WIDTH = 8; CONTENT BEGIN 0 : 100; END;");
+    }
+
+    @Test
+    public void missingSemicolon() {
+        assertMalformed("DEPTH = 4; WIDTH = 16; CONTENT BEGIN 0 : 1\nEND;");
+    }
+
+    private void assertMalformed(String mif) {
+        try {
+            mifLoader.load(new StringReader(mif), new ArrayMemory(64));
+            fail("expected the MIF to be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
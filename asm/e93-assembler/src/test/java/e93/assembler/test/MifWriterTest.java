@@ -5,12 +5,17 @@ import e93.assembler.InstructionParser;
 import e93.assembler.MifWriter;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static e93.assembler.IOUtils.asString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class MifWriterTest {
     @Test
@@ -20,4 +25,54 @@ public class MifWriterTest {
         String expected = asString("/sample.mif");
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void channel() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(asString("/sample.asm")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MifWriter.write(instructions, Channels.newChannel(out));
+        assertEquals(asString("/sample.mif"), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void largeProgram() throws IOException {
+        // more than fits in the writer's buffer, up to the last word of memory
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(program(MifWriter.DEPTH)));
+        String actual = MifWriter.writeToString(instructions);
+        assertTrue(actual.contains("\n0000 : 2100; -- ADDI $r1, 0x0\n"));
+        assertTrue(actual.contains("\n00ff : 21ff; -- ADDI $r1, 0xff\n0100 : 2100; -- ADDI $r1, 0x0\n"));
+        assertTrue(actual.endsWith("\n3fff : 21ff; -- ADDI $r1, 0xff\n\nEND\n"));
+    }
+
+    @Test
+    public void programPastDepth() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(program(MifWriter.DEPTH + 1)));
+        try {
+            MifWriter.writeToString(instructions);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertEquals("program doesn't fit in the 16384 words of a MIF", e.getMessage());
+        }
+    }
+
+    @Test
+    public void spacePastDepth() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(
+                // .space is in bytes
+                "ADDI $r1, 0x1\n.space " + MifWriter.DEPTH * 2 + "\n"));
+        try {
+            MifWriter.writeToString(instructions);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertEquals("program doesn't fit in the 16384 words of a MIF", e.getMessage());
+        }
+    }
+
+    private static String program(int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append("ADDI $r1, 0x").append(Integer.toHexString(i & 0xff)).append('\n');
+        }
+        return sb.toString();
+    }
 }
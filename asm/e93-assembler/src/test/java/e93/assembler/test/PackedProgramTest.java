@@ -0,0 +1,70 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.MifWriter;
+import e93.assembler.OpCode;
+import e93.assembler.PackedProgram;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PackedProgramTest {
+
+    private static final String PROGRAM =
+            "# heading\n" +
+            "        AND $r5, $r0     -- r5 = 0\r\n" +
+            "        J start\n" +
+            "msg:    .asciiz \"hi -- there\"\n" +
+            "\n" +
+            "start:  ORI $r6, 0x64\n" +
+            "        ADDI $r5, 0x1\n" +
+            "        SW $r5, $r6\n" +
+            "        LW $r5, $r6\n" +
+            "done:   J done\n";
+
+    @Test
+    public void sameAsInstructionParser() throws IOException {
+        PackedProgram program = PackedProgram.parse(new StringReader(PROGRAM));
+        List<Instruction> expected = InstructionParser.parse(new StringReader(PROGRAM));
+
+        assertEquals(expected.size(), program.size());
+        assertEquals(expected, new ArrayList<>(program.asList()));
+        assertEquals(Assembler.sizeInWords(expected), program.sizeInWords());
+        assertArrayEquals(Assembler.encode(expected), program.encode());
+
+        assertEquals(OpCode.J, program.getOpcode(1));
+        assertEquals(0x10, program.getImmediate(1));
+        assertNull(program.getOpcode(3));
+        assertEquals(6, program.getLineNumber(5));
+        assertEquals("start:  ORI $r6, 0x64", program.getSourceLine(5));
+    }
+
+    @Test
+    public void sampleMif() throws IOException {
+        PackedProgram program = PackedProgram.parse(new StringReader(asString("/sample.asm")));
+        assertEquals(asString("/sample.mif"), MifWriter.writeToString(program.asList()));
+    }
+
+    @Test
+    public void errors() throws IOException {
+        String source = "J nowhere\nXOR $r1, $r2\nfoo:\nfoo: AND $r1, $r2\n";
+        PackedProgram program = PackedProgram.parse(new StringReader(source));
+        List<Instruction> expected = InstructionParser.parse(new StringReader(source));
+        assertEquals(3, program.getErrorCount());
+        assertTrue(program.isError(0));
+        assertTrue(program.isError(1));
+        assertTrue(program.isError(3));
+        assertEquals(expected, new ArrayList<>(program.asList()));
+    }
+}
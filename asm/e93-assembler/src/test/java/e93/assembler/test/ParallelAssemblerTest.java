@@ -0,0 +1,68 @@
+package e93.assembler.test;
+
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.MifWriter;
+import e93.assembler.ParallelAssembler;
+import e93.emulator.ArrayMemory;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.MifLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ParallelAssemblerTest {
+
+    private static final String[] LINES = {
+            "AND $r5, $r0   -- init r5 to 0",
+            "# a comment",
+            "ORI $r6, 0x64",
+            "",
+            "ADDI $r5, 0x1",
+            ".asciiz \"Hello World\"",
+            "SW $r5, $r6",
+            "   -- nothing but a comment",
+            "LW $r5, $r6",
+            "J 0x03",
+    };
+
+    @Test
+    public void sameAsSerial() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append(LINES[i % LINES.length]).append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        String source = sb.toString();
+
+        // tiny chunks so that there are lots of them
+        ParallelAssembler.Result result = new ParallelAssembler(ForkJoinPool.commonPool(), 64)
+                .assemble(new StringReader(source));
+
+        List<Instruction> expected = InstructionParser.parse(new StringReader(source));
+        assertEquals(expected, result.getInstructions());
+        assertEquals(0, result.getErrors().size());
+
+        MemorySubsystem memory = new ArrayMemory();
+        new MifLoader().load(new StringReader(MifWriter.writeToString(expected)), memory);
+        for (int i = 0; i < result.getImage().length; i++) {
+            assertEquals("word " + i, memory.readInt(i * 2), result.getImage()[i] & 0xffff);
+        }
+    }
+
+    @Test
+    public void reportsErrors() throws IOException {
+        String source = "AND $r1, $r2\nXOR $r1, $r2\nJ 0x1\nAND $r99, $r1\n";
+        ParallelAssembler.Result result = new ParallelAssembler(ForkJoinPool.commonPool(), 8)
+                .assemble(new StringReader(source));
+        assertNull(result.getImage());
+        assertEquals(2, result.getErrors().size());
+        assertEquals(2, result.getErrors().get(0).getLineNumber());
+        assertEquals(4, result.getErrors().get(1).getLineNumber());
+    }
+}
@@ -0,0 +1,161 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.PeepholeOptimizer;
+import e93.assembler.ast.Label;
+import e93.assembler.ast.Space;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PeepholeOptimizerTest {
+
+    private static final String PROGRAM =
+            "        AND $r1, $r0\n" +
+            "        AND $r2, $r0\n" +
+            "        AND $r1, $r0      -- cleared again\n" +
+            "        ORI $r2, 0x64\n" +
+            "        ADDI $r1, 0x0\n" +
+            "        ADDI $r1, 0x5\n" +
+            "        SW $r1, $r2       -- overwritten below\n" +
+            "        ADDI $r1, 0x1\n" +
+            "        SW $r1, $r2\n" +
+            "        LW $r3, $r2\n" +
+            "        SW $r3, $r2       -- same value\n" +
+            "        AND $r3, $r3\n" +
+            "        J next\n" +
+            "next:   ORI $r4, 0x0\n" +
+            "done:   J done\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void removesWhatDoesNothing() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(PROGRAM));
+        List<Instruction> original = new ArrayList<>(instructions);
+        PeepholeOptimizer.Result result = PeepholeOptimizer.optimize(instructions);
+
+        List<Integer> lines = new ArrayList<>();
+        List<String> reasons = new ArrayList<>();
+        for (PeepholeOptimizer.Change change : result.getChanges()) {
+            lines.add(change.getLineNumber());
+            reasons.add(change.getReason());
+        }
+        assertEquals(Arrays.asList(3, 5, 7, 11, 12, 13, 14), lines);
+        assertEquals(Arrays.asList(
+                "same as the AND on line 1",
+                "ADDI of 0 does nothing",
+                "overwritten by the store on line 9",
+                "stores the value that was just loaded from there",
+                "AND of a register with itself does nothing",
+                "jump to the next instruction",
+                "ORI of 0 does nothing"), reasons);
+        assertEquals(original, instructions);
+
+        // the jump to done is resolved again at its new address, byte 0xe
+        short[] image = Assembler.encode(result.getInstructions());
+        assertEquals(8, image.length);
+        assertEquals(0x6007, image[7]);
+
+        Emulator before = run(Assembler.encode(instructions));
+        Emulator after = run(image);
+        assertArrayEquals(before.getRegisters(), after.getRegisters());
+        assertEquals(6, after.getMemorySubsystem().readInt(0x64));
+        assertEquals(before.getMemorySubsystem().readInt(0x64), after.getMemorySubsystem().readInt(0x64));
+        assertTrue(after.getInstructionCount() < before.getInstructionCount());
+    }
+
+    @Test
+    public void dataKeepsItsAddress() throws IOException {
+        String program =
+                "        AND $r1, $r1\n" +
+                "        ORI $r2, 0x8      -- address of value\n" +
+                "        LW $r3, $r2\n" +
+                "done:   J done\n" +
+                "value:  .word 0x1234\n";
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(program));
+        PeepholeOptimizer.Result result = PeepholeOptimizer.optimize(instructions);
+        assertEquals(1, result.getChanges().size());
+
+        List<Instruction> optimized = result.getInstructions();
+        assertEquals(new Space(2), withoutSource(optimized.get(4)));
+        assertTrue(optimized.get(5) instanceof Label);
+        short[] image = Assembler.encode(optimized);
+        assertEquals(5, image.length);
+        assertEquals(0x1234, image[4]);
+        assertEquals(0x1234, run(image).getRegister(3));
+    }
+
+    @Test
+    public void numericJumpsAreLeftAlone() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader("ADDI $r1, 0x0\nJ 0x0\n"));
+        PeepholeOptimizer.Result result = PeepholeOptimizer.optimize(instructions);
+        assertSame(instructions, result.getInstructions());
+        assertTrue(result.getChanges().isEmpty());
+    }
+
+    @Test
+    public void labelsEndTheBlock() throws IOException {
+        String program =
+                "top:    AND $r1, $r0\n" +
+                "again:  AND $r1, $r0\n" +
+                "        SW $r1, $r2\n" +
+                "later:  SW $r1, $r2\n" +
+                "        J top\n";
+        PeepholeOptimizer.Result result = PeepholeOptimizer.optimize(
+                InstructionParser.parse(new StringReader(program)));
+        assertTrue(result.getChanges().isEmpty());
+    }
+
+    @Test
+    public void commandLine() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("p.asm"), PROGRAM.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = Assembler.run(dir, new String[] {"-O", "-f", "bin", "-o", "p.bin", "p.asm"},
+                new ByteArrayOutputStream(), new PrintStream(err, true, "UTF-8"));
+        assertEquals(0, status);
+        assertEquals(16, Files.size(dir.resolve("p.bin")));
+        String report = new String(err.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(report, report.startsWith("p.asm:3: removed, same as the AND on line 1"));
+    }
+
+    private static Emulator run(short[] image) {
+        MemorySubsystem memory = new ArrayMemory();
+        for (int i = 0; i < image.length; i++) {
+            memory.writeInt(i * 2, image[i] & 0xffff);
+        }
+        Emulator emulator = new Emulator(memory);
+        emulator.run(1000);
+        assertTrue(emulator.isHalted());
+        return emulator;
+    }
+
+    private static Instruction withoutSource(Instruction instruction) {
+        instruction.setLineNumber(0);
+        instruction.setSourceLine(null);
+        return instruction;
+    }
+}
@@ -0,0 +1,94 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.InstructionParser;
+import e93.assembler.ProgramImage;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.MifLoader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgramImageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameAsMif() throws IOException {
+        ProgramImage image = ProgramImage.assemble(new StringReader(asString("/sample.asm")));
+        assertTrue(image.getErrors().isEmpty());
+        assertEquals(0xd, image.sizeInWords());
+        assertEquals(0x1501, image.getWord(0));
+
+        MemorySubsystem expected = new ArrayMemory();
+        new MifLoader().load(new StringReader(asString("/sample.mif")), expected);
+        MemorySubsystem actual = new ArrayMemory();
+        assertEquals(0xd, image.loadInto(actual));
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+    }
+
+    @Test
+    public void sameAsEncode() throws IOException {
+        short[] words = Assembler.encode(InstructionParser.parse(new StringReader(asString("/sample.asm"))));
+        ProgramImage image = ProgramImage.of(words);
+        for (int i = 0; i < words.length; i++) {
+            assertEquals(words[i] & 0xffff, image.getWord(i));
+        }
+    }
+
+    @Test
+    public void assembleAndRun() {
+        MemoryFixture memory = new MemoryFixture();
+        ProgramImage.assemble(
+                "ORI $r6, 0x64\n" +
+                "loop: ADDI $r5, 0x1\n" +
+                "SW $r5, $r6\n" +
+                "J loop\n").loadInto(memory);
+        Emulator emulator = new Emulator(memory);
+        emulator.run(7);
+        assertEquals(2, emulator.getRegister(5));
+        assertEquals(2, memory.readInt(0x64));
+    }
+
+    @Test
+    public void errors() throws IOException {
+        ProgramImage image = ProgramImage.assemble(new StringReader("ADDI $r1, 0x1\nNOPE\nJ nowhere\n"));
+        assertEquals(2, image.getErrors().size());
+        assertEquals(2, image.getErrors().get(0).getLineNumber());
+        assertEquals(3, image.getErrors().get(1).getLineNumber());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cantLoadWithErrors() throws IOException {
+        ProgramImage.assemble(new StringReader("NOPE\n")).loadInto(new MemoryFixture());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sourceWithErrors() {
+        ProgramImage.assemble("NOPE\n");
+    }
+
+    @Test
+    public void emulatorLoadsSourceInAnotherCharset() throws IOException {
+        // an e with an acute accent in Latin-1, which isn't valid UTF-8
+        Path program = folder.getRoot().toPath().resolve("p.asm");
+        Files.write(program, "-- caf\u00e9\nORI $r1, 0x20\n".getBytes(StandardCharsets.ISO_8859_1));
+        MemorySubsystem memory = new ArrayMemory();
+        assertTrue(Emulator.load(program, memory).isEmpty());
+        assertEquals(0x3120, memory.readInt(0));
+    }
+}
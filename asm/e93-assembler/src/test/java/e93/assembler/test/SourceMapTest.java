@@ -0,0 +1,165 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.ProgramImage;
+import e93.assembler.SourceMap;
+import e93.assembler.SourceMapWriter;
+import e93.assembler.ast.Label;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.Profile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SourceMapTest {
+
+    private static final String PROGRAM =
+            "-- counts in $r5 and stores it\n" +
+            "start:  AND $r5, $r0\n" +
+            "        AND $r6, $r0\n" +
+            "        ORI $r6, 0x64\n" +
+            "\n" +
+            "loop:   ADDI $r5, 0x1\n" +
+            "        SW $r5, $r6\n" +
+            "        J loop\n" +
+            "msg:    .asciiz \"Hello World\"\n" +
+            "        .space 4\n" +
+            "end:    J end\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void linesAndLabels() throws IOException {
+        SourceMap sourceMap = write(PROGRAM);
+        assertEquals("program.asm", sourceMap.getSource());
+        int[] expected = {2, 3, 4, 6, 7, 8, 9, 9, 9, 9, 9, 9, 10, 10, 11};
+        assertEquals(expected.length, sourceMap.getWords());
+        for (int word = 0; word < expected.length; word++) {
+            assertEquals("word " + word, expected[word], sourceMap.line(word));
+        }
+        assertEquals(-1, sourceMap.line(expected.length));
+        assertEquals(-1, sourceMap.line(-1));
+
+        assertEquals(3, sourceMap.addressOf("loop"));
+        assertEquals(14, sourceMap.addressOf("end"));
+        assertEquals(-1, sourceMap.addressOf("nope"));
+        assertEquals(4, sourceMap.wordAddressOf(7));
+        assertEquals(-1, sourceMap.wordAddressOf(5));
+
+        assertEquals("program.asm:2 start", sourceMap.describe(0));
+        assertEquals("program.asm:7 loop+1", sourceMap.describe(4));
+        assertEquals("program.asm:9 msg+3", sourceMap.describe(9));
+    }
+
+    @Test
+    public void bigProgram() throws IOException {
+        // enough runs to need a lot of checkpoints, with lines that go
+        // backwards the way they do after the code has been laid out
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            if (i % 7 == 0) {
+                sb.append("-- comment\n");
+            } else if (i % 13 == 0) {
+                sb.append("l").append(i).append(": .asciiz \"abcdefg\"\n");
+            } else {
+                sb.append("ADDI $r1, 0x").append(Integer.toHexString(i & 0xff)).append('\n');
+            }
+        }
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(sb.toString()));
+        instructions.add(0, instructions.remove(instructions.size() - 1));
+        Path path = folder.newFile("big.dbg").toPath();
+        SourceMapWriter.write(instructions, "big.asm", path);
+        SourceMap sourceMap = SourceMap.open(path);
+
+        int word = 0;
+        int label = -1;
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof Label && ((Label) instruction).getName().equals("l2990")) {
+                label = word;
+            }
+            int end = word + Assembler.sizeInWords(instruction, word);
+            for (; word < end; word++) {
+                assertEquals("word " + word, instruction.getLineNumber(), sourceMap.line(word));
+            }
+        }
+        assertEquals(word, sourceMap.getWords());
+        assertEquals(label, sourceMap.addressOf("l2990"));
+    }
+
+    @Test
+    public void straightLineCodeIsSmall() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("AND $r1, $r2\n");
+        }
+        write(sb.toString());
+        Path path = folder.getRoot().toPath().resolve("program.dbg");
+        assertTrue(Files.size(path) + " bytes", Files.size(path) < 64);
+    }
+
+    @Test
+    public void notASourceMap() throws IOException {
+        Path path = folder.newFile("program.dbg").toPath();
+        Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        try {
+            SourceMap.open(path);
+            fail();
+        } catch (IOException e) {
+            assertEquals("not an e93 source map:" + path, e.getMessage());
+        }
+    }
+
+    @Test
+    public void assemblerWritesTheSidecar() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Files.write(dir.resolve("p.asm"), PROGRAM.getBytes("UTF-8"));
+        int status = Assembler.run(dir, new String[] {"-g", "-f", "bin", "-o", "p.bin", "p.asm"},
+                new ByteArrayOutputStream(), new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+        assertEquals(0, status);
+        assertEquals(dir.resolve("p.dbg"), SourceMap.sidecar(dir.resolve("p.bin")));
+        SourceMap sourceMap = SourceMap.find(dir.resolve("p.bin"));
+        assertEquals("p.asm:6 loop", sourceMap.describe(3));
+        assertNull(SourceMap.find(dir.resolve("other.bin")));
+    }
+
+    @Test
+    public void hotLines() throws IOException {
+        SourceMap sourceMap = write(PROGRAM);
+        MemorySubsystem memory = new ArrayMemory();
+        ProgramImage.assemble(PROGRAM).loadInto(memory);
+        Emulator emulator = new Emulator(memory);
+        Profile profile = new Profile();
+        emulator.setProfile(profile);
+        emulator.run(303);
+
+        StringWriter sw = new StringWriter();
+        profile.writeHotLines(sourceMap, 2, sw);
+        assertEquals(String.format("%12d  program.asm:6 loop%n%12d  program.asm:7 loop+1%n", 100, 100),
+                sw.toString());
+    }
+
+    private SourceMap write(String source) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("program.dbg");
+        SourceMapWriter.write(InstructionParser.parse(new StringReader(source)), "program.asm", path);
+        return SourceMap.open(path);
+    }
+}
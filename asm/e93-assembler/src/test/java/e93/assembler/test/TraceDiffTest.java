@@ -0,0 +1,135 @@
+package e93.assembler.test;
+
+import e93.assembler.InstructionParser;
+import e93.emulator.Emulator;
+import e93.emulator.trace.SimulationLog;
+import e93.emulator.trace.TraceDiff;
+import e93.emulator.trace.TraceReader;
+import e93.emulator.trace.TraceWriter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TraceDiffTest {
+
+    private static final int LATENCY = 2;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path trace;
+    private final List<int[]> records = new ArrayList<>();
+
+    @Before
+    public void runEmulator() throws IOException {
+        MemoryFixture memory = new MemoryFixture();
+        MemoryFixture.writeInstructions(memory,
+                InstructionParser.parse("AND $r5, $r0"),
+                InstructionParser.parse("AND $r6, $r0"),
+                InstructionParser.parse("ORI $r6, 0x64"),
+                InstructionParser.parse("ADDI $r5, 0x1"),
+                InstructionParser.parse("SW $r5, $r6"),
+                InstructionParser.parse("LW $r5, $r6"),
+                InstructionParser.parse("J 0x03"));
+
+        trace = temporaryFolder.newFile("trace.bin").toPath();
+        Emulator emulator = new Emulator(memory);
+        try (TraceWriter traceWriter = new TraceWriter(trace, true)) {
+            emulator.setTraceWriter(traceWriter);
+            emulator.run(100);
+        }
+
+        try (TraceReader reader = new TraceReader(trace)) {
+            while (reader.next()) {
+                records.add(new int[]{reader.getPc(), reader.getTarget(), reader.getValue()});
+            }
+        }
+    }
+
+    @Test
+    public void agreesWithPipelinedSimulation() throws IOException {
+        Path log = simulationLog(-1, 0);
+        TraceDiff diff = new TraceDiff(LATENCY, 4);
+        try (SimulationLog simulation = new SimulationLog(log);
+             TraceReader emulator = new TraceReader(trace)) {
+            assertNull(diff.compare(simulation, emulator));
+        }
+        // 3 setup instructions then a loop of 4 with 2 register writes
+        assertEquals(52, diff.getCompared());
+    }
+
+    @Test
+    public void reportsFirstWrongValue() throws IOException {
+        // the 12th instruction is the third ADDI $r5
+        Path log = simulationLog(11, 0x7);
+        TraceDiff diff = new TraceDiff(LATENCY, 4);
+        TraceDiff.Divergence divergence;
+        try (SimulationLog simulation = new SimulationLog(log);
+             TraceReader emulator = new TraceReader(trace)) {
+            divergence = diff.compare(simulation, emulator);
+        }
+        assertNotNull(divergence);
+        assertEquals("different value written", divergence.getReason());
+        assertEquals(12, divergence.getInstructionCount());
+        // 4 lines of context plus the emulator and simulator lines
+        assertEquals(6, divergence.getContext().size());
+    }
+
+    @Test
+    public void reportsTruncatedSimulation() throws IOException {
+        Path log = temporaryFolder.newFile("short.log").toPath();
+        Files.write(log, "# cycle pc reg value\n0 0000 - -\n1 0002 5 0x0\n".getBytes());
+        TraceDiff diff = new TraceDiff(LATENCY, 4);
+        try (SimulationLog simulation = new SimulationLog(log);
+             TraceReader emulator = new TraceReader(trace)) {
+            TraceDiff.Divergence divergence = diff.compare(simulation, emulator);
+            assertNotNull(divergence);
+            assertEquals("simulation log ended before the emulator trace", divergence.getReason());
+        }
+    }
+
+    /**
+     * Writes a log for a CPU that writes back LATENCY cycles after fetching
+     * and stalls for a cycle on every memory access.
+     */
+    private Path simulationLog(int corruptIndex, int corruptValue) throws IOException {
+        Path log = temporaryFolder.newFile().toPath();
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(log))) {
+            pw.println("# cycle pc reg value");
+            // the instruction fetched in each cycle, -1 for a stall
+            List<Integer> fetched = new ArrayList<>();
+            for (int i = 0; i < records.size(); i++) {
+                fetched.add(i);
+                if (records.get(i)[1] == TraceWriter.MEMORY) {
+                    fetched.add(-1);
+                }
+            }
+            int pc = 0;
+            for (int cycle = 0; cycle < fetched.size() + LATENCY; cycle++) {
+                if (cycle < fetched.size() && fetched.get(cycle) >= 0) {
+                    pc = records.get(fetched.get(cycle))[0];
+                }
+                int retiring = cycle >= LATENCY ? fetched.get(cycle - LATENCY) : -1;
+                if (retiring < 0 || records.get(retiring)[1] < 0 || records.get(retiring)[1] == TraceWriter.MEMORY) {
+                    pw.printf("%d %04x - -%n", cycle, pc);
+                } else {
+                    int value = retiring == corruptIndex ? corruptValue : records.get(retiring)[2];
+                    pw.printf("%d 0x%04x %d %x%n", cycle, pc, records.get(retiring)[1], value);
+                }
+            }
+        }
+        return log;
+    }
+}
@@ -0,0 +1,131 @@
+package e93.assembler.test;
+
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.SourceMap;
+import e93.assembler.SourceMapWriter;
+import e93.emulator.Emulator;
+import e93.emulator.trace.TraceReader;
+import e93.emulator.trace.TraceWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static e93.assembler.IOUtils.asString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void plainTrace() throws IOException {
+        assertTrace(false);
+    }
+
+    @Test
+    public void deltaTrace() throws IOException {
+        assertTrace(true);
+    }
+
+    @Test
+    public void deltaIsSmaller() throws IOException {
+        Path plain = runTraced(false, 1000, 4);
+        Path delta = runTraced(true, 1000, 4);
+        assertTrue("delta encoding should shrink the trace",
+                Files.size(delta) * 3 < Files.size(plain));
+    }
+
+    @Test
+    public void formatWithSource() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(asString("/sample.asm")));
+        String[] sourceByWord = TraceReader.sourceByWord(instructions);
+
+        StringBuilder sb = new StringBuilder();
+        try (TraceReader reader = new TraceReader(runTraced(true, 5, 1 << 10))) {
+            while (reader.next()) {
+                reader.format(sb, sourceByWord);
+            }
+        }
+        String[] lines = sb.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("4 0006: 2501  $r5  <- 0001    -- ADDI $r5, 0x1  -- increment r5", lines[3]);
+        assertEquals("5 0008: 4560  mem[0064] <- 0001    -- SW $r5, $r6    -- store r5 into memory[0x64]", lines[4]);
+    }
+
+    @Test
+    public void formatWithSourceMap() throws IOException {
+        Path sidecar = temporaryFolder.newFile("sample.dbg").toPath();
+        SourceMapWriter.write(InstructionParser.parse(new StringReader(asString("/sample.asm"))), "sample.asm", sidecar);
+        SourceMap sourceMap = SourceMap.open(sidecar);
+
+        StringBuilder sb = new StringBuilder();
+        try (TraceReader reader = new TraceReader(runTraced(true, 7, 1 << 10))) {
+            while (reader.next()) {
+                reader.format(sb, sourceMap);
+            }
+        }
+        String[] lines = sb.toString().split("\n");
+        assertEquals(7, lines.length);
+        assertEquals("4 0006: 2501  $r5  <- 0001    -- sample.asm:4", lines[3]);
+        assertEquals("7 000c: 6003    -- sample.asm:7", lines[6]);
+    }
+
+    private void assertTrace(boolean delta) throws IOException {
+        // small ring buffer so that the emulator has to wait on the drain thread
+        Path path = runTraced(delta, 10, 4);
+
+        try (TraceReader reader = new TraceReader(path)) {
+            for (int i = 1; i <= 10; i++) {
+                assertTrue(reader.next());
+                assertEquals(i, reader.getCount());
+                if (i == 7) {
+                    assertEquals(0xc, reader.getPc());
+                    assertEquals(0x6003, reader.getWord());
+                    assertEquals(TraceWriter.NONE, reader.getTarget());
+                }
+                if (i == 9) {
+                    assertEquals(0x8, reader.getPc());
+                    assertEquals(TraceWriter.MEMORY, reader.getTarget());
+                    assertEquals(0x64, reader.getAddress());
+                    assertEquals(2, reader.getValue());
+                }
+                if (i == 10) {
+                    assertEquals(0xa, reader.getPc());
+                    assertEquals(5, reader.getTarget());
+                    assertEquals(2, reader.getValue());
+                }
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    private Path runTraced(boolean delta, int instructions, int capacity) throws IOException {
+        MemoryFixture memory = new MemoryFixture();
+        MemoryFixture.writeInstructions(memory,
+                InstructionParser.parse("AND $r5, $r0"),
+                InstructionParser.parse("AND $r6, $r0"),
+                InstructionParser.parse("ORI $r6, 0x64"),
+                InstructionParser.parse("ADDI $r5, 0x1"),
+                InstructionParser.parse("SW $r5, $r6"),
+                InstructionParser.parse("LW $r5, $r6"),
+                InstructionParser.parse("J 0x03"));
+
+        Path path = temporaryFolder.newFile().toPath();
+        Emulator emulator = new Emulator(memory);
+        try (TraceWriter traceWriter = new TraceWriter(path, delta, capacity)) {
+            emulator.setTraceWriter(traceWriter);
+            emulator.run(instructions);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,129 @@
+package e93.assembler.test;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.OpCode;
+import e93.assembler.ProgramImage;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.MemorySubsystem;
+import e93.emulator.WcetAnalyzer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WcetAnalyzerTest {
+
+    private static final String REFRESH =
+            "        AND $r1, $r0\n" +
+            "        ORI $r2, 0x20\n" +
+            "        J refresh\n" +
+            "update: ADDI $r1, 0x1\n" +
+            "        SW $r1, $r2\n" +
+            "        J refresh\n" +
+            "refresh: LW $r3, $r2   -- @bound 100\n" +
+            "        ADDI $r3, 0x1\n" +
+            "        J update\n";
+
+    @Test
+    public void halts() throws IOException {
+        String program =
+                "        AND $r1, $r0\n" +
+                "        J skip\n" +
+                "        ADDI $r1, 0x7\n" +
+                "skip:   LW $r2, $r1\n" +
+                "        SW $r2, $r1\n" +
+                "done:   J done\n";
+        short[] image = Assembler.encode(InstructionParser.parse(new StringReader(program)));
+        WcetAnalyzer.Result result = new WcetAnalyzer().analyze(image, Collections.emptyMap());
+        assertEquals(WcetAnalyzer.Ending.HALT, result.getEnding());
+        assertEquals(5, result.getAddress());
+        assertNull(result.getLoop());
+        assertEquals(2, result.getPath().size());
+        assertEquals(3, result.getPath().get(0).getNext());
+        assertEquals(4 + 3 + 5 + 4 + 3, result.getCycles());
+
+        // the same count as running it
+        MemorySubsystem memory = new ArrayMemory();
+        ProgramImage.of(image).loadInto(memory);
+        Emulator emulator = new Emulator(memory);
+        emulator.run(100);
+        assertTrue(emulator.isHalted());
+        assertEquals(emulator.getInstructionCount(), result.getInstructions());
+    }
+
+    @Test
+    public void boundedLoop() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(REFRESH));
+        Map<Integer, Long> bounds = WcetAnalyzer.bounds(instructions);
+        assertEquals(Collections.singletonMap(6, 100L), bounds);
+
+        WcetAnalyzer.Result result = new WcetAnalyzer().analyze(Assembler.encode(instructions), bounds);
+        assertEquals(WcetAnalyzer.Ending.LOOP, result.getEnding());
+        WcetAnalyzer.Loop loop = result.getLoop();
+        assertEquals(6, loop.getHead());
+        assertEquals(6, loop.getInstructionsPerIteration());
+        assertEquals(5 + 4 + 3 + 4 + 4 + 3, loop.getCyclesPerIteration());
+        assertEquals(100, loop.getBound());
+        // into the loop, then 100 times around
+        assertEquals(3 + 100 * 6, result.getInstructions());
+        assertEquals(11 + 100 * 23, result.getCycles());
+
+        WcetAnalyzer slowMemory = new WcetAnalyzer().setCycles(OpCode.LW, 10).setCycles(OpCode.SW, 10);
+        assertEquals(11 + 100 * 34, slowMemory.analyze(Assembler.encode(instructions), bounds).getCycles());
+    }
+
+    @Test
+    public void loopWithoutABound() throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(REFRESH.replace("@bound 100", "")));
+        WcetAnalyzer.Result result = new WcetAnalyzer().analyze(Assembler.encode(instructions),
+                WcetAnalyzer.bounds(instructions));
+        assertEquals(-1, result.getLoop().getBound());
+        assertEquals(23, result.getLoop().getCyclesPerIteration());
+        assertEquals(-1, result.getInstructions());
+        assertEquals(-1, result.getCycles());
+    }
+
+    @Test
+    public void runsIntoData() throws IOException {
+        short[] image = Assembler.encode(InstructionParser.parse(new StringReader(
+                "        ADDI $r1, 0x1\n" +
+                "        J data\n" +
+                "data:   .word 0\n")));
+        WcetAnalyzer.Result result = new WcetAnalyzer().analyze(image, Collections.emptyMap());
+        assertEquals(WcetAnalyzer.Ending.INVALID, result.getEnding());
+        assertEquals(2, result.getAddress());
+        assertEquals(2, result.getInstructions());
+
+        result = new WcetAnalyzer().analyze(new short[] {0x2101}, Collections.emptyMap());
+        assertEquals(WcetAnalyzer.Ending.INVALID, result.getEnding());
+        assertEquals(1, result.getAddress());
+    }
+
+    @Test
+    public void largeImage() {
+        // a page of straight line code, jumping to the next page, all the way up to a halt
+        short[] image = new short[16384];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = 0x2101;
+        }
+        for (int page = 0; page < image.length / 256; page++) {
+            image[page * 256 + 255] = (short) 0x6000;
+        }
+        // a jump can't stay on its page from the last word, so halt one before it
+        image[image.length - 2] = (short) 0x60fe;
+        WcetAnalyzer.Result result = new WcetAnalyzer().analyze(image, Collections.emptyMap());
+        assertEquals(WcetAnalyzer.Ending.HALT, result.getEnding());
+        assertEquals(image.length - 1, result.getInstructions());
+        assertEquals(64, result.getPath().size());
+    }
+}
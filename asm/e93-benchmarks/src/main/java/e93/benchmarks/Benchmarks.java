@@ -0,0 +1,41 @@
+package e93.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with JMH's command line, which it takes all of, but
+ * writes the results as JSON to {@value #RESULTS} unless {@code -rf} or
+ * {@code -rff} say otherwise. Keeping that file for each version makes it
+ * easy to compare them.
+ */
+public class Benchmarks {
+
+    static final String RESULTS = "e93-benchmarks.json";
+
+    /**
+     * Options that only print something, which are left to JMH
+     */
+    private static final List<String> INFO = Arrays.asList("-h", "-l", "-lp", "-lprof", "-lrf");
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            if (INFO.contains(arg)) {
+                org.openjdk.jmh.Main.main(args);
+                return;
+            }
+        }
+        CommandLineOptions options = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (!options.getResult().hasValue() && !options.getResultFormat().hasValue()) {
+            builder.result(RESULTS).resultFormat(ResultFormatType.JSON);
+        }
+        new Runner(builder.build()).run();
+    }
+}
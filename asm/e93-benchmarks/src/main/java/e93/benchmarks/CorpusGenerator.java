@@ -0,0 +1,245 @@
+package e93.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Makes assembly sources of any size for the benchmarks. The same style,
+ * number of lines and seed always make the same source, so results from
+ * different versions of the assembler are measured on the same input.
+ *
+ * A {@link Style#REALISTIC} source looks like a program someone wrote: blocks
+ * under a label that end in a jump, indented instructions, comments on their
+ * own lines and after instructions, blank lines and the odd {@code .asciiz}
+ * or {@code .word}. Every jump stays within its 512 byte page so the whole
+ * thing assembles without errors at any size that fits in memory.
+ *
+ * A {@link Style#SYNTHETIC} source is one instruction per line with no labels
+ * or comments, the least the parser can be asked to do per line.
+ */
+public class CorpusGenerator {
+
+    public enum Style {
+        REALISTIC,
+        SYNTHETIC
+    }
+
+    /**
+     * Same as the assembler's, a jump can only reach the page of the word
+     * after it
+     */
+    private static final int PAGE_MASK = 0xff << 9;
+
+    private static final String[] WORDS = {
+            "init", "count", "the", "loop", "value", "store", "load", "next", "clear", "mask", "r5", "memory"
+    };
+
+    private final Random random;
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(80);
+    private int lines;
+
+    /**
+     * Word address of the next word and of the label of the current block
+     */
+    private int words;
+    private int blockStart;
+    private int blocks;
+
+    private CorpusGenerator(long seed, Writer out) {
+        this.random = new Random(seed);
+        this.out = out;
+    }
+
+    public static String generate(Style style, int lines, long seed) {
+        StringWriter sw = new StringWriter(lines * 24);
+        try {
+            write(style, lines, seed, sw);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return sw.toString();
+    }
+
+    /**
+     * Writes exactly the given number of lines. The writer is flushed but
+     * not closed.
+     */
+    public static void write(Style style, int lines, long seed, Writer out) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator(seed, out);
+        if (style == Style.REALISTIC) {
+            generator.realistic(lines);
+        } else {
+            generator.synthetic(lines);
+        }
+        out.flush();
+    }
+
+    private void synthetic(int count) throws IOException {
+        while (lines < count) {
+            int r1 = random.nextInt(16);
+            int r2 = random.nextInt(16);
+            switch (lines % 64 == 63 ? 5 : random.nextInt(5)) {
+                case 0:
+                    line.append("AND $r").append(r1).append(", $r").append(r2);
+                    break;
+                case 1:
+                    line.append("ADDI $r").append(r1).append(", 0x").append(Integer.toHexString(random.nextInt(0x100)));
+                    break;
+                case 2:
+                    line.append("ORI $r").append(r1).append(", 0x").append(Integer.toHexString(random.nextInt(0x100)));
+                    break;
+                case 3:
+                    line.append("SW $r").append(r1).append(", $r").append(r2);
+                    break;
+                case 4:
+                    line.append("LW $r").append(r1).append(", $r").append(r2);
+                    break;
+                default:
+                    line.append("J 0x").append(Integer.toHexString(random.nextInt(0x100)));
+            }
+            emit(1);
+        }
+    }
+
+    private void realistic(int count) throws IOException {
+        startBlock();
+        while (lines < count) {
+            int roll = random.nextInt(100);
+            if (lines == count - 1 || roll < 6) {
+                endBlock();
+                if (lines < count - 1) {
+                    if (random.nextInt(3) == 0) {
+                        emit(0);
+                    }
+                    startBlock();
+                }
+            } else if (roll < 16) {
+                line.append("        -- ");
+                words(2 + random.nextInt(5));
+                emit(0);
+            } else if (roll < 18) {
+                emit(0);
+            } else if (roll < 20) {
+                line.append("msg").append(lines).append(":  .asciiz \"");
+                int length = 1 + random.nextInt(24);
+                for (int i = 0; i < length; i++) {
+                    line.append((char) ('a' + random.nextInt(26)));
+                }
+                line.append('"');
+                emit(length / 2 + 1);
+            } else if (roll < 22) {
+                line.append("        .word 0x").append(Integer.toHexString(random.nextInt(0x10000)))
+                        .append(", ").append(random.nextInt(1000));
+                emit(2);
+            } else {
+                instruction();
+                if (random.nextInt(10) < 3) {
+                    pad(32);
+                    line.append("-- ");
+                    words(1 + random.nextInt(4));
+                }
+                emit(1);
+            }
+        }
+    }
+
+    private void instruction() {
+        int r1 = 1 + random.nextInt(15);
+        int r2 = random.nextInt(16);
+        line.append("        ");
+        switch (random.nextInt(5)) {
+            case 0:
+                line.append("AND $r").append(r1).append(", $r").append(r2);
+                break;
+            case 1:
+                line.append("ADDI $r").append(r1).append(", 0x").append(Integer.toHexString(random.nextInt(0x100)));
+                break;
+            case 2:
+                line.append("ORI $r").append(r1).append(", 0x").append(Integer.toHexString(random.nextInt(0x100)));
+                break;
+            case 3:
+                line.append("SW $r").append(r1).append(", $r").append(r2);
+                break;
+            default:
+                line.append("LW $r").append(r1).append(", $r").append(r2);
+        }
+    }
+
+    private void startBlock() throws IOException {
+        blocks++;
+        blockStart = words;
+        line.append("block").append(blocks).append(':');
+        emit(0);
+    }
+
+    /**
+     * Jumps back to the start of the block when it's in the same page,
+     * otherwise on to the next block, which is always in the page of the
+     * word after the jump.
+     */
+    private void endBlock() throws IOException {
+        boolean samePage = (blockStart * 2 & PAGE_MASK) == ((words * 2 + 2) & PAGE_MASK);
+        line.append("        J block").append(samePage ? blocks : blocks + 1);
+        emit(1);
+    }
+
+    private void words(int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+
+    private void pad(int column) {
+        do {
+            line.append(' ');
+        } while (line.length() < column);
+    }
+
+    /**
+     * Writes the line and counts the words it assembles to.
+     */
+    private void emit(int size) throws IOException {
+        line.append('\n');
+        out.append(line);
+        line.setLength(0);
+        lines++;
+        words += size;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Style style = Style.REALISTIC;
+        int lines = 1_000_000;
+        long seed = 93;
+        String output = null;
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("-s".equals(args[i]) && i + 1 < args.length) {
+                style = Style.valueOf(args[++i].toUpperCase());
+            } else if ("-n".equals(args[i]) && i + 1 < args.length) {
+                lines = Integer.parseInt(args[++i]);
+            } else if ("-seed".equals(args[i]) && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else {
+                System.err.println("usage: CorpusGenerator [-s realistic|synthetic] [-n lines] [-seed seed] [-o output-file]");
+                return;
+            }
+        }
+        try (Writer writer = output == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)
+                : Files.newBufferedWriter(Paths.get(output))) {
+            write(style, lines, seed, writer);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package e93.benchmarks;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a parsed program into an image and decodes words back into
+ * instructions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EncodeBenchmark {
+
+    /**
+     * Number of words in the decode benchmark, all of them valid instructions
+     */
+    private static final int DECODED = 4096;
+
+    @Param({"REALISTIC", "SYNTHETIC"})
+    public CorpusGenerator.Style style;
+
+    @Param({"10000"})
+    public int lines;
+
+    private List<Instruction> instructions;
+    private int[] words;
+
+    @Setup
+    public void setUp() throws IOException {
+        instructions = InstructionParser.parse(new StringReader(CorpusGenerator.generate(style, lines, 93)));
+        // the instructions in the image, skipping the data that doesn't decode
+        short[] image = Assembler.encode(instructions);
+        words = new int[DECODED];
+        int count = 0;
+        for (int i = 0; count < DECODED; i = (i + 1) % image.length) {
+            try {
+                Assembler.decode(image[i] & 0xffff);
+                words[count++] = image[i] & 0xffff;
+            } catch (RuntimeException e) {
+                // data
+            }
+        }
+    }
+
+    @Benchmark
+    public short[] encode() {
+        return Assembler.encode(instructions);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DECODED)
+    public void decode(Blackhole blackhole) {
+        for (int word : words) {
+            blackhole.consume(Assembler.decode(word));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package e93.benchmarks;
+
+import e93.assembler.ProgramImage;
+import e93.emulator.ArrayMemory;
+import e93.emulator.Emulator;
+import e93.emulator.FastInterpreter;
+import e93.emulator.MemorySubsystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a loop that never halts, with every opcode in it, through the
+ * {@link Emulator}, which decodes each word into an instruction and visits
+ * it, and through the {@link FastInterpreter}, which switches on the word.
+ * The score is the time per instruction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InterpreterBenchmark {
+
+    private static final int STEPS = 100_000;
+
+    private static final String PROGRAM =
+            "        AND $r5, $r0\n" +
+            "        AND $r6, $r0\n" +
+            "        ORI $r6, 0x64\n" +
+            "loop:   ADDI $r5, 0x1\n" +
+            "        SW $r5, $r6\n" +
+            "        LW $r7, $r6\n" +
+            "        AND $r7, $r5\n" +
+            "        J loop\n";
+
+    private Emulator emulator;
+    private FastInterpreter interpreter;
+
+    @Setup
+    public void setUp() {
+        ProgramImage image = ProgramImage.assemble(PROGRAM);
+        MemorySubsystem memory = new ArrayMemory();
+        image.loadInto(memory);
+        emulator = new Emulator(memory);
+        interpreter = new FastInterpreter(memory.copy(), new int[16]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public long emulator() {
+        return emulator.run(STEPS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public long fastInterpreter() {
+        return interpreter.run(STEPS);
+    }
+}
@@ -0,0 +1,119 @@
+package e93.benchmarks;
+
+import e93.emulator.ArrayMemory;
+import e93.emulator.MemorySubsystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes the whole of memory a word at a time and in bulk.
+ *
+ * {@code array} is the {@link ArrayMemory} the emulator runs on. {@code word}
+ * is the same memory behind only {@code readInt} and {@code writeInt}, so
+ * the bulk copies fall back to the interface's word at a time defaults, like
+ * they would for a backend that doesn't override them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MemoryBenchmark {
+
+    private static final int WORDS = ArrayMemory.DEFAULT_SIZE / 2;
+
+    @Param({"array", "word"})
+    public String backend;
+
+    private MemorySubsystem memory;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        ArrayMemory array = new ArrayMemory();
+        memory = "array".equals(backend) ? array : new WordMemory(array);
+        bytes = new byte[ArrayMemory.DEFAULT_SIZE];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        memory.writeBytes(0, bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public int readInt() {
+        int sum = 0;
+        for (int address = 0; address < ArrayMemory.DEFAULT_SIZE; address += 2) {
+            sum += memory.readInt(address);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public void writeInt() {
+        for (int address = 0; address < ArrayMemory.DEFAULT_SIZE; address += 2) {
+            memory.writeInt(address, address);
+        }
+    }
+
+    @Benchmark
+    public byte[] readBytes() {
+        memory.readBytes(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    @Benchmark
+    public void writeBytes() {
+        memory.writeBytes(0, bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public MemorySubsystem copy() {
+        return memory.copy();
+    }
+
+    /**
+     * Passes the word operations through and inherits everything else
+     */
+    private static class WordMemory implements MemorySubsystem {
+        private final MemorySubsystem memory;
+
+        WordMemory(MemorySubsystem memory) {
+            this.memory = memory;
+        }
+
+        @Override
+        public void writeInt(int address, int value) {
+            memory.writeInt(address, value);
+        }
+
+        @Override
+        public int readInt(int address) {
+            return memory.readInt(address);
+        }
+
+        @Override
+        public MemorySubsystem copy() {
+            return new WordMemory(memory.copy());
+        }
+
+        @Override
+        public byte[] toBytes() {
+            return memory.toBytes();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package e93.benchmarks;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.MifWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a program as a MIF, from the parsed instructions with their source
+ * in the comments and from an encoded image, to a writer that only counts
+ * the characters so the time is all in the formatting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MifWriterBenchmark {
+
+    @Param({"REALISTIC", "SYNTHETIC"})
+    public CorpusGenerator.Style style;
+
+    @Param({"10000"})
+    public int lines;
+
+    private List<Instruction> instructions;
+    private short[] image;
+    private CountingWriter out;
+
+    @Setup
+    public void setUp() throws IOException {
+        instructions = InstructionParser.parse(new StringReader(CorpusGenerator.generate(style, lines, 93)));
+        image = Assembler.encode(instructions);
+        out = new CountingWriter();
+    }
+
+    @Benchmark
+    public long instructions() throws IOException {
+        MifWriter.write(instructions, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long image() throws IOException {
+        MifWriter.write(image, out);
+        return out.count;
+    }
+
+    private static class CountingWriter extends Writer {
+        private long count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package e93.benchmarks;
+
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a generated source, labels and all, the way the assembler does
+ * before it encodes anything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class ParserBenchmark {
+
+    @Param({"REALISTIC", "SYNTHETIC"})
+    public CorpusGenerator.Style style;
+
+    @Param({"10000", "1000000"})
+    public int lines;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = CorpusGenerator.generate(style, lines, 93);
+    }
+
+    @Benchmark
+    public List<Instruction> parse() throws IOException {
+        return InstructionParser.parse(new StringReader(source));
+    }
+}
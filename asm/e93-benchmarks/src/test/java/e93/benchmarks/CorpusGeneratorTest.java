@@ -0,0 +1,74 @@
+package e93.benchmarks;
+
+import e93.assembler.Assembler;
+import e93.assembler.Instruction;
+import e93.assembler.InstructionParser;
+import e93.assembler.ast.ErrorLine;
+import e93.assembler.ast.JumpImmediate;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CorpusGeneratorTest {
+
+    @Test
+    public void realisticAssembles() throws IOException {
+        // big enough to go through every page of memory and wrap around
+        String source = CorpusGenerator.generate(CorpusGenerator.Style.REALISTIC, 200_000, 1);
+        assertEquals(200_000, lines(source));
+        assertTrue(source.contains("--"));
+        assertTrue(source.contains(".asciiz"));
+        assertTrue(source.contains("\n\n"));
+        List<Instruction> instructions = parse(source);
+        assertTrue(Assembler.sizeInWords(instructions) > 0x10000);
+        Assembler.encode(instructions);
+    }
+
+    @Test
+    public void synthetic() throws IOException {
+        String source = CorpusGenerator.generate(CorpusGenerator.Style.SYNTHETIC, 20_000, 1);
+        assertEquals(20_000, lines(source));
+        assertFalse(source.contains(":"));
+        assertFalse(source.contains("--"));
+        List<Instruction> instructions = parse(source);
+        assertEquals(20_000, instructions.size());
+        long jumps = instructions.stream().filter(i -> i instanceof JumpImmediate).count();
+        assertTrue(jumps >= 20_000 / 64);
+    }
+
+    @Test
+    public void sameSeedSameSource() {
+        for (CorpusGenerator.Style style : CorpusGenerator.Style.values()) {
+            assertEquals(CorpusGenerator.generate(style, 5000, 93), CorpusGenerator.generate(style, 5000, 93));
+            assertNotEquals(CorpusGenerator.generate(style, 5000, 93), CorpusGenerator.generate(style, 5000, 94));
+        }
+    }
+
+    private static List<Instruction> parse(String source) throws IOException {
+        List<Instruction> instructions = InstructionParser.parse(new StringReader(source));
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof ErrorLine) {
+                throw new AssertionError("line " + instruction.getLineNumber() + ": "
+                        + ((ErrorLine) instruction).getErrorMessage() + "\n" + instruction.getSourceLine());
+            }
+        }
+        return instructions;
+    }
+
+    private static int lines(String source) {
+        int lines = 0;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}